@@ -0,0 +1,37 @@
+package serp.benchmarks;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of the benchmark jar. Accepts the standard JMH command line
+ * options, and always adds the GC profiler so that allocation rates per
+ * operation are reported alongside the timings.
+ */
+public class BenchmarkRunner {
+    public static void main(String[] args)
+        throws CommandLineOptionException, RunnerException, IOException {
+        CommandLineOptions cmd = new CommandLineOptions(args);
+        if (cmd.shouldHelp()) {
+            cmd.showHelp();
+            return;
+        }
+        if (cmd.shouldList()) {
+            new Runner(cmd).list();
+            return;
+        }
+
+        Options opts = new OptionsBuilder().
+            parent(cmd).
+            addProfiler(GCProfiler.class).
+            build();
+        new Runner(opts).run();
+    }
+}
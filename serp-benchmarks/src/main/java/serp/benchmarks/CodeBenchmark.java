@@ -0,0 +1,77 @@
+package serp.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import serp.bytecode.Code;
+import serp.bytecode.Instruction;
+import serp.bytecode.Project;
+
+/**
+ * Measures iteration, editing and stack calculation over the largest code
+ * block of each class of the {@link Corpus}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodeBenchmark {
+    @Param({ "small", "medium", "large", "huge" })
+    public String corpus;
+
+    private Code _code;
+    private Instruction _middle;
+
+    @Setup
+    public void setup() {
+        _code = Corpus.getLargestCode(new Project().loadClass(Corpus.
+            getBytes(corpus)));
+        Instruction[] insns = _code.getInstructions();
+        _middle = insns[insns.length / 2];
+    }
+
+    /**
+     * Walk every instruction through the code block's iterator.
+     */
+    @Benchmark
+    public int iterate() {
+        int sum = 0;
+        _code.beforeFirst();
+        while (_code.hasNext())
+            sum += _code.next().getOpcode();
+        return sum;
+    }
+
+    /**
+     * Insert an instruction in the middle of the code and remove it again,
+     * then take the byte index of the last instruction, which forces the
+     * indexes invalidated by the edits to be recalculated.
+     */
+    @Benchmark
+    public int insertAndRemove() {
+        _code.after(_middle);
+        _code.nop();
+        _code.remove();
+        _code.afterLast();
+        return _code.previous().getByteIndex();
+    }
+
+    @Benchmark
+    public int calculateMaxStack() {
+        _code.calculateMaxStack();
+        return _code.getMaxStack();
+    }
+}
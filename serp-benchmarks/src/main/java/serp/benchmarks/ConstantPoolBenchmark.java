@@ -0,0 +1,114 @@
+package serp.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import serp.bytecode.Project;
+import serp.bytecode.lowlevel.ClassEntry;
+import serp.bytecode.lowlevel.ConstantPool;
+import serp.bytecode.lowlevel.Entry;
+import serp.bytecode.lowlevel.IntEntry;
+import serp.bytecode.lowlevel.MethodEntry;
+import serp.bytecode.lowlevel.NameAndTypeEntry;
+import serp.bytecode.lowlevel.UTF8Entry;
+
+/**
+ * Measures the <code>find*Entry</code> lookups of {@link ConstantPool}.
+ * Each benchmark looks up every entry of its kind that the pool holds, so
+ * all lookups hit; scores are per full pass over the pool.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConstantPoolBenchmark {
+    @Param({ "small", "medium", "large", "huge" })
+    public String corpus;
+
+    private ConstantPool _pool;
+    private String[] _utf8s;
+    private String[] _classes;
+    private String[] _methods; // owner, name, desc triples
+    private int[] _ints;
+
+    @Setup
+    public void setup() {
+        _pool = new Project().loadClass(Corpus.getBytes(corpus)).getPool();
+
+        List<String> utf8s = new ArrayList<>();
+        List<String> classes = new ArrayList<>();
+        List<String> methods = new ArrayList<>();
+        List<Integer> ints = new ArrayList<>();
+        Entry[] entries = _pool.getEntries();
+        NameAndTypeEntry nat;
+        for (int i = 0; i < entries.length; i++) {
+            if (entries[i] instanceof UTF8Entry)
+                utf8s.add(((UTF8Entry) entries[i]).getValue());
+            else if (entries[i] instanceof ClassEntry)
+                classes.add(((ClassEntry) entries[i]).getNameEntry().
+                    getValue());
+            else if (entries[i] instanceof MethodEntry) {
+                nat = ((MethodEntry) entries[i]).getNameAndTypeEntry();
+                methods.add(((MethodEntry) entries[i]).getClassEntry().
+                    getNameEntry().getValue());
+                methods.add(nat.getNameEntry().getValue());
+                methods.add(nat.getDescriptorEntry().getValue());
+            } else if (entries[i] instanceof IntEntry)
+                ints.add(((IntEntry) entries[i]).getValue());
+        }
+        _utf8s = utf8s.toArray(new String[utf8s.size()]);
+        _classes = classes.toArray(new String[classes.size()]);
+        _methods = methods.toArray(new String[methods.size()]);
+        _ints = new int[ints.size()];
+        for (int i = 0; i < _ints.length; i++)
+            _ints[i] = ints.get(i);
+    }
+
+    @Benchmark
+    public int findUTF8Entry() {
+        int sum = 0;
+        for (int i = 0; i < _utf8s.length; i++)
+            sum += _pool.findUTF8Entry(_utf8s[i], false);
+        return sum;
+    }
+
+    @Benchmark
+    public int findClassEntry() {
+        int sum = 0;
+        for (int i = 0; i < _classes.length; i++)
+            sum += _pool.findClassEntry(_classes[i], false);
+        return sum;
+    }
+
+    @Benchmark
+    public int findMethodEntry() {
+        int sum = 0;
+        for (int i = 0; i < _methods.length; i += 3)
+            sum += _pool.findMethodEntry(_methods[i], _methods[i + 1],
+                _methods[i + 2], false);
+        return sum;
+    }
+
+    @Benchmark
+    public int findIntEntry() {
+        int sum = 0;
+        for (int i = 0; i < _ints.length; i++)
+            sum += _pool.findIntEntry(_ints[i], false);
+        return sum;
+    }
+}
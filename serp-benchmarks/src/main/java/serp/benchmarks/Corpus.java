@@ -0,0 +1,141 @@
+package serp.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import serp.bytecode.BCClass;
+import serp.bytecode.BCMethod;
+import serp.bytecode.Code;
+import serp.bytecode.Instruction;
+import serp.bytecode.JumpInstruction;
+import serp.bytecode.Project;
+
+/**
+ * The class files the benchmarks run over. The corpus covers a range of
+ * class sizes:
+ * <ul>
+ * <li><code>small</code>: a small utility class, <code>serp.util.Numbers</code></li>
+ * <li><code>medium</code>: a mid-sized class, <code>serp.bytecode.NameCache</code></li>
+ * <li><code>large</code>: a class with a large constant pool and many
+ * methods, <code>serp.bytecode.Code</code></li>
+ * <li><code>huge</code>: a generated class whose single method has close to
+ * {@link #HUGE_METHOD_LENGTH} bytes of code, with forward branches
+ * throughout</li>
+ * </ul>
+ * The first three are read from the serp jar on the classpath, so the
+ * corpus tracks the version being measured without bundling binaries.
+ */
+public class Corpus {
+    /**
+     * Approximate code length of the method in the <code>huge</code> class.
+     */
+    public static final int HUGE_METHOD_LENGTH = 60000;
+
+    /**
+     * The names of the corpus entries, for use in JMH <code>@Param</code>s.
+     */
+    public static final String[] NAMES = { "small", "medium", "large",
+        "huge" };
+
+    private static final String HUGE_CLASS = "serp.benchmarks.generated.Huge";
+
+    /**
+     * Return the bytes of the class file with the given corpus name.
+     *
+     * @param name one of {@link #NAMES}
+     * @return the class file bytes
+     */
+    public static byte[] getBytes(String name) {
+        switch (name) {
+        case "small":
+            return getResource("serp/util/Numbers.class");
+        case "medium":
+            return getResource("serp/bytecode/NameCache.class");
+        case "large":
+            return getResource("serp/bytecode/Code.class");
+        case "huge":
+            return generateHuge();
+        default:
+            throw new IllegalArgumentException(name);
+        }
+    }
+
+    /**
+     * Return the code block with the most instructions in the given class.
+     *
+     * @param bc the class to search
+     * @return the largest code block, or null if the class has no code
+     */
+    public static Code getLargestCode(BCClass bc) {
+        BCMethod[] methods = bc.getDeclaredMethods();
+        Code largest = null;
+        Code code;
+        for (int i = 0; i < methods.length; i++) {
+            code = methods[i].getCode(false);
+            if (code != null && (largest == null
+                || code.size() > largest.size()))
+                largest = code;
+        }
+        return largest;
+    }
+
+    private static byte[] getResource(String resource) {
+        try (InputStream in = Corpus.class.getClassLoader().
+            getResourceAsStream(resource)) {
+            if (in == null)
+                throw new IllegalStateException(resource);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            for (int read; (read = in.read(buf)) != -1;)
+                out.write(buf, 0, read);
+            return out.toByteArray();
+        } catch (IOException ioe) {
+            throw new IllegalStateException(ioe.toString());
+        }
+    }
+
+    /**
+     * Generate a class with one static <code>int run(int)</code> method
+     * whose code accumulates constants into its argument. Every eighth
+     * step is guarded by a forward <code>ifge</code>, so the method also
+     * exercises jump resolution and byte index maintenance.
+     */
+    private static byte[] generateHuge() {
+        BCClass bc = new Project().loadClass(HUGE_CLASS);
+        BCMethod method = bc.declareMethod("run", int.class,
+            new Class[]{ int.class });
+        method.makePublic();
+        method.setStatic(true);
+
+        Code code = method.getCode(true);
+        JumpInstruction pending = null;
+        Instruction first;
+        int length = 0;
+        for (int i = 0; length < HUGE_METHOD_LENGTH; i++) {
+            // iload_0; sipush; iadd; istore_0: 6 bytes
+            first = code.iload().setLocal(0);
+            if (pending != null)
+                pending.setTarget(first);
+            code.constant().setValue(1000 + (i % 1000));
+            code.iadd();
+            code.istore().setLocal(0);
+            length += 6;
+
+            // iload_0; ifge: 4 bytes
+            if (i % 8 == 0) {
+                code.iload().setLocal(0);
+                pending = code.ifge();
+                length += 4;
+            } else
+                pending = null;
+        }
+        first = code.iload().setLocal(0);
+        if (pending != null)
+            pending.setTarget(first);
+        code.ireturn();
+        code.calculateMaxStack();
+        code.calculateMaxLocals();
+        return bc.toByteArray();
+    }
+}
@@ -0,0 +1,59 @@
+package serp.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import serp.bytecode.Code;
+import serp.bytecode.Instruction;
+
+/**
+ * Measures inserting an instruction before each instruction of a code
+ * block of <code>size</code> <code>sipush</code> instructions, querying the
+ * byte indexes of the inserted and the following instruction after every
+ * insertion. Each query sees the indexes invalidated by the preceding
+ * insertion, so the cost of index maintenance dominates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class InsertBenchmark {
+    @Param({ "1000", "10000", "50000" })
+    public int size;
+
+    private Code _code;
+    private Instruction[] _insns;
+
+    @Setup(Level.Invocation)
+    public void setup() {
+        _code = new Code();
+        for (int i = 0; i < size; i++)
+            _code.constant().setValue(1000);
+        _insns = _code.getInstructions();
+    }
+
+    @Benchmark
+    public int insertThenQuery() {
+        int sum = 0;
+        for (int i = 0; i < _insns.length; i++) {
+            _code.before(_insns[i]);
+            sum += _code.nop().getByteIndex();
+            sum += _insns[i].getByteIndex();
+        }
+        return sum;
+    }
+}
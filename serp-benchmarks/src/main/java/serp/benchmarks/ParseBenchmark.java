@@ -0,0 +1,73 @@
+package serp.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import serp.bytecode.BCClass;
+import serp.bytecode.BCMethod;
+import serp.bytecode.Code;
+import serp.bytecode.Project;
+
+/**
+ * Measures {@link Project#loadClass(byte[])} for each class of the
+ * {@link Corpus}, with code parsed eagerly or lazily.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+    @Param({ "small", "medium", "large", "huge" })
+    public String corpus;
+
+    @Param({ "false", "true" })
+    public boolean lazyCode;
+
+    private byte[] _bytes;
+
+    @Setup
+    public void setup() {
+        _bytes = Corpus.getBytes(corpus);
+    }
+
+    /**
+     * Parse the class into a new project.
+     */
+    @Benchmark
+    public BCClass loadClass() {
+        Project project = new Project();
+        project.setLazyCode(lazyCode);
+        return project.loadClass(_bytes);
+    }
+
+    /**
+     * Parse the class and then the code of each of its methods; with lazy
+     * code this measures the deferred parsing path.
+     */
+    @Benchmark
+    public void loadClassAndCode(Blackhole bh) {
+        Project project = new Project();
+        project.setLazyCode(lazyCode);
+        BCMethod[] methods = project.loadClass(_bytes).getDeclaredMethods();
+        Code code;
+        for (int i = 0; i < methods.length; i++) {
+            code = methods[i].getCode(false);
+            if (code != null)
+                bh.consume(code.size());
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package serp.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.URI;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import serp.bytecode.BCClass;
+import serp.bytecode.BCMethod;
+import serp.bytecode.Instruction;
+import serp.bytecode.LoadStatistics;
+import serp.bytecode.Project;
+import serp.bytecode.visitor.BCVisitor;
+
+/**
+ * Corpus-scale round trip of real class files. Every class of the given
+ * jars and directories is loaded into a single {@link Project}, visited
+ * with a {@link BCVisitor} and written back with
+ * {@link BCClass#toByteArray}. Throughput and timings of each phase are
+ * reported, along with the peak heap of the whole run and the heap still
+ * retained by the project at the end.
+ *
+ * <p>Usage:</p>
+ * <pre>
+ * java -cp target/benchmarks.jar serp.benchmarks.RoundTrip [options] path...
+ *
+ * path               a jar or zip file, a class directory, or "jrt" for
+ *                    the modules of the running JDK
+ * -lazy              parse code lazily (see Project.setLazyCode)
+ * -intern            share strings between classes (Project.setInternStrings)
+ * -threads &lt;n&gt;       number of threads to parse with; default all cores
+ * -runs &lt;n&gt;          number of times to repeat the round trip; default 1
+ * </pre>
+ *
+ * <p>With no paths, the jars of the current class path are used.</p>
+ */
+public class RoundTrip {
+    private final List<Path> _paths = new ArrayList<>();
+    private boolean _lazy = false;
+    private boolean _intern = false;
+    private int _threads = Runtime.getRuntime().availableProcessors();
+    private int _runs = 1;
+
+    public static void main(String[] args) throws Exception {
+        RoundTrip trip = new RoundTrip();
+        trip.parseArgs(args);
+        for (int i = 1; i <= trip._runs; i++) {
+            System.out.println("Run " + i + " of " + trip._runs);
+            trip.run();
+        }
+    }
+
+    private void parseArgs(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            if ("-lazy".equals(args[i]))
+                _lazy = true;
+            else if ("-intern".equals(args[i]))
+                _intern = true;
+            else if ("-threads".equals(args[i]))
+                _threads = Integer.parseInt(args[++i]);
+            else if ("-runs".equals(args[i]))
+                _runs = Integer.parseInt(args[++i]);
+            else if ("jrt".equals(args[i]))
+                _paths.add(FileSystems.getFileSystem(URI.create("jrt:/")).
+                    getPath("/modules"));
+            else
+                _paths.add(Paths.get(args[i]));
+        }
+
+        if (_paths.isEmpty()) {
+            String[] cp = System.getProperty("java.class.path").
+                split(File.pathSeparator);
+            for (int i = 0; i < cp.length; i++)
+                if (cp[i].endsWith(".jar"))
+                    _paths.add(Paths.get(cp[i]));
+        }
+    }
+
+    /**
+     * Perform one full round trip over all paths.
+     */
+    private void run() throws IOException, InterruptedException {
+        gc();
+        long baseHeap = usedHeap();
+        resetPeakHeap();
+
+        Project project = new Project();
+        project.setLazyCode(_lazy);
+        project.setInternStrings(_intern);
+
+        // load
+        ExecutorService exec = Executors.newFixedThreadPool(_threads);
+        long start = System.nanoTime();
+        int classes = 0;
+        long bytes = 0;
+        long readNanos = 0;
+        long parseNanos = 0;
+        int failures = 0;
+        LoadStatistics stats;
+        try {
+            for (Path path : _paths) {
+                stats = project.loadAll(path, exec);
+                classes += stats.getClassCount();
+                bytes += stats.getByteCount();
+                readNanos += stats.getReadNanos();
+                parseNanos += stats.getParseNanos();
+                failures += stats.getFailureCount();
+                report(path, stats.getFailures());
+            }
+        } finally {
+            exec.shutdown();
+            exec.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        long loadNanos = System.nanoTime() - start;
+        print("load", classes, bytes, loadNanos);
+        System.out.println("      read " + millis(readNanos) + "ms, parse "
+            + millis(parseNanos) + "ms (summed over threads), " + failures
+            + " failures");
+
+        // visit
+        CountingVisitor visitor = new CountingVisitor();
+        start = System.nanoTime();
+        project.acceptVisit(visitor);
+        print("visit", visitor.classes, bytes, System.nanoTime() - start);
+        System.out.println("      " + visitor.methods + " methods, "
+            + visitor.instructions + " instructions");
+
+        // write
+        BCClass[] bcs = project.getClasses();
+        long written = 0;
+        int writeFailures = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < bcs.length; i++) {
+            try {
+                written += bcs[i].toByteArray().length;
+            } catch (RuntimeException re) {
+                writeFailures++;
+            }
+        }
+        long writeNanos = System.nanoTime() - start;
+        print("write", bcs.length, written, writeNanos);
+        System.out.println("      " + writeFailures + " failures");
+
+        long peak = peakHeap();
+        gc();
+        long retained = usedHeap() - baseHeap;
+        System.out.println("heap: peak " + mb(peak) + "MB, retained "
+            + mb(retained) + "MB for " + bcs.length + " cached classes");
+        if (_intern)
+            System.out.println("strings: " + project.getStringTable());
+
+        // keep the project reachable through the retained heap measurement
+        if (project.getClasses().length != bcs.length)
+            throw new IllegalStateException();
+    }
+
+    private static void print(String phase, int classes, long bytes,
+        long nanos) {
+        double secs = nanos / 1e9;
+        System.out.println(String.format("%-5s %8d classes %10.1f MB "
+            + "%8d ms %10.0f classes/s %8.1f MB/s", phase, classes,
+            bytes / 1e6, millis(nanos), classes / secs, bytes / 1e6 / secs));
+    }
+
+    private static void report(Path path, Map<String,Throwable> failures) {
+        int shown = 0;
+        for (Iterator<Map.Entry<String,Throwable>> itr = failures.entrySet().
+            iterator(); itr.hasNext() && shown < 10; shown++) {
+            Map.Entry<String,Throwable> entry = itr.next();
+            System.out.println("  failed " + path + "!" + entry.getKey()
+                + ": " + entry.getValue());
+        }
+    }
+
+    private static long millis(long nanos) {
+        return nanos / 1000000L;
+    }
+
+    private static long mb(long bytes) {
+        return bytes / (1024 * 1024);
+    }
+
+    private static void gc() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            if (pool.getType() == MemoryType.HEAP)
+                pool.resetPeakUsage();
+    }
+
+    /**
+     * Sum of the peak usage of all heap pools since the last reset. Pools
+     * peak at different times, so this is an upper bound.
+     */
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            if (pool.getType() == MemoryType.HEAP)
+                peak += pool.getPeakUsage().getUsed();
+        return peak;
+    }
+
+    /**
+     * Visitor that counts what it sees, which forces lazily read code to
+     * be parsed.
+     */
+    private static class CountingVisitor extends BCVisitor {
+        int classes = 0;
+        int methods = 0;
+        long instructions = 0;
+
+        public void enterBCClass(BCClass obj) {
+            classes++;
+        }
+
+        public void enterBCMethod(BCMethod obj) {
+            methods++;
+        }
+
+        public void enterInstruction(Instruction obj) {
+            instructions++;
+        }
+    }
+}
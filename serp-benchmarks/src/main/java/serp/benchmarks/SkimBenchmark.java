@@ -0,0 +1,117 @@
+package serp.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import serp.bytecode.BCClass;
+import serp.bytecode.BCField;
+import serp.bytecode.BCMethod;
+import serp.bytecode.Project;
+import serp.bytecode.lowlevel.ClassSkimmer;
+import serp.bytecode.lowlevel.SkimVisitor;
+
+/**
+ * Measures reading the declarations of each class of the {@link Corpus}
+ * with {@link ClassSkimmer#skim} against {@link Project#loadClass(byte[])},
+ * both with the default eager parse of code and with lazy code. All
+ * benchmarks consume the class, superclass and interface names and the
+ * name and descriptor of each field and method.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SkimBenchmark {
+    @Param({ "small", "medium", "large", "huge" })
+    public String corpus;
+
+    private byte[] _bytes;
+
+    @Setup
+    public void setup() {
+        _bytes = Corpus.getBytes(corpus);
+    }
+
+    /**
+     * Stream the declarations of the class to a visitor.
+     */
+    @Benchmark
+    public void skim(final Blackhole bh) {
+        new ClassSkimmer(_bytes).skim(new SkimVisitor() {
+            public void visitClass(int access, String name,
+                String superName) {
+                bh.consume(name);
+                bh.consume(superName);
+            }
+
+            public void visitInterface(String name) {
+                bh.consume(name);
+            }
+
+            public void visitField(int access, String name,
+                String descriptor) {
+                bh.consume(name);
+                bh.consume(descriptor);
+            }
+
+            public void visitMethod(int access, String name,
+                String descriptor) {
+                bh.consume(name);
+                bh.consume(descriptor);
+            }
+        });
+    }
+
+    /**
+     * Fully parse the class into a new project, as by default, and read the
+     * same declarations from the result.
+     */
+    @Benchmark
+    public void loadClass(Blackhole bh) {
+        consume(new Project().loadClass(_bytes), bh);
+    }
+
+    /**
+     * Parse the class into a new project with lazy code, which leaves the
+     * code of each method unparsed, and read the same declarations from the
+     * result.
+     */
+    @Benchmark
+    public void loadClassLazyCode(Blackhole bh) {
+        Project project = new Project();
+        project.setLazyCode(true);
+        consume(project.loadClass(_bytes), bh);
+    }
+
+    private static void consume(BCClass bc, Blackhole bh) {
+        bh.consume(bc.getName());
+        bh.consume(bc.getSuperclassName());
+        String[] interfaces = bc.getDeclaredInterfaceNames();
+        for (int i = 0; i < interfaces.length; i++)
+            bh.consume(interfaces[i]);
+        BCField[] fields = bc.getDeclaredFields();
+        for (int i = 0; i < fields.length; i++) {
+            bh.consume(fields[i].getName());
+            bh.consume(fields[i].getDescriptor());
+        }
+        BCMethod[] methods = bc.getDeclaredMethods();
+        for (int i = 0; i < methods.length; i++) {
+            bh.consume(methods[i].getName());
+            bh.consume(methods[i].getDescriptor());
+        }
+    }
+}
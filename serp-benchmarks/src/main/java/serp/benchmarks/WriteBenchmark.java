@@ -0,0 +1,57 @@
+package serp.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import serp.bytecode.BCClass;
+import serp.bytecode.BCMethod;
+import serp.bytecode.Project;
+
+/**
+ * Measures {@link BCClass#toByteArray} for each class of the
+ * {@link Corpus}. In the <code>unmodified</code> state the class is written
+ * as it was read, which is mostly copying of the original bytes; in the
+ * <code>modified</code> state every method's code has been handed out, so
+ * each method is serialized from the model.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WriteBenchmark {
+    @Param({ "small", "medium", "large", "huge" })
+    public String corpus;
+
+    @Param({ "unmodified", "modified" })
+    public String state;
+
+    private BCClass _bc;
+
+    @Setup
+    public void setup() {
+        _bc = new Project().loadClass(Corpus.getBytes(corpus));
+        if ("modified".equals(state)) {
+            BCMethod[] methods = _bc.getDeclaredMethods();
+            for (int i = 0; i < methods.length; i++)
+                methods[i].getCode(false);
+        }
+    }
+
+    @Benchmark
+    public byte[] toByteArray() {
+        return _bc.toByteArray();
+    }
+}
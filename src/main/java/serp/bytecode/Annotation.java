@@ -270,6 +270,17 @@ public class Annotation implements BCEntity, VisitAcceptor {
         return len;
     }
 
+    /**
+     * Replace the pool indexes of this annotation and its properties after
+     * the constant pool has been compacted.
+     */
+    void remapIndexes(IndexRemapper remapper) {
+        _typeIndex = remapper.remap(_typeIndex);
+        if (_properties != null)
+            for (int i = 0; i < _properties.size(); i++)
+                ((Property) _properties.get(i)).remapIndexes(remapper);
+    }
+
     void read(DataInput in) throws IOException {
         _typeIndex = in.readUnsignedShort();
         clearProperties();
@@ -1013,6 +1024,27 @@ public class Annotation implements BCEntity, VisitAcceptor {
             return 1 + ((Annotation) val.value).getLength(); // tag + anno
         }
 
+        /**
+         * Replace the pool indexes of this property after the constant pool
+         * has been compacted.
+         */
+        void remapIndexes(IndexRemapper remapper) {
+            _nameIndex = remapper.remap(_nameIndex);
+            if (_values == null)
+                remapIndexes(_value, remapper);
+            else
+                for (int i = 0; i < _values.length; i++)
+                    remapIndexes(_values[i], remapper);
+        }
+
+        private void remapIndexes(Value val, IndexRemapper remapper) {
+            if (val.index != -1) {
+                val.index = remapper.remap(val.index);
+                val.index2 = remapper.remap(val.index2);
+            } else if (val.value instanceof Annotation)
+                ((Annotation) val.value).remapIndexes(remapper);
+        }
+
         void read(DataInput in) throws IOException {
             _nameIndex = in.readUnsignedShort(); 
             int tag = in.readByte();
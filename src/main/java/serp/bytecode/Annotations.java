@@ -190,18 +190,18 @@ public class Annotations extends Attribute {
         return false;
     }
 
-    int getLength() {
+    protected int getLength() {
         int len = 2;
         for (int i = 0; i < _annotations.size(); i++)
             len += ((Annotation) _annotations.get(i)).getLength();
         return len;
     }
 
-    void read(Attribute other) {
+    protected void read(Attribute other) {
         setAnnotations(((Annotations) other).getAnnotations());
     }
 
-    void read(DataInput in, int length) throws IOException {
+    protected void read(DataInput in, int length) throws IOException {
         _annotations.clear();
         int annos = in.readUnsignedShort();
         Annotation anno;
@@ -212,7 +212,7 @@ public class Annotations extends Attribute {
         }
     }
 
-    void write(DataOutput out, int length) throws IOException {
+    protected void write(DataOutput out, int length) throws IOException {
         out.writeShort(_annotations.size());
         for (int i = 0; i < _annotations.size(); i++)
             ((Annotation) _annotations.get(i)).write(out);
@@ -1,12 +1,11 @@
 package serp.bytecode;
 
 import java.io.*;
-import java.lang.reflect.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import serp.bytecode.lowlevel.*;
 import serp.bytecode.visitor.*;
-import serp.util.*;
 
 /**
  * In bytecode attributes are used to represent anything that is not
@@ -17,36 +16,67 @@ import serp.util.*;
  * @author Abe White
  */
 public abstract class Attribute extends Attributes implements VisitAcceptor {
+    private static final Map<String, AttributeFactory> _factories =
+        new ConcurrentHashMap<>();
+
+    static {
+        register(Constants.ATTR_CODE, Code::new);
+        register(Constants.ATTR_CONST, ConstantValue::new);
+        register(Constants.ATTR_DEPRECATED, Deprecated::new);
+        register(Constants.ATTR_EXCEPTIONS, Exceptions::new);
+        register(Constants.ATTR_INNERCLASS, InnerClasses::new);
+        register(Constants.ATTR_LINENUMBERS, LineNumberTable::new);
+        register(Constants.ATTR_LOCALS, LocalVariableTable::new);
+        register(Constants.ATTR_LOCAL_TYPES, LocalVariableTypeTable::new);
+        register(Constants.ATTR_SOURCE, SourceFile::new);
+        register(Constants.ATTR_SYNTHETIC, Synthetic::new);
+        register(Constants.ATTR_ANNOTATIONS, Annotations::new);
+        register(Constants.ATTR_RUNTIME_ANNOTATIONS, Annotations::new);
+        register(Constants.ATTR_BOOTSTRAP_METHODS, BootstrapMethods::new);
+        register(Constants.ATTR_STACK_MAP_TABLE, StackMapTable::new);
+    }
+
     private int _nameIndex = 0;
     private Attributes _owner = null;
 
-    Attribute(int nameIndex, Attributes owner) {
+    protected Attribute(int nameIndex, Attributes owner) {
         _owner = owner;
         _nameIndex = nameIndex;
     }
 
+    /**
+     * Register the factory used to create attributes with the given name,
+     * replacing any previous registration. Registered types are used both
+     * when reading class files and when adding attributes by name.
+     * 
+     * @param name    the attribute name
+     * @param factory the factory to use, or null to remove the registration
+     *                so that the attribute is treated as unknown
+     */
+    public static void register(String name, AttributeFactory factory) {
+        if (factory == null)
+            _factories.remove(name);
+        else
+            _factories.put(name, factory);
+    }
+
     /**
      * Create an attribute of the appropriate type based on the
      * the attribute name.
      */
     static Attribute create(String name, Attributes owner) {
-        // special case for annotations
-        int nameIndex = owner.getPool().findUTF8Entry(name, true);
-        if ("RuntimeVisibleAnnotations".equals(name)
-            || "RuntimeInvisibleAnnotations".equals(name))
-            return new Annotations(nameIndex, owner);
-
-        try {
-            Class type = Class.forName("serp.bytecode." + name);
-            Constructor cons = type.getDeclaredConstructor(new Class[] {
-                int.class, Attributes.class
-            });
-            return (Attribute) cons.newInstance(new Object[] {
-                Numbers.valueOf(nameIndex), owner
-            });
-        } catch (Throwable t) {
+        return create(owner.getPool().findUTF8Entry(name, true), name, owner);
+    }
+
+    /**
+     * Create an attribute of the appropriate type based on the
+     * the attribute name, which is already in the pool at the given index.
+     */
+    static Attribute create(int nameIndex, String name, Attributes owner) {
+        AttributeFactory factory = _factories.get(name);
+        if (factory == null)
             return new UnknownAttribute(nameIndex, owner);
-        }
+        return factory.newAttribute(nameIndex, owner);
     }
 
     /**
@@ -70,6 +100,13 @@ public abstract class Attribute extends Attributes implements VisitAcceptor {
         return _nameIndex;
     }
 
+    /**
+     * Replace the name index after the constant pool has been compacted.
+     */
+    void remapIndexes(IndexRemapper remapper) {
+        _nameIndex = remapper.remap(_nameIndex);
+    }
+
     /**
      * Return the name of this attribute.
      * 
@@ -110,7 +147,7 @@ public abstract class Attribute extends Attributes implements VisitAcceptor {
      * Return the length of the bytecode representation of this attribute
      * in bytes, excluding the name index.
      */
-    int getLength() {
+    protected int getLength() {
         return 0;
     }
 
@@ -118,20 +155,20 @@ public abstract class Attribute extends Attributes implements VisitAcceptor {
      * Copy the information from the given attribute to this one. Does
      * nothing by default.
      */
-    void read(Attribute other) {
+    protected void read(Attribute other) {
     }
 
     /**
      * Read the attribute bytecode from the given stream, up to length
      * bytes, excluding the name index. Does nothing by default.
      */
-    void read(DataInput in, int length) throws IOException {
+    protected void read(DataInput in, int length) throws IOException {
     }
 
     /**
      * Write the attribute bytecode to the given stream, up to length bytes,
      * excluding the name index. Does nothing by default.
      */
-    void write(DataOutput out, int length) throws IOException {
+    protected void write(DataOutput out, int length) throws IOException {
     }
 }
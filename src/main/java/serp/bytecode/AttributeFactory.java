@@ -0,0 +1,19 @@
+package serp.bytecode;
+
+/**
+ * Creates attributes of a particular type. Factories are registered by
+ * attribute name through {@link Attribute#register}, which allows custom
+ * attribute types to be plugged in; attributes whose name has no
+ * registered factory are represented as {@link UnknownAttribute}s.
+ */
+public interface AttributeFactory {
+    /**
+     * Create a new attribute.
+     * 
+     * @param nameIndex the {@link serp.bytecode.lowlevel.ConstantPool} index
+     *                  of the attribute name
+     * @param owner     the entity that owns the attribute
+     * @return the new attribute
+     */
+    public Attribute newAttribute(int nameIndex, Attributes owner);
+}
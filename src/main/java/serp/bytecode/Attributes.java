@@ -164,12 +164,14 @@ public abstract class Attributes implements BCEntity {
         attrs.clear();
 
         Attribute attribute;
+        int nameIndex;
         String name;
         // attributes_count, attribute_info[attributes_count]
         for (int i = in.readUnsignedShort(); i > 0; i--) {
-            name = ((UTF8Entry) getPool().getEntry(in.readUnsignedShort())).
-                getValue(); // attribute_name_index
-            attribute = addAttribute(name);
+            nameIndex = in.readUnsignedShort(); // attribute_name_index
+            name = ((UTF8Entry) getPool().getEntry(nameIndex)).getValue();
+            attribute = Attribute.create(nameIndex, name, this);
+            attrs.add(attribute);
             attribute.read(in, in.readInt()); // attribute_length
         }
     }
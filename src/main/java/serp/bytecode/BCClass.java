@@ -33,6 +33,17 @@ public class BCClass extends Annotated implements VisitAcceptor {
     private State _state = null;
     private ClassLoader _loader = null;
 
+    // the bytes this class was read from and their layout, so that the
+    // unmodified parts of the class can be written back verbatim
+    private byte[] _bytes = null;
+    private int _poolEnd = 0;
+    private int _fieldsStart = 0;
+    private int _methodsStart = 0;
+    private int _attrsStart = 0;
+    private int _poolModCount = 0;
+    private int _poolReindexCount = 0;
+    private boolean _attrsAccessed = true;
+
     /**
      * Hide constructor. For use by the owning project only.
      */
@@ -86,7 +97,20 @@ public class BCClass extends Annotated implements VisitAcceptor {
 	 */
     void read(InputStream instream, ClassLoader loader)
         throws IOException {
-        DataInput in = new DataInputStream(instream);
+        read(Project.readFully(instream, -1), loader);
+    }
+
+	/**
+	 * Initialize from the given class definition bytes. The bytes are kept
+	 * for writing unmodified parts of the class, and must not be changed
+	 * afterwards. For use by the owning project only.
+	 * 
+	 * @param bytes  the class bytecode
+	 * @param loader the class loader
+	 */
+    void read(byte[] bytes, ClassLoader loader) throws IOException {
+        _bytes = null;
+        ByteArrayDataInput in = new ByteArrayDataInput(bytes);
 
         // header information
         _state.setMagic(in.readInt());
@@ -95,6 +119,7 @@ public class BCClass extends Annotated implements VisitAcceptor {
 
         // constant pool
         _state.getPool().read(in);
+        _poolEnd = in.getOffset();
 
         // access flags
         _state.setAccessFlags(in.readUnsignedShort());
@@ -113,26 +138,39 @@ public class BCClass extends Annotated implements VisitAcceptor {
         List<BCField> fields = _state.getFieldsHolder();
         fields.clear();
         int fieldCount = in.readUnsignedShort();
+        _fieldsStart = in.getOffset();
         BCField field;
+        int start;
         for (int i = 0; i < fieldCount; i++) {
             field = new BCField(this);
             fields.add(field);
+            start = in.getOffset();
             field.read(in);
+            field.setOriginal(start, in.getOffset());
         }
 
         // methods
         List<BCMethod> methods = _state.getMethodsHolder();
         methods.clear();
         int methodCount = in.readUnsignedShort();
+        _methodsStart = in.getOffset();
         BCMethod method;
         for (int i = 0; i < methodCount; i++) {
             method = new BCMethod(this);
             methods.add(method);
+            start = in.getOffset();
             method.read(in);
+            method.setOriginal(start, in.getOffset());
         }
 
+        _attrsStart = in.getOffset();
         readAttributes(in);
         _loader = loader;
+
+        _attrsAccessed = false;
+        _poolModCount = getPool().getModCount();
+        _poolReindexCount = getPool().getReindexCount();
+        _bytes = bytes;
     }
 
     /**
@@ -165,10 +203,7 @@ public class BCClass extends Annotated implements VisitAcceptor {
      */
     void read(BCClass orig) {
         try {
-            ByteArrayInputStream in = new ByteArrayInputStream
-                (orig.toByteArray());
-            read(in, orig.getClassLoader());
-            in.close();
+            read(orig.toByteArray(), orig.getClassLoader());
         } catch (IOException ioe) {
             throw new RuntimeException(ioe.toString());
         }
@@ -221,6 +256,17 @@ public class BCClass extends Annotated implements VisitAcceptor {
      * @throws IOException stream exception handling
      */
     public void write(OutputStream outstream) throws IOException {
+        if (_project != null && _project.isComputeFrames())
+            computeFrames();
+        if (_project != null && _project.isRemoveUnusedEntries())
+            removeUnusedEntries();
+        compact();
+
+        // copy the original bytes in one go if nothing has changed
+        if (isUnmodified()) {
+            outstream.write(_bytes);
+            return;
+        }
         DataOutput out = new DataOutputStream(outstream);
 
         // header information
@@ -229,7 +275,10 @@ public class BCClass extends Annotated implements VisitAcceptor {
         out.writeShort(_state.getMajorVersion());
 
         // constant pool
-        _state.getPool().write(out);
+        if (isIndexStable() && getPool().getModCount() == _poolModCount)
+            out.write(_bytes, 8, _poolEnd - 8);
+        else
+            _state.getPool().write(out);
 
         // access flags
         out.writeShort(_state.getAccessFlags());
@@ -257,7 +306,204 @@ public class BCClass extends Annotated implements VisitAcceptor {
             itr.next().write(out);
 
         // attributes
-        writeAttributes(out);
+        if (!_attrsAccessed && isIndexStable())
+            writeOriginal(out, _attrsStart, _bytes.length);
+        else
+            writeAttributes(out);
+    }
+
+    /**
+     * Recompute the stack map frames of the methods whose instructions or
+     * exception handlers have changed since the class was read: those of
+     * Java 7 and later classes, and those of Java 6 classes that already
+     * have frames, as older verifiers don't need them. Merely reading or
+     * visiting code leaves its frames as they were.
+     */
+    private void computeFrames() {
+        int major = getMajorVersion();
+        if (major < Constants.MAJOR_VERSION_JAVA6)
+            return;
+
+        BCMethod[] methods = getDeclaredMethods();
+        Code code;
+        for (int i = 0; i < methods.length; i++) {
+            if (methods[i].isAttributesUnaccessed())
+                continue;
+            code = methods[i].getCode(false);
+            if (code == null || !code.isModified())
+                continue;
+            if (major == Constants.MAJOR_VERSION_JAVA6
+                && code.getStackMapTable(false) == null)
+                continue;
+            code.calculateStackMap();
+        }
+    }
+
+    /**
+     * Remove the places left by removed constant pool entries, updating all
+     * the pool indexes held by this class, its members, attributes and
+     * instructions. This happens automatically before the class is written.
+     * Unknown attributes can be updated only if they are of a standard type
+     * whose layout is understood.
+     *
+     * @throws IllegalStateException if entries have been removed and the
+     * class has unknown attributes whose pool indexes can't be updated; the
+     * pool is left uncompacted
+     */
+    public void compact() {
+        ConstantPool pool = getPool();
+        if (pool.isCompact())
+            return;
+
+        // unparsed code refers to the old indexes
+        parseCode();
+        if (!IndexRemapper.isComplete(this))
+            throw new IllegalStateException("The constant pool of "
+                + getName() + " can't be compacted, because it has "
+                + "attributes of unknown layout that may refer to it.");
+
+        // code that is unmodified but for its renumbered indexes stays
+        // unmodified, so that its frames aren't recomputed
+        BCMethod[] methods = getDeclaredMethods();
+        List<Code> unmodified = new ArrayList<>(methods.length);
+        Code code;
+        for (int i = 0; i < methods.length; i++) {
+            code = methods[i].getCode(false);
+            if (code != null && !code.isModified())
+                unmodified.add(code);
+        }
+        new IndexRemapper(pool.compact()).visit(this);
+        for (int i = 0; i < unmodified.size(); i++)
+            unmodified.get(i).setUnmodified();
+    }
+
+    /**
+     * Remove all constant pool entries that are not referenced from this
+     * class's header, members, attributes, or code, nor from other
+     * referenced entries, and then {@link #compact} the pool. Nothing is
+     * removed if the class has unknown attributes that might refer to the
+     * pool in ways that cannot be traced.
+     *
+     * @return the number of entries removed
+     * @see Project#setRemoveUnusedEntries
+     */
+    public int removeUnusedEntries() {
+        parseCode();
+        final BitSet used = new BitSet(getPool().size() + 1);
+        IndexRemapper marker = new IndexRemapper(null) {
+            int remap(int index) {
+                if (index > 0)
+                    used.set(index);
+                return index;
+            }
+        };
+        marker.visit(this);
+        if (!marker.isComplete())
+            return 0;
+
+        int removed = getPool().removeUnusedEntries(used);
+        compact();
+        return removed;
+    }
+
+    /**
+     * Make sure that the code of all methods has been parsed, including
+     * its stack map frames.
+     */
+    private void parseCode() {
+        BCMethod[] methods = getDeclaredMethods();
+        Code code;
+        StackMapTable frames;
+        for (int i = 0; i < methods.length; i++) {
+            code = methods[i].getCode(false);
+            frames = (code == null) ? null : code.getStackMapTable(false);
+            if (frames != null)
+                frames.parse();
+        }
+    }
+
+    /**
+     * Replace the pool indexes in the class header.
+     */
+    void remapIndexes(IndexRemapper remapper) {
+        _state.setIndex(remapper.remap(_state.getIndex()));
+        _state.setSuperclassIndex(remapper.remap(_state.
+            getSuperclassIndex()));
+        List<Number> interfaces = _state.getInterfacesHolder();
+        for (int i = 0; i < interfaces.size(); i++)
+            interfaces.set(i, Numbers.valueOf(remapper.remap(interfaces.
+                get(i).intValue())));
+    }
+
+    /**
+     * Return true if this class was read from bytecode and none of its
+     * state has changed since, so that the original bytes can be written.
+     */
+    private boolean isUnmodified() {
+        if (_attrsAccessed || !isIndexStable()
+            || getPool().getModCount() != _poolModCount)
+            return false;
+
+        // header
+        if (_state.getMagic() != (getOriginalShort(0) << 16 
+            | getOriginalShort(2))
+            || _state.getMinorVersion() != getOriginalShort(4)
+            || _state.getMajorVersion() != getOriginalShort(6)
+            || _state.getAccessFlags() != getOriginalShort(_poolEnd)
+            || _state.getIndex() != getOriginalShort(_poolEnd + 2)
+            || _state.getSuperclassIndex() != getOriginalShort(_poolEnd + 4))
+            return false;
+
+        List<Number> interfaces = _state.getInterfacesHolder();
+        int offset = _poolEnd + 6;
+        if (interfaces.size() != getOriginalShort(offset))
+            return false;
+        for (Iterator<Number> itr = interfaces.iterator(); itr.hasNext();) {
+            offset += 2;
+            if (itr.next().intValue() != getOriginalShort(offset))
+                return false;
+        }
+
+        // members must be the original ones, unmodified and in order
+        offset = _fieldsStart;
+        List<BCField> fields = _state.getFieldsHolder();
+        for (Iterator<BCField> itr = fields.iterator(); itr.hasNext()
+            && offset != -1;)
+            offset = itr.next().getOriginalEnd(offset);
+        if (offset + 2 != _methodsStart)
+            return false;
+
+        offset = _methodsStart;
+        List<BCMethod> methods = _state.getMethodsHolder();
+        for (Iterator<BCMethod> itr = methods.iterator(); itr.hasNext()
+            && offset != -1;)
+            offset = itr.next().getOriginalEnd(offset);
+        return offset == _attrsStart;
+    }
+
+    /**
+     * Return true if this class was read from bytecode and no constant pool
+     * entries have moved since, so that unmodified parts of the original
+     * bytes are still valid.
+     */
+    boolean isIndexStable() {
+        return _bytes != null 
+            && getPool().getReindexCount() == _poolReindexCount;
+    }
+
+    /**
+     * Return the unsigned short at the given offset of the original bytes.
+     */
+    int getOriginalShort(int offset) {
+        return ((_bytes[offset] & 0xFF) << 8) | (_bytes[offset + 1] & 0xFF);
+    }
+
+    /**
+     * Write the given range of the original bytes.
+     */
+    void writeOriginal(DataOutput out, int start, int end) 
+        throws IOException {
+        out.write(_bytes, start, end - start);
     }
 
     /**
@@ -2094,6 +2340,8 @@ public class BCClass extends Annotated implements VisitAcceptor {
     }
 
     Collection<Attribute> getAttributesHolder() {
+        // attributes can be changed by the caller
+        _attrsAccessed = true;
         return _state.getAttributesHolder();
     }
 
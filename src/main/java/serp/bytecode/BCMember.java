@@ -16,6 +16,10 @@ public abstract class BCMember extends Annotated {
     private int _nameIndex = 0;
     private int _descriptorIndex = 0;
     private Collection _attrs = new LinkedList();
+    // range of this member in the original class bytes while its
+    // attributes have not been handed out
+    private int _rawStart = -1;
+    private int _rawEnd = -1;
 
     BCMember(BCClass owner) {
         _owner = owner;
@@ -253,6 +257,16 @@ public abstract class BCMember extends Annotated {
         setEntry(getName(), origDesc);
     }
 
+    /**
+     * Replace the name and descriptor indexes after the constant pool has
+     * been compacted. Unlike {@link #setNameIndex}, this does not update
+     * references to the member.
+     */
+    void remapIndexes(IndexRemapper remapper) {
+        _nameIndex = remapper.remap(_nameIndex);
+        _descriptorIndex = remapper.remap(_descriptorIndex);
+    }
+
     /**
      * Return the name of this member.
      * 
@@ -380,6 +394,8 @@ public abstract class BCMember extends Annotated {
     }
 
     Collection getAttributesHolder() {
+        // attributes can be changed by the caller
+        _rawStart = -1;
         return _attrs;
     }
 
@@ -414,10 +430,59 @@ public abstract class BCMember extends Annotated {
         readAttributes(in);
     }
 
+    /**
+     * Record the range of the original class bytes this member was read
+     * from.
+     */
+    void setOriginal(int start, int end) {
+        _rawStart = start;
+        _rawEnd = end;
+    }
+
+    /**
+     * Return the offset in the original class bytes just past this member
+     * if it is unmodified and was read starting at the given offset, or -1
+     * otherwise.
+     */
+    int getOriginalEnd(int start) {
+        if (_rawStart != start || !isUnmodified())
+            return -1;
+        return _rawEnd;
+    }
+
+    /**
+     * Return true if this member was read from bytecode and its attributes
+     * have not been accessed since, so that they can't have changed.
+     */
+    boolean isAttributesUnaccessed() {
+        return _rawStart != -1;
+    }
+
+    /**
+     * Return true if this member can be written by copying the bytes it was
+     * read from.
+     */
+    private boolean isUnmodified() {
+        return _rawStart != -1 && _owner.isIndexStable()
+            && _access == _owner.getOriginalShort(_rawStart)
+            && _nameIndex == _owner.getOriginalShort(_rawStart + 2)
+            && _descriptorIndex == _owner.getOriginalShort(_rawStart + 4);
+    }
+
     void write(DataOutput out) throws IOException {
+        if (isUnmodified()) {
+            _owner.writeOriginal(out, _rawStart, _rawEnd);
+            return;
+        }
+
         out.writeShort(_access);
         out.writeShort(_nameIndex);
         out.writeShort(_descriptorIndex);
+
+        // writing doesn't change the attributes, so don't let it count as
+        // an access that would force later writes and frame computation
+        int rawStart = _rawStart;
         writeAttributes(out);
+        _rawStart = rawStart;
     }
 }
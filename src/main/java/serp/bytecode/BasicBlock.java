@@ -0,0 +1,244 @@
+package serp.bytecode;
+
+import java.util.Arrays;
+
+/**
+ * A basic block of a {@link ControlFlowGraph}: a run of instructions that
+ * is only entered at its first instruction and only left after its last,
+ * other than by exceptions.
+ */
+public class BasicBlock {
+    private final ControlFlowGraph _graph;
+    private final int _index;
+    private final int _start;
+    private int _end;
+    private final boolean _target;
+    private final boolean _handler;
+
+    private BasicBlock[] _succs;
+    private BasicBlock[] _preds;
+    private BasicBlock[] _excSuccs;
+    private BasicBlock[] _excPreds;
+    private ExceptionHandler[] _handlers;
+
+    BasicBlock(ControlFlowGraph graph, int index, int start, boolean target,
+        boolean handler) {
+        _graph = graph;
+        _index = index;
+        _start = start;
+        _target = target;
+        _handler = handler;
+    }
+
+    /**
+     * Return the graph this block belongs to.
+     *
+     * @return the owning graph
+     */
+    public ControlFlowGraph getGraph() {
+        return _graph;
+    }
+
+    /**
+     * Return the index of this block in the blocks of its graph.
+     *
+     * @return the block index
+     */
+    public int getIndex() {
+        return _index;
+    }
+
+    /**
+     * Return the index of the first instruction of this block in the
+     * instructions of the code.
+     *
+     * @return the start index, inclusive
+     */
+    public int getStart() {
+        return _start;
+    }
+
+    /**
+     * Return the index just past the last instruction of this block in the
+     * instructions of the code.
+     *
+     * @return the end index, exclusive
+     */
+    public int getEnd() {
+        return _end;
+    }
+
+    void setEnd(int end) {
+        _end = end;
+    }
+
+    /**
+     * Return the number of instructions in this block.
+     *
+     * @return the instruction count
+     */
+    public int size() {
+        return _end - _start;
+    }
+
+    /**
+     * Return the first instruction of this block.
+     *
+     * @return the first instruction
+     */
+    public Instruction getFirstInstruction() {
+        return _graph.getInstructionsHolder()[_start];
+    }
+
+    /**
+     * Return the last instruction of this block.
+     *
+     * @return the last instruction
+     */
+    public Instruction getLastInstruction() {
+        return _graph.getInstructionsHolder()[_end - 1];
+    }
+
+    /**
+     * Return the instructions of this block, in code order.
+     *
+     * @return the instructions
+     */
+    public Instruction[] getInstructions() {
+        return Arrays.copyOfRange(_graph.getInstructionsHolder(), _start,
+            _end);
+    }
+
+    /**
+     * Return true if this block is the target of a jump or switch.
+     *
+     * @return true for jump targets
+     */
+    public boolean isJumpTarget() {
+        return _target;
+    }
+
+    /**
+     * Return true if this block starts an exception handler.
+     *
+     * @return true for exception handlers
+     */
+    public boolean isExceptionHandler() {
+        return _handler;
+    }
+
+    /**
+     * Return true if execution can continue from the last instruction of
+     * this block to the first instruction of the next block.
+     *
+     * @return true if this block falls through to the next
+     */
+    public boolean isFallThrough() {
+        return _end < _graph.getInstructionsHolder().length
+            && ControlFlowGraph.isFallThrough(getLastInstruction().
+            getOpcode());
+    }
+
+    /**
+     * Return the blocks that control can pass to from the end of this
+     * block, without duplicates: the next block if this block falls
+     * through to it, followed by the targets of its last instruction in
+     * order.
+     *
+     * @return the successor blocks
+     */
+    public BasicBlock[] getSuccessors() {
+        return _succs.clone();
+    }
+
+    void setSuccessors(BasicBlock[] succs) {
+        _succs = succs;
+    }
+
+    /**
+     * Return the blocks that pass control to this block, in code order.
+     *
+     * @return the predecessor blocks
+     */
+    public BasicBlock[] getPredecessors() {
+        return _preds.clone();
+    }
+
+    void setPredecessors(BasicBlock[] preds) {
+        _preds = preds;
+    }
+
+    /**
+     * Return the handler blocks that exceptions thrown within this block
+     * may pass to, without duplicates, in handler precedence order.
+     *
+     * @return the exception successor blocks
+     */
+    public BasicBlock[] getExceptionSuccessors() {
+        return _excSuccs.clone();
+    }
+
+    void setExceptionSuccessors(BasicBlock[] succs) {
+        _excSuccs = succs;
+    }
+
+    /**
+     * Return the blocks whose exceptions may pass to this block, in code
+     * order.
+     *
+     * @return the exception predecessor blocks
+     */
+    public BasicBlock[] getExceptionPredecessors() {
+        return _excPreds.clone();
+    }
+
+    void setExceptionPredecessors(BasicBlock[] preds) {
+        _excPreds = preds;
+    }
+
+    /**
+     * Return the exception handlers whose try ranges cover this block, in
+     * precedence order.
+     *
+     * @return the covering exception handlers
+     */
+    public ExceptionHandler[] getExceptionHandlers() {
+        return _handlers.clone();
+    }
+
+    void setExceptionHandlers(ExceptionHandler[] handlers) {
+        _handlers = handlers;
+    }
+
+    /**
+     * Return the successors without copying.
+     */
+    BasicBlock[] getSuccessorsHolder() {
+        return _succs;
+    }
+
+    /**
+     * Return the predecessors without copying.
+     */
+    BasicBlock[] getPredecessorsHolder() {
+        return _preds;
+    }
+
+    /**
+     * Return the exception successors without copying.
+     */
+    BasicBlock[] getExceptionSuccessorsHolder() {
+        return _excSuccs;
+    }
+
+    /**
+     * Return the covering exception handlers without copying.
+     */
+    ExceptionHandler[] getExceptionHandlersHolder() {
+        return _handlers;
+    }
+
+    public String toString() {
+        return "BasicBlock " + _index + " [" + _start + ", " + _end + ")";
+    }
+}
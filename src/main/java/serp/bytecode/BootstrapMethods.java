@@ -62,7 +62,7 @@ public class BootstrapMethods extends Attribute {
 	 * @return the length of the bytecode representation of this attribute in bytes,
 	 *         excluding the name index
 	 */
-    int getLength() {
+    protected int getLength() {
         int length = 2;
         
         for (int i = 0; i < _bootstrapMethods.length; i++) {
@@ -72,7 +72,7 @@ public class BootstrapMethods extends Attribute {
         return length;
     }
 
-    void read(DataInput in, int length) throws IOException {
+    protected void read(DataInput in, int length) throws IOException {
         int num_bootstrap_methods = in.readShort();
         _bootstrapMethods = new BootstrapMethodElement[num_bootstrap_methods];
         
@@ -81,7 +81,7 @@ public class BootstrapMethods extends Attribute {
         }
     }
 
-    void write(DataOutput out, int length) throws IOException {
+    protected void write(DataOutput out, int length) throws IOException {
         out.writeShort(_bootstrapMethods.length);
         
         for (int i = 0; i < _bootstrapMethods.length; i++) {
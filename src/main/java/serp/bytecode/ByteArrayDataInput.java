@@ -0,0 +1,158 @@
+package serp.bytecode;
+
+import java.io.DataInput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+
+import serp.bytecode.lowlevel.ConstantPoolTable;
+
+/**
+ * A {@link DataInput} that reads class file data directly from a byte
+ * array. Unlike a {@link java.io.DataInputStream} over a
+ * {@link java.io.ByteArrayInputStream}, it reads multi-byte values without
+ * per-byte virtual or synchronized calls, decodes strings without
+ * intermediate buffers, and exposes its current offset.
+ */
+final class ByteArrayDataInput implements DataInput {
+    private final byte[] _bytes;
+    private final int _end;
+    private int _pos;
+
+    /**
+     * Read the whole of the given array.
+     */
+    public ByteArrayDataInput(byte[] bytes) {
+        this(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Read <code>length</code> bytes of the given array, starting at
+     * <code>offset</code>.
+     */
+    public ByteArrayDataInput(byte[] bytes, int offset, int length) {
+        _bytes = bytes;
+        _pos = offset;
+        _end = offset + length;
+    }
+
+    /**
+     * Return the offset into the array of the next byte to be read.
+     */
+    public int getOffset() {
+        return _pos;
+    }
+
+    /**
+     * Make sure there are at least the given number of bytes left to read,
+     * and advance past them.
+     *
+     * @return the offset of the first of the bytes
+     */
+    private int advance(int len) throws EOFException {
+        if (len > _end - _pos)
+            throw new EOFException();
+        int pos = _pos;
+        _pos += len;
+        return pos;
+    }
+
+    public void readFully(byte[] b) throws IOException {
+        readFully(b, 0, b.length);
+    }
+
+    public void readFully(byte[] b, int off, int len) throws IOException {
+        System.arraycopy(_bytes, advance(len), b, off, len);
+    }
+
+    public int skipBytes(int n) {
+        n = Math.max(0, Math.min(n, _end - _pos));
+        _pos += n;
+        return n;
+    }
+
+    public boolean readBoolean() throws IOException {
+        return _bytes[advance(1)] != 0;
+    }
+
+    public byte readByte() throws IOException {
+        return _bytes[advance(1)];
+    }
+
+    public int readUnsignedByte() throws IOException {
+        return _bytes[advance(1)] & 0xFF;
+    }
+
+    public short readShort() throws IOException {
+        return (short) ConstantPoolTable.readUnsignedShort(_bytes, advance(2));
+    }
+
+    public int readUnsignedShort() throws IOException {
+        return ConstantPoolTable.readUnsignedShort(_bytes, advance(2));
+    }
+
+    public char readChar() throws IOException {
+        return (char) ConstantPoolTable.readUnsignedShort(_bytes, advance(2));
+    }
+
+    public int readInt() throws IOException {
+        return ConstantPoolTable.readInt(_bytes, advance(4));
+    }
+
+    public long readLong() throws IOException {
+        int pos = advance(8);
+        return ((long) ConstantPoolTable.readInt(_bytes, pos) << 32)
+            | (ConstantPoolTable.readInt(_bytes, pos + 4) & 0xFFFFFFFFL);
+    }
+
+    public float readFloat() throws IOException {
+        return Float.intBitsToFloat(readInt());
+    }
+
+    public double readDouble() throws IOException {
+        return Double.longBitsToDouble(readLong());
+    }
+
+    /**
+     * Read a line of bytes as {@link java.io.DataInputStream#readLine} does:
+     * each byte becomes the char with the same low eight bits, and the line
+     * ends at <code>\n</code>, <code>\r</code> or <code>\r\n</code>, which
+     * is consumed but not returned.
+     *
+     * @return the line, or null at the end of the input
+     */
+    public String readLine() {
+        if (_pos >= _end)
+            return null;
+        int start = _pos;
+        int stop = _end;
+        for (; _pos < _end; _pos++) {
+            if (_bytes[_pos] == '\n') {
+                stop = _pos++;
+                break;
+            }
+            if (_bytes[_pos] == '\r') {
+                stop = _pos++;
+                if (_pos < _end && _bytes[_pos] == '\n')
+                    _pos++;
+                break;
+            }
+        }
+        char[] chars = new char[stop - start];
+        for (int i = 0; i < chars.length; i++)
+            chars[i] = (char) (_bytes[start + i] & 0xFF);
+        return new String(chars);
+    }
+
+    public String readUTF() throws IOException {
+        if (_end - _pos < 2)
+            throw new EOFException();
+        int len = ConstantPoolTable.readUnsignedShort(_bytes, _pos);
+        int pos = advance(2 + len);
+        try {
+            return ConstantPoolTable.readString(_bytes, pos);
+        } catch (ClassFormatError cfe) {
+            throw new UTFDataFormatException(cfe.getMessage());
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package serp.bytecode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import serp.bytecode.lowlevel.ClassSkimmer;
+import serp.bytecode.lowlevel.ConstantPoolTable;
+
+/**
+ * Answers the questions about the class hierarchy that come up when
+ * computing stack map frames: the superclass of a class, whether it is an
+ * interface, and the most specific common superclass of two classes. All
+ * names are in internal form, such as <code>java/lang/String</code> or
+ * <code>[Ljava/lang/String;</code>.
+ *
+ * <p>Classes held by the {@link Project} are resolved from their current
+ * state. Other classes are skimmed from the bytecode found by the class
+ * loader, without being loaded or parsed in full, and what is learned
+ * about them is cached for the lifetime of the hierarchy. Classes that
+ * can't be found can't be placed in the hierarchy, so asking about them
+ * throws an exception rather than guessing at frames the verifier might
+ * reject. Subclasses may override {@link #getSuperclassName} and
+ * {@link #isInterface} to supply the hierarchy some other way, and install
+ * themselves with {@link Project#setClassHierarchy}.</p>
+ *
+ * <p>Hierarchies may be shared by multiple threads.</p>
+ */
+public class ClassHierarchy {
+    private static final String OBJECT = "java/lang/Object";
+    private static final Type ARRAY = new Type(OBJECT, false);
+    private static final Type MISSING = new Type(null, false);
+
+    private final Project _project;
+    private final ClassLoader _loader;
+    private final ConcurrentMap<String,Type> _types =
+        new ConcurrentHashMap<>();
+
+    /**
+     * Constructor; supply the project whose classes take precedence and the
+     * loader used to find the bytecode of other classes. Either may be
+     * null; the loader defaults to the context class loader.
+     *
+     * @param project the project, or null
+     * @param loader the class loader, or null
+     */
+    public ClassHierarchy(Project project, ClassLoader loader) {
+        _project = project;
+        if (loader == null)
+            loader = Thread.currentThread().getContextClassLoader();
+        if (loader == null)
+            loader = ClassHierarchy.class.getClassLoader();
+        _loader = loader;
+    }
+
+    /**
+     * Return the internal name of the superclass of the given class, or null
+     * for <code>java/lang/Object</code>.
+     *
+     * @param name the internal class name
+     * @return the superclass name
+     * @throws IllegalStateException if the class can't be found
+     */
+    public String getSuperclassName(String name) {
+        if (OBJECT.equals(name))
+            return null;
+        BCClass bc = findProjectClass(name);
+        if (bc != null) {
+            String sup = bc.getSuperclassName();
+            return (sup == null) ? null
+                : bc.getProject().getNameCache().getInternalForm(sup, false);
+        }
+        return getType(name).superName;
+    }
+
+    /**
+     * Return true if the given class is an interface.
+     *
+     * @param name the internal class name
+     * @return true for interfaces
+     * @throws IllegalStateException if the class can't be found
+     */
+    public boolean isInterface(String name) {
+        BCClass bc = findProjectClass(name);
+        if (bc != null)
+            return bc.isInterface();
+        return getType(name).iface;
+    }
+
+    /**
+     * Return the most specific class that both of the given classes or
+     * array types are assignable to, as far as the verifier is concerned:
+     * interfaces are treated as <code>java/lang/Object</code>, and
+     * arrays of references merge to arrays of the common superclass of
+     * their components.
+     *
+     * @param name1 the internal name of the first type
+     * @param name2 the internal name of the second type
+     * @return the internal name of the common superclass
+     * @throws IllegalStateException if a class that needs to be placed in
+     * the hierarchy can't be found
+     */
+    public String getCommonSuperclass(String name1, String name2) {
+        if (name1.equals(name2))
+            return name1;
+        if (OBJECT.equals(name1) || OBJECT.equals(name2))
+            return OBJECT;
+
+        boolean array1 = name1.charAt(0) == '[';
+        boolean array2 = name2.charAt(0) == '[';
+        if (array1 || array2) {
+            if (!array1 || !array2)
+                return OBJECT;
+            String comp1 = name1.substring(1);
+            String comp2 = name2.substring(1);
+            if (!isReference(comp1) || !isReference(comp2))
+                return OBJECT;
+            String common = getCommonSuperclass(toName(comp1),
+                toName(comp2));
+            return "[" + ((common.charAt(0) == '[') ? common
+                : "L" + common + ";");
+        }
+
+        if (isInterface(name1) || isInterface(name2))
+            return OBJECT;
+
+        Set<String> supers = new HashSet<>();
+        for (String sup = name1; sup != null; sup = getSuperclassName(sup))
+            if (!supers.add(sup))
+                break;
+        Set<String> seen = new HashSet<>();
+        for (String sup = name2; sup != null && seen.add(sup);
+            sup = getSuperclassName(sup))
+            if (supers.contains(sup))
+                return sup;
+        return OBJECT;
+    }
+
+    /**
+     * Return true if the given array component descriptor is a reference
+     * type.
+     */
+    private static boolean isReference(String desc) {
+        return desc.charAt(0) == 'L' || desc.charAt(0) == '[';
+    }
+
+    /**
+     * Return the internal name of the given reference descriptor.
+     */
+    private static String toName(String desc) {
+        if (desc.charAt(0) == 'L')
+            return desc.substring(1, desc.length() - 1);
+        return desc;
+    }
+
+    /**
+     * Forget everything cached about classes outside the project.
+     */
+    public void clear() {
+        _types.clear();
+    }
+
+    /**
+     * Return the bytecode of the given class, or null if it can't be found.
+     * Uses the class loader by default.
+     *
+     * @param name the internal class name
+     * @return a stream of the class bytecode, or null
+     */
+    protected InputStream getBytecode(String name) {
+        return _loader.getResourceAsStream(name + ".class");
+    }
+
+    /**
+     * Return the class with the given internal name if the project holds
+     * it.
+     */
+    private BCClass findProjectClass(String name) {
+        if (_project == null || name.charAt(0) == '[')
+            return null;
+        return _project.findClass(name.replace('/', '.'));
+    }
+
+    /**
+     * Return the cached hierarchy information for the given class outside
+     * the project, skimming its bytecode on first use.
+     *
+     * @throws IllegalStateException if the class can't be found
+     */
+    private Type getType(String name) {
+        Type type = _types.get(name);
+        if (type == null) {
+            type = readType(name);
+            Type cached = _types.putIfAbsent(name, type);
+            if (cached != null)
+                type = cached;
+        }
+        if (type == MISSING)
+            throw new IllegalStateException("Class " + name.replace('/', '.')
+                + " can't be found to place it in the class hierarchy.");
+        return type;
+    }
+
+    private Type readType(String name) {
+        if (name.charAt(0) == '[')
+            return ARRAY;
+        InputStream in = getBytecode(name);
+        if (in == null)
+            return MISSING;
+        try {
+            ClassSkimmer skim = new ClassSkimmer(new ConstantPoolTable(in));
+            return new Type(skim.getSuperclassName(), (skim.getAccessFlags()
+                & Constants.ACCESS_INTERFACE) != 0);
+        } catch (IOException | RuntimeException e) {
+            return MISSING;
+        } finally {
+            try {
+                in.close();
+            } catch (IOException ioe) {
+            }
+        }
+    }
+
+    /**
+     * What is known about a class outside the project.
+     */
+    private static class Type {
+        public final String superName;
+        public final boolean iface;
+
+        public Type(String superName, boolean iface) {
+            this.superName = superName;
+            this.iface = iface;
+        }
+    }
+}
@@ -126,6 +126,7 @@ public class CmpInstruction extends TypedInstruction {
                 setOpcode(Constants.FCMPL);
             else
                 throw new IllegalArgumentException("Invalid nan for type");
+            break;
         case Constants.DCMPL:
         case Constants.DCMPG:
             if (nan == 1)
@@ -134,6 +135,7 @@ public class CmpInstruction extends TypedInstruction {
                 setOpcode(Constants.DCMPL);
             else
                 throw new IllegalArgumentException("Invalid nan for type");
+            break;
         default:
             if (nan != 0)
                 throw new IllegalArgumentException("Invalid nan for type");
@@ -1,17 +1,18 @@
 package serp.bytecode;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInput;
-import java.io.DataInputStream;
 import java.io.DataOutput;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
 import serp.bytecode.visitor.BCVisitor;
@@ -40,20 +41,33 @@ import serp.bytecode.visitor.BCVisitor;
  * @author Abe White
  */
 public class Code extends Attribute {
+    // spacing between the order numbers of consecutive entries; leaves room
+    // for repeated insertions between two entries before renumbering
+    private static final long ORDER_GAP = 1L << 32;
+
     private final CodeEntry _head;
     private final CodeEntry _tail;
     private CodeIterator _ci;
     private int _maxStack = 0;
     private int _maxLocals = 0;
     private int _size = 0;
-    private Collection<ExceptionHandler> _handlers = new LinkedList<>();
+    private List<ExceptionHandler> _handlers = new LinkedList<>();
     private Collection<Attribute> _attrs = new LinkedList<>();
-    private boolean _byteIndexesValid;
+    private CodeEntry _dirty = null; // first entry w/ possibly stale byteIndex
+    private Instruction[] _byteIndexTable = null;
+    private ControlFlowGraph _cfg = null;
+    private boolean _relaxed = false; // jump forms chosen for current code
+    private byte[] _raw = null; // unparsed code, handlers and attributes
+
+    // the code and exception table as read, to tell whether they've changed
+    private byte[] _readCode = null;
+    private byte[] _readHandlers = null;
 
     Code(int nameIndex, Attributes owner) {
         super(nameIndex, owner);
         _head = new CodeEntry();
         _tail = new CodeEntry();
+        _tail.order = Long.MAX_VALUE;
         _head.next = _tail;
         _tail.prev = _head;
         _ci = new CodeIterator(_head, -1);
@@ -79,6 +93,7 @@ public class Code extends Attribute {
     }
 
     Collection<Attribute> getAttributesHolder() {
+        parse();
         return _attrs;
     }
 
@@ -208,6 +223,7 @@ public class Code extends Attribute {
 
         // check to see if there are any store instructions that
         // try to reference beyond that point
+        parse();
         StoreInstruction store;
         int current;
         for (CodeEntry entry = _head.next; entry != _tail; entry = entry.next) {
@@ -225,32 +241,303 @@ public class Code extends Attribute {
         setMaxLocals(max);
     }
 
+    /**
+     * Calculate and set the stack map frames of this code block, which
+     * record the types of the local variables and stack at the targets of
+     * jumps and exception handlers and after unconditional transfers of
+     * control. Types are inferred from the instructions, and the common
+     * superclasses of merged types are found with the project's
+     * {@link ClassHierarchy}. Unreachable code, which the verifier still
+     * checks, is replaced with <code>nop</code>s ending in
+     * <code>athrow</code> and removed from the ranges of exception handlers;
+     * use {@link #removeUnreachableCode} first to drop it instead.
+     *
+     * @throws IllegalStateException if the code uses <code>jsr</code>
+     * subroutines, which classes with stack map frames may not, if it
+     * merges types whose classes the hierarchy can't find, or if it is
+     * otherwise not verifiable
+     * @see Project#setComputeFrames
+     */
+    public void calculateStackMap() {
+        parse();
+        new FrameAnalyzer(this, getProject().getClassHierarchy()).calculate();
+    }
+
+    /**
+     * Return the control flow graph of this code block. The graph is
+     * cached until the code is next modified: until instructions are
+     * added, removed or replaced, the targets of jumps and switches change,
+     * or exception handlers are added, removed or have their ranges
+     * changed.
+     *
+     * @return the control flow graph
+     */
+    public ControlFlowGraph getControlFlowGraph() {
+        parse();
+        if (_cfg == null)
+            _cfg = new ControlFlowGraph(this);
+        return _cfg;
+    }
+
+    /**
+     * Discard the cached control flow graph, because an instruction or
+     * exception handler has changed.
+     */
+    void invalidateControlFlow() {
+        _cfg = null;
+        _relaxed = false;
+    }
+
     /**
      * Calculate and set the maximum stack depth needed for
-     * the instructions used.
+     * the instructions used. The depth is tracked along the control flow of
+     * the code, so each basic block is examined once, with the stack depth
+     * on entry to it from its first predecessor; exception handlers are
+     * entered with the thrown exception on the stack. Unreachable code is
+     * ignored.
      *
      * @see #setMaxStack
+     * @see #getControlFlowGraph
      */
     public void calculateMaxStack() {
-        int stack = 0;
+        ControlFlowGraph cfg = getControlFlowGraph();
+        Instruction[] insns = cfg.getInstructionsHolder();
+        int[] depths = getStackDepths(cfg);
         int max = 0;
-        ExceptionHandler[] handlers = getExceptionHandlers();
-        Instruction ins;
-        for (CodeEntry entry = _head.next; entry != _tail; entry = entry.next) {
-            ins = (Instruction) entry;
-            stack += ins.getStackChange();
-
-            // if this is the start of a try, the exception will be placed
-            // on the stack
-            for (int j = 0; j < handlers.length; j++)
-                if (handlers[j].getTryStart() == ins)
-                    stack++;
-            if (stack > max)
-                max = stack;
+        for (int i = 0; i < insns.length; i++) {
+            if (depths[i] == -1)
+                continue;
+            max = Math.max(max, depths[i]);
+            max = Math.max(max, depths[i] + insns[i].getStackChange());
         }
         setMaxStack(max);
     }
 
+    /**
+     * Return the stack depth before each instruction of the given graph,
+     * or -1 for unreachable instructions. Each basic block is examined
+     * once, with the stack depth on entry to it from its first predecessor.
+     */
+    static int[] getStackDepths(ControlFlowGraph cfg) {
+        Instruction[] insns = cfg.getInstructionsHolder();
+        int[] result = new int[insns.length];
+        Arrays.fill(result, -1);
+        int blocks = cfg.getBlockCount();
+        if (blocks == 0)
+            return result;
+
+        int[] depths = new int[blocks];
+        Arrays.fill(depths, -1);
+        int[] work = new int[blocks];
+        int top = 0;
+        depths[0] = 0;
+        work[top++] = 0;
+
+        BasicBlock block;
+        BasicBlock[] succs;
+        int stack;
+        int end;
+        int opcode;
+        while (top > 0) {
+            block = cfg.getBlock(work[--top]);
+            stack = depths[block.getIndex()];
+            end = block.getEnd();
+            for (int i = block.getStart(); i < end; i++) {
+                result[i] = stack;
+                stack += insns[i].getStackChange();
+            }
+
+            // the return address pushed by jsr is consumed by the
+            // subroutine, not by the code after the jsr
+            succs = block.getSuccessorsHolder();
+            opcode = insns[end - 1].getOpcode();
+            for (int i = 0; i < succs.length; i++) {
+                top = enqueue(succs[i], (i == 0 && block.isFallThrough()
+                    && (opcode == Constants.JSR || opcode == Constants.JSRW))
+                    ? stack - 1 : stack, depths, work, top);
+            }
+            succs = block.getExceptionSuccessorsHolder();
+            for (int i = 0; i < succs.length; i++)
+                top = enqueue(succs[i], 1, depths, work, top);
+        }
+        return result;
+    }
+
+    /**
+     * Record the stack depth on entry to the given block and queue it if it
+     * has not been reached before.
+     *
+     * @return the new top of the work queue
+     */
+    private static int enqueue(BasicBlock block, int depth, int[] depths,
+        int[] work, int top) {
+        if (depths[block.getIndex()] != -1)
+            return top;
+        depths[block.getIndex()] = Math.max(depth, 0);
+        work[top++] = block.getIndex();
+        return top;
+    }
+
+    /**
+     * Remove the instructions that cannot be reached from the start of this
+     * code block by following the fall-through, jumps, switches and
+     * exception handlers of its instructions. Exception handlers whose try
+     * ranges no longer cover any instruction are removed, as are line
+     * numbers and locals that only applied to removed instructions; other
+     * ranges are trimmed to the remaining instructions. After this method,
+     * the iterator of the code will be {@link #afterLast}.
+     *
+     * @return the number of instructions removed
+     * @see #getControlFlowGraph
+     */
+    public int removeUnreachableCode() {
+        ControlFlowGraph cfg = getControlFlowGraph();
+        Instruction[] insns = cfg.getInstructionsHolder();
+        boolean[] live = new boolean[insns.length];
+        int count = markReachable(cfg, live);
+        if (count == insns.length)
+            return 0;
+
+        // the live instructions before and after each instruction
+        Instruction[] prevs = new Instruction[insns.length];
+        Instruction[] nexts = new Instruction[insns.length];
+        for (int i = 0; i < insns.length; i++)
+            prevs[i] = (live[i]) ? insns[i] : (i == 0) ? null : prevs[i - 1];
+        for (int i = insns.length - 1; i >= 0; i--)
+            nexts[i] = (live[i]) ? insns[i]
+                : (i == insns.length - 1) ? null : nexts[i + 1];
+
+        ExceptionHandler[] handlers = getExceptionHandlers();
+        int start, end;
+        for (int i = 0; i < handlers.length; i++) {
+            start = cfg.indexOf(handlers[i].getTryStart());
+            end = cfg.indexOf(handlers[i].getTryEnd());
+            if (start == -1 || end == -1 || nexts[start] == null
+                || nexts[start].order > insns[end].order)
+                removeExceptionHandler(handlers[i]);
+        }
+        removeUnreachableLines(cfg, live, nexts);
+        removeUnreachableLocals(getLocalVariableTable(false), cfg, nexts);
+        removeUnreachableLocals(getLocalVariableTypeTable(false), cfg, nexts);
+
+        // pointers into dead runs move to the next live instruction, or the
+        // previous one at the end of the code; range ends move back
+        Map<Instruction, Instruction> starts = new IdentityHashMap<>();
+        Map<Instruction, Instruction> ends = new IdentityHashMap<>();
+        StackMapTable frames = getStackMapTable(false);
+        for (int i = 0; i < insns.length; i++) {
+            if (live[i])
+                continue;
+            starts.put(insns[i], (nexts[i] == null) ? prevs[i] : nexts[i]);
+            ends.put(insns[i], (prevs[i] == null) ? nexts[i] : prevs[i]);
+            if (frames != null)
+                frames.removeFrame(insns[i]);
+        }
+        for (int i = 0; i < insns.length; i++) {
+            if (live[i])
+                continue;
+            start = i;
+            while (i + 1 < insns.length && !live[i + 1])
+                i++;
+            unlink(insns[start], insns[i]);
+        }
+        replaceTargets(starts, ends);
+        afterLast();
+        return insns.length - count;
+    }
+
+    /**
+     * Mark the instructions reachable from the first block of the given
+     * graph.
+     *
+     * @return the number of reachable instructions
+     */
+    private static int markReachable(ControlFlowGraph cfg, boolean[] live) {
+        int blocks = cfg.getBlockCount();
+        if (blocks == 0)
+            return 0;
+
+        boolean[] reached = new boolean[blocks];
+        int[] work = new int[blocks];
+        int top = 0;
+        reached[0] = true;
+        work[top++] = 0;
+
+        int count = 0;
+        BasicBlock block;
+        BasicBlock[] succs;
+        while (top > 0) {
+            block = cfg.getBlock(work[--top]);
+            Arrays.fill(live, block.getStart(), block.getEnd(), true);
+            count += block.size();
+            for (int pass = 0; pass < 2; pass++) {
+                succs = (pass == 0) ? block.getSuccessorsHolder()
+                    : block.getExceptionSuccessorsHolder();
+                for (int i = 0; i < succs.length; i++) {
+                    if (reached[succs[i].getIndex()])
+                        continue;
+                    reached[succs[i].getIndex()] = true;
+                    work[top++] = succs[i].getIndex();
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Remove the line numbers starting at unreachable instructions, unless
+     * they are the last to start before the next reachable instruction, in
+     * which case they will move to it.
+     */
+    private void removeUnreachableLines(ControlFlowGraph cfg, boolean[] live,
+        Instruction[] nexts) {
+        LineNumberTable table = getLineNumberTable(false);
+        if (table == null)
+            return;
+
+        LineNumber[] lines = table.getLineNumbers();
+        Map<Instruction, LineNumber> kept = new IdentityHashMap<>();
+        int index;
+        for (int i = 0; i < lines.length; i++) {
+            index = cfg.indexOf(lines[i].getStart());
+            if (index != -1 && live[index])
+                kept.put(lines[i].getStart(), lines[i]);
+        }
+
+        LineNumber other;
+        for (int i = 0; i < lines.length; i++) {
+            index = cfg.indexOf(lines[i].getStart());
+            if (index == -1 || live[index])
+                continue;
+            other = (nexts[index] == null) ? null : kept.get(nexts[index]);
+            if (nexts[index] == null || (other != null
+                && other.getStart().order > lines[i].getStart().order)) {
+                table.removeLineNumber(lines[i]);
+                continue;
+            }
+            if (other != null)
+                table.removeLineNumber(other);
+            kept.put(nexts[index], lines[i]);
+        }
+    }
+
+    /**
+     * Remove the locals of the given table that start in unreachable code
+     * with no reachable instruction after it.
+     */
+    private static void removeUnreachableLocals(LocalTable table,
+        ControlFlowGraph cfg, Instruction[] nexts) {
+        if (table == null)
+            return;
+        Local[] locals = table.getLocals();
+        int index;
+        for (int i = 0; i < locals.length; i++) {
+            index = cfg.indexOf(locals[i].getStart());
+            if (index != -1 && nexts[index] == null)
+                table.removeLocal(locals[i]);
+        }
+    }
+
     ///////////////////////////////
     // ExceptionHandler operations
     ///////////////////////////////
@@ -262,6 +549,7 @@ public class Code extends Attribute {
      * @return the exception handler array
      */
     public ExceptionHandler[] getExceptionHandlers() {
+        parse();
         return (ExceptionHandler[]) _handlers.toArray
             (new ExceptionHandler[_handlers.size()]);
     }
@@ -397,8 +685,10 @@ public class Code extends Attribute {
 	 * @return the exception handler added
      */
     public ExceptionHandler addExceptionHandler() {
+        parse();
         ExceptionHandler handler = new ExceptionHandler(this);
         _handlers.add(handler);
+        _cfg = null;
         return handler;
     }
 
@@ -455,16 +745,43 @@ public class Code extends Attribute {
         return addExceptionHandler(tryStart, tryEnd, handlerStart, catchName);
     }
 
+    /**
+     * Add a handler catching the same type as the given one just after it,
+     * so that the two take the same precedence.
+     */
+    ExceptionHandler splitExceptionHandler(ExceptionHandler handler) {
+        ExceptionHandler split = new ExceptionHandler(this);
+        split.setHandlerStart(handler.getHandlerStart());
+        split.setCatchIndex(handler.getCatchIndex());
+        _handlers.add(_handlers.indexOf(handler) + 1, split);
+        _cfg = null;
+        return split;
+    }
+
+    /**
+     * Add an exception handler at the given position in the precedence
+     * order of the handlers.
+     */
+    ExceptionHandler insertExceptionHandler(int index) {
+        parse();
+        ExceptionHandler handler = new ExceptionHandler(this);
+        _handlers.add(index, handler);
+        _cfg = null;
+        return handler;
+    }
+
     /**
      * Clear all exception handlers.
      */
     public void clearExceptionHandlers() {
+        parse();
         ExceptionHandler handler;
         for (Iterator<ExceptionHandler> itr = _handlers.iterator(); itr.hasNext();) {
             handler = (ExceptionHandler) itr.next();
             itr.remove();
             handler.invalidate();
         }
+        _cfg = null;
     }
 
     /**
@@ -509,9 +826,11 @@ public class Code extends Attribute {
      * @return true if removed
      */
     public boolean removeExceptionHandler(ExceptionHandler handler) {
+        parse();
         if ((handler == null) || !_handlers.remove(handler))
             return false;
         handler.invalidate();
+        _cfg = null;
         return true;
     }
 
@@ -525,6 +844,7 @@ public class Code extends Attribute {
      * @return the number of instructions in the method
      */
     public int size() {
+        parse();
         return _size;
     }
 
@@ -532,6 +852,7 @@ public class Code extends Attribute {
      * Reset the position of the instruction iterator to the first opcode.
      */
     public void beforeFirst() {
+        parse();
         _ci = new CodeIterator(_head, -1);
     }
 
@@ -539,6 +860,7 @@ public class Code extends Attribute {
      * Set the position of the instruction iterator to after the last opcode.
      */
     public void afterLast() {
+        parse();
         if (_size == 0)
             _ci = new CodeIterator(_head, -1);
         else
@@ -574,6 +896,7 @@ public class Code extends Attribute {
 	 * @return true if a subsequent call to {@link #next} will return an instruction
 	 */
     public boolean hasNext() {
+        parse();
         return _ci.hasNext();
     }
 
@@ -585,6 +908,7 @@ public class Code extends Attribute {
 	 *         instruction
 	 */
     public boolean hasPrevious() {
+        parse();
         return _ci.hasPrevious();
     }
 
@@ -594,6 +918,7 @@ public class Code extends Attribute {
      * @return the next instruction
      */
     public Instruction next() {
+        parse();
         return (Instruction) _ci.next();
     }
 
@@ -603,6 +928,7 @@ public class Code extends Attribute {
      * @return the index of the next instruction, or {@link #size} if at end
      */
     public int nextIndex() {
+        parse();
         return _ci.nextIndex();
     }
 
@@ -612,6 +938,7 @@ public class Code extends Attribute {
      * @return the previous instruction
      */
     public Instruction previous() {
+        parse();
         return (Instruction) _ci.previous();
     }
 
@@ -621,6 +948,7 @@ public class Code extends Attribute {
      * @return the index of the previous instruction, or -1 if at beginning
      */
     public int previousIndex() {
+        parse();
         return _ci.previousIndex();
     }
 
@@ -630,6 +958,7 @@ public class Code extends Attribute {
      * @param index the index
      */
     public void before(int index) {
+        parse();
         if (index < 0 || index >= _size)
             throw new IndexOutOfBoundsException(String.valueOf(index));
 
@@ -703,6 +1032,7 @@ public class Code extends Attribute {
     public Instruction add(Instruction ins) {
         Instruction newIns = createInstruction(ins.getOpcode());
         newIns.read(ins);
+        parse();
         _ci.add(newIns);
         return newIns;
     }
@@ -719,6 +1049,7 @@ public class Code extends Attribute {
     public Instruction set(Instruction ins) {
         Instruction newIns = createInstruction(ins.getOpcode());
         newIns.read(ins);
+        parse();
         _ci.set(newIns);
         return newIns;
     }
@@ -742,8 +1073,10 @@ public class Code extends Attribute {
 
 	/**
 	 * Equivalent to looping over each given template/replacement pair and calling
-	 * {@link #replace(Instruction,Instruction)} for each.
-	 * 
+	 * {@link #replace(Instruction,Instruction)} for each. To replace sequences
+	 * of instructions, or to match many patterns in a single pass, use a
+	 * {@link PatternRewriter}.
+	 *
 	 * @param templates the instruction templates
 	 * @param with      the instructions to replace with
 	 * @return the number of substitutions made
@@ -762,15 +1095,166 @@ public class Code extends Attribute {
         return count;
     }
 
+    /**
+     * Replace the given instruction with a new one with the given opcode,
+     * without moving the iterator.
+     */
+    Instruction replace(Instruction ins, int opcode) {
+        Instruction replace = createInstruction(opcode);
+        CodeIterator ci = new CodeIterator(ins.prev, CodeIterator.UNSET);
+        ci.next();
+        ci.set(replace);
+        return replace;
+    }
+
     /**
      * Remove the last iterated instruction.
      *
      * @see ListIterator#remove
      */
     public void remove() {
+        parse();
         _ci.remove();
     }
 
+    /**
+     * Unlink the run of instructions from first through last, inclusive,
+     * without updating the pointers to them; callers retarget them
+     * afterwards through {@link #replaceTargets}. The iterator is placed
+     * where the instructions were.
+     */
+    void unlink(Instruction first, Instruction last) {
+        parse();
+        if (_dirty != null && _dirty.order >= first.order
+            && _dirty.order <= last.order)
+            _dirty = null;
+        CodeEntry next = last.next;
+        first.prev.next = next;
+        next.prev = first.prev;
+        for (CodeEntry entry = first;; entry = entry.next) {
+            ((Instruction) entry).invalidate();
+            _size--;
+            if (entry == last)
+                break;
+        }
+        invalidateByteIndexes(next);
+        _ci = new CodeIterator(next.prev, CodeIterator.UNSET);
+    }
+
+    /**
+     * Retarget all pointers to unlinked instructions in a single pass.
+     * Pointers follow the given start mappings, except for the inclusive
+     * ends of exception handler try ranges and of locals, which follow the
+     * end mappings. Mappings are followed transitively, and an end maps to
+     * null if no instruction is left before the unlinked run. Handlers and
+     * locals whose ranges no longer cover any instruction are removed.
+     */
+    void replaceTargets(Map<Instruction, Instruction> starts,
+        Map<Instruction, Instruction> ends) {
+        parse();
+        if (starts.isEmpty())
+            return;
+
+        Instruction[] targets;
+        Instruction target;
+        for (CodeEntry entry = _head.next; entry != _tail;
+            entry = entry.next) {
+            targets = ControlFlowGraph.getTargets((Instruction) entry);
+            if (targets == null)
+                continue;
+            for (int i = 0; i < targets.length; i++) {
+                target = follow(starts, targets[i]);
+                if (target != targets[i])
+                    ((InstructionPtr) entry).replaceTarget(targets[i], target);
+            }
+        }
+
+        ExceptionHandler handler;
+        Instruction start, end;
+        for (Iterator<ExceptionHandler> itr = _handlers.iterator();
+            itr.hasNext();) {
+            handler = itr.next();
+            start = follow(starts, handler.getTryStart());
+            end = follow(ends, handler.getTryEnd());
+            if (isEmpty(start, end, handler.getTryEnd())) {
+                itr.remove();
+                handler.invalidate();
+                continue;
+            }
+            if (start != handler.getTryStart())
+                handler.setTryStart(start);
+            if (end != handler.getTryEnd())
+                handler.setTryEnd(end);
+            target = follow(starts, handler.getHandlerStart());
+            if (target != handler.getHandlerStart())
+                handler.setHandlerStart(target);
+        }
+
+        LineNumberTable lines = getLineNumberTable(false);
+        if (lines != null) {
+            LineNumber[] numbers = lines.getLineNumbers();
+            for (int i = 0; i < numbers.length; i++) {
+                target = follow(starts, numbers[i].getStart());
+                if (target != numbers[i].getStart())
+                    numbers[i].setStart(target);
+            }
+        }
+        replaceTargets(getLocalVariableTable(false), starts, ends);
+        replaceTargets(getLocalVariableTypeTable(false), starts, ends);
+
+        StackMapTable frames = getStackMapTable(false);
+        if (frames != null)
+            for (Map.Entry<Instruction, Instruction> entry
+                : starts.entrySet())
+                frames.replaceTarget(entry.getKey(), follow(starts,
+                    entry.getValue()));
+        _cfg = null;
+    }
+
+    private static void replaceTargets(LocalTable table,
+        Map<Instruction, Instruction> starts,
+        Map<Instruction, Instruction> ends) {
+        if (table == null)
+            return;
+        Local[] locals = table.getLocals();
+        Instruction start, end;
+        for (int i = 0; i < locals.length; i++) {
+            start = follow(starts, locals[i].getStart());
+            end = follow(ends, locals[i].getEnd());
+            if (isEmpty(start, end, locals[i].getEnd())) {
+                table.removeLocal(locals[i]);
+                continue;
+            }
+            if (start != locals[i].getStart())
+                locals[i].setStart(start);
+            if (end != locals[i].getEnd())
+                locals[i].setEnd(end);
+        }
+    }
+
+    /**
+     * Return true if the retargeted range from start through end covers no
+     * instruction, either because it is reversed or because its original
+     * end maps to null.
+     */
+    private static boolean isEmpty(Instruction start, Instruction end,
+        Instruction origEnd) {
+        if (end == null)
+            return origEnd != null;
+        return start != null && start.order > end.order;
+    }
+
+    /**
+     * Follow the given mappings from an instruction to its final
+     * replacement, which may be null.
+     */
+    private static Instruction follow(Map<Instruction, Instruction> map,
+        Instruction ins) {
+        while (ins != null && map.containsKey(ins))
+            ins = map.get(ins);
+        return ins;
+    }
+
     //////////////////////////
     // Instruction operations
     //////////////////////////
@@ -2208,6 +2692,7 @@ public class Code extends Attribute {
      * @return all the Instructions of this method
      */
     public Instruction[] getInstructions() {
+        parse();
         Instruction[] arr = new Instruction[_size];
         int i = 0;
         for (CodeEntry entry = _head.next; entry != _tail; entry = entry.next)
@@ -2215,12 +2700,15 @@ public class Code extends Attribute {
         return arr;
     }
 
-    int getLength() {
+    protected int getLength() {
         // covers maxStack, maxLocals, codeLength, exceptionTableLength,
         // attributeCount
         int length = 12;
+        if (_raw != null)
+            return length - 8 + _raw.length;
 
         // add code
+        relaxBranches();
         Instruction last = getLastInstruction();
         if (last != null)
             length += last.getByteIndex() + last.getLength();
@@ -2238,6 +2726,7 @@ public class Code extends Attribute {
     @Override
     public void acceptVisit(BCVisitor visit) {
         visit.enterCode(this);
+        parse();
         Instruction ins;
         for (CodeEntry entry = _head.next; entry != _tail; entry = entry.next) {
             ins = (Instruction) entry;
@@ -2338,12 +2827,43 @@ public class Code extends Attribute {
         return removeAttribute(Constants.ATTR_LOCAL_TYPES);
     }
 
+	/**
+	 * Return the stack map frames of the code. Acts internally through the
+	 * {@link Attributes} interface.
+	 *
+	 * @param add if true, a new stack map table will be added if not already
+	 *            present
+	 * @return the stack map table, or null if none and the <code>add</code>
+	 *         param is set to false
+	 */
+    public StackMapTable getStackMapTable(boolean add) {
+        StackMapTable attr = (StackMapTable) getAttribute
+            (Constants.ATTR_STACK_MAP_TABLE);
+        if (!add || (attr != null))
+            return attr;
+        return (StackMapTable) addAttribute(Constants.ATTR_STACK_MAP_TABLE);
+    }
+
+    /**
+     * Remove the stack map table for the code.
+     * Acts internally through the {@link Attributes} interface.
+     *
+     * @return true if there was a table to remove
+     */
+    public boolean removeStackMapTable() {
+        return removeAttribute(Constants.ATTR_STACK_MAP_TABLE);
+    }
+
     //////////////////
     // I/O operations
     //////////////////
 
-    void read(Attribute attr) {
+    protected void read(Attribute attr) {
         Code orig = (Code) attr;
+        orig.parse();
+        _raw = null;
+        _readCode = null;
+        _readHandlers = null;
         _maxStack = orig.getMaxStack();
         _maxLocals = orig.getMaxLocals();
 
@@ -2351,7 +2871,8 @@ public class Code extends Attribute {
         _head.next = _tail;
         _tail.prev = _head;
         _size = 0;
-        _byteIndexesValid = false;
+        _dirty = null;
+        _cfg = null;
         beforeFirst();
         _handlers.clear();
 
@@ -2368,6 +2889,7 @@ public class Code extends Attribute {
             if (!(ins instanceof ConstantInstruction))
                 ins.read(origIns);
         }
+        invalidateByteIndexes();
 
         // copy exception handlers
         ExceptionHandler[] origHandlers = orig.getExceptionHandlers();
@@ -2397,6 +2919,11 @@ public class Code extends Attribute {
         if (lines != null)
             lines.updateTargets();
 
+        // setup stack map frame markers
+        StackMapTable frames = getStackMapTable(false);
+        if (frames != null)
+            frames.updateTargets();
+
         // now copy constant instruction values
         CodeEntry copy = _head.next;
         for (CodeEntry entry = orig._head.next; entry != orig._tail;
@@ -2404,23 +2931,43 @@ public class Code extends Attribute {
             if (entry instanceof ConstantInstruction)
                 ((ConstantInstruction) copy).read((Instruction) entry);
         }
+        _byteIndexTable = null;
         beforeFirst();
     }
 
     @Override
-    void read(DataInput in, int length) throws IOException {
+    protected void read(DataInput in, int length) throws IOException {
         _maxStack = in.readUnsignedShort();
         _maxLocals = in.readUnsignedShort();
-        readCode(in, in.readInt());
+        if (getProject().isLazyCode()) {
+            _raw = new byte[length - 4];
+            in.readFully(_raw);
+        } else {
+            _raw = null;
+            readBody(in);
+        }
+    }
+
+    /**
+     * Read the code, exception handlers and attributes of this block.
+     */
+    private void readBody(DataInput in) throws IOException {
+        byte[] code = new byte[in.readInt()];
+        in.readFully(code);
+        readCode(new ByteArrayDataInput(code), code.length);
+        _readCode = code;
 
         _handlers.clear();
-        int exceptionCount = in.readUnsignedShort();
+        byte[] handlers = new byte[8 * in.readUnsignedShort()];
+        in.readFully(handlers);
+        DataInput handlerIn = new ByteArrayDataInput(handlers);
         ExceptionHandler excep;
-        for (int i = 0; i < exceptionCount; i++) {
+        for (int i = 0; i < handlers.length; i += 8) {
             excep = addExceptionHandler();
-            excep.read(in);
+            excep.read(handlerIn);
             excep.updateTargets();
         }
+        _readHandlers = handlers;
 
         readAttributes(in);
 
@@ -2438,16 +2985,34 @@ public class Code extends Attribute {
         LineNumberTable lines = getLineNumberTable(false);
         if (lines != null)
             lines.updateTargets();
+
+        // setup stack map frame markers
+        StackMapTable frames = getStackMapTable(false);
+        if (frames != null)
+            frames.updateTargets();
+
+        // all ptrs now reference instructions directly; don't hold on to the
+        // lookup table for the lifetime of the class
+        _byteIndexTable = null;
     }
 
     @Override
-    void write(DataOutput out, int length) throws IOException {
+    protected void write(DataOutput out, int length) throws IOException {
         out.writeShort(_maxStack);
         out.writeShort(_maxLocals);
+        if (_raw != null) {
+            out.write(_raw);
+            return;
+        }
 
-        byte[] code = toByteArray();
-        out.writeInt(code.length);
-        out.write(code);
+        relaxBranches();
+        int codeLength = 0;
+        if (_size > 0) {
+            Instruction last = getLastInstruction();
+            codeLength = last.getByteIndex() + last.getLength();
+        }
+        out.writeInt(codeLength);
+        writeCode(out);
 
         out.writeShort(_handlers.size());
         for (Iterator<ExceptionHandler> itr = _handlers.iterator(); itr.hasNext();)
@@ -2456,29 +3021,168 @@ public class Code extends Attribute {
         writeAttributes(out);
     }
 
+    /**
+     * Return true if the instructions or exception handlers of this code
+     * block may have changed since it was read: if it wasn't read from
+     * bytecode, or if they would now be written differently. Unparsed
+     * code is unchanged.
+     */
+    boolean isModified() {
+        if (_raw != null)
+            return false;
+        if (_readCode == null)
+            return true;
+        return !Arrays.equals(_readCode, toCodeBytes())
+            || !Arrays.equals(_readHandlers, toHandlerBytes());
+    }
+
+    /**
+     * Take the instructions and exception handlers as they would now be
+     * written to be those read, so that the block is no longer modified.
+     * Unmodified code whose constant pool indexes are renumbered stays
+     * unmodified this way.
+     */
+    void setUnmodified() {
+        if (_raw != null)
+            return;
+        _readCode = toCodeBytes();
+        _readHandlers = toHandlerBytes();
+    }
+
+    /**
+     * Return the instructions as they would be written.
+     */
+    private byte[] toCodeBytes() {
+        relaxBranches();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            writeCode(new DataOutputStream(bytes));
+        } catch (IOException ioe) {
+            throw new RuntimeException(ioe.toString());
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Return the exception handlers as they would be written.
+     */
+    private byte[] toHandlerBytes() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream
+            (8 * _handlers.size());
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            for (Iterator<ExceptionHandler> itr = _handlers.iterator();
+                itr.hasNext();)
+                itr.next().write(out);
+        } catch (IOException ioe) {
+            throw new RuntimeException(ioe.toString());
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Parse the retained bytes of a lazily read code block. Lazily read
+     * blocks hold on to the raw bytes of their code, exception handlers and
+     * attributes until first accessed, and write them back unchanged if
+     * they never are.
+     */
+    private void parse() {
+        if (_raw == null)
+            return;
+
+        byte[] raw = _raw;
+        _raw = null;
+        try {
+            readBody(new ByteArrayDataInput(raw));
+        } catch (IOException ioe) {
+            throw new RuntimeException(ioe.toString());
+        }
+    }
+
     private void readCode(DataInput in, int len) throws IOException {
         _head.next = _tail;
         _tail.prev = _head;
         _size = 0;
-        _byteIndexesValid = true;
+        _dirty = null;
+        _relaxed = false;
 
         beforeFirst();
+        Instruction[] table = new Instruction[len];
         Instruction ins;
         for (int byteIndex = 0; byteIndex < len;) {
             ins = createInstruction(in.readUnsignedByte());
             _ci.addInternal(ins);
             ins.byteIndex = byteIndex;
             ins.read(in);
+            table[byteIndex] = ins;
             byteIndex += ins.getLength();
         }
+        _byteIndexTable = table;
         updateInstructionPointers();
         beforeFirst();
 
         // sanity check
-        if (!_byteIndexesValid)
+        if (_dirty != null)
             throw new IllegalStateException();
     }
 
+    /**
+     * Choose between the short and wide forms of jumps. All jumps start out
+     * short, and those whose offsets don't fit in a signed short are
+     * widened: <code>goto</code> and <code>jsr</code> to
+     * <code>goto_w</code> and <code>jsr_w</code>, and conditional branches
+     * to the inverted branch over a <code>goto_w</code>. Widening a jump
+     * moves the code after it, which can push other jumps out of range, so
+     * each pass lays out the whole code once, widens every jump out of
+     * range in that layout, and the passes repeat until no more jumps are
+     * widened. The chosen forms are kept until the code changes. This
+     * happens automatically when the code is written, so that jumps are
+     * narrowed again once the code shrinks.
+     */
+    void relaxBranches() {
+        if (_relaxed)
+            return;
+
+        // changing the form of a jump moves the code after it, so first
+        // resolve any targets set by byte index
+        updateInstructionPointers();
+        CodeEntry entry;
+        for (entry = _head.next; entry != _tail; entry = entry.next)
+            if (entry instanceof JumpInstruction
+                && ((JumpInstruction) entry).setWide(false))
+                invalidateByteIndexes(entry);
+
+        // no offset can overflow in short code
+        Instruction last = getLastInstruction();
+        boolean widened = last != null
+            && last.getByteIndex() + last.getLength() > Short.MAX_VALUE;
+        JumpInstruction jump;
+        Instruction target;
+        int offset;
+        while (widened) {
+            // byte indexes are current for the whole code after the
+            // previous pass, so read them directly
+            widened = false;
+            for (entry = _head.next; entry != _tail; entry = entry.next) {
+                if (!(entry instanceof JumpInstruction))
+                    continue;
+                jump = (JumpInstruction) entry;
+                target = jump.getTarget();
+                if (jump.isWide() || target == null)
+                    continue;
+                offset = target.byteIndex - jump.byteIndex;
+                if ((offset < Short.MIN_VALUE || offset > Short.MAX_VALUE)
+                    && jump.setWide(true)) {
+                    invalidateByteIndexes(jump);
+                    widened = true;
+                }
+            }
+            if (widened)
+                calculateByteIndexes(null);
+        }
+        _relaxed = true;
+    }
+
     /**
      * Ensures that all the opcode targets are set up correctly.
      */
@@ -2489,33 +3193,90 @@ public class Code extends Attribute {
     }
 
 	/**
-	 * Returns the byteIndex of the given instruction.
+	 * Returns the byteIndex of the given instruction. Byte indexes are cached
+	 * on the instructions; after a change to the code block only the indexes
+	 * from the first changed instruction up to the requested one are
+	 * recalculated.
 	 * 
 	 * @param ins the instruction
 	 * @return the byte index of the given instruction
 	 */
     int getByteIndex(Instruction ins) {
-        if (_byteIndexesValid && ins.byteIndex != -1)
-            return ins.byteIndex;
+        if (ins.getCode() != this || ins.prev == null)
+            throw new IllegalArgumentException("ins.owner != this");
+        if (_dirty != null && ins.order >= _dirty.order)
+            calculateByteIndexes(ins);
+        return ins.byteIndex;
+    }
+
+    /**
+     * Invalidate all byteindexes when the code block changes.
+     */
+    void invalidateByteIndexes() {
+        invalidateByteIndexes(_head.next);
+    }
+
+    /**
+     * Invalidate the byteindexes of the given entry and all entries after it.
+     * 
+     * @param entry the first entry whose byte index may have changed
+     */
+    void invalidateByteIndexes(CodeEntry entry) {
+        _byteIndexTable = null;
+        _cfg = null;
+        _relaxed = false;
+        if (entry == _tail || entry.prev == null)
+            return;
+        if (_dirty == null || entry.order < _dirty.order)
+            _dirty = entry;
+    }
 
+    /**
+     * Recalculate byte indexes from the first invalid entry through the
+     * given one, or through the end of the code if null.
+     */
+    private void calculateByteIndexes(CodeEntry through) {
+        CodeEntry entry = _dirty;
         int byteIndex = 0;
-        for (CodeEntry entry = _head.next; entry != _tail; entry = entry.next) {
-            if (entry == ins)
-                return byteIndex;
+        if (entry.prev != _head)
+            byteIndex = entry.prev.byteIndex 
+                + ((Instruction) entry.prev).getLength();
+        for (; entry != _tail; entry = entry.next) {
+            // advance the mark before taking the length: switch lengths
+            // depend on their own byte index
+            entry.byteIndex = byteIndex;
+            _dirty = entry.next;
             byteIndex += ((Instruction) entry).getLength();
+            if (entry == through)
+                break;
         }
-        throw new IllegalArgumentException("ins.owner != this");
+        if (_dirty == _tail)
+            _dirty = null;
     }
 
     /**
-     * Invalidate all byteindexes when the code block changes.
+     * Assign the given newly linked entry an order number between those of
+     * its neighbors, renumbering all entries if there is no room.
      */
-    void invalidateByteIndexes() {
-        _byteIndexesValid = false;
+    private void order(CodeEntry entry) {
+        long low = entry.prev.order;
+        long gap = entry.next.order - low;
+        if (gap > 2 * ORDER_GAP)
+            entry.order = low + ORDER_GAP;
+        else if (gap > 1)
+            entry.order = low + gap / 2;
+        else {
+            long order = 0;
+            for (CodeEntry cur = _head.next; cur != _tail; cur = cur.next)
+                cur.order = (order += ORDER_GAP);
+        }
     }
 
     /**
      * Returns the instruction in this code block found at the given byte index.
+     * Lookups go through a table from byte index to instruction that is
+     * filled in as the code is read, and rebuilt on demand after the code
+     * block changes.
      * 
      * @param byteIndex the byte index
      * @return the instruction
@@ -2524,20 +3285,39 @@ public class Code extends Attribute {
         if (byteIndex < 0)
             return null;
 
-        int curIndex = 0;
-        for (CodeEntry entry = _head.next; entry != _tail; entry = entry.next) {
-            if (byteIndex == curIndex)
-                return (Instruction) entry;
-            curIndex += ((Instruction) entry).getLength();
-        }
+        Instruction[] table = getByteIndexTable();
+        if (byteIndex < table.length && table[byteIndex] != null)
+            return table[byteIndex];
 
         // some instruction ptrs are actually to a "next" instruction, so 
         // allow one past the end
-        if (byteIndex == curIndex)
+        if (byteIndex == table.length)
             return null;
         throw new IllegalArgumentException(String.valueOf(byteIndex));
     }
 
+    /**
+     * Return the table mapping byte indexes to the instructions that start
+     * at them, building it if the code has changed since it was last built.
+     */
+    private Instruction[] getByteIndexTable() {
+        if (_byteIndexTable != null)
+            return _byteIndexTable;
+        if (_dirty != null)
+            calculateByteIndexes(null);
+
+        int len = 0;
+        if (_size > 0) {
+            Instruction last = getLastInstruction();
+            len = last.getByteIndex() + last.getLength();
+        }
+        Instruction[] table = new Instruction[len];
+        for (CodeEntry entry = _head.next; entry != _tail; entry = entry.next)
+            table[entry.byteIndex] = (Instruction) entry;
+        _byteIndexTable = table;
+        return table;
+    }
+
     /**
      * Return the first instruction in this code block, or null if none.
      * 
@@ -2578,39 +3358,13 @@ public class Code extends Attribute {
         Instruction ins;
         for (CodeEntry entry = _head.next; entry != _tail; entry = entry.next) {
             ins = (Instruction) entry;
-            out.writeByte(ins.getOpcode());
+            out.writeByte(ins.getWriteOpcode());
             ins.write(out);
         }
     }
 
-    private byte[] toByteArray() throws IOException {
-        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
-        DataOutputStream stream = new DataOutputStream(byteStream);
-        try {
-            writeCode(stream);
-            return byteStream.toByteArray();
-        } finally {
-            try { stream.close(); } catch (Exception e) {}
-        }
-    }
-
-    private void fromByteArray(byte[] code) throws IOException {
-        if (code == null) {
-            _head.next = _tail;
-            _tail.prev = _head;
-            _size = 0;
-        } else {
-            DataInputStream stream = new DataInputStream
-                (new ByteArrayInputStream(code));
-            try {
-                readCode(stream, code.length);
-            } finally {
-                try { stream.close(); } catch (Exception e) {}
-            }
-        }
-    }
-
     private Instruction addInstruction(Instruction ins) {
+        parse();
         _ci.add(ins);
         return ins;
     }
@@ -2869,6 +3623,7 @@ public class Code extends Attribute {
      * @return the {@link ListIterator} object
      */
     public ListIterator listIterator() {
+        parse();
         return new CodeIterator(_head, -1);
     }
 
@@ -2937,7 +3692,7 @@ public class Code extends Attribute {
 
         public void add(Object obj) {
             addInternal(obj);
-            invalidateByteIndexes();
+            invalidateByteIndexes(_last);
         }
 
         private void addInternal(Object obj) {
@@ -2961,6 +3716,7 @@ public class Code extends Attribute {
                     _index++;
             }
 
+            order(ins);
             _bn = ins;
             _last = ins;
             _size++;
@@ -2975,15 +3731,18 @@ public class Code extends Attribute {
             Instruction ins = (Instruction) obj;
             ins.prev = _last.prev;
             ins.next = _last.next;
+            ins.order = _last.order;
             ins.prev.next = ins;
             ins.next.prev = ins;
+            if (_dirty == _last)
+                _dirty = ins;
+            invalidateByteIndexes(ins);
 
             replaceTarget(_last, ins);
             _last.invalidate();
             if (_bn == _last)
                 _bn = ins;
             _last = ins;
-            invalidateByteIndexes();
         }
 
         public void remove() {
@@ -2996,6 +3755,9 @@ public class Code extends Attribute {
             _last.prev.next = _last.next;
             _last.next.prev = _last.prev;
             _size--;
+            if (_dirty == _last)
+                _dirty = null;
+            invalidateByteIndexes(_last.next);
 
             Instruction orig = _last;
             Instruction replace = null;
@@ -3006,7 +3768,6 @@ public class Code extends Attribute {
             replaceTarget(orig, replace);
             orig.invalidate();
             _last = null;
-            invalidateByteIndexes();
         }
 
         private void replaceTarget(Instruction orig, Instruction replace) {
@@ -3035,6 +3796,11 @@ public class Code extends Attribute {
             LocalVariableTypeTable types = getLocalVariableTypeTable(false);
             if (types != null)
                 types.replaceTarget(orig, replace);
+
+            // update StackMapFrame pointers
+            StackMapTable frames = getStackMapTable(false);
+            if (frames != null)
+                frames.replaceTarget(orig, replace);
         }
     }
 }
@@ -9,4 +9,5 @@ class CodeEntry {
     CodeEntry next = null;
     CodeEntry prev = null;
     int byteIndex = -1;
+    long order = 0; // increases along the list; used for position compares
 }
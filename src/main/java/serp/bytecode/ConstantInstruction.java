@@ -105,6 +105,14 @@ public class ConstantInstruction extends TypedInstruction {
         throw new UnsupportedOperationException("Use setValue");
     }
 
+    /**
+     * Return the constant pool index of the value of <code>ldc</code>
+     * instructions.
+     */
+    int getValueIndex() {
+        return _arg;
+    }
+
 	/**
 	 * Return the value of the constant as its wrapper type, or null if not set.
 	 * Returns class values as the class name.
@@ -403,6 +411,19 @@ public class ConstantInstruction extends TypedInstruction {
             ci.getOpcode() == Constants.LDCW);
     }
 
+    /**
+     * Replace the constant index after the constant pool has been
+     * compacted.
+     */
+    void remapIndexes(IndexRemapper remapper) {
+        switch (getOpcode()) {
+        case Constants.LDC:
+        case Constants.LDCW:
+        case Constants.LDC2W:
+            _arg = remapper.remap(_arg);
+        }
+    }
+
     void read(DataInput in) throws IOException {
         super.read(in);
         switch (getOpcode()) {
@@ -445,7 +466,9 @@ public class ConstantInstruction extends TypedInstruction {
             ensureBytecodeVersion();
         } else if (value instanceof Float) {
             float floatVal = ((Float) value).floatValue();
-            if ((floatVal == 0) || (floatVal == 1) || (floatVal == 2))
+            // fconst_0 pushes positive zero only
+            if ((Float.floatToIntBits(floatVal) == 0) || (floatVal == 1)
+                || (floatVal == 2))
                 setOpcode(Constants.FCONST0 + (int) floatVal);
             else {
                 _arg = getPool().findFloatEntry((float) floatVal, true);
@@ -462,7 +485,7 @@ public class ConstantInstruction extends TypedInstruction {
             }
         } else if (value instanceof Double) {
             double doubleVal = ((Double) value).doubleValue();
-            if (doubleVal == 0 || doubleVal == 1)
+            if (Double.doubleToLongBits(doubleVal) == 0L || doubleVal == 1)
                 setOpcode(Constants.DCONST0 + (int) doubleVal);
             else {
                 _arg = getPool().findDoubleEntry(doubleVal, true);
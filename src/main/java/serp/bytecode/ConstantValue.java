@@ -17,7 +17,7 @@ public class ConstantValue extends Attribute {
         super(nameIndex, owner);
     }
 
-    int getLength() {
+    protected int getLength() {
         return 2;
     }
 
@@ -240,15 +240,15 @@ public class ConstantValue extends Attribute {
         visit.exitConstantValue(this);
     }
 
-    void read(Attribute other) {
+    protected void read(Attribute other) {
         setValue(((ConstantValue) other).getValue());
     }
 
-    void read(DataInput in, int length) throws IOException {
+    protected void read(DataInput in, int length) throws IOException {
         setValueIndex(in.readUnsignedShort());
     }
 
-    void write(DataOutput out, int length) throws IOException {
+    protected void write(DataOutput out, int length) throws IOException {
         out.writeShort(getValueIndex());
     }
 }
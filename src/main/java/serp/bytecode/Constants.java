@@ -17,6 +17,8 @@ public interface Constants {
     public static final int MINOR_VERSION = 3;
     public static final int MAJOR_VERSION_JAVA5 = 49;
     public static final int MINOR_VERSION_JAVA5 = 0;
+    public static final int MAJOR_VERSION_JAVA6 = 50;
+    public static final int MINOR_VERSION_JAVA6 = 0;
 
     // access constants for classes, fields, methods
     public static final int ACCESS_PUBLIC = 0x0001;
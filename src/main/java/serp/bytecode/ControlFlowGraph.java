@@ -0,0 +1,415 @@
+package serp.bytecode;
+
+import java.util.Arrays;
+
+/**
+ * The control flow graph of a {@link Code} block: its instructions split
+ * into {@link BasicBlock}s, with the normal edges between them given by
+ * fall-through, jumps and switches, and the exceptional edges given by the
+ * exception handlers of the code.
+ *
+ * <p>Blocks are also split where the try range of an exception handler
+ * starts and after it ends, so that each block is either wholly covered by
+ * a handler or not at all. <code>jsr</code> instructions have edges both
+ * to their subroutine and to the instruction following them; the
+ * <code>ret</code> instructions of subroutines have no successors.</p>
+ *
+ * <p>A graph is a snapshot of the code block it was built from. Obtain
+ * graphs through {@link Code#getControlFlowGraph}, which caches the graph
+ * until the code is next modified.</p>
+ */
+public class ControlFlowGraph {
+    private static final BasicBlock[] EMPTY = new BasicBlock[0];
+    private static final ExceptionHandler[] NO_HANDLERS =
+        new ExceptionHandler[0];
+
+    // instruction marks
+    private static final byte LEADER = 1;
+    private static final byte TARGET = 2;
+    private static final byte HANDLER = 4;
+
+    private final Code _code;
+    private final Instruction[] _insns;
+    private final ExceptionHandler[] _handlers;
+    private final BasicBlock[] _blocks;
+
+    // the block of each instruction
+    private final int[] _blockOf;
+
+    ControlFlowGraph(Code code) {
+        _code = code;
+        _insns = code.getInstructions();
+        _handlers = code.getExceptionHandlers();
+
+        int n = _insns.length;
+        byte[] marks = new byte[n + 1];
+        int count = mark(marks);
+        _blocks = new BasicBlock[count];
+        _blockOf = new int[n];
+        int block = -1;
+        for (int i = 0; i < n; i++) {
+            if ((marks[i] & LEADER) != 0) {
+                if (block >= 0)
+                    _blocks[block].setEnd(i);
+                _blocks[++block] = new BasicBlock(this, block, i,
+                    (marks[i] & TARGET) != 0, (marks[i] & HANDLER) != 0);
+            }
+            _blockOf[i] = block;
+        }
+        if (block >= 0)
+            _blocks[block].setEnd(n);
+
+        link();
+        linkHandlers();
+    }
+
+    /**
+     * Mark the first instruction of every block, the targets of jumps and
+     * the starts of exception handlers.
+     *
+     * @return the number of blocks
+     */
+    private int mark(byte[] marks) {
+        int n = _insns.length;
+        if (n == 0)
+            return 0;
+
+        marks[0] = LEADER;
+        Instruction[] targets;
+        for (int i = 0; i < n; i++) {
+            targets = getTargets(_insns[i]);
+            if (targets != null) {
+                for (int j = 0; j < targets.length; j++)
+                    marks[resolve(targets[j])] |= LEADER | TARGET;
+                marks[i + 1] |= LEADER;
+            } else if (!isFallThrough(_insns[i].getOpcode()))
+                marks[i + 1] |= LEADER;
+        }
+
+        int start;
+        int end;
+        for (int i = 0; i < _handlers.length; i++) {
+            start = resolve(_handlers[i].getTryStart());
+            end = resolve(_handlers[i].getTryEnd());
+            marks[start] |= LEADER;
+            marks[end + 1] |= LEADER;
+            marks[resolve(_handlers[i].getHandlerStart())] |= LEADER
+                | HANDLER;
+        }
+
+        int count = 0;
+        for (int i = 0; i < n; i++)
+            if ((marks[i] & LEADER) != 0)
+                count++;
+        return count;
+    }
+
+    /**
+     * Calculate the normal successors and predecessors of all blocks.
+     */
+    private void link() {
+        int[][] succs = new int[_blocks.length][];
+        int[] predCounts = new int[_blocks.length];
+        int[] seen = new int[_blocks.length];
+        Arrays.fill(seen, -1);
+        int[] buf = new int[4];
+        Instruction ins;
+        Instruction[] targets;
+        int count;
+        int end;
+        for (int i = 0; i < _blocks.length; i++) {
+            end = _blocks[i].getEnd();
+            ins = _insns[end - 1];
+            count = 0;
+            if (end < _insns.length && isFallThrough(ins.getOpcode())) {
+                seen[i + 1] = i;
+                buf[count++] = i + 1;
+            }
+            targets = getTargets(ins);
+            for (int j = 0; targets != null && j < targets.length; j++) {
+                int target = _blockOf[resolve(targets[j])];
+                if (seen[target] == i)
+                    continue;
+                seen[target] = i;
+                if (count == buf.length)
+                    buf = Arrays.copyOf(buf, count * 2);
+                buf[count++] = target;
+            }
+            succs[i] = Arrays.copyOf(buf, count);
+            for (int j = 0; j < count; j++)
+                predCounts[buf[j]]++;
+        }
+
+        BasicBlock[][] preds = allocate(predCounts);
+        for (int i = 0; i < _blocks.length; i++) {
+            BasicBlock[] blocks = toBlocks(succs[i]);
+            _blocks[i].setSuccessors(blocks);
+            for (int j = 0; j < blocks.length; j++)
+                preds[blocks[j].getIndex()][--predCounts[blocks[j].
+                    getIndex()]] = _blocks[i];
+        }
+        for (int i = 0; i < _blocks.length; i++) {
+            reverse(preds[i]);
+            _blocks[i].setPredecessors(preds[i]);
+        }
+    }
+
+    /**
+     * Calculate the exception handlers covering each block and the
+     * exceptional edges between blocks.
+     */
+    private void linkHandlers() {
+        int[] counts = new int[_blocks.length];
+        int[] starts = new int[_handlers.length];
+        int[] ends = new int[_handlers.length];
+        int[] targets = new int[_handlers.length];
+        for (int i = 0; i < _handlers.length; i++) {
+            starts[i] = _blockOf[resolve(_handlers[i].getTryStart())];
+            ends[i] = _blockOf[resolve(_handlers[i].getTryEnd())];
+            targets[i] = _blockOf[resolve(_handlers[i].getHandlerStart())];
+            for (int j = starts[i]; j <= ends[i]; j++)
+                counts[j]++;
+        }
+
+        int[][] covering = new int[_blocks.length][];
+        for (int i = 0; i < _blocks.length; i++)
+            covering[i] = new int[counts[i]];
+        Arrays.fill(counts, 0);
+        for (int i = 0; i < _handlers.length; i++)
+            for (int j = starts[i]; j <= ends[i]; j++)
+                covering[j][counts[j]++] = i;
+
+        // exception successors are the distinct handler blocks, in
+        // precedence order
+        int[][] succs = new int[_blocks.length][];
+        int[] predCounts = new int[_blocks.length];
+        int[] seen = new int[_blocks.length];
+        Arrays.fill(seen, -1);
+        int[] buf = new int[_handlers.length];
+        ExceptionHandler[] handlers;
+        int count;
+        int target;
+        for (int i = 0; i < _blocks.length; i++) {
+            handlers = (covering[i].length == 0) ? NO_HANDLERS
+                : new ExceptionHandler[covering[i].length];
+            count = 0;
+            for (int j = 0; j < covering[i].length; j++) {
+                handlers[j] = _handlers[covering[i][j]];
+                target = targets[covering[i][j]];
+                if (seen[target] == i)
+                    continue;
+                seen[target] = i;
+                buf[count++] = target;
+                predCounts[target]++;
+            }
+            _blocks[i].setExceptionHandlers(handlers);
+            succs[i] = Arrays.copyOf(buf, count);
+        }
+
+        BasicBlock[][] preds = allocate(predCounts);
+        for (int i = 0; i < _blocks.length; i++) {
+            BasicBlock[] blocks = toBlocks(succs[i]);
+            _blocks[i].setExceptionSuccessors(blocks);
+            for (int j = 0; j < blocks.length; j++)
+                preds[blocks[j].getIndex()][--predCounts[blocks[j].
+                    getIndex()]] = _blocks[i];
+        }
+        for (int i = 0; i < _blocks.length; i++) {
+            reverse(preds[i]);
+            _blocks[i].setExceptionPredecessors(preds[i]);
+        }
+    }
+
+    private static BasicBlock[][] allocate(int[] counts) {
+        BasicBlock[][] arrs = new BasicBlock[counts.length][];
+        for (int i = 0; i < counts.length; i++)
+            arrs[i] = (counts[i] == 0) ? EMPTY : new BasicBlock[counts[i]];
+        return arrs;
+    }
+
+    private BasicBlock[] toBlocks(int[] indexes) {
+        if (indexes.length == 0)
+            return EMPTY;
+        BasicBlock[] blocks = new BasicBlock[indexes.length];
+        for (int i = 0; i < indexes.length; i++)
+            blocks[i] = _blocks[indexes[i]];
+        return blocks;
+    }
+
+    private static void reverse(BasicBlock[] blocks) {
+        BasicBlock tmp;
+        for (int i = 0, j = blocks.length - 1; i < j; i++, j--) {
+            tmp = blocks[i];
+            blocks[i] = blocks[j];
+            blocks[j] = tmp;
+        }
+    }
+
+    /**
+     * Return the code block this graph was built from.
+     *
+     * @return the code block
+     */
+    public Code getCode() {
+        return _code;
+    }
+
+    /**
+     * Return the basic blocks of the code, in code order. The first block,
+     * if any, is the entry block.
+     *
+     * @return the blocks
+     */
+    public BasicBlock[] getBlocks() {
+        return _blocks.clone();
+    }
+
+    /**
+     * Return the number of basic blocks.
+     *
+     * @return the block count
+     */
+    public int getBlockCount() {
+        return _blocks.length;
+    }
+
+    /**
+     * Return the basic block with the given index.
+     *
+     * @param index the block index
+     * @return the block
+     */
+    public BasicBlock getBlock(int index) {
+        return _blocks[index];
+    }
+
+    /**
+     * Return the basic block containing the given instruction, or null if
+     * the instruction is not part of the code this graph was built from.
+     *
+     * @param ins the instruction
+     * @return the block containing the instruction, or null
+     */
+    public BasicBlock getBlock(Instruction ins) {
+        int index = indexOf(ins);
+        return (index == -1) ? null : _blocks[_blockOf[index]];
+    }
+
+    /**
+     * Return the instructions of the code, in code order.
+     *
+     * @return the instructions
+     */
+    public Instruction[] getInstructions() {
+        return _insns.clone();
+    }
+
+    /**
+     * Return the exception handlers of the code, in precedence order.
+     *
+     * @return the exception handlers
+     */
+    public ExceptionHandler[] getExceptionHandlers() {
+        return _handlers.clone();
+    }
+
+    /**
+     * Return the instructions without copying.
+     */
+    Instruction[] getInstructionsHolder() {
+        return _insns;
+    }
+
+    /**
+     * Return the block index of each instruction without copying.
+     */
+    int[] getBlockIndexes() {
+        return _blockOf;
+    }
+
+    /**
+     * Return the index of the given instruction in the code, or -1 if it
+     * is not part of the code. Instructions are found with a binary search
+     * on their position order.
+     */
+    int indexOf(Instruction ins) {
+        if (ins == null || ins.getCode() != _code)
+            return -1;
+        long order = ins.order;
+        int low = 0;
+        int high = _insns.length - 1;
+        int mid;
+        while (low <= high) {
+            mid = (low + high) >>> 1;
+            if (_insns[mid].order < order)
+                low = mid + 1;
+            else if (_insns[mid].order > order)
+                high = mid - 1;
+            else
+                return (_insns[mid] == ins) ? mid : -1;
+        }
+        return -1;
+    }
+
+    /**
+     * Return the index of the given jump or handler target.
+     */
+    private int resolve(Instruction target) {
+        int index = indexOf(target);
+        if (index == -1)
+            throw new IllegalStateException("Invalid instruction target in "
+                + _code.getMethod() + ": " + target);
+        return index;
+    }
+
+    /**
+     * Return the targets of the given jump or switch instruction, with the
+     * default target of switches first, or null if it is neither.
+     */
+    static Instruction[] getTargets(Instruction ins) {
+        Instruction def;
+        Instruction[] cases;
+        if (ins instanceof TableSwitchInstruction) {
+            def = ((TableSwitchInstruction) ins).getDefaultTarget();
+            cases = ((TableSwitchInstruction) ins).getTargets();
+        } else if (ins instanceof LookupSwitchInstruction) {
+            def = ((LookupSwitchInstruction) ins).getDefaultTarget();
+            cases = ((LookupSwitchInstruction) ins).getTargets();
+        } else if (ins instanceof SwitchInstruction) {
+            def = ((SwitchInstruction) ins).getDefaultTarget();
+            cases = ((SwitchInstruction) ins).getTargets();
+        } else if (ins instanceof JumpInstruction)
+            return new Instruction[]{ ((JumpInstruction) ins).getTarget() };
+        else
+            return null;
+
+        Instruction[] targets = new Instruction[cases.length + 1];
+        targets[0] = def;
+        System.arraycopy(cases, 0, targets, 1, cases.length);
+        return targets;
+    }
+
+    /**
+     * Return true if execution can continue with the instruction after
+     * one with the given opcode.
+     */
+    static boolean isFallThrough(int opcode) {
+        switch (opcode) {
+        case Constants.GOTO:
+        case Constants.GOTOW:
+        case Constants.TABLESWITCH:
+        case Constants.LOOKUPSWITCH:
+        case Constants.RET:
+        case Constants.ATHROW:
+        case Constants.IRETURN:
+        case Constants.LRETURN:
+        case Constants.FRETURN:
+        case Constants.DRETURN:
+        case Constants.ARETURN:
+        case Constants.RETURN:
+            return false;
+        default:
+            return true;
+        }
+    }
+}
@@ -19,7 +19,7 @@ public class Exceptions extends Attribute {
         super(nameIndex, owner);
     }
 
-    int getLength() {
+    protected int getLength() {
         return 2 + (2 * _indexes.size());
     }
 
@@ -293,18 +293,18 @@ public class Exceptions extends Attribute {
         visit.exitExceptions(this);
     }
 
-    void read(Attribute other) {
+    protected void read(Attribute other) {
         setExceptions(((Exceptions) other).getExceptionNames());
     }
 
-    void read(DataInput in, int length) throws IOException {
+    protected void read(DataInput in, int length) throws IOException {
         _indexes.clear();
         int exceptionCount = in.readUnsignedShort();
         for (int i = 0; i < exceptionCount; i++)
             _indexes.add(Numbers.valueOf((int) in.readUnsignedShort()));
     }
 
-    void write(DataOutput out, int length) throws IOException {
+    protected void write(DataOutput out, int length) throws IOException {
         out.writeShort(_indexes.size());
         for (Iterator<Number> itr = _indexes.iterator(); itr.hasNext();)
             out.writeShort(itr.next().shortValue());
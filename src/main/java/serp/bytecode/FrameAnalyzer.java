@@ -0,0 +1,1108 @@
+package serp.bytecode;
+
+import java.util.*;
+
+import serp.bytecode.lowlevel.*;
+
+/**
+ * Calculates the {@link StackMapTable} of a code block by inferring the
+ * types of its local variables and operand stack with a data flow analysis
+ * over its basic blocks.
+ *
+ * <p>Types are held as ints to keep the analysis of large methods cheap:
+ * the low four bits hold the {@link VerificationType} tag, and the rest
+ * the index of the class name of object types or of the instruction
+ * creating uninitialized types. As in the JVM, <code>long</code> and
+ * <code>double</code> values occupy two slots, the second of which is
+ * top.</p>
+ *
+ * @see Code#calculateStackMap
+ */
+class FrameAnalyzer {
+    private static final int TOP = VerificationType.ITEM_TOP;
+    private static final int INTEGER = VerificationType.ITEM_INTEGER;
+    private static final int FLOAT = VerificationType.ITEM_FLOAT;
+    private static final int DOUBLE = VerificationType.ITEM_DOUBLE;
+    private static final int LONG = VerificationType.ITEM_LONG;
+    private static final int NULL = VerificationType.ITEM_NULL;
+    private static final int UNINITIALIZED_THIS =
+        VerificationType.ITEM_UNINITIALIZED_THIS;
+    private static final int OBJECT = VerificationType.ITEM_OBJECT;
+    private static final int UNINITIALIZED =
+        VerificationType.ITEM_UNINITIALIZED;
+
+    private static final String THROWABLE = "java/lang/Throwable";
+
+    private final Code _code;
+    private final ClassHierarchy _hierarchy;
+    private final ConstantPool _pool;
+
+    // class names of object types
+    private final List<String> _names = new ArrayList<>();
+    private final Map<String,Integer> _ids = new HashMap<>();
+    private final Map<Long,Integer> _merges = new HashMap<>();
+    private int[] _classIndexes = null;
+
+    private ControlFlowGraph _cfg;
+    private Instruction[] _insns;
+    private int _maxLocals;
+
+    // the first instruction of each basic block, followed by the
+    // instruction count; the block of each instruction; whether each block
+    // needs a frame; and the exception handlers covering each block
+    private int[] _starts;
+    private int[] _blocks;
+    private boolean[] _framed;
+    private int[][] _covering;
+
+    // try start, inclusive try end, handler block and caught type of each
+    // exception handler
+    private ExceptionHandler[] _handlers;
+    private int[] _tryStarts;
+    private int[] _tryEnds;
+    private int[] _handlerBlocks;
+    private int[] _catchTypes;
+    private final int[] _caught = new int[1];
+
+    // the state on entry to each block, or null if not yet reached
+    private int[][] _entryLocals;
+    private int[][] _entryStacks;
+    private final BitSet _work = new BitSet();
+
+    // the state of the instruction being interpreted
+    private int[] _locals;
+    private int[] _stack = new int[16];
+    private int _top = 0;
+
+    public FrameAnalyzer(Code code, ClassHierarchy hierarchy) {
+        _code = code;
+        _hierarchy = hierarchy;
+        _pool = code.getPool();
+    }
+
+    /**
+     * Replace the stack map table of the code with frames calculated from
+     * its instructions.
+     */
+    public void calculate() {
+        _cfg = _code.getControlFlowGraph();
+        _insns = _cfg.getInstructions();
+        if (_insns.length == 0) {
+            _code.removeStackMapTable();
+            return;
+        }
+
+        index();
+        findBlocks();
+        analyze();
+        removeDeadCode();
+        frameWideBranches();
+        writeFrames();
+    }
+
+    /**
+     * Find the number of locals used, and check for subroutines.
+     */
+    private void index() {
+        int max = _code.getMaxLocals();
+        Instruction ins;
+        int local;
+        for (int i = 0; i < _insns.length; i++) {
+            ins = _insns[i];
+            switch (ins.getOpcode()) {
+            case Constants.JSR:
+            case Constants.JSRW:
+            case Constants.RET:
+                throw new IllegalStateException("Stack map frames can't be "
+                    + "calculated for code with jsr subroutines: "
+                    + _code.getMethod());
+            }
+            if (ins instanceof LocalVariableInstruction) {
+                local = ((LocalVariableInstruction) ins).getLocal()
+                    + (isWideLocal(ins) ? 2 : 1);
+                max = Math.max(max, local);
+            }
+        }
+        _maxLocals = max;
+    }
+
+    /**
+     * Record the basic blocks of the code, and which of them need frames:
+     * those that are jumped to, that handle exceptions, or that follow
+     * unconditional transfers of control.
+     */
+    private void findBlocks() {
+        BasicBlock[] blocks = _cfg.getBlocks();
+        _starts = new int[blocks.length + 1];
+        _framed = new boolean[blocks.length];
+        for (int i = 0; i < blocks.length; i++) {
+            _starts[i] = blocks[i].getStart();
+            _framed[i] = blocks[i].isJumpTarget()
+                || blocks[i].isExceptionHandler()
+                || (i > 0 && !blocks[i - 1].isFallThrough());
+        }
+        _starts[blocks.length] = _insns.length;
+        _blocks = _cfg.getBlockIndexes();
+
+        _handlers = _cfg.getExceptionHandlers();
+        _tryStarts = new int[_handlers.length];
+        _tryEnds = new int[_handlers.length];
+        _handlerBlocks = new int[_handlers.length];
+        _catchTypes = new int[_handlers.length];
+        Map<ExceptionHandler,Integer> indexes = new IdentityHashMap<>();
+        int index;
+        for (int i = 0; i < _handlers.length; i++) {
+            _tryStarts[i] = _cfg.indexOf(_handlers[i].getTryStart());
+            _tryEnds[i] = _cfg.indexOf(_handlers[i].getTryEnd());
+            _handlerBlocks[i] = _cfg.getBlock(_handlers[i].getHandlerStart()).
+                getIndex();
+            index = _handlers[i].getCatchIndex();
+            _catchTypes[i] = object((index == 0) ? THROWABLE
+                : getClassName(index));
+            indexes.put(_handlers[i], i);
+        }
+
+        // blocks are split at the ends of try ranges, so each block is
+        // either wholly covered by a handler or not at all
+        _covering = new int[blocks.length][];
+        ExceptionHandler[] covering;
+        for (int i = 0; i < blocks.length; i++) {
+            covering = blocks[i].getExceptionHandlersHolder();
+            _covering[i] = new int[covering.length];
+            for (int j = 0; j < covering.length; j++)
+                _covering[i][j] = indexes.get(covering[j]);
+        }
+    }
+
+    /**
+     * Calculate the entry state of every reachable block.
+     */
+    private void analyze() {
+        int blocks = _starts.length - 1;
+        _entryLocals = new int[blocks][];
+        _entryStacks = new int[blocks][];
+
+        _locals = new int[_maxLocals];
+        Arrays.fill(_locals, TOP);
+        initLocals();
+        mergeInto(0, _locals, _stack, 0);
+
+        int end;
+        int[] covering;
+        boolean changed;
+        for (int block = _work.nextSetBit(0); block != -1;
+            block = _work.nextSetBit(0)) {
+            _work.clear(block);
+            System.arraycopy(_entryLocals[block], 0, _locals, 0, _maxLocals);
+            _top = 0;
+            for (int i = 0; i < _entryStacks[block].length; i++)
+                push(_entryStacks[block][i]);
+
+            end = _starts[block + 1];
+            covering = _covering[block];
+            for (int i = _starts[block]; i < end; i++) {
+                for (int j = 0; j < covering.length; j++)
+                    mergeHandler(covering[j]);
+                changed = execute(i);
+                if (changed)
+                    for (int j = 0; j < covering.length; j++)
+                        mergeHandler(covering[j]);
+            }
+            mergeSuccessors(block);
+        }
+    }
+
+    /**
+     * Set the types of the receiver and parameters of the method.
+     */
+    private void initLocals() {
+        BCMethod method = _code.getMethod();
+        int local = 0;
+        if (!method.isStatic()) {
+            BCClass owner = method.getDeclarer();
+            if ("<init>".equals(method.getName())
+                && !"java.lang.Object".equals(owner.getName()))
+                _locals[local++] = UNINITIALIZED_THIS;
+            else
+                _locals[local++] = object(getClassName(owner.getIndex()));
+        }
+
+        String desc = method.getDescriptor();
+        int type;
+        for (int i = 1; desc.charAt(i) != ')'; i = skipType(desc, i)) {
+            type = getType(desc, i);
+            _locals[local++] = type;
+            if (isWide(type))
+                _locals[local++] = TOP;
+        }
+    }
+
+    /**
+     * Merge the current state into the successors of the given block.
+     */
+    private void mergeSuccessors(int block) {
+        BasicBlock[] succs = _cfg.getBlock(block).getSuccessorsHolder();
+        for (int i = 0; i < succs.length; i++)
+            mergeInto(succs[i].getIndex(), _locals, _stack, _top);
+
+        int last = _starts[block + 1] - 1;
+        if (last + 1 == _insns.length && ControlFlowGraph.isFallThrough
+            (_insns[last].getOpcode()))
+            throw new IllegalStateException("Execution falls off the end of "
+                + "the code of " + _code.getMethod());
+    }
+
+    /**
+     * Merge the current locals into the entry state of the given exception
+     * handler.
+     */
+    private void mergeHandler(int handler) {
+        _caught[0] = _catchTypes[handler];
+        mergeInto(_handlerBlocks[handler], _locals, _caught, 1);
+    }
+
+    /**
+     * Merge the given state into the entry state of a block, queueing the
+     * block for analysis if its state changes.
+     */
+    private void mergeInto(int block, int[] locals, int[] stack, int top) {
+        int[] entryLocals = _entryLocals[block];
+        if (entryLocals == null) {
+            _entryLocals[block] = locals.clone();
+            _entryStacks[block] = Arrays.copyOf(stack, top);
+            _work.set(block);
+            return;
+        }
+
+        int[] entryStack = _entryStacks[block];
+        if (entryStack.length != top)
+            throw new IllegalStateException("Inconsistent stack heights at "
+                + "byte index " + _insns[_starts[block]].getByteIndex()
+                + " of " + _code.getMethod());
+
+        boolean changed = false;
+        int merged;
+        for (int i = 0; i < entryLocals.length; i++) {
+            merged = merge(entryLocals[i], locals[i]);
+            if (merged != entryLocals[i]) {
+                entryLocals[i] = merged;
+                changed = true;
+            }
+        }
+        for (int i = 0; i < top; i++) {
+            merged = merge(entryStack[i], stack[i]);
+            if (merged != entryStack[i]) {
+                entryStack[i] = merged;
+                changed = true;
+            }
+        }
+        if (changed)
+            _work.set(block);
+    }
+
+    /**
+     * Return the most specific type both given types are assignable to.
+     */
+    private int merge(int type1, int type2) {
+        if (type1 == type2)
+            return type1;
+        int tag1 = type1 & 0xF;
+        int tag2 = type2 & 0xF;
+        if (tag1 == NULL && tag2 == OBJECT)
+            return type2;
+        if (tag2 == NULL && tag1 == OBJECT)
+            return type1;
+        if (tag1 != OBJECT || tag2 != OBJECT)
+            return TOP;
+
+        Long key = (type1 < type2) ? ((long) type1 << 32 | type2)
+            : ((long) type2 << 32 | type1);
+        Integer merged = _merges.get(key);
+        if (merged == null) {
+            merged = object(_hierarchy.getCommonSuperclass(getName(type1),
+                getName(type2)));
+            _merges.put(key, merged);
+        }
+        return merged;
+    }
+
+    /**
+     * Apply the given instruction to the current state.
+     *
+     * @return true if the instruction changed the locals
+     */
+    private boolean execute(int index) {
+        Instruction ins = _insns[index];
+        int opcode = ins.getOpcode();
+        int type;
+        String desc;
+        switch (opcode) {
+        case Constants.NOP:
+        case Constants.GOTO:
+        case Constants.GOTOW:
+        case Constants.RETURN:
+            return false;
+        case Constants.ACONSTNULL:
+            push(NULL);
+            return false;
+        case Constants.ICONSTM1:
+        case Constants.ICONST0:
+        case Constants.ICONST1:
+        case Constants.ICONST2:
+        case Constants.ICONST3:
+        case Constants.ICONST4:
+        case Constants.ICONST5:
+        case Constants.BIPUSH:
+        case Constants.SIPUSH:
+            push(INTEGER);
+            return false;
+        case Constants.LCONST0:
+        case Constants.LCONST1:
+            push2(LONG);
+            return false;
+        case Constants.FCONST0:
+        case Constants.FCONST1:
+        case Constants.FCONST2:
+            push(FLOAT);
+            return false;
+        case Constants.DCONST0:
+        case Constants.DCONST1:
+            push2(DOUBLE);
+            return false;
+        case Constants.LDC:
+        case Constants.LDCW:
+        case Constants.LDC2W:
+            pushConstant(_pool.getEntry(((ConstantInstruction) ins).
+                getValueIndex()));
+            return false;
+        case Constants.IALOAD:
+        case Constants.BALOAD:
+        case Constants.CALOAD:
+        case Constants.SALOAD:
+            pop(2);
+            push(INTEGER);
+            return false;
+        case Constants.LALOAD:
+            pop(2);
+            push2(LONG);
+            return false;
+        case Constants.FALOAD:
+            pop(2);
+            push(FLOAT);
+            return false;
+        case Constants.DALOAD:
+            pop(2);
+            push2(DOUBLE);
+            return false;
+        case Constants.AALOAD:
+            pop();
+            type = pop();
+            if ((type & 0xF) == OBJECT && getName(type).charAt(0) == '[')
+                push(getType(getName(type), 1));
+            else if (type == NULL)
+                push(NULL);
+            else
+                push(object("java/lang/Object"));
+            return false;
+        case Constants.IASTORE:
+        case Constants.BASTORE:
+        case Constants.CASTORE:
+        case Constants.SASTORE:
+        case Constants.FASTORE:
+        case Constants.AASTORE:
+            pop(3);
+            return false;
+        case Constants.LASTORE:
+        case Constants.DASTORE:
+            pop(4);
+            return false;
+        case Constants.POP:
+            pop();
+            return false;
+        case Constants.POP2:
+            pop(2);
+            return false;
+        case Constants.DUP:
+            push(_stack[_top - 1]);
+            return false;
+        case Constants.DUPX1:
+            insert(2, 1);
+            return false;
+        case Constants.DUPX2:
+            insert(3, 1);
+            return false;
+        case Constants.DUP2:
+            insert(2, 2);
+            return false;
+        case Constants.DUP2X1:
+            insert(3, 2);
+            return false;
+        case Constants.DUP2X2:
+            insert(4, 2);
+            return false;
+        case Constants.SWAP:
+            type = _stack[_top - 1];
+            _stack[_top - 1] = _stack[_top - 2];
+            _stack[_top - 2] = type;
+            return false;
+        case Constants.IADD:
+        case Constants.ISUB:
+        case Constants.IMUL:
+        case Constants.IDIV:
+        case Constants.IREM:
+        case Constants.ISHL:
+        case Constants.ISHR:
+        case Constants.IUSHR:
+        case Constants.IAND:
+        case Constants.IOR:
+        case Constants.IXOR:
+        case Constants.L2I:
+        case Constants.D2I:
+        case Constants.FCMPL:
+        case Constants.FCMPG:
+            pop(2);
+            push(INTEGER);
+            return false;
+        case Constants.LADD:
+        case Constants.LSUB:
+        case Constants.LMUL:
+        case Constants.LDIV:
+        case Constants.LREM:
+        case Constants.LAND:
+        case Constants.LOR:
+        case Constants.LXOR:
+            pop(4);
+            push2(LONG);
+            return false;
+        case Constants.FADD:
+        case Constants.FSUB:
+        case Constants.FMUL:
+        case Constants.FDIV:
+        case Constants.FREM:
+        case Constants.L2F:
+        case Constants.D2F:
+            pop(2);
+            push(FLOAT);
+            return false;
+        case Constants.DADD:
+        case Constants.DSUB:
+        case Constants.DMUL:
+        case Constants.DDIV:
+        case Constants.DREM:
+            pop(4);
+            push2(DOUBLE);
+            return false;
+        case Constants.INEG:
+        case Constants.F2I:
+        case Constants.I2B:
+        case Constants.I2C:
+        case Constants.I2S:
+        case Constants.ARRAYLENGTH:
+        case Constants.INSTANCEOF:
+            pop();
+            push(INTEGER);
+            return false;
+        case Constants.LNEG:
+        case Constants.D2L:
+            pop(2);
+            push2(LONG);
+            return false;
+        case Constants.FNEG:
+        case Constants.I2F:
+            pop();
+            push(FLOAT);
+            return false;
+        case Constants.DNEG:
+        case Constants.L2D:
+            pop(2);
+            push2(DOUBLE);
+            return false;
+        case Constants.LSHL:
+        case Constants.LSHR:
+        case Constants.LUSHR:
+            pop(3);
+            push2(LONG);
+            return false;
+        case Constants.I2L:
+        case Constants.F2L:
+            pop();
+            push2(LONG);
+            return false;
+        case Constants.I2D:
+        case Constants.F2D:
+            pop();
+            push2(DOUBLE);
+            return false;
+        case Constants.LCMP:
+        case Constants.DCMPL:
+        case Constants.DCMPG:
+            pop(4);
+            push(INTEGER);
+            return false;
+        case Constants.IFEQ:
+        case Constants.IFNE:
+        case Constants.IFLT:
+        case Constants.IFGE:
+        case Constants.IFGT:
+        case Constants.IFLE:
+        case Constants.IFNULL:
+        case Constants.IFNONNULL:
+        case Constants.TABLESWITCH:
+        case Constants.LOOKUPSWITCH:
+        case Constants.IRETURN:
+        case Constants.FRETURN:
+        case Constants.ARETURN:
+        case Constants.ATHROW:
+        case Constants.MONITORENTER:
+        case Constants.MONITOREXIT:
+            pop();
+            return false;
+        case Constants.IFICMPEQ:
+        case Constants.IFICMPNE:
+        case Constants.IFICMPLT:
+        case Constants.IFICMPGE:
+        case Constants.IFICMPGT:
+        case Constants.IFICMPLE:
+        case Constants.IFACMPEQ:
+        case Constants.IFACMPNE:
+        case Constants.LRETURN:
+        case Constants.DRETURN:
+            pop(2);
+            return false;
+        case Constants.IINC:
+            setLocal(((IIncInstruction) ins).getLocal(), INTEGER);
+            return true;
+        case Constants.WIDE:
+            return executeLocal(((WideInstruction) ins).getInstruction(),
+                ((WideInstruction) ins).getLocal());
+        case Constants.GETSTATIC:
+            push2(getFieldType(ins));
+            return false;
+        case Constants.PUTSTATIC:
+            pop(isWide(getFieldType(ins)) ? 2 : 1);
+            return false;
+        case Constants.GETFIELD:
+            pop();
+            push2(getFieldType(ins));
+            return false;
+        case Constants.PUTFIELD:
+            pop(isWide(getFieldType(ins)) ? 2 : 1);
+            pop();
+            return false;
+        case Constants.INVOKEVIRTUAL:
+        case Constants.INVOKESPECIAL:
+        case Constants.INVOKESTATIC:
+        case Constants.INVOKEINTERFACE:
+        case Constants.INVOKEDYNAMIC:
+            return invoke((MethodInstruction) ins);
+        case Constants.NEW:
+            push(UNINITIALIZED | (index << 4));
+            return false;
+        case Constants.NEWARRAY:
+            pop();
+            push(object("[" + getArrayCode(((NewArrayInstruction) ins).
+                getTypeCode())));
+            return false;
+        case Constants.ANEWARRAY:
+            pop();
+            desc = getClassName(((ClassInstruction) ins).getTypeIndex());
+            push(object((desc.charAt(0) == '[') ? "[" + desc
+                : "[L" + desc + ";"));
+            return false;
+        case Constants.CHECKCAST:
+            pop();
+            push(object(getClassName(((ClassInstruction) ins).
+                getTypeIndex())));
+            return false;
+        case Constants.MULTIANEWARRAY:
+            pop(((MultiANewArrayInstruction) ins).getDimensions());
+            push(object(getClassName(((ClassInstruction) ins).
+                getTypeIndex())));
+            return false;
+        default:
+            if (ins instanceof LocalVariableInstruction)
+                return executeLocal(opcode, ((LocalVariableInstruction) ins).
+                    getLocal());
+            throw new IllegalStateException("Unknown opcode " + opcode
+                + " in " + _code.getMethod());
+        }
+    }
+
+    /**
+     * Apply the given load or store opcode or <code>iinc</code> to the
+     * given local.
+     *
+     * @return true if the instruction changed the locals
+     */
+    private boolean executeLocal(int opcode, int local) {
+        if (opcode == Constants.IINC) {
+            setLocal(local, INTEGER);
+            return true;
+        }
+        if (opcode >= Constants.ILOAD && opcode <= Constants.ALOAD3) {
+            switch (getLocalType(opcode, Constants.ILOAD, Constants.ILOAD0)) {
+            case 0:
+                push(INTEGER);
+                break;
+            case 1:
+                push2(LONG);
+                break;
+            case 2:
+                push(FLOAT);
+                break;
+            case 3:
+                push2(DOUBLE);
+                break;
+            default:
+                push(_locals[local]);
+            }
+            return false;
+        }
+
+        int type;
+        switch (getLocalType(opcode, Constants.ISTORE, Constants.ISTORE0)) {
+        case 0:
+            type = INTEGER;
+            break;
+        case 1:
+            type = LONG;
+            break;
+        case 2:
+            type = FLOAT;
+            break;
+        case 3:
+            type = DOUBLE;
+            break;
+        default:
+            type = _stack[_top - 1];
+        }
+        pop(isWide(type) ? 2 : 1);
+        setLocal(local, type);
+        return true;
+    }
+
+    /**
+     * Return the type of a load or store opcode, from 0 for int to 4 for
+     * references, given the first opcode of its family and the first of
+     * its family of implicit local opcodes.
+     */
+    private static int getLocalType(int opcode, int base, int implicitBase) {
+        if (opcode < implicitBase)
+            return opcode - base;
+        return (opcode - implicitBase) / 4;
+    }
+
+    /**
+     * Return true if the given local variable instruction operates on a
+     * two-slot local.
+     */
+    private static boolean isWideLocal(Instruction ins) {
+        int opcode = ins.getOpcode();
+        if (ins instanceof WideInstruction)
+            opcode = ((WideInstruction) ins).getInstruction();
+        if (opcode >= Constants.ILOAD && opcode <= Constants.ALOAD3) {
+            int type = getLocalType(opcode, Constants.ILOAD,
+                Constants.ILOAD0);
+            return type == 1 || type == 3;
+        }
+        if (opcode >= Constants.ISTORE && opcode <= Constants.ASTORE3) {
+            int type = getLocalType(opcode, Constants.ISTORE,
+                Constants.ISTORE0);
+            return type == 1 || type == 3;
+        }
+        return false;
+    }
+
+    /**
+     * Apply a method invocation to the current state.
+     *
+     * @return true if the locals changed because an object was initialized
+     */
+    private boolean invoke(MethodInstruction ins) {
+        Entry entry = _pool.getEntry(ins.getMethodIndex());
+        NameAndTypeEntry nat;
+        if (entry instanceof InvokeDynamicEntry)
+            nat = ((InvokeDynamicEntry) entry).getNameAndTypeEntry();
+        else
+            nat = ((ComplexEntry) entry).getNameAndTypeEntry();
+        String desc = nat.getDescriptorEntry().getValue();
+
+        int i = 1;
+        for (; desc.charAt(i) != ')'; i = skipType(desc, i))
+            pop((desc.charAt(i) == 'J' || desc.charAt(i) == 'D') ? 2 : 1);
+
+        boolean changed = false;
+        int opcode = ins.getOpcode();
+        if (opcode != Constants.INVOKESTATIC
+            && opcode != Constants.INVOKEDYNAMIC) {
+            int receiver = pop();
+            if (opcode == Constants.INVOKESPECIAL
+                && "<init>".equals(nat.getNameEntry().getValue()))
+                changed = initialize(receiver);
+        }
+        if (desc.charAt(i + 1) != 'V')
+            push2(getType(desc, i + 1));
+        return changed;
+    }
+
+    /**
+     * Replace all occurrences of the given uninitialized type with the
+     * type of the initialized object.
+     */
+    private boolean initialize(int type) {
+        int init;
+        if (type == UNINITIALIZED_THIS)
+            init = object(getClassName(_code.getMethod().getDeclarer().
+                getIndex()));
+        else if ((type & 0xF) == UNINITIALIZED)
+            init = object(getClassName(((ClassInstruction) _insns[type
+                >>> 4]).getTypeIndex()));
+        else
+            return false;
+
+        for (int i = 0; i < _maxLocals; i++)
+            if (_locals[i] == type)
+                _locals[i] = init;
+        for (int i = 0; i < _top; i++)
+            if (_stack[i] == type)
+                _stack[i] = init;
+        return true;
+    }
+
+    /**
+     * Push the value of the given constant pool entry.
+     */
+    private void pushConstant(Entry entry) {
+        switch (entry.getType()) {
+        case Entry.INT:
+            push(INTEGER);
+            break;
+        case Entry.FLOAT:
+            push(FLOAT);
+            break;
+        case Entry.LONG:
+            push2(LONG);
+            break;
+        case Entry.DOUBLE:
+            push2(DOUBLE);
+            break;
+        case Entry.STRING:
+            push(object("java/lang/String"));
+            break;
+        case Entry.CLASS:
+            push(object("java/lang/Class"));
+            break;
+        case Entry.METHODHANDLE:
+            push(object("java/lang/invoke/MethodHandle"));
+            break;
+        case Entry.METHODTYPE:
+            push(object("java/lang/invoke/MethodType"));
+            break;
+        default:
+            throw new IllegalStateException("Invalid constant type "
+                + entry.getType() + " in " + _code.getMethod());
+        }
+    }
+
+    /**
+     * Return the type of the field of the given field instruction.
+     */
+    private int getFieldType(Instruction ins) {
+        ComplexEntry entry = (ComplexEntry) _pool.getEntry
+            (((FieldInstruction) ins).getFieldIndex());
+        return getType(entry.getNameAndTypeEntry().getDescriptorEntry().
+            getValue(), 0);
+    }
+
+    /**
+     * Return the descriptor of the component type of a primitive array
+     * created by <code>newarray</code>.
+     */
+    private String getArrayCode(int code) {
+        switch (code) {
+        case Constants.ARRAY_BOOLEAN:
+            return "Z";
+        case Constants.ARRAY_CHAR:
+            return "C";
+        case Constants.ARRAY_FLOAT:
+            return "F";
+        case Constants.ARRAY_DOUBLE:
+            return "D";
+        case Constants.ARRAY_BYTE:
+            return "B";
+        case Constants.ARRAY_SHORT:
+            return "S";
+        case Constants.ARRAY_INT:
+            return "I";
+        case Constants.ARRAY_LONG:
+            return "J";
+        default:
+            throw new IllegalStateException("Invalid array type " + code
+                + " in " + _code.getMethod());
+        }
+    }
+
+    /**
+     * Replace unreachable code, which the verifier still checks against
+     * frames, with <code>nop</code>s ending in <code>athrow</code>, and
+     * remove it from the ranges of exception handlers.
+     */
+    private void removeDeadCode() {
+        boolean dead = false;
+        for (int i = 0; i < _entryLocals.length && !dead; i++)
+            dead = _entryLocals[i] == null;
+        if (!dead)
+            return;
+
+        // the athrow ending dead code is entered with a throwable on the
+        // stack
+        if (_code.getMaxStack() < 1)
+            _code.setMaxStack(1);
+
+        int end;
+        for (int block = 0; block < _entryLocals.length; block++) {
+            if (_entryLocals[block] != null)
+                continue;
+            _framed[block] = true;
+            end = _starts[block + 1];
+            for (int i = _starts[block]; i < end; i++)
+                _insns[i] = _code.replace(_insns[i], (i == end - 1)
+                    ? Constants.ATHROW : Constants.NOP);
+        }
+
+        ExceptionHandler handler;
+        int start;
+        for (int i = 0; i < _handlers.length; i++) {
+            handler = null;
+            start = -1;
+            for (int j = _tryStarts[i]; j <= _tryEnds[i] + 1; j++) {
+                if (j <= _tryEnds[i] && _entryLocals[_blocks[j]] != null) {
+                    if (start == -1)
+                        start = j;
+                    continue;
+                }
+                if (start == -1)
+                    continue;
+
+                // end of a live range
+                if (handler == null)
+                    handler = _handlers[i];
+                else
+                    handler = _code.splitExceptionHandler(handler);
+                handler.setTryStart(_insns[start]);
+                handler.setTryEnd(_insns[j - 1]);
+                start = -1;
+            }
+            if (handler == null)
+                _code.removeExceptionHandler(_handlers[i]);
+        }
+    }
+
+    /**
+     * Lay out the jumps of the code, now that dead code no longer changes
+     * its length, and give frames to the blocks after wide conditional
+     * branches, which are written as inverted branches to those blocks.
+     *
+     * @see Code#relaxBranches
+     */
+    private void frameWideBranches() {
+        _code.relaxBranches();
+        Instruction last;
+        for (int i = 1; i < _framed.length; i++) {
+            last = _insns[_starts[i] - 1];
+            if (last instanceof IfInstruction
+                && ((IfInstruction) last).isWide())
+                _framed[i] = true;
+        }
+    }
+
+    /**
+     * Record the entry state of each block that needs a frame.
+     */
+    private void writeFrames() {
+        int count = 0;
+        for (int i = 0; i < _framed.length; i++)
+            if (_framed[i])
+                count++;
+
+        StackMapTable table = _code.getStackMapTable(false);
+        if (count == 0) {
+            if (table != null)
+                _code.removeStackMapTable();
+            return;
+        }
+        if (table == null)
+            table = _code.getStackMapTable(true);
+        else
+            table.clear();
+
+        _classIndexes = new int[_names.size()];
+        VerificationType[] empty = new VerificationType[0];
+        VerificationType[] thrown = null;
+        Instruction ins;
+        for (int i = 0; i < _framed.length; i++) {
+            if (!_framed[i])
+                continue;
+            ins = _insns[_starts[i]];
+            if (_entryLocals[i] == null) {
+                if (thrown == null)
+                    thrown = new VerificationType[]{ VerificationType.object
+                        (_pool.findClassEntry(THROWABLE, true)) };
+                table.addFrame(ins, empty, thrown);
+            } else
+                table.addFrame(ins, toTypes(_entryLocals[i]),
+                    toTypes(_entryStacks[i]));
+        }
+    }
+
+    /**
+     * Convert slot types to verification types, adding the classes of
+     * object types to the constant pool.
+     */
+    private VerificationType[] toTypes(int[] slots) {
+        List<VerificationType> types = new ArrayList<>(slots.length);
+        int type;
+        int id;
+        for (int i = 0; i < slots.length; i++) {
+            type = slots[i];
+            switch (type & 0xF) {
+            case OBJECT:
+                id = type >>> 4;
+                if (_classIndexes[id] == 0)
+                    _classIndexes[id] = _pool.findClassEntry(_names.get(id),
+                        true);
+                types.add(VerificationType.object(_classIndexes[id]));
+                break;
+            case UNINITIALIZED:
+                types.add(VerificationType.uninitialized(_insns[type
+                    >>> 4]));
+                break;
+            default:
+                types.add(VerificationType.valueOf(type & 0xF));
+                if (isWide(type))
+                    i++;
+            }
+        }
+        return types.toArray(new VerificationType[types.size()]);
+    }
+
+    /////////////////
+    // State helpers
+    /////////////////
+
+    private void push(int type) {
+        if (_top == _stack.length)
+            _stack = Arrays.copyOf(_stack, _top * 2);
+        _stack[_top++] = type;
+    }
+
+    /**
+     * Push a type, followed by top for two-slot types.
+     */
+    private void push2(int type) {
+        push(type);
+        if (isWide(type))
+            push(TOP);
+    }
+
+    private int pop() {
+        if (_top == 0)
+            throw new IllegalStateException("Stack underflow in "
+                + _code.getMethod());
+        return _stack[--_top];
+    }
+
+    private void pop(int slots) {
+        for (int i = 0; i < slots; i++)
+            pop();
+    }
+
+    /**
+     * Duplicate the given number of top slots below the given depth.
+     */
+    private void insert(int depth, int count) {
+        if (_top < depth)
+            throw new IllegalStateException("Stack underflow in "
+                + _code.getMethod());
+        for (int i = 0; i < count; i++)
+            push(TOP);
+        System.arraycopy(_stack, _top - count - depth, _stack, _top - depth,
+            depth);
+        System.arraycopy(_stack, _top - count, _stack, _top - count - depth,
+            count);
+    }
+
+    /**
+     * Set the type of a local, invalidating the two-slot value it may
+     * overwrite half of.
+     */
+    private void setLocal(int local, int type) {
+        if (local > 0 && isWide(_locals[local - 1]))
+            _locals[local - 1] = TOP;
+        _locals[local] = type;
+        if (isWide(type))
+            _locals[local + 1] = TOP;
+    }
+
+    private static boolean isWide(int type) {
+        return type == LONG || type == DOUBLE;
+    }
+
+    ////////////////
+    // Type helpers
+    ////////////////
+
+    /**
+     * Return the object type of the given internal class name.
+     */
+    private int object(String name) {
+        Integer id = _ids.get(name);
+        if (id == null) {
+            id = _names.size();
+            _names.add(name);
+            _ids.put(name, id);
+        }
+        return OBJECT | (id << 4);
+    }
+
+    private String getName(int type) {
+        return _names.get(type >>> 4);
+    }
+
+    private String getClassName(int index) {
+        return ((ClassEntry) _pool.getEntry(index)).getNameEntry().getValue();
+    }
+
+    /**
+     * Return the type of the field descriptor starting at the given
+     * position.
+     */
+    private int getType(String desc, int pos) {
+        switch (desc.charAt(pos)) {
+        case 'L':
+            return object(desc.substring(pos + 1, desc.indexOf(';', pos)));
+        case '[':
+            return object(desc.substring(pos, skipType(desc, pos)));
+        case 'J':
+            return LONG;
+        case 'D':
+            return DOUBLE;
+        case 'F':
+            return FLOAT;
+        default:
+            return INTEGER;
+        }
+    }
+
+    /**
+     * Return the position after the field descriptor starting at the given
+     * position.
+     */
+    private static int skipType(String desc, int pos) {
+        while (desc.charAt(pos) == '[')
+            pos++;
+        if (desc.charAt(pos) == 'L')
+            pos = desc.indexOf(';', pos);
+        return pos + 1;
+    }
+}
@@ -12,57 +12,47 @@ import serp.bytecode.visitor.*;
  * @author Abe White
  */
 public class GotoInstruction extends JumpInstruction {
+    private boolean _wide;
 
     GotoInstruction(Code owner, int opcode) {
         super(owner, opcode);
+        _wide = opcode == Constants.GOTOW || opcode == Constants.JSRW;
     }
 
     public int getStackChange() {
-        if (getOpcode() == Constants.JSR)
+        if (getOpcode() == Constants.JSR || getOpcode() == Constants.JSRW)
             return 1;
         return 0;
     }
 
     int getLength() {
-        switch (getOpcode()) {
-        case Constants.GOTOW:
-        case Constants.JSRW:
+        if (_wide)
             return super.getLength() + 4;
-        default:
-            return super.getLength() + 2;
-        }
+        return super.getLength() + 2;
     }
 
-    public void setOffset(int offset) {
-        super.setOffset(offset);
-        calculateOpcode();
+    boolean isWide() {
+        return _wide;
+    }
+
+    boolean setWide(boolean wide) {
+        if (wide == _wide)
+            return false;
+        _wide = wide;
+        return true;
     }
 
     /**
-     * Calculate our opcode based on the offset size.
+     * The opcode is kept as set, and the form of the jump is chosen when
+     * the code is laid out.
      */
-    private void calculateOpcode() {
-        int len = getLength();
-        int offset;
+    int getWriteOpcode() {
         switch (getOpcode()) {
         case Constants.GOTO:
         case Constants.GOTOW:
-            offset = getOffset();
-            if (offset < (2 << 16))
-                setOpcode(Constants.GOTO);
-            else
-                setOpcode(Constants.GOTOW);
-            break;
-        case Constants.JSR:
-        case Constants.JSRW:
-            offset = getOffset();
-            if (offset < (2 << 16))
-                setOpcode(Constants.JSR);
-            else
-                setOpcode(Constants.JSRW);
-            break;
+            return (_wide) ? Constants.GOTOW : Constants.GOTO;
+        default:
+            return (_wide) ? Constants.JSRW : Constants.JSR;
         }
-        if (len != getLength())
-            invalidateByteIndexes();
     }
 }
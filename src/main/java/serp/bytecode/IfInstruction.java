@@ -1,5 +1,7 @@
 package serp.bytecode;
 
+import java.io.*;
+
 import serp.bytecode.lowlevel.*;
 import serp.bytecode.visitor.*;
 
@@ -9,6 +11,8 @@ import serp.bytecode.visitor.*;
  * @author Abe White
  */
 public class IfInstruction extends JumpInstruction {
+    private boolean _wide = false;
+
     IfInstruction(Code owner, int opcode) {
         super(owner, opcode);
     }
@@ -39,9 +43,52 @@ public class IfInstruction extends JumpInstruction {
     }
 
     int getLength() {
+        // the wide form adds a 5-byte goto_w
+        if (_wide)
+            return super.getLength() + 7;
         return super.getLength() + 2;
     }
 
+    boolean isWide() {
+        return _wide;
+    }
+
+    boolean setWide(boolean wide) {
+        if (wide == _wide)
+            return false;
+        _wide = wide;
+        return true;
+    }
+
+    /**
+     * Conditional branches have no wide form in the JVM, so a wide branch
+     * is written as the inverted branch over a <code>goto_w</code> to the
+     * target.
+     */
+    int getWriteOpcode() {
+        if (!_wide)
+            return getOpcode();
+        switch (getOpcode()) {
+        case Constants.IFNULL:
+            return Constants.IFNONNULL;
+        case Constants.IFNONNULL:
+            return Constants.IFNULL;
+        default:
+            // ifeq through if_acmpne come in pairs of opposites
+            return ((getOpcode() + 1) ^ 1) - 1;
+        }
+    }
+
+    void write(DataOutput out) throws IOException {
+        if (!_wide) {
+            super.write(out);
+            return;
+        }
+        out.writeShort(8);
+        out.writeByte(Constants.GOTOW);
+        out.writeInt(getOffset() - 3);
+    }
+
     public String getTypeName() {
         switch (getOpcode()) {
         case Constants.IFACMPEQ:
@@ -0,0 +1,411 @@
+package serp.bytecode;
+
+import serp.bytecode.lowlevel.*;
+import serp.bytecode.visitor.*;
+
+/**
+ * Visitor that updates the constant pool indexes held by a class and its
+ * members, attributes and instructions after the pool has been compacted.
+ * Entries within the pool are updated by the pool itself. The contents of
+ * {@link UnknownAttribute}s are updated for the standard attributes whose
+ * layouts are understood, including signatures and parameter and type
+ * annotations; others are left unchanged. Subclasses may
+ * override {@link #remap} to inspect every pool index held by the class.
+ *
+ * @see ConstantPool#compact
+ */
+class IndexRemapper extends BCVisitor {
+    private final int[] _map;
+    private boolean _complete = true;
+
+    /**
+     * Constructor; supply the new index of each old index, as returned by
+     * {@link ConstantPool#compact}.
+     */
+    public IndexRemapper(int[] map) {
+        _map = map;
+    }
+
+    /**
+     * Return the new value of the given pool index.
+     */
+    int remap(int index) {
+        if (index <= 0 || index >= _map.length)
+            return index;
+        return _map[index];
+    }
+
+    /**
+     * Return false if any of the visited unknown attributes were of types
+     * whose layouts are not understood, and so may hold pool indexes that
+     * were not remapped.
+     */
+    public boolean isComplete() {
+        return _complete;
+    }
+
+    /**
+     * Return true if a visit of the given class would be complete: if the
+     * layouts of all the unknown attributes of the class, its members and
+     * their attributes are understood. Nothing is changed.
+     */
+    public static boolean isComplete(BCClass bc) {
+        if (!isComplete((Attributes) bc))
+            return false;
+        BCField[] fields = bc.getDeclaredFields();
+        for (int i = 0; i < fields.length; i++)
+            if (!isComplete(fields[i]))
+                return false;
+        BCMethod[] methods = bc.getDeclaredMethods();
+        for (int i = 0; i < methods.length; i++)
+            if (!isComplete(methods[i]))
+                return false;
+        return true;
+    }
+
+    private static boolean isComplete(Attributes attrs) {
+        Attribute[] list = attrs.getAttributes();
+        UnknownAttribute unknown;
+        for (int i = 0; i < list.length; i++) {
+            if (list[i] instanceof UnknownAttribute) {
+                unknown = (UnknownAttribute) list[i];
+                if (!isLayoutKnown(unknown.getPool(), unknown.getName(),
+                    unknown.getValue(), 0))
+                    return false;
+            } else if (!isComplete(list[i]))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Return true if the layout of the attribute with the given name whose
+     * contents start at the given offset is understood by
+     * {@link #remapAttribute}, including those of any attributes nested
+     * within it.
+     */
+    private static boolean isLayoutKnown(ConstantPool pool, String name,
+        byte[] b, int pos) {
+        switch (name) {
+        case "Signature":
+        case "NestHost":
+        case "EnclosingMethod":
+        case "NestMembers":
+        case "PermittedSubclasses":
+        case "MethodParameters":
+        case "RuntimeVisibleParameterAnnotations":
+        case "RuntimeInvisibleParameterAnnotations":
+        case "RuntimeVisibleTypeAnnotations":
+        case "RuntimeInvisibleTypeAnnotations":
+        case "AnnotationDefault":
+        case "SourceDebugExtension":
+            return true;
+        case "Record":
+            int count = readShort(b, pos);
+            pos += 2;
+            int attrs;
+            String nested;
+            for (int i = 0; i < count; i++) {
+                attrs = readShort(b, pos + 4);
+                pos += 6;
+                for (int j = 0; j < attrs; j++) {
+                    nested = ((UTF8Entry) pool.getEntry(readShort(b, pos))).
+                        getValue();
+                    if (!isLayoutKnown(pool, nested, b, pos + 6))
+                        return false;
+                    pos += 6 + readInt(b, pos + 2);
+                }
+            }
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    public void enterBCClass(BCClass obj) {
+        obj.remapIndexes(this);
+    }
+
+    public void enterBCMember(BCMember obj) {
+        obj.remapIndexes(this);
+    }
+
+    public void enterAttribute(Attribute obj) {
+        obj.remapIndexes(this);
+    }
+
+    public void enterConstantValue(ConstantValue obj) {
+        obj.setValueIndex(remap(obj.getValueIndex()));
+    }
+
+    public void enterSourceFile(SourceFile obj) {
+        obj.setFileIndex(remap(obj.getFileIndex()));
+    }
+
+    public void enterExceptions(Exceptions obj) {
+        int[] indexes = obj.getExceptionIndexes();
+        for (int i = 0; i < indexes.length; i++)
+            indexes[i] = remap(indexes[i]);
+        obj.setExceptionIndexes(indexes);
+    }
+
+    public void enterBootstrapMethod(BootstrapMethods obj) {
+        BootstrapMethodElement[] methods = obj.getBootstrapMethods();
+        int[] args;
+        for (int i = 0; i < methods.length; i++) {
+            methods[i].setBootstrapMethodRef(remap(methods[i].
+                getBootstrapMethodRef()));
+            args = methods[i].getBootstrapArgumentIndices();
+            for (int j = 0; j < args.length; j++)
+                args[j] = remap(args[j]);
+            methods[i].setBootstrapArgumentIndices(args);
+        }
+    }
+
+    public void enterInnerClass(InnerClass obj) {
+        obj.setTypeIndex(remap(obj.getTypeIndex()));
+        obj.setNameIndex(remap(obj.getNameIndex()));
+        obj.setDeclarerIndex(remap(obj.getDeclarerIndex()));
+    }
+
+    public void enterLocalVariable(LocalVariable obj) {
+        remapLocal(obj);
+    }
+
+    public void enterLocalVariableType(LocalVariableType obj) {
+        remapLocal(obj);
+    }
+
+    private void remapLocal(Local obj) {
+        obj.setNameIndex(remap(obj.getNameIndex()));
+        obj.setTypeIndex(remap(obj.getTypeIndex()));
+    }
+
+    public void enterAnnotation(Annotation obj) {
+        // nested annotations are not visited, so remap them all at once
+        if (obj.getOwner() instanceof Annotations)
+            obj.remapIndexes(this);
+    }
+
+    public void enterStackMapFrame(StackMapFrame obj) {
+        obj.remapIndexes(this);
+    }
+
+    public void enterExceptionHandler(ExceptionHandler obj) {
+        obj.setCatchIndex(remap(obj.getCatchIndex()));
+    }
+
+    public void enterClassInstruction(ClassInstruction obj) {
+        obj.setTypeIndex(remap(obj.getTypeIndex()));
+    }
+
+    public void enterMultiANewArrayInstruction(MultiANewArrayInstruction obj) {
+        obj.setTypeIndex(remap(obj.getTypeIndex()));
+    }
+
+    public void enterGetFieldInstruction(GetFieldInstruction obj) {
+        obj.setFieldIndex(remap(obj.getFieldIndex()));
+    }
+
+    public void enterPutFieldInstruction(PutFieldInstruction obj) {
+        obj.setFieldIndex(remap(obj.getFieldIndex()));
+    }
+
+    public void enterMethodInstruction(MethodInstruction obj) {
+        obj.setMethodIndex(remap(obj.getMethodIndex()));
+    }
+
+    public void enterConstantInstruction(ConstantInstruction obj) {
+        obj.remapIndexes(this);
+    }
+
+    public void enterUnknownAttribute(UnknownAttribute obj) {
+        // the value may be shared with the attribute it was copied from
+        byte[] b = obj.getValue().clone();
+        if (remapAttribute(obj.getPool(), obj.getName(), b, 0))
+            obj.setValue(b);
+        else
+            _complete = false;
+    }
+
+    /**
+     * Remap the contents of the attribute with the given name starting at
+     * the given offset.
+     *
+     * @return false if the attribute layout is not understood
+     */
+    private boolean remapAttribute(ConstantPool pool, String name, byte[] b,
+        int pos) {
+        int count;
+        switch (name) {
+        case "Signature":
+        case "NestHost":
+            remapShort(b, pos);
+            return true;
+        case "EnclosingMethod":
+            remapShort(b, pos);
+            remapShort(b, pos + 2);
+            return true;
+        case "NestMembers":
+        case "PermittedSubclasses":
+            count = readShort(b, pos);
+            for (int i = 0; i < count; i++)
+                remapShort(b, pos + 2 + i * 2);
+            return true;
+        case "MethodParameters":
+            count = b[pos] & 0xFF;
+            for (int i = 0; i < count; i++)
+                remapShort(b, pos + 1 + i * 4);
+            return true;
+        case "RuntimeVisibleParameterAnnotations":
+        case "RuntimeInvisibleParameterAnnotations":
+            int params = b[pos] & 0xFF;
+            pos++;
+            for (int i = 0; i < params; i++) {
+                count = readShort(b, pos);
+                pos += 2;
+                for (int j = 0; j < count; j++)
+                    pos = remapAnnotation(b, pos);
+            }
+            return true;
+        case "RuntimeVisibleTypeAnnotations":
+        case "RuntimeInvisibleTypeAnnotations":
+            count = readShort(b, pos);
+            pos += 2;
+            for (int i = 0; i < count; i++)
+                pos = remapTypeAnnotation(b, pos);
+            return true;
+        case "AnnotationDefault":
+            remapElementValue(b, pos);
+            return true;
+        case "Record":
+            count = readShort(b, pos);
+            pos += 2;
+            for (int i = 0; i < count; i++) {
+                remapShort(b, pos);
+                remapShort(b, pos + 2);
+                pos = remapAttributes(pool, b, pos + 4);
+                if (pos == -1)
+                    return false;
+            }
+            return true;
+        case "SourceDebugExtension":
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Remap the attribute table at the given offset, returning the offset
+     * after it, or -1 if any of the attributes are not understood.
+     */
+    private int remapAttributes(ConstantPool pool, byte[] b, int pos) {
+        int count = readShort(b, pos);
+        pos += 2;
+        int len;
+        String name;
+        for (int i = 0; i < count; i++) {
+            remapShort(b, pos);
+            name = ((UTF8Entry) pool.getEntry(readShort(b, pos))).getValue();
+            len = ((b[pos + 2] & 0xFF) << 24) | ((b[pos + 3] & 0xFF) << 16)
+                | ((b[pos + 4] & 0xFF) << 8) | (b[pos + 5] & 0xFF);
+            if (!remapAttribute(pool, name, b, pos + 6))
+                return -1;
+            pos += 6 + len;
+        }
+        return pos;
+    }
+
+    /**
+     * Remap the annotation at the given offset, returning the offset after
+     * it.
+     */
+    private int remapAnnotation(byte[] b, int pos) {
+        remapShort(b, pos);
+        int pairs = readShort(b, pos + 2);
+        pos += 4;
+        for (int i = 0; i < pairs; i++) {
+            remapShort(b, pos);
+            pos = remapElementValue(b, pos + 2);
+        }
+        return pos;
+    }
+
+    /**
+     * Remap the type annotation at the given offset, returning the offset
+     * after it.
+     */
+    private int remapTypeAnnotation(byte[] b, int pos) {
+        // target info
+        int target = b[pos] & 0xFF;
+        pos++;
+        switch (target) {
+        case 0x00: // type parameter
+        case 0x01:
+        case 0x16: // formal parameter
+            pos += 1;
+            break;
+        case 0x13: // empty
+        case 0x14:
+        case 0x15:
+            break;
+        case 0x40: // local variable
+        case 0x41:
+            pos += 2 + readShort(b, pos) * 6;
+            break;
+        case 0x47: // type argument
+        case 0x48:
+        case 0x49:
+        case 0x4A:
+        case 0x4B:
+            pos += 3;
+            break;
+        default: // supertype, bound, throws, catch, offset
+            pos += 2;
+        }
+
+        // type path
+        pos += 1 + (b[pos] & 0xFF) * 2;
+        return remapAnnotation(b, pos);
+    }
+
+    /**
+     * Remap the annotation element value at the given offset, returning the
+     * offset after it.
+     */
+    private int remapElementValue(byte[] b, int pos) {
+        switch (b[pos]) {
+        case 'e':
+            remapShort(b, pos + 1);
+            remapShort(b, pos + 3);
+            return pos + 5;
+        case '@':
+            return remapAnnotation(b, pos + 1);
+        case '[':
+            int count = readShort(b, pos + 1);
+            pos += 3;
+            for (int i = 0; i < count; i++)
+                pos = remapElementValue(b, pos);
+            return pos;
+        default:
+            remapShort(b, pos + 1);
+            return pos + 3;
+        }
+    }
+
+    private static int readShort(byte[] b, int pos) {
+        return ((b[pos] & 0xFF) << 8) | (b[pos + 1] & 0xFF);
+    }
+
+    private static int readInt(byte[] b, int pos) {
+        return ((b[pos] & 0xFF) << 24) | ((b[pos + 1] & 0xFF) << 16)
+            | ((b[pos + 2] & 0xFF) << 8) | (b[pos + 3] & 0xFF);
+    }
+
+    private void remapShort(byte[] b, int pos) {
+        int index = remap(readShort(b, pos));
+        b[pos] = (byte) (index >> 8);
+        b[pos + 1] = (byte) index;
+    }
+}
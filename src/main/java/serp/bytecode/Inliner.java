@@ -0,0 +1,395 @@
+package serp.bytecode;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Replaces calls to small methods with copies of their code. Only calls
+ * whose target is known statically are inlined: calls to static and
+ * private methods, and to final methods or methods of final classes. The
+ * callee must be declared in the same class as the caller, so that its
+ * code can be copied without changing the constant pool entries or the
+ * access rights it relies on, and its code must be no longer than the
+ * size budget of the inliner.
+ *
+ * <p>The arguments of an inlined call are stored to locals past those of
+ * the caller, and the locals of the callee are remapped to follow them.
+ * Returns become jumps to the instruction after the call. The exception
+ * handlers of the callee are added ahead of those of the caller, and its
+ * line numbers are merged into the line number table of the caller. Calls
+ * on instances keep their null check through a call to
+ * <code>getClass</code>. The callee's local variable tables are not
+ * copied.</p>
+ *
+ * <p>Calls within inlined code are not inlined again, so that recursive
+ * methods stay bounded; inline the code again to inline deeper. The
+ * maximum stack and locals of the caller are recalculated, and its stack
+ * map frames are left to be recomputed when the class is written, as by
+ * {@link Project#setComputeFrames}.</p>
+ *
+ * <p>Inliners cache the methods they have examined, so each thread should
+ * use its own instance, and the cache should be discarded through
+ * {@link #clear} when callees change.</p>
+ */
+public class Inliner implements Constants {
+    /**
+     * The default size budget, in bytes of code.
+     */
+    public static final int DEFAULT_MAX_SIZE = 35;
+
+    private final int _maxSize;
+    private final Map<BCMethod, Boolean> _inlinable = new HashMap<>();
+
+    /**
+     * Create an inliner with the default size budget.
+     */
+    public Inliner() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Create an inliner with the given size budget.
+     *
+     * @param maxSize the maximum length in bytes of the code of inlined
+     *                methods
+     */
+    public Inliner(int maxSize) {
+        if (maxSize < 0)
+            throw new IllegalArgumentException("maxSize = " + maxSize);
+        _maxSize = maxSize;
+    }
+
+    /**
+     * Return the maximum length in bytes of the code of inlined methods.
+     *
+     * @return the size budget
+     */
+    public int getMaxSize() {
+        return _maxSize;
+    }
+
+    /**
+     * Forget the methods examined so far.
+     */
+    public void clear() {
+        _inlinable.clear();
+    }
+
+    /**
+     * Inline the calls in the code of all methods of the given class.
+     *
+     * @param bc the class whose methods to transform
+     * @return the number of calls inlined in each method with inlined
+     *         calls, in declaration order
+     */
+    public Map<BCMethod, Integer> inline(BCClass bc) {
+        Map<BCMethod, Integer> inlined = new LinkedHashMap<>();
+        BCMethod[] methods = bc.getDeclaredMethods();
+        Code code;
+        int count;
+        for (int i = 0; i < methods.length; i++) {
+            code = methods[i].getCode(false);
+            if (code == null)
+                continue;
+            count = inline(code);
+            if (count > 0)
+                inlined.put(methods[i], count);
+        }
+        return inlined;
+    }
+
+    /**
+     * Inline the calls in the given code. After this method, the iterator
+     * of the code will be {@link Code#afterLast}.
+     *
+     * @param code the code to transform
+     * @return the number of calls inlined
+     */
+    public int inline(Code code) {
+        BCMethod caller = code.getMethod();
+        if (caller == null)
+            return 0;
+
+        ControlFlowGraph cfg = code.getControlFlowGraph();
+        Instruction[] insns = cfg.getInstructionsHolder().clone();
+        BCMethod[] callees = new BCMethod[insns.length];
+        int found = 0;
+        for (int i = 0; i < insns.length; i++) {
+            callees[i] = getCallee(caller, insns[i]);
+            if (callees[i] != null)
+                found++;
+        }
+        if (found == 0)
+            return 0;
+
+        // callee handlers would clear any values of the caller below the
+        // arguments, so those calls need an otherwise empty stack
+        int[] depths = Code.getStackDepths(cfg);
+        int base = code.getNextLocalsIndex();
+        int count = 0;
+        for (int i = 0; i < insns.length; i++) {
+            if (callees[i] == null || depths[i] == -1)
+                continue;
+            Code body = callees[i].getCode(false);
+            if (body.getExceptionHandlers().length > 0
+                && depths[i] != getArgumentWords(callees[i]))
+                continue;
+            if (base + body.getMaxLocals() > 256)
+                continue;
+            inline(code, (MethodInstruction) insns[i], body, base);
+            count++;
+        }
+        code.afterLast();
+        if (count > 0) {
+            code.calculateMaxStack();
+            code.calculateMaxLocals();
+        }
+        return count;
+    }
+
+    /**
+     * Return the method called by the given instruction if it can be
+     * inlined into the given caller, or null otherwise.
+     */
+    private BCMethod getCallee(BCMethod caller, Instruction ins) {
+        int opcode = ins.getOpcode();
+        if (opcode != INVOKESTATIC && opcode != INVOKESPECIAL
+            && opcode != INVOKEVIRTUAL)
+            return null;
+        MethodInstruction call = (MethodInstruction) ins;
+        BCClass owner = caller.getDeclarer();
+        if (!owner.getName().equals(call.getMethodDeclarerName()))
+            return null;
+        BCMethod callee = owner.getDeclaredMethod(call.getMethodName(),
+            call.getMethodReturnName(), call.getMethodParamNames());
+        if (callee == null || callee == caller)
+            return null;
+
+        switch (opcode) {
+        case INVOKESTATIC:
+            if (!callee.isStatic())
+                return null;
+            break;
+        case INVOKESPECIAL:
+            if (callee.isStatic() || !callee.isPrivate())
+                return null;
+            break;
+        default:
+            if (callee.isStatic() || !(callee.isPrivate()
+                || callee.isFinal() || owner.isFinal()))
+                return null;
+        }
+        return (isInlinable(callee)) ? callee : null;
+    }
+
+    /**
+     * Return true if the code of the given method can be copied into its
+     * callers.
+     */
+    private boolean isInlinable(BCMethod method) {
+        Boolean inlinable = _inlinable.get(method);
+        if (inlinable == null) {
+            inlinable = Boolean.valueOf(examine(method));
+            _inlinable.put(method, inlinable);
+        }
+        return inlinable.booleanValue();
+    }
+
+    private boolean examine(BCMethod method) {
+        if (method.isSynchronized() || method.isNative()
+            || method.isAbstract() || method.getName().startsWith("<"))
+            return false;
+        Code code = method.getCode(false);
+        if (code == null)
+            return false;
+        Instruction last = code.getLastInstruction();
+        if (last == null || last.getByteIndex() + last.getLength() > _maxSize)
+            return false;
+
+        // returns become jumps, which must leave nothing but the returned
+        // value on the stack
+        ControlFlowGraph cfg = code.getControlFlowGraph();
+        Instruction[] insns = cfg.getInstructionsHolder();
+        int[] depths = Code.getStackDepths(cfg);
+        int opcode;
+        for (int i = 0; i < insns.length; i++) {
+            opcode = insns[i].getOpcode();
+            if (opcode == JSR || opcode == JSRW || opcode == RET)
+                return false;
+            if (insns[i] instanceof ReturnInstruction && depths[i] != -1
+                && depths[i] != -insns[i].getStackChange())
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Replace the given call with a copy of the given code, whose locals
+     * are moved up by the given base.
+     */
+    private static void inline(Code code, MethodInstruction call, Code body,
+        int base) {
+        BCMethod callee = body.getMethod();
+        Instruction next = (Instruction) call.next;
+        CodeEntry before = call.prev;
+        code.before(call);
+
+        // store the arguments, last first
+        String[] params = callee.getParamNames();
+        int[] locals = new int[params.length];
+        int local = base + ((callee.isStatic()) ? 0 : 1);
+        for (int i = 0; i < params.length; i++) {
+            locals[i] = local;
+            local += (isWide(params[i])) ? 2 : 1;
+        }
+        for (int i = params.length - 1; i >= 0; i--)
+            code.xstore().setLocal(locals[i]).setType(params[i]);
+        if (!callee.isStatic()) {
+            code.astore().setLocal(base);
+            code.aload().setLocal(base);
+            code.invokevirtual().setMethod(Object.class, "getClass",
+                Class.class, null);
+            code.pop();
+        }
+
+        // copy the body, turning returns into jumps past it; a final return
+        // falls through instead
+        Map<Instruction, Instruction> copies = new IdentityHashMap<>();
+        Instruction[] insns = body.getInstructions();
+        Instruction copy;
+        for (int i = 0; i < insns.length; i++) {
+            if (insns[i] instanceof ReturnInstruction) {
+                if (i == insns.length - 1)
+                    copy = next;
+                else
+                    copy = code.go2().setTarget(next);
+            } else {
+                copy = code.add(insns[i]);
+                if (copy instanceof LocalVariableInstruction)
+                    ((LocalVariableInstruction) copy).setLocal
+                        (((LocalVariableInstruction) insns[i]).getLocal()
+                        + base);
+            }
+            copies.put(insns[i], copy);
+        }
+        retarget(insns, copies);
+        // pointers to the call move to the inlined code, or past it if the
+        // call was replaced with nothing; ranges ending at the call then
+        // end before it, and are empty if nothing is before it
+        Instruction first = next;
+        Instruction last = (before instanceof Instruction)
+            ? (Instruction) before : null;
+        if (before.next != call) {
+            first = (Instruction) before.next;
+            last = (Instruction) call.prev;
+        }
+
+        // handlers of the callee take precedence over those of the caller
+        ExceptionHandler[] handlers = body.getExceptionHandlers();
+        Instruction start, end;
+        ExceptionHandler handler;
+        int index = 0;
+        for (int i = 0; i < handlers.length; i++) {
+            start = copies.get(handlers[i].getTryStart());
+            end = copies.get(handlers[i].getTryEnd());
+            if (end == next)
+                end = last;
+            if (start == next || start.order > end.order)
+                continue;
+            handler = code.insertExceptionHandler(index++);
+            handler.setTryStart(start);
+            handler.setTryEnd(end);
+            handler.setHandlerStart(copies.get(handlers[i].
+                getHandlerStart()));
+            handler.setCatchIndex(handlers[i].getCatchIndex());
+        }
+
+        // line numbers of the callee, and the caller's line again after
+        LineNumberTable bodyLines = body.getLineNumberTable(false);
+        if (bodyLines != null && bodyLines.getLineNumbers().length > 0) {
+            LineNumberTable lines = code.getLineNumberTable(true);
+            LineNumber line = findLine(lines, call);
+            LineNumber[] numbers = bodyLines.getLineNumbers();
+            for (int i = 0; i < numbers.length; i++) {
+                copy = copies.get(numbers[i].getStart());
+                if (copy != null && copy != next)
+                    lines.addLineNumber(copy, numbers[i].getLine());
+            }
+            if (line != null && findLine(lines, next).getStart() != next)
+                lines.addLineNumber(next, line.getLine());
+        }
+
+        code.unlink(call, call);
+        Map<Instruction, Instruction> starts = new IdentityHashMap<>();
+        Map<Instruction, Instruction> ends = new IdentityHashMap<>();
+        starts.put(call, first);
+        ends.put(call, last);
+        code.replaceTargets(starts, ends);
+    }
+
+    /**
+     * Return the line number covering the given instruction, or null if
+     * none.
+     */
+    private static LineNumber findLine(LineNumberTable lines,
+        Instruction ins) {
+        LineNumber[] numbers = lines.getLineNumbers();
+        LineNumber line = null;
+        for (int i = 0; i < numbers.length; i++)
+            if (numbers[i].getStart() != null
+                && numbers[i].getStart().order <= ins.order)
+                line = numbers[i];
+        return line;
+    }
+
+    /**
+     * Point the jumps and switches among the given copies at the copies of
+     * their original targets.
+     */
+    private static void retarget(Instruction[] insns,
+        Map<Instruction, Instruction> copies) {
+        Instruction copy;
+        Instruction[] targets;
+        for (int i = 0; i < insns.length; i++) {
+            copy = copies.get(insns[i]);
+            targets = ControlFlowGraph.getTargets(insns[i]);
+            if (targets == null || !(copy instanceof JumpInstruction))
+                continue;
+            for (int j = 0; j < targets.length; j++)
+                targets[j] = copies.get(targets[j]);
+            ((JumpInstruction) copy).setTarget(targets[0]);
+            if (targets.length == 1)
+                continue;
+
+            // switches: the default target, then the cases
+            Instruction[] cases = new Instruction[targets.length - 1];
+            System.arraycopy(targets, 1, cases, 0, cases.length);
+            if (copy instanceof TableSwitchInstruction)
+                ((TableSwitchInstruction) copy).setTargets(cases);
+            else if (copy instanceof LookupSwitchInstruction)
+                ((LookupSwitchInstruction) copy).setCases
+                    (((LookupSwitchInstruction) copy).getMatches(), cases);
+            else if (copy instanceof SwitchInstruction)
+                ((SwitchInstruction) copy).setTargets(cases);
+        }
+    }
+
+    /**
+     * Return the number of stack words taken by a call to the given method,
+     * including the instance it is called on.
+     */
+    private static int getArgumentWords(BCMethod method) {
+        String[] params = method.getParamNames();
+        int words = (method.isStatic()) ? 0 : 1;
+        for (int i = 0; i < params.length; i++)
+            words += (isWide(params[i])) ? 2 : 1;
+        return words;
+    }
+
+    private static boolean isWide(String type) {
+        return long.class.getName().equals(type)
+            || double.class.getName().equals(type);
+    }
+}
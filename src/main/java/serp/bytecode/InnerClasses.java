@@ -195,15 +195,15 @@ public class InnerClasses extends Attribute {
         visit.exitInnerClasses(this);
     }
 
-    int getLength() {
+    protected int getLength() {
         return 2 + (8 * _innerClasses.size());
     }
 
-    void read(Attribute other) {
+    protected void read(Attribute other) {
         setInnerClasses(((InnerClasses) other).getInnerClasses());
     }
 
-    void read(DataInput in, int length) throws IOException {
+    protected void read(DataInput in, int length) throws IOException {
         clear();
         int numInnerClasses = in.readUnsignedShort();
         InnerClass innerClass;
@@ -213,7 +213,7 @@ public class InnerClasses extends Attribute {
         }
     }
 
-    void write(DataOutput out, int length) throws IOException {
+    protected void write(DataOutput out, int length) throws IOException {
         InnerClass[] inners = getInnerClasses();
         out.writeShort(inners.length);
         for (int i = 0; i < inners.length; i++)
@@ -60,6 +60,8 @@ public class Instruction extends CodeEntry implements BCEntity, VisitAcceptor {
      * @return this instruction, for method chaining
      */
     Instruction setOpcode(int opcode) {
+        if (opcode != _opcode && _owner != null)
+            _owner.invalidateControlFlow();
         _opcode = opcode;
         return this;
     }
@@ -83,7 +85,7 @@ public class Instruction extends CodeEntry implements BCEntity, VisitAcceptor {
      */
     void invalidateByteIndexes() {
         if (_owner != null)
-            _owner.invalidateByteIndexes();
+            _owner.invalidateByteIndexes(this);
     }
 
     /**
@@ -189,6 +191,14 @@ public class Instruction extends CodeEntry implements BCEntity, VisitAcceptor {
     void read(DataInput in) throws IOException {
     }
 
+    /**
+     * Return the opcode written for this instruction, which differs from
+     * {@link #getOpcode} only for instructions written in an expanded form.
+     */
+    int getWriteOpcode() {
+        return getOpcode();
+    }
+
     /**
      * Write the arguments for this opcode to the given stream.
      * This method should be overridden by opcodes that take arguments.
@@ -0,0 +1,237 @@
+package serp.bytecode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A sequence of instructions to look for in a {@link Code} block. Each
+ * element of the pattern matches a single instruction by its opcode, and
+ * may additionally be named, so that it can be retrieved from the
+ * {@link PatternMatch} and referred to by later constraints, and restricted
+ * by conditions on its operands. Patterns are built by chaining calls:
+ *
+ * <pre>
+ * new InstructionPattern().opcode(ISTORE).capture("store")
+ *     .opcode(ILOAD).sameOperand("store")
+ * </pre>
+ *
+ * <p>Patterns are compiled together into a {@link PatternRewriter}, which
+ * finds the matches of all of its patterns in a single pass over the
+ * code.</p>
+ */
+public class InstructionPattern {
+    private final List<Element> _elements = new ArrayList<>();
+
+    /**
+     * Add an element that matches an instruction with any of the given
+     * opcodes. Local variable instructions change their opcode to the
+     * short forms that embed the local index when possible, so the
+     * generic load and store opcodes, such as <code>iload</code>, also
+     * match their short forms, such as <code>iload_0</code>.
+     *
+     * @param opcodes the opcodes to accept
+     * @return this pattern, for method chaining
+     */
+    public InstructionPattern opcode(int... opcodes) {
+        boolean[] accept = new boolean[256];
+        for (int i = 0; i < opcodes.length; i++) {
+            if (opcodes[i] < 0 || opcodes[i] >= accept.length)
+                throw new IllegalArgumentException(String.valueOf
+                    (opcodes[i]));
+            accept[opcodes[i]] = true;
+            if (opcodes[i] >= Constants.ILOAD
+                && opcodes[i] <= Constants.ALOAD)
+                acceptShortForms(accept, Constants.ILOAD0,
+                    opcodes[i] - Constants.ILOAD);
+            else if (opcodes[i] >= Constants.ISTORE
+                && opcodes[i] <= Constants.ASTORE)
+                acceptShortForms(accept, Constants.ISTORE0,
+                    opcodes[i] - Constants.ISTORE);
+        }
+        _elements.add(new Element(accept, null, null, null));
+        return this;
+    }
+
+    /**
+     * Add an element that matches any single instruction.
+     *
+     * @return this pattern, for method chaining
+     */
+    public InstructionPattern any() {
+        _elements.add(new Element(null, null, null, null));
+        return this;
+    }
+
+    /**
+     * Name the last element of this pattern. The instruction it matches
+     * can be retrieved by name from the {@link PatternMatch}, and other
+     * elements can require the same operand through {@link #sameOperand}.
+     *
+     * @param name the name of the element
+     * @return this pattern, for method chaining
+     */
+    public InstructionPattern capture(String name) {
+        if (name == null)
+            throw new NullPointerException("name = null");
+        if (indexOf(name) != -1)
+            throw new IllegalArgumentException(name);
+        Element last = removeLast();
+        _elements.add(new Element(last.opcodes, name, last.same,
+            last.conditions));
+        return this;
+    }
+
+    /**
+     * Require the instruction matched by the last element of this pattern to
+     * have the same operand as the instruction captured under the given
+     * name: the same local variable for loads, stores and <code>iinc</code>,
+     * the same value for constants, the same constant pool entry for class,
+     * field and method instructions and the same target for jumps. The
+     * named element may come before or after this one.
+     *
+     * @param name the name of the captured element
+     * @return this pattern, for method chaining
+     */
+    public InstructionPattern sameOperand(String name) {
+        if (name == null)
+            throw new NullPointerException("name = null");
+        Element last = removeLast();
+        _elements.add(new Element(last.opcodes, last.name, name,
+            last.conditions));
+        return this;
+    }
+
+    /**
+     * Add a condition that the instruction matched by the last element of
+     * this pattern must satisfy.
+     *
+     * @param condition the condition
+     * @return this pattern, for method chaining
+     */
+    public InstructionPattern where(MatchCondition condition) {
+        if (condition == null)
+            throw new NullPointerException("condition = null");
+        Element last = removeLast();
+        MatchCondition[] conditions;
+        if (last.conditions == null)
+            conditions = new MatchCondition[]{ condition };
+        else {
+            conditions = new MatchCondition[last.conditions.length + 1];
+            System.arraycopy(last.conditions, 0, conditions, 0,
+                last.conditions.length);
+            conditions[last.conditions.length] = condition;
+        }
+        _elements.add(new Element(last.opcodes, last.name, last.same,
+            conditions));
+        return this;
+    }
+
+    /**
+     * Return the number of instructions this pattern matches.
+     *
+     * @return the number of elements
+     */
+    public int size() {
+        return _elements.size();
+    }
+
+    /**
+     * Return the index of the element captured under the given name, or -1
+     * if none.
+     *
+     * @param name the name of the element
+     * @return the element index
+     */
+    public int indexOf(String name) {
+        for (int i = 0; i < _elements.size(); i++)
+            if (name.equals(_elements.get(i).name))
+                return i;
+        return -1;
+    }
+
+    /**
+     * Return a snapshot of the elements of this pattern, checking that
+     * every operand reference names a captured element.
+     */
+    Element[] getElements() {
+        Element[] elements = _elements.toArray(new Element[_elements.size()]);
+        for (int i = 0; i < elements.length; i++)
+            if (elements[i].same != null && indexOf(elements[i].same) == -1)
+                throw new IllegalArgumentException(elements[i].same);
+        return elements;
+    }
+
+    /**
+     * Accept the four short forms of the given type, where types are
+     * numbered in the order int, long, float, double, reference.
+     */
+    private static void acceptShortForms(boolean[] accept, int first,
+        int type) {
+        Arrays.fill(accept, first + 4 * type, first + 4 * type + 4, true);
+    }
+
+    private Element removeLast() {
+        if (_elements.isEmpty())
+            throw new IllegalStateException("no elements");
+        return _elements.remove(_elements.size() - 1);
+    }
+
+    /**
+     * Return true if the given instructions have the same operand, in the
+     * sense of {@link #sameOperand}.
+     */
+    static boolean sameOperand(Instruction ins1, Instruction ins2) {
+        if (ins1 instanceof LocalVariableInstruction)
+            return ins2 instanceof LocalVariableInstruction
+                && ((LocalVariableInstruction) ins1).getLocal()
+                == ((LocalVariableInstruction) ins2).getLocal();
+        if (ins1 instanceof ConstantInstruction) {
+            if (!(ins2 instanceof ConstantInstruction))
+                return false;
+            Object val1 = ((ConstantInstruction) ins1).getValue();
+            Object val2 = ((ConstantInstruction) ins2).getValue();
+            return (val1 == null) ? val2 == null : val1.equals(val2);
+        }
+        if (ins1 instanceof ClassInstruction)
+            return ins2 instanceof ClassInstruction
+                && ((ClassInstruction) ins1).getTypeIndex()
+                == ((ClassInstruction) ins2).getTypeIndex();
+        if (ins1 instanceof FieldInstruction)
+            return ins2 instanceof FieldInstruction
+                && ((FieldInstruction) ins1).getFieldIndex()
+                == ((FieldInstruction) ins2).getFieldIndex();
+        if (ins1 instanceof MethodInstruction)
+            return ins2 instanceof MethodInstruction
+                && ((MethodInstruction) ins1).getMethodIndex()
+                == ((MethodInstruction) ins2).getMethodIndex();
+        if (ins1 instanceof JumpInstruction)
+            return ins2 instanceof JumpInstruction
+                && ((JumpInstruction) ins1).getTarget()
+                == ((JumpInstruction) ins2).getTarget();
+        return ins1.getClass() == ins2.getClass();
+    }
+
+    /**
+     * An element of a pattern. Elements are immutable so that compiled
+     * rewriters are unaffected by later changes to their patterns.
+     */
+    static class Element {
+        final boolean[] opcodes; // null for any opcode
+        final String name;
+        final String same;
+        final MatchCondition[] conditions;
+
+        Element(boolean[] opcodes, String name, String same,
+            MatchCondition[] conditions) {
+            this.opcodes = opcodes;
+            this.name = name;
+            this.same = same;
+            this.conditions = conditions;
+        }
+
+        boolean accepts(int opcode) {
+            return opcodes == null || opcodes[opcode];
+        }
+    }
+}
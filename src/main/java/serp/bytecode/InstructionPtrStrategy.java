@@ -38,6 +38,7 @@ class InstructionPtrStrategy implements InstructionPtr {
             throw new IllegalArgumentException(String.valueOf(index));
         _byteIndex = index;
         _target = null;
+        invalidateControlFlow();
     }
 
     /**
@@ -51,6 +52,20 @@ class InstructionPtrStrategy implements InstructionPtr {
                 + "targets must be part of the same code block.");
         _target = ins;
         _byteIndex = -1;
+        invalidateControlFlow();
+    }
+
+    /**
+     * Discard the control flow graph of the code if the pointer is a jump
+     * or exception handler, whose targets shape the graph.
+     */
+    private void invalidateControlFlow() {
+        if (!(_pointer instanceof JumpInstruction)
+            && !(_pointer instanceof ExceptionHandler))
+            return;
+        Code code = getCode();
+        if (code != null)
+            code.invalidateControlFlow();
     }
 
     /**
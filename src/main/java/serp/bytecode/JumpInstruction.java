@@ -92,14 +92,10 @@ public abstract class JumpInstruction extends Instruction
 
     void write(DataOutput out) throws IOException {
         super.write(out);
-        switch (getOpcode()) {
-        case Constants.GOTOW:
-        case Constants.JSRW:
+        if (isWide())
             out.writeInt(_target.getByteIndex() - getByteIndex());
-            break;
-        default:
+        else
             out.writeShort(_target.getByteIndex() - getByteIndex());
-        }
     }
 
     public void setOffset(int offset) {
@@ -109,4 +105,23 @@ public abstract class JumpInstruction extends Instruction
     public int getOffset() {
         return _target.getByteIndex() - getByteIndex();
     }
+
+    /**
+     * Return true if this jump is written in a wide form, whose offset
+     * needn't fit in a signed short.
+     */
+    boolean isWide() {
+        return false;
+    }
+
+    /**
+     * Set whether this jump is written in a wide form. Jumps without a
+     * wide form ignore this call. The byte indexes of the code are left to
+     * the caller to invalidate.
+     *
+     * @return true if the form of the jump changed
+     */
+    boolean setWide(boolean wide) {
+        return false;
+    }
 }
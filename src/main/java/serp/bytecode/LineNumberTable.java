@@ -183,15 +183,15 @@ public class LineNumberTable extends Attribute implements InstructionPtr {
         visit.exitLineNumberTable(this);
     }
 
-    int getLength() {
+    protected int getLength() {
         return 2 + (4 * _lineNumbers.size());
     }
 
-    void read(Attribute other) {
+    protected void read(Attribute other) {
         setLineNumbers(((LineNumberTable) other).getLineNumbers());
     }
 
-    void read(DataInput in, int length) throws IOException {
+    protected void read(DataInput in, int length) throws IOException {
         clear();
         int numLines = in.readUnsignedShort();
         LineNumber lineNumber;
@@ -201,7 +201,7 @@ public class LineNumberTable extends Attribute implements InstructionPtr {
         }
     }
 
-    void write(DataOutput out, int length) throws IOException {
+    protected void write(DataOutput out, int length) throws IOException {
         LineNumber[] lines = getLineNumbers();
         out.writeShort(lines.length);
         for (int i = 0; i < lines.length; i++)
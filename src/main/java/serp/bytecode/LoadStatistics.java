@@ -0,0 +1,142 @@
+package serp.bytecode;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress and timing statistics for a bulk load of classes into a
+ * {@link Project}. The counters are updated as classes are loaded, so
+ * they may be polled from another thread while the load is running.
+ *
+ * @see Project#loadAll(java.nio.file.Path, java.util.concurrent.Executor)
+ */
+public class LoadStatistics {
+    private final AtomicInteger _entries = new AtomicInteger();
+    private final AtomicInteger _classes = new AtomicInteger();
+    private final AtomicLong _bytes = new AtomicLong();
+    private final AtomicLong _readNanos = new AtomicLong();
+    private final AtomicLong _parseNanos = new AtomicLong();
+    private final Map<String,Throwable> _failures =
+        new ConcurrentHashMap<>();
+    private final long _start = System.nanoTime();
+    private volatile long _end = -1;
+
+    /**
+     * Return the number of class file entries found so far.
+     *
+     * @return the number of class file entries found
+     */
+    public int getEntryCount() {
+        return _entries.get();
+    }
+
+    /**
+     * Return the number of classes parsed and added to the project so far.
+     *
+     * @return the number of classes loaded
+     */
+    public int getClassCount() {
+        return _classes.get();
+    }
+
+    /**
+     * Return the number of class file entries that could not be loaded.
+     *
+     * @return the number of failed entries
+     */
+    public int getFailureCount() {
+        return _failures.size();
+    }
+
+    /**
+     * Return the errors for the entries that could not be loaded, keyed
+     * on entry path.
+     *
+     * @return the failed entries
+     */
+    public Map<String,Throwable> getFailures() {
+        return Collections.unmodifiableMap(_failures);
+    }
+
+    /**
+     * Return the total number of class file bytes read.
+     *
+     * @return the number of bytes read
+     */
+    public long getByteCount() {
+        return _bytes.get();
+    }
+
+    /**
+     * Return the time spent reading class file bytes, summed over all
+     * worker threads.
+     *
+     * @return the read time in nanoseconds
+     */
+    public long getReadNanos() {
+        return _readNanos.get();
+    }
+
+    /**
+     * Return the time spent parsing classes, summed over all worker threads.
+     *
+     * @return the parse time in nanoseconds
+     */
+    public long getParseNanos() {
+        return _parseNanos.get();
+    }
+
+    /**
+     * Return the wall clock time of the load, or the time elapsed so far
+     * if it is still running.
+     *
+     * @return the elapsed time in milliseconds
+     */
+    public long getElapsedMillis() {
+        long end = _end;
+        if (end == -1)
+            end = System.nanoTime();
+        return (end - _start) / 1000000L;
+    }
+
+    /**
+     * Return true once all entries have been processed.
+     *
+     * @return true if the load is complete
+     */
+    public boolean isComplete() {
+        return _end != -1;
+    }
+
+    public String toString() {
+        return "classes=" + getClassCount() + ", failures=" + getFailureCount()
+            + ", bytes=" + getByteCount() + ", elapsed=" + getElapsedMillis()
+            + "ms, read=" + getReadNanos() / 1000000L + "ms, parse="
+            + getParseNanos() / 1000000L + "ms";
+    }
+
+    void entryFound() {
+        _entries.incrementAndGet();
+    }
+
+    void entryRead(int bytes, long nanos) {
+        _bytes.addAndGet(bytes);
+        _readNanos.addAndGet(nanos);
+    }
+
+    void classLoaded(long nanos) {
+        _classes.incrementAndGet();
+        _parseNanos.addAndGet(nanos);
+    }
+
+    void entryFailed(String entry, Throwable t) {
+        _failures.put(entry, t);
+    }
+
+    void complete() {
+        _end = System.nanoTime();
+    }
+}
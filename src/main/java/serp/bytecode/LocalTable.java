@@ -204,15 +204,15 @@ public abstract class LocalTable extends Attribute implements InstructionPtr {
         return (Code) getOwner();
     }
 
-    int getLength() {
+    protected int getLength() {
         return 2 + (10 * _locals.size());
     }
 
-    void read(Attribute other) {
+    protected void read(Attribute other) {
         setLocals(((LocalTable) other).getLocals());
     }
 
-    void read(DataInput in, int length) throws IOException {
+    protected void read(DataInput in, int length) throws IOException {
         clear();
         int numLocals = in.readUnsignedShort();
         Local Local;
@@ -222,7 +222,7 @@ public abstract class LocalTable extends Attribute implements InstructionPtr {
         }
     }
 
-    void write(DataOutput out, int length) throws IOException {
+    protected void write(DataOutput out, int length) throws IOException {
         out.writeShort(_locals.size());
         for (int i = 0; i < _locals.size(); i++)
             ((Local) _locals.get(i)).write(out);
@@ -0,0 +1,17 @@
+package serp.bytecode;
+
+/**
+ * A condition on the operands of an instruction matched by an element of an
+ * {@link InstructionPattern}, beyond its opcode.
+ */
+public interface MatchCondition {
+    /**
+     * Return true if the given instruction satisfies this condition.
+     *
+     * @param ins   the instruction matched by the element
+     * @param match the candidate match; all of its instructions and
+     *              captures are available
+     * @return true if the instruction is acceptable
+     */
+    public boolean matches(Instruction ins, PatternMatch match);
+}
@@ -34,7 +34,8 @@ public class MethodInstruction extends Instruction {
 
         // subtract a stack pos for the this ptr
         int stack = 0;
-        if (getOpcode() != Constants.INVOKESTATIC)
+        if (getOpcode() != Constants.INVOKESTATIC
+            && getOpcode() != Constants.INVOKEDYNAMIC)
             stack--;
 
         // and for each arg
@@ -55,7 +56,8 @@ public class MethodInstruction extends Instruction {
 
         // subtract a stack pos for the this ptr
         int stack = 0;
-        if (getOpcode() != Constants.INVOKESTATIC)
+        if (getOpcode() != Constants.INVOKESTATIC
+            && getOpcode() != Constants.INVOKEDYNAMIC)
             stack--;
 
         // and for each arg (2 for longs, doubles)
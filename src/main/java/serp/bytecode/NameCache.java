@@ -1,9 +1,13 @@
 package serp.bytecode;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import serp.util.StringTable;
 
 /**
  * Caching and conversion of names in both internal and external form.
+ * The caches are safe for use by multiple threads.
  *
  * @author Abe White
  */
@@ -21,10 +25,36 @@ public class NameCache {
     };
 
     // caches of internal and external forms of strings
-    private final Map _internal = new HashMap();
-    private final Map _internalDescriptor = new HashMap();
-    private final Map _external = new HashMap();
-    private final Map _externalHuman = new HashMap();
+    private final Map<String,String> _internal = new ConcurrentHashMap<>();
+    private final Map<String,String> _internalDescriptor =
+        new ConcurrentHashMap<>();
+    private final Map<String,String> _external = new ConcurrentHashMap<>();
+    private final Map<String,String> _externalHuman =
+        new ConcurrentHashMap<>();
+    private volatile StringTable _strings = null;
+
+    /**
+     * Return the table used to share cached names, or null if none.
+     */
+    StringTable getStringTable() {
+        return _strings;
+    }
+
+    /**
+     * Set the table used to share cached names. The constant pools of
+     * classes created afterwards share their strings through it as well.
+     */
+    void setStringTable(StringTable strings) {
+        _strings = strings;
+    }
+
+    /**
+     * Return the shared instance of the given string, if sharing.
+     */
+    private String intern(String str) {
+        StringTable strings = _strings;
+        return (strings == null) ? str : strings.intern(str);
+    }
 
 	/**
 	 * Converts the given class name to its internal form.
@@ -39,13 +69,14 @@ public class NameCache {
         if (className == null || className.length() == 0)
             return className;
 
-        Map cache = (descriptor) ? _internalDescriptor : _internal;
-        String cached = (String) cache.get(className);
+        Map<String,String> cache = (descriptor) ? _internalDescriptor 
+            : _internal;
+        String cached = cache.get(className);
         if (cached != null)
             return cached;
 
-        String ret = getInternalFormInternal(className, descriptor);
-        cache.put(className, ret);
+        String ret = intern(getInternalFormInternal(className, descriptor));
+        cache.put(intern(className), ret);
         return ret;
     }
 
@@ -102,13 +133,15 @@ public class NameCache {
         if (internalName == null || internalName.length() == 0)
             return internalName;
 
-        Map cache = (humanReadable) ? _externalHuman : _external;
-        String cached = (String) cache.get(internalName);
+        Map<String,String> cache = (humanReadable) ? _externalHuman 
+            : _external;
+        String cached = cache.get(internalName);
         if (cached != null)
             return cached;
 
-        String ret = getExternalFormInternal(internalName, humanReadable);
-        cache.put(internalName, ret);
+        String ret = intern(getExternalFormInternal(internalName,
+            humanReadable));
+        cache.put(intern(internalName), ret);
         return ret;
     }
 
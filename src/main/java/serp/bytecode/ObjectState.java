@@ -25,6 +25,7 @@ class ObjectState extends State {
 
     public ObjectState(NameCache names) {
         _names = names;
+        _pool.setStringTable(names.getStringTable());
     }
 
     public int getMagic() {
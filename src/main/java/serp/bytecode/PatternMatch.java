@@ -0,0 +1,139 @@
+package serp.bytecode;
+
+/**
+ * A run of instructions in a {@link Code} block that matches an
+ * {@link InstructionPattern}.
+ */
+public class PatternMatch {
+    private final Code _code;
+    private final InstructionPattern _pattern;
+    private final int _rule;
+    private final Instruction[] _instructions;
+    private final int _index;
+    private final Instruction _next;
+
+    PatternMatch(Code code, InstructionPattern pattern, int rule,
+        Instruction[] instructions, int index, int size) {
+        _code = code;
+        _pattern = pattern;
+        _rule = rule;
+        _instructions = new Instruction[size];
+        System.arraycopy(instructions, index, _instructions, 0, size);
+        _index = index;
+        _next = (index + size < instructions.length)
+            ? instructions[index + size] : null;
+    }
+
+    /**
+     * Return the code block the match was found in.
+     *
+     * @return the owning code block
+     */
+    public Code getCode() {
+        return _code;
+    }
+
+    /**
+     * Return the matched pattern.
+     *
+     * @return the pattern
+     */
+    public InstructionPattern getPattern() {
+        return _pattern;
+    }
+
+    /**
+     * Return the index of the rule of the matched pattern in its rewriter.
+     */
+    int getRule() {
+        return _rule;
+    }
+
+    /**
+     * Return the index of the first matched instruction in the code block,
+     * as of when the match was found.
+     *
+     * @return the index of the first matched instruction
+     */
+    public int getIndex() {
+        return _index;
+    }
+
+    /**
+     * Return the number of matched instructions.
+     *
+     * @return the size of the match
+     */
+    public int size() {
+        return _instructions.length;
+    }
+
+    /**
+     * Return the instruction matched by the element of the pattern at the
+     * given index.
+     *
+     * @param index the element index
+     * @return the matched instruction
+     */
+    public Instruction getInstruction(int index) {
+        return _instructions[index];
+    }
+
+    /**
+     * Return the instruction matched by the element of the pattern captured
+     * under the given name.
+     *
+     * @param name the name of the element
+     * @return the matched instruction
+     * @throws IllegalArgumentException if the pattern has no such element
+     */
+    public Instruction getInstruction(String name) {
+        int index = _pattern.indexOf(name);
+        if (index == -1)
+            throw new IllegalArgumentException(name);
+        return _instructions[index];
+    }
+
+    /**
+     * Return the matched instructions, in code order.
+     *
+     * @return the matched instructions
+     */
+    public Instruction[] getInstructions() {
+        return _instructions.clone();
+    }
+
+    /**
+     * Return the instruction following the match, or null if the match
+     * ends the code block.
+     *
+     * @return the next instruction
+     */
+    public Instruction getNextInstruction() {
+        return _next;
+    }
+
+    /**
+     * Return true if the operands and conditions of the given pattern
+     * elements accept the matched instructions.
+     */
+    boolean accepts(InstructionPattern.Element[] elements) {
+        InstructionPattern.Element element;
+        for (int i = 0; i < elements.length; i++) {
+            element = elements[i];
+            if (element.same != null && !InstructionPattern.sameOperand
+                (_instructions[i], getInstruction(element.same)))
+                return false;
+            if (element.conditions == null)
+                continue;
+            for (int j = 0; j < element.conditions.length; j++)
+                if (!element.conditions[j].matches(_instructions[i], this))
+                    return false;
+        }
+        return true;
+    }
+
+    public String toString() {
+        return "PatternMatch " + _index + " [" + _instructions.length + "]";
+    }
+}
@@ -0,0 +1,21 @@
+package serp.bytecode;
+
+/**
+ * Produces the instructions that replace a match of an
+ * {@link InstructionPattern} in a {@link PatternRewriter}.
+ */
+public interface PatternReplacement {
+    /**
+     * Add the replacement instructions for the given match. The iterator
+     * of the code is placed just before the matched instructions, so the
+     * instruction methods of {@link Code} add the replacement in place;
+     * copies of matched instructions can be added through
+     * {@link Code#add}. Adding nothing removes the match. Implementations
+     * must not change the code in any other way; the matched instructions
+     * are removed once this method returns.
+     *
+     * @param code  the code being rewritten
+     * @param match the match to replace
+     */
+    public void replace(Code code, PatternMatch match);
+}
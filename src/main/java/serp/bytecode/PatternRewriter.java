@@ -0,0 +1,403 @@
+package serp.bytecode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A set of rewrite rules over the instructions of {@link Code} blocks.
+ * Each rule pairs an {@link InstructionPattern} with the
+ * {@link PatternReplacement} for its matches.
+ *
+ * <p>The patterns of all rules are compiled into a single deterministic
+ * automaton over opcodes, so finding the matches of any number of
+ * patterns takes one pass over the code; operand constraints are only
+ * checked on the candidates the automaton reports. Where matches overlap,
+ * the leftmost wins, then the longest, then the one whose rule was added
+ * first. A match never spans a point that control can enter other than by
+ * falling through, so only its first instruction may be a jump target,
+ * exception handler or try range boundary; pointers to the matched
+ * instructions are moved to their replacement.</p>
+ *
+ * <p>The compiled automaton is immutable, so a rewriter whose rules are no
+ * longer changing can be shared among threads working on different code
+ * blocks.</p>
+ */
+public class PatternRewriter {
+    private static final Comparator<PatternMatch> LEFTMOST =
+        new Comparator<PatternMatch>() {
+            public int compare(PatternMatch m1, PatternMatch m2) {
+                if (m1.getIndex() != m2.getIndex())
+                    return m1.getIndex() - m2.getIndex();
+                if (m1.size() != m2.size())
+                    return m2.size() - m1.size();
+                return m1.getRule() - m2.getRule();
+            }
+        };
+
+    private final List<InstructionPattern> _patterns = new ArrayList<>();
+    private final List<PatternReplacement> _replacements = new ArrayList<>();
+    private volatile Automaton _automaton = null;
+
+    /**
+     * Add a rule replacing the matches of the given pattern.
+     *
+     * @param pattern     the pattern to match
+     * @param replacement produces the instructions replacing each match,
+     *                    or null to use the rule only in
+     *                    {@link #findMatches}
+     * @return this rewriter, for method chaining
+     */
+    public synchronized PatternRewriter addRule(InstructionPattern pattern,
+        PatternReplacement replacement) {
+        if (pattern == null)
+            throw new NullPointerException("pattern = null");
+        if (pattern.size() == 0)
+            throw new IllegalArgumentException("empty pattern");
+        _patterns.add(pattern);
+        _replacements.add(replacement);
+        _automaton = null;
+        return this;
+    }
+
+    /**
+     * Return the number of rules.
+     *
+     * @return the rule count
+     */
+    public synchronized int getRuleCount() {
+        return _patterns.size();
+    }
+
+    /**
+     * Return the patterns of the rules, in the order they were added.
+     *
+     * @return the patterns
+     */
+    public synchronized InstructionPattern[] getPatterns() {
+        return _patterns.toArray(new InstructionPattern[_patterns.size()]);
+    }
+
+    /**
+     * Find the non-overlapping matches of the rules in the given code, in
+     * code order.
+     *
+     * @param code the code to search
+     * @return the matches
+     */
+    public PatternMatch[] findMatches(Code code) {
+        List<PatternMatch> matches = findMatches(code, getAutomaton());
+        return matches.toArray(new PatternMatch[matches.size()]);
+    }
+
+    /**
+     * Replace the non-overlapping matches of the rules in the given code.
+     * Matches of rules without a replacement are left in place. The
+     * maximum stack and locals of the code are not recalculated. After
+     * this method, the iterator of the code will be
+     * {@link Code#afterLast}.
+     *
+     * @param code the code to rewrite
+     * @return the number of replaced matches
+     */
+    public int rewrite(Code code) {
+        Automaton automaton = getAutomaton();
+        List<PatternMatch> matches = findMatches(code, automaton);
+        Map<Instruction, Instruction> starts = new IdentityHashMap<>();
+        Map<Instruction, Instruction> ends = new IdentityHashMap<>();
+
+        int count = 0;
+        PatternReplacement replacement;
+        for (int i = 0; i < matches.size(); i++) {
+            replacement = automaton.replacements[matches.get(i).getRule()];
+            if (replacement != null) {
+                replace(code, matches.get(i), replacement, starts, ends);
+                count++;
+            }
+        }
+        code.replaceTargets(starts, ends);
+        code.afterLast();
+        return count;
+    }
+
+    /**
+     * Replace a single match, recording where pointers to its
+     * instructions should go.
+     */
+    private static void replace(Code code, PatternMatch match,
+        PatternReplacement replacement, Map<Instruction, Instruction> starts,
+        Map<Instruction, Instruction> ends) {
+        Instruction first = match.getInstruction(0);
+        Instruction last = match.getInstruction(match.size() - 1);
+        CodeEntry prev = first.prev;
+        code.before(first);
+        replacement.replace(code, match);
+        if (first.getCode() != code || last.getCode() != code)
+            throw new IllegalStateException("replacement changed the "
+                + "matched instructions");
+
+        Instruction repFirst = null;
+        Instruction repLast = null;
+        if (prev.next != first) {
+            repFirst = (Instruction) prev.next;
+            repLast = (Instruction) first.prev;
+        }
+        CodeEntry next = last.next;
+        code.unlink(first, last);
+        Instruction following = (next instanceof Instruction)
+            ? (Instruction) next : null;
+        Instruction preceding = (prev instanceof Instruction)
+            ? (Instruction) prev : null;
+        if (repFirst == null && following == null) {
+            // pointers need something to point to
+            repFirst = code.nop();
+            repLast = repFirst;
+        }
+
+        // with nothing before the match, ranges that ended in it are empty
+        Instruction start = (repFirst == null) ? following : repFirst;
+        Instruction end = (repLast == null) ? preceding : repLast;
+        for (int i = 0; i < match.size(); i++) {
+            starts.put(match.getInstruction(i), start);
+            ends.put(match.getInstruction(i), end);
+        }
+    }
+
+    /**
+     * Run the automaton over the code and select the non-overlapping
+     * matches among the accepted candidates.
+     */
+    private static List<PatternMatch> findMatches(Code code,
+        Automaton automaton) {
+        ControlFlowGraph cfg = code.getControlFlowGraph();
+        Instruction[] instructions = cfg.getInstructionsHolder();
+        int[] entries = getEntries(cfg);
+
+        List<PatternMatch> candidates = new ArrayList<>();
+        int state = 0;
+        int[] accepts;
+        int rule, start;
+        PatternMatch match;
+        for (int i = 0; i < instructions.length; i++) {
+            state = automaton.transitions[state]
+                [automaton.classes[instructions[i].getOpcode()]];
+            accepts = automaton.accepts[state];
+            for (int j = 0; j < accepts.length; j++) {
+                rule = accepts[j];
+                start = i - automaton.elements[rule].length + 1;
+                if (entries[i] > start)
+                    continue;
+                match = new PatternMatch(code, automaton.patterns[rule],
+                    rule, instructions, start, i - start + 1);
+                if (match.accepts(automaton.elements[rule]))
+                    candidates.add(match);
+            }
+        }
+        if (candidates.isEmpty())
+            return candidates;
+
+        Collections.sort(candidates, LEFTMOST);
+        List<PatternMatch> matches = new ArrayList<>();
+        int end = -1;
+        for (int i = 0; i < candidates.size(); i++) {
+            match = candidates.get(i);
+            if (match.getIndex() > end) {
+                matches.add(match);
+                end = match.getIndex() + match.size() - 1;
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Return, for each instruction, the index of the last instruction at
+     * or before it that control can enter other than by falling through:
+     * jump targets, exception handlers and try range boundaries.
+     */
+    private static int[] getEntries(ControlFlowGraph cfg) {
+        Instruction[] instructions = cfg.getInstructionsHolder();
+        boolean[] entry = new boolean[instructions.length + 1];
+        BasicBlock block;
+        for (int i = 0; i < cfg.getBlockCount(); i++) {
+            block = cfg.getBlock(i);
+            if (block.isJumpTarget() || block.isExceptionHandler())
+                entry[block.getStart()] = true;
+        }
+        ExceptionHandler[] handlers = cfg.getExceptionHandlers();
+        int index;
+        for (int i = 0; i < handlers.length; i++) {
+            index = cfg.indexOf(handlers[i].getTryStart());
+            if (index != -1)
+                entry[index] = true;
+            index = cfg.indexOf(handlers[i].getTryEnd());
+            if (index != -1)
+                entry[index + 1] = true;
+        }
+
+        int[] entries = new int[instructions.length];
+        int last = 0;
+        for (int i = 0; i < entries.length; i++) {
+            if (entry[i])
+                last = i;
+            entries[i] = last;
+        }
+        return entries;
+    }
+
+    private Automaton getAutomaton() {
+        Automaton automaton = _automaton;
+        if (automaton != null)
+            return automaton;
+        synchronized (this) {
+            if (_automaton == null)
+                _automaton = new Automaton(getPatterns(),
+                    _replacements.toArray(new PatternReplacement
+                    [_replacements.size()]));
+            return _automaton;
+        }
+    }
+
+    /**
+     * Deterministic automaton recognizing the opcode sequences of all
+     * patterns at once. Opcodes that every pattern element treats alike
+     * share a character class, which keeps the transition table small.
+     * Each state stands for the set of partially matched pattern elements,
+     * encoded as rule * stride + position, and lists the rules whose
+     * patterns are completed on entering it.
+     */
+    private static class Automaton {
+        final InstructionPattern[] patterns;
+        final PatternReplacement[] replacements;
+        final InstructionPattern.Element[][] elements;
+        final int[] classes = new int[256];
+        final int[] offsets;
+        final int[][] transitions;
+        final int[][] accepts;
+
+        Automaton(InstructionPattern[] patterns,
+            PatternReplacement[] replacements) {
+            this.patterns = patterns;
+            this.replacements = replacements;
+            elements = new InstructionPattern.Element[patterns.length][];
+            offsets = new int[patterns.length];
+            int stride = 0;
+            for (int i = 0; i < patterns.length; i++) {
+                elements[i] = patterns[i].getElements();
+                stride = Math.max(stride, elements[i].length);
+                if (i > 0)
+                    offsets[i] = offsets[i - 1] + elements[i - 1].length;
+            }
+            BitSet[] sigs = classify();
+
+            List<int[]> states = new ArrayList<>();
+            List<int[]> accepting = new ArrayList<>();
+            List<int[]> table = new ArrayList<>();
+            Map<Key, Integer> ids = new HashMap<>();
+            states.add(new int[0]);
+            accepting.add(new int[0]);
+            ids.put(new Key(new int[0], new int[0]), 0);
+
+            int[] items, row, next, done;
+            int[] buf = new int[patterns.length * stride];
+            int[] acc = new int[patterns.length];
+            int nexts, dones, item, rule, pos;
+            Integer id;
+            for (int s = 0; s < states.size(); s++) {
+                items = states.get(s);
+                row = new int[sigs.length];
+                for (int c = 0; c < sigs.length; c++) {
+                    nexts = 0;
+                    dones = 0;
+                    // every pattern may also start at any instruction
+                    for (int i = 0; i < items.length + patterns.length; i++) {
+                        item = (i < items.length) ? items[i]
+                            : (i - items.length) * stride;
+                        rule = item / stride;
+                        pos = item % stride;
+                        if (!sigs[c].get(offsets[rule] + pos))
+                            continue;
+                        if (pos + 1 == elements[rule].length)
+                            acc[dones++] = rule;
+                        else
+                            buf[nexts++] = item + 1;
+                    }
+                    next = Arrays.copyOf(buf, nexts);
+                    done = Arrays.copyOf(acc, dones);
+                    Arrays.sort(next);
+                    Arrays.sort(done);
+
+                    Key key = new Key(next, done);
+                    id = ids.get(key);
+                    if (id == null) {
+                        id = states.size();
+                        ids.put(key, id);
+                        states.add(next);
+                        accepting.add(done);
+                    }
+                    row[c] = id;
+                }
+                table.add(row);
+            }
+            transitions = table.toArray(new int[table.size()][]);
+            accepts = accepting.toArray(new int[accepting.size()][]);
+        }
+
+        /**
+         * Partition the opcodes into classes with the same signature, the
+         * set of pattern elements accepting them, and return the
+         * signatures.
+         */
+        private BitSet[] classify() {
+            Map<BitSet, Integer> ids = new HashMap<>();
+            List<BitSet> sigs = new ArrayList<>();
+            BitSet sig;
+            Integer id;
+            for (int op = 0; op < classes.length; op++) {
+                sig = new BitSet();
+                for (int i = 0; i < elements.length; i++)
+                    for (int j = 0; j < elements[i].length; j++)
+                        if (elements[i][j].accepts(op))
+                            sig.set(offsets[i] + j);
+                id = ids.get(sig);
+                if (id == null) {
+                    id = sigs.size();
+                    ids.put(sig, id);
+                    sigs.add(sig);
+                }
+                classes[op] = id;
+            }
+            return sigs.toArray(new BitSet[sigs.size()]);
+        }
+    }
+
+    /**
+     * Hash key for the state with the given partial and completed matches.
+     */
+    private static class Key {
+        private final int[] _items;
+        private final int[] _accepts;
+
+        Key(int[] items, int[] accepts) {
+            _items = items;
+            _accepts = accepts;
+        }
+
+        public int hashCode() {
+            return Arrays.hashCode(_items) * 31 + Arrays.hashCode(_accepts);
+        }
+
+        public boolean equals(Object other) {
+            if (!(other instanceof Key))
+                return false;
+            Key key = (Key) other;
+            return Arrays.equals(_items, key._items)
+                && Arrays.equals(_accepts, key._accepts);
+        }
+    }
+}
@@ -0,0 +1,807 @@
+package serp.bytecode;
+
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Shrinks the code of methods by repeatedly replacing short instruction
+ * sequences with cheaper equivalents until none apply. The rules to run are
+ * chosen through a bit mask of the rule constants of this class, and
+ * further rules can be added as patterns through {@link #addRule}. Pointers
+ * into the code, including exception handler, line number and local
+ * variable ranges, follow the replaced instructions as described in
+ * {@link PatternRewriter}.
+ *
+ * <p>Optimizers track the locals of the code being optimized, so each
+ * thread should use its own instance.</p>
+ */
+public class PeepholeOptimizer implements Constants {
+    /**
+     * Rule removing a store to a local followed by a load of it when the
+     * local is not otherwise read, and replacing the load with a
+     * <code>dup</code> of the stored value when that is shorter.
+     */
+    public static final int STORE_LOAD = 1 << 0;
+
+    /**
+     * Rule removing jumps to the next instruction.
+     */
+    public static final int GOTO_NEXT = 1 << 1;
+
+    /**
+     * Rule pointing jumps and switches that lead to a <code>goto</code> to
+     * its final target.
+     */
+    public static final int GOTO_CHAIN = 1 << 2;
+
+    /**
+     * Rule removing values that are pushed without side effects and popped
+     * immediately.
+     */
+    public static final int PUSH_POP = 1 << 3;
+
+    /**
+     * Rule removing casts that cannot fail: repeated casts to the same type,
+     * casts to <code>Object</code> and casts of <code>null</code>.
+     */
+    public static final int REDUNDANT_CHECKCAST = 1 << 4;
+
+    /**
+     * Rule evaluating math, conversion and comparison instructions and
+     * <code>String.concat</code> calls whose operands are constants,
+     * replacing them with a load of the result, and replacing conditional
+     * jumps on constants with a <code>goto</code> or nothing. Results are
+     * loaded with the shortest instruction for their value, which may be a
+     * byte longer than the instructions it replaces when a small
+     * <code>int</code> is converted to a wider type. Code that folded jumps
+     * leave unreachable can be dropped with
+     * {@link Code#removeUnreachableCode}.
+     */
+    public static final int CONSTANT_FOLDING = 1 << 5;
+
+    /**
+     * All rules.
+     */
+    public static final int ALL = STORE_LOAD | GOTO_NEXT | GOTO_CHAIN
+        | PUSH_POP | REDUNDANT_CHECKCAST | CONSTANT_FOLDING;
+
+    private static final PatternReplacement DELETE = new PatternReplacement() {
+        public void replace(Code code, PatternMatch match) {
+        }
+    };
+
+    private static final PatternReplacement KEEP_FIRST =
+        new PatternReplacement() {
+            public void replace(Code code, PatternMatch match) {
+                code.add(match.getInstruction(0));
+            }
+        };
+
+    private final int _rules;
+    private final PatternRewriter _rewriter = new PatternRewriter();
+    private int[] _reads = null; // reads of each local in the current pass
+
+    /**
+     * Create an optimizer running all rules.
+     */
+    public PeepholeOptimizer() {
+        this(ALL);
+    }
+
+    /**
+     * Create an optimizer running the given rules.
+     *
+     * @param rules bit mask of the rule constants of this class
+     */
+    public PeepholeOptimizer(int rules) {
+        _rules = rules;
+        if ((rules & STORE_LOAD) != 0)
+            addStoreLoadRules();
+        if ((rules & GOTO_NEXT) != 0)
+            addGotoNextRule();
+        if ((rules & PUSH_POP) != 0)
+            addPushPopRules();
+        if ((rules & REDUNDANT_CHECKCAST) != 0)
+            addCheckcastRules();
+        if ((rules & CONSTANT_FOLDING) != 0)
+            addConstantFoldingRules();
+    }
+
+    /**
+     * Return the bit mask of the built-in rules this optimizer runs.
+     *
+     * @return the rule mask
+     */
+    public int getRules() {
+        return _rules;
+    }
+
+    /**
+     * Add a custom rule. To guarantee that optimization terminates, the
+     * replacement should be shorter than the instructions it replaces.
+     *
+     * @param pattern     the pattern to match
+     * @param replacement produces the instructions replacing each match
+     * @return this optimizer, for method chaining
+     */
+    public PeepholeOptimizer addRule(InstructionPattern pattern,
+        PatternReplacement replacement) {
+        if (replacement == null)
+            throw new NullPointerException("replacement = null");
+        _rewriter.addRule(pattern, replacement);
+        return this;
+    }
+
+    /**
+     * Optimize the code of all methods of the given class.
+     *
+     * @param bc the class to optimize
+     * @return the number of bytes saved in each method whose code length
+     *         changed, in declaration order
+     */
+    public Map<BCMethod, Integer> optimize(BCClass bc) {
+        Map<BCMethod, Integer> saved = new LinkedHashMap<>();
+        BCMethod[] methods = bc.getDeclaredMethods();
+        Code code;
+        int bytes;
+        for (int i = 0; i < methods.length; i++) {
+            code = methods[i].getCode(false);
+            if (code == null)
+                continue;
+            bytes = optimize(code);
+            if (bytes != 0)
+                saved.put(methods[i], bytes);
+        }
+        return saved;
+    }
+
+    /**
+     * Optimize the given code until no rule applies. The maximum stack
+     * depth is recalculated if the code changes. After this method, the
+     * iterator of the code will be {@link Code#afterLast}.
+     *
+     * @param code the code to optimize
+     * @return the number of bytes saved, which is negative if the code
+     *         grew through {@link #CONSTANT_FOLDING}
+     */
+    public int optimize(Code code) {
+        int before = getCodeLength(code);
+        boolean changed = false;
+        boolean pass;
+        try {
+            do {
+                pass = false;
+                if ((_rules & GOTO_CHAIN) != 0)
+                    pass = shortenGotoChains(code);
+                _reads = null;
+                if (_rewriter.getRuleCount() > 0
+                    && _rewriter.rewrite(code) > 0)
+                    pass = true;
+                changed |= pass;
+            } while (pass);
+        } finally {
+            _reads = null;
+        }
+        code.afterLast();
+
+        if (!changed)
+            return 0;
+        code.calculateMaxStack();
+        return before - getCodeLength(code);
+    }
+
+    /**
+     * Return the length of the instructions of the given code in bytes.
+     */
+    private static int getCodeLength(Code code) {
+        Instruction last = code.getLastInstruction();
+        if (last == null)
+            return 0;
+        return last.getByteIndex() + last.getLength();
+    }
+
+    /**
+     * Point jumps and switches whose targets are gotos at the end of the
+     * goto chain.
+     */
+    private static boolean shortenGotoChains(Code code) {
+        ControlFlowGraph cfg = code.getControlFlowGraph();
+        Instruction[] instructions = cfg.getInstructionsHolder();
+        boolean changed = false;
+        Instruction[] targets;
+        Instruction target;
+        for (int i = 0; i < instructions.length; i++) {
+            if (instructions[i].getOpcode() == JSR
+                || instructions[i].getOpcode() == JSRW)
+                continue;
+            targets = ControlFlowGraph.getTargets(instructions[i]);
+            if (targets == null)
+                continue;
+            for (int j = 0; j < targets.length; j++) {
+                target = followGotos(targets[j]);
+                if (target != targets[j]) {
+                    ((JumpInstruction) instructions[i]).replaceTarget
+                        (targets[j], target);
+                    changed = true;
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Return the final target of the chain of gotos starting at the given
+     * instruction, or the instruction itself if the chain loops.
+     */
+    private static Instruction followGotos(Instruction ins) {
+        Map<Instruction, Instruction> seen = null;
+        Instruction cur = ins;
+        while (cur != null && (cur.getOpcode() == GOTO
+            || cur.getOpcode() == GOTOW)) {
+            if (seen == null)
+                seen = new IdentityHashMap<>();
+            if (seen.put(cur, cur) != null)
+                return ins;
+            cur = ((JumpInstruction) cur).getTarget();
+        }
+        return (cur == null) ? ins : cur;
+    }
+
+    private void addStoreLoadRules() {
+        // store x; load x -> (nothing) if x is otherwise unread, else
+        // dup; store x if shorter
+        _rewriter.addRule(new InstructionPattern().
+            opcode(ISTORE, LSTORE, FSTORE, DSTORE, ASTORE).capture("store").
+            where(new MatchCondition() {
+                public boolean matches(Instruction ins, PatternMatch match) {
+                    return isDeadStore(ins, 1) || ins.getLength() > 1;
+                }
+            }).opcode(ILOAD, LLOAD, FLOAD, DLOAD, ALOAD).
+            sameOperand("store"), new PatternReplacement() {
+                public void replace(Code code, PatternMatch match) {
+                    Instruction store = match.getInstruction(0);
+                    if (isDeadStore(store, 1))
+                        return;
+                    if (getSlots(store) == 2)
+                        code.dup2();
+                    else
+                        code.dup();
+                    code.add(store);
+                }
+            });
+
+        // dup; store x -> (nothing) if x is never read
+        _rewriter.addRule(new InstructionPattern().opcode(DUP, DUP2).
+            opcode(ISTORE, LSTORE, FSTORE, DSTORE, ASTORE).
+            where(new MatchCondition() {
+                public boolean matches(Instruction ins, PatternMatch match) {
+                    return isDeadStore(ins, 0) && getSlots(ins)
+                        == ((match.getInstruction(0).getOpcode() == DUP2)
+                        ? 2 : 1);
+                }
+            }), DELETE);
+    }
+
+    /**
+     * Return true if the local written by the given store is read the
+     * given number of times, and isn't described by the local variable
+     * table.
+     */
+    private boolean isDeadStore(Instruction store, int reads) {
+        if (_reads == null)
+            _reads = countReads(store.getCode());
+        int local = ((LocalVariableInstruction) store).getLocal();
+        for (int i = 0; i < getSlots(store); i++)
+            if (local + i >= _reads.length || _reads[local + i] != reads)
+                return false;
+        return true;
+    }
+
+    /**
+     * Count the reads of each local of the given code. Locals in the local
+     * variable table count as always read.
+     */
+    private static int[] countReads(Code code) {
+        Instruction[] instructions = code.getControlFlowGraph().
+            getInstructionsHolder();
+        int max = code.getMaxLocals();
+        for (int i = 0; i < instructions.length; i++)
+            if (instructions[i] instanceof LocalVariableInstruction)
+                max = Math.max(max, ((LocalVariableInstruction)
+                    instructions[i]).getLocal() + 2);
+
+        int[] reads = new int[max];
+        LocalVariableInstruction ins;
+        for (int i = 0; i < instructions.length; i++) {
+            if (!(instructions[i] instanceof LocalVariableInstruction)
+                || isStore(instructions[i]))
+                continue;
+            ins = (LocalVariableInstruction) instructions[i];
+            if (ins.getLocal() < 0)
+                continue;
+            for (int j = 0; j < getSlots(ins); j++)
+                reads[ins.getLocal() + j]++;
+        }
+
+        LocalVariableTable table = code.getLocalVariableTable(false);
+        if (table != null) {
+            LocalVariable[] vars = table.getLocalVariables();
+            int local, slots;
+            for (int i = 0; i < vars.length; i++) {
+                local = vars[i].getLocal();
+                slots = (long.class.getName().equals(vars[i].getTypeName())
+                    || double.class.getName().equals(vars[i].getTypeName()))
+                    ? 2 : 1;
+                for (int j = local; j < local + slots && j < reads.length;
+                    j++)
+                    reads[j] = Integer.MAX_VALUE;
+            }
+        }
+        return reads;
+    }
+
+    /**
+     * Return true if the given local variable instruction only writes its
+     * local.
+     */
+    private static boolean isStore(Instruction ins) {
+        int opcode = ins.getOpcode();
+        if (ins instanceof WideInstruction)
+            opcode = ((WideInstruction) ins).getInstruction();
+        return (opcode >= ISTORE && opcode <= ASTORE)
+            || (opcode >= ISTORE0 && opcode <= ASTORE3);
+    }
+
+    /**
+     * Return the number of local slots the given local variable instruction
+     * accesses.
+     */
+    private static int getSlots(Instruction ins) {
+        int opcode = ins.getOpcode();
+        if (ins instanceof WideInstruction)
+            opcode = ((WideInstruction) ins).getInstruction();
+        switch (opcode) {
+        case LLOAD:
+        case DLOAD:
+        case LLOAD0:
+        case LLOAD1:
+        case LLOAD2:
+        case LLOAD3:
+        case DLOAD0:
+        case DLOAD1:
+        case DLOAD2:
+        case DLOAD3:
+        case LSTORE:
+        case DSTORE:
+        case LSTORE0:
+        case LSTORE1:
+        case LSTORE2:
+        case LSTORE3:
+        case DSTORE0:
+        case DSTORE1:
+        case DSTORE2:
+        case DSTORE3:
+            return 2;
+        default:
+            return 1;
+        }
+    }
+
+    private void addGotoNextRule() {
+        _rewriter.addRule(new InstructionPattern().opcode(GOTO, GOTOW).
+            where(new MatchCondition() {
+                public boolean matches(Instruction ins, PatternMatch match) {
+                    return ((JumpInstruction) ins).getTarget()
+                        == match.getNextInstruction();
+                }
+            }), DELETE);
+    }
+
+    private void addPushPopRules() {
+        MatchCondition simple = new MatchCondition() {
+            public boolean matches(Instruction ins, PatternMatch match) {
+                if (ins.getOpcode() != LDC && ins.getOpcode() != LDCW)
+                    return true;
+                // class and dynamic constants may fail to resolve
+                String type = ((ConstantInstruction) ins).getTypeName();
+                return int.class.getName().equals(type)
+                    || float.class.getName().equals(type)
+                    || String.class.getName().equals(type);
+            }
+        };
+        _rewriter.addRule(new InstructionPattern().opcode(ACONSTNULL,
+            ICONSTM1, ICONST0, ICONST1, ICONST2, ICONST3, ICONST4, ICONST5,
+            FCONST0, FCONST1, FCONST2, BIPUSH, SIPUSH, LDC, LDCW, ILOAD, FLOAD,
+            ALOAD, DUP).where(simple).opcode(POP), DELETE);
+        _rewriter.addRule(new InstructionPattern().opcode(LCONST0, LCONST1,
+            DCONST0, DCONST1, LDC2W, LLOAD, DLOAD, DUP2).opcode(POP2), DELETE);
+    }
+
+    private void addCheckcastRules() {
+        _rewriter.addRule(new InstructionPattern().opcode(CHECKCAST).
+            capture("cast").opcode(CHECKCAST).sameOperand("cast"), KEEP_FIRST);
+        _rewriter.addRule(new InstructionPattern().opcode(ACONSTNULL).
+            opcode(CHECKCAST), KEEP_FIRST);
+        _rewriter.addRule(new InstructionPattern().opcode(CHECKCAST).
+            where(new MatchCondition() {
+                public boolean matches(Instruction ins, PatternMatch match) {
+                    return Object.class.getName().equals
+                        (((ClassInstruction) ins).getTypeName());
+                }
+            }), DELETE);
+    }
+
+    private void addConstantFoldingRules() {
+        int[] constants = new int[]{ ICONSTM1, ICONST0, ICONST1, ICONST2,
+            ICONST3, ICONST4, ICONST5, LCONST0, LCONST1, FCONST0, FCONST1,
+            FCONST2, DCONST0, DCONST1, BIPUSH, SIPUSH, LDC, LDCW, LDC2W };
+        MatchCondition known = new MatchCondition() {
+            public boolean matches(Instruction ins, PatternMatch match) {
+                return getConstant(ins) != null;
+            }
+        };
+        MatchCondition foldable = new MatchCondition() {
+            public boolean matches(Instruction ins, PatternMatch match) {
+                return fold(match) != null;
+            }
+        };
+        PatternReplacement load = new PatternReplacement() {
+            public void replace(Code code, PatternMatch match) {
+                code.constant().setValue(fold(match));
+            }
+        };
+
+        // x op y, op x, (type) x, cmp x y, x.concat(y) -> result
+        _rewriter.addRule(new InstructionPattern().opcode(constants).
+            where(known).opcode(constants).where(known).opcode(IADD, LADD,
+            FADD, DADD, ISUB, LSUB, FSUB, DSUB, IMUL, LMUL, FMUL, DMUL, IDIV,
+            LDIV, FDIV, DDIV, IREM, LREM, FREM, DREM, ISHL, LSHL, ISHR, LSHR,
+            IUSHR, LUSHR, IAND, LAND, IOR, LOR, IXOR, LXOR, LCMP, FCMPL, FCMPG,
+            DCMPL, DCMPG, INVOKEVIRTUAL).where(foldable), load);
+        _rewriter.addRule(new InstructionPattern().opcode(constants).
+            where(known).opcode(INEG, LNEG, FNEG, DNEG, I2L, I2F, I2D, L2I,
+            L2F, L2D, F2I, F2L, F2D, D2I, D2L, D2F, I2B, I2C, I2S).
+            where(foldable), load);
+
+        // if (constant) -> goto or nothing
+        MatchCondition decidable = new MatchCondition() {
+            public boolean matches(Instruction ins, PatternMatch match) {
+                return isBranchTaken(match) != null;
+            }
+        };
+        PatternReplacement branch = new PatternReplacement() {
+            public void replace(Code code, PatternMatch match) {
+                JumpInstruction jump = (JumpInstruction) match.getInstruction
+                    (match.size() - 1);
+                if (isBranchTaken(match).booleanValue())
+                    code.go2().setTarget(jump.getTarget());
+            }
+        };
+        _rewriter.addRule(new InstructionPattern().opcode(constants).
+            where(known).opcode(IFEQ, IFNE, IFLT, IFGE, IFGT, IFLE).
+            where(decidable), branch);
+        _rewriter.addRule(new InstructionPattern().opcode(constants).
+            where(known).opcode(constants).where(known).opcode(IFICMPEQ,
+            IFICMPNE, IFICMPLT, IFICMPGE, IFICMPGT, IFICMPLE).
+            where(decidable), branch);
+        _rewriter.addRule(new InstructionPattern().opcode(ACONSTNULL, LDC,
+            LDCW).opcode(IFNULL, IFNONNULL).where(decidable), branch);
+    }
+
+    /**
+     * Return the value of the given instruction if it pushes a number or
+     * string constant, or null otherwise.
+     */
+    private static Object getConstant(Instruction ins) {
+        if (!(ins instanceof ConstantInstruction)
+            || ins.getOpcode() == ACONSTNULL)
+            return null;
+        // class and dynamic constants are not values known here
+        String type = ((ConstantInstruction) ins).getTypeName();
+        if (type == null || Class.class.getName().equals(type))
+            return null;
+        return ((ConstantInstruction) ins).getValue();
+    }
+
+    /**
+     * Return the result of the operation ending the given match on the
+     * constants before it, or null if it cannot be computed without
+     * executing the code.
+     */
+    private static Object fold(PatternMatch match) {
+        Instruction ins = match.getInstruction(match.size() - 1);
+        Object val1 = getConstant(match.getInstruction(0));
+        Object val2 = (match.size() == 3) ? getConstant(match.getInstruction
+            (1)) : null;
+        switch (ins.getOpcode()) {
+        case INEG:
+        case LNEG:
+        case FNEG:
+        case DNEG:
+            return negate(val1);
+        case INVOKEVIRTUAL:
+            return concat((MethodInstruction) ins, val1, val2);
+        }
+        if (ins instanceof MathInstruction)
+            return fold((MathInstruction) ins, val1, val2);
+        if (ins instanceof ConvertInstruction)
+            return convert((ConvertInstruction) ins, val1);
+        if (ins instanceof CmpInstruction)
+            return compare((CmpInstruction) ins, val1, val2);
+        return null;
+    }
+
+    private static Object negate(Object val) {
+        if (val instanceof Integer)
+            return Integer.valueOf(-((Integer) val).intValue());
+        if (val instanceof Long)
+            return Long.valueOf(-((Long) val).longValue());
+        if (val instanceof Float)
+            return Float.valueOf(-((Float) val).floatValue());
+        if (val instanceof Double)
+            return Double.valueOf(-((Double) val).doubleValue());
+        return null;
+    }
+
+    /**
+     * Apply the given binary math operation, or return null if the operands
+     * are not of its type or it would throw.
+     */
+    private static Object fold(MathInstruction ins, Object val1,
+        Object val2) {
+        int op = ins.getOperation();
+        String type = ins.getTypeName();
+        boolean shift = op == MATH_SHL || op == MATH_SHR || op == MATH_USHR;
+        if (int.class.getName().equals(type)) {
+            if (!(val1 instanceof Integer) || !(val2 instanceof Integer))
+                return null;
+            int x = ((Integer) val1).intValue();
+            int y = ((Integer) val2).intValue();
+            switch (op) {
+            case MATH_ADD:
+                return Integer.valueOf(x + y);
+            case MATH_SUB:
+                return Integer.valueOf(x - y);
+            case MATH_MUL:
+                return Integer.valueOf(x * y);
+            case MATH_DIV:
+                return (y == 0) ? null : Integer.valueOf(x / y);
+            case MATH_REM:
+                return (y == 0) ? null : Integer.valueOf(x % y);
+            case MATH_SHL:
+                return Integer.valueOf(x << y);
+            case MATH_SHR:
+                return Integer.valueOf(x >> y);
+            case MATH_USHR:
+                return Integer.valueOf(x >>> y);
+            case MATH_AND:
+                return Integer.valueOf(x & y);
+            case MATH_OR:
+                return Integer.valueOf(x | y);
+            case MATH_XOR:
+                return Integer.valueOf(x ^ y);
+            default:
+                return null;
+            }
+        }
+        if (long.class.getName().equals(type)) {
+            // shift distances are ints
+            if (!(val1 instanceof Long) || !(shift ? val2 instanceof Integer
+                : val2 instanceof Long))
+                return null;
+            long x = ((Long) val1).longValue();
+            long y = ((Number) val2).longValue();
+            switch (op) {
+            case MATH_ADD:
+                return Long.valueOf(x + y);
+            case MATH_SUB:
+                return Long.valueOf(x - y);
+            case MATH_MUL:
+                return Long.valueOf(x * y);
+            case MATH_DIV:
+                return (y == 0) ? null : Long.valueOf(x / y);
+            case MATH_REM:
+                return (y == 0) ? null : Long.valueOf(x % y);
+            case MATH_SHL:
+                return Long.valueOf(x << y);
+            case MATH_SHR:
+                return Long.valueOf(x >> y);
+            case MATH_USHR:
+                return Long.valueOf(x >>> y);
+            case MATH_AND:
+                return Long.valueOf(x & y);
+            case MATH_OR:
+                return Long.valueOf(x | y);
+            case MATH_XOR:
+                return Long.valueOf(x ^ y);
+            default:
+                return null;
+            }
+        }
+        if (float.class.getName().equals(type)) {
+            if (!(val1 instanceof Float) || !(val2 instanceof Float))
+                return null;
+            float x = ((Float) val1).floatValue();
+            float y = ((Float) val2).floatValue();
+            switch (op) {
+            case MATH_ADD:
+                return Float.valueOf(x + y);
+            case MATH_SUB:
+                return Float.valueOf(x - y);
+            case MATH_MUL:
+                return Float.valueOf(x * y);
+            case MATH_DIV:
+                return Float.valueOf(x / y);
+            case MATH_REM:
+                return Float.valueOf(x % y);
+            default:
+                return null;
+            }
+        }
+        if (double.class.getName().equals(type)) {
+            if (!(val1 instanceof Double) || !(val2 instanceof Double))
+                return null;
+            double x = ((Double) val1).doubleValue();
+            double y = ((Double) val2).doubleValue();
+            switch (op) {
+            case MATH_ADD:
+                return Double.valueOf(x + y);
+            case MATH_SUB:
+                return Double.valueOf(x - y);
+            case MATH_MUL:
+                return Double.valueOf(x * y);
+            case MATH_DIV:
+                return Double.valueOf(x / y);
+            case MATH_REM:
+                return Double.valueOf(x % y);
+            default:
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Apply the given conversion, or return null if the operand is not of
+     * the type converted from.
+     */
+    private static Object convert(ConvertInstruction ins, Object val) {
+        if (!isOfType(val, ins.getFromTypeName()))
+            return null;
+        Number num = (Number) val;
+        switch (ins.getOpcode()) {
+        case L2I:
+        case F2I:
+        case D2I:
+            return Integer.valueOf(num.intValue());
+        case I2L:
+        case F2L:
+        case D2L:
+            return Long.valueOf(num.longValue());
+        case I2F:
+        case L2F:
+        case D2F:
+            return Float.valueOf(num.floatValue());
+        case I2D:
+        case L2D:
+        case F2D:
+            return Double.valueOf(num.doubleValue());
+        case I2B:
+            return Integer.valueOf((byte) num.intValue());
+        case I2C:
+            return Integer.valueOf((char) num.intValue());
+        case I2S:
+            return Integer.valueOf((short) num.intValue());
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * Apply the given comparison, or return null if the operands are not of
+     * its type.
+     */
+    private static Object compare(CmpInstruction ins, Object val1,
+        Object val2) {
+        String type = ins.getTypeName();
+        if (!isOfType(val1, type) || !isOfType(val2, type))
+            return null;
+        if (val1 instanceof Long)
+            return Integer.valueOf(Long.compare(((Long) val1).longValue(),
+                ((Long) val2).longValue()));
+
+        // unlike the compare methods of the wrappers, the instructions
+        // treat zeros as equal and give NaN a set result
+        double x = ((Number) val1).doubleValue();
+        double y = ((Number) val2).doubleValue();
+        if (Double.isNaN(x) || Double.isNaN(y))
+            return Integer.valueOf(ins.getNaNValue());
+        return Integer.valueOf((x < y) ? -1 : (x > y) ? 1 : 0);
+    }
+
+    /**
+     * Concatenate two string constants through <code>String.concat</code>,
+     * or return null if the call is to another method or the result is too
+     * long for the constant pool.
+     */
+    private static Object concat(MethodInstruction ins, Object val1,
+        Object val2) {
+        if (!(val1 instanceof String) || !(val2 instanceof String)
+            || !String.class.getName().equals(ins.getMethodDeclarerName())
+            || !"concat".equals(ins.getMethodName())
+            || ins.getMethodParamNames().length != 1)
+            return null;
+        String str = (String) val1 + (String) val2;
+
+        // strings are stored in modified UTF-8 of at most 65535 bytes
+        int len = 0;
+        char c;
+        for (int i = 0; i < str.length(); i++) {
+            c = str.charAt(i);
+            len += (c >= 0x01 && c <= 0x7F) ? 1 : (c <= 0x7FF) ? 2 : 3;
+        }
+        return (len > 65535) ? null : str;
+    }
+
+    /**
+     * Return whether the conditional jump ending the given match is taken,
+     * or null if that depends on values not known here.
+     */
+    private static Boolean isBranchTaken(PatternMatch match) {
+        Instruction ins = match.getInstruction(match.size() - 1);
+        Instruction first = match.getInstruction(0);
+        int opcode = ins.getOpcode();
+        if (opcode == IFNULL || opcode == IFNONNULL) {
+            boolean isNull = first.getOpcode() == ACONSTNULL;
+            if (!isNull && !(getConstant(first) instanceof String))
+                return null;
+            return Boolean.valueOf(isNull == (opcode == IFNULL));
+        }
+
+        Object val1 = getConstant(first);
+        Object val2 = (match.size() == 3) ? getConstant(match.getInstruction
+            (1)) : Integer.valueOf(0);
+        if (!(val1 instanceof Integer) || !(val2 instanceof Integer))
+            return null;
+        int cmp = Integer.compare(((Integer) val1).intValue(),
+            ((Integer) val2).intValue());
+        switch (opcode) {
+        case IFEQ:
+        case IFICMPEQ:
+            return Boolean.valueOf(cmp == 0);
+        case IFNE:
+        case IFICMPNE:
+            return Boolean.valueOf(cmp != 0);
+        case IFLT:
+        case IFICMPLT:
+            return Boolean.valueOf(cmp < 0);
+        case IFGE:
+        case IFICMPGE:
+            return Boolean.valueOf(cmp >= 0);
+        case IFGT:
+        case IFICMPGT:
+            return Boolean.valueOf(cmp > 0);
+        case IFLE:
+        case IFICMPLE:
+            return Boolean.valueOf(cmp <= 0);
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * Return true if the given constant is of the given primitive type.
+     */
+    private static boolean isOfType(Object val, String type) {
+        if (int.class.getName().equals(type))
+            return val instanceof Integer;
+        if (long.class.getName().equals(type))
+            return val instanceof Long;
+        if (float.class.getName().equals(type))
+            return val instanceof Float;
+        if (double.class.getName().equals(type))
+            return val instanceof Double;
+        return false;
+    }
+}
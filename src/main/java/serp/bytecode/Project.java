@@ -3,13 +3,28 @@ package serp.bytecode;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Enumeration;
 import java.util.Iterator;
-import java.util.Map;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 import serp.bytecode.visitor.BCVisitor;
 import serp.bytecode.visitor.VisitAcceptor;
+import serp.util.StringTable;
 import serp.util.Strings;
 
 /**
@@ -22,17 +37,30 @@ import serp.util.Strings;
  * a class with the same name multiple times always returns the same
  * {@link BCClass} instance.</p>
  *
- * <p>A future goal is to eventually have facilities for traversing jars
- * or directory structures to find classes that meet a given criteria (such
- * as implementing a given interface, etc) and to perform operations on entire
- * projects, similar to aspect-oriented programming.</p>
+ * <p>A project may be shared by multiple threads. Classes can be loaded
+ * concurrently; each class loaded by name is parsed only once, and all
+ * threads receive the same {@link BCClass} instance. The classes themselves
+ * are not thread-safe, however, and must not be modified concurrently.</p>
+ *
+ * <p>Entire jars or directory structures can be loaded at once with
+ * {@link #loadAll(Path,Executor)}. A future goal is to have facilities for
+ * finding classes that meet a given criteria (such as implementing a given
+ * interface, etc) and to perform operations on entire projects, similar to
+ * aspect-oriented programming.</p>
  *
  * @author Abe White
  */
 public class Project implements VisitAcceptor {
     private final String _name;
-    private final Map<String,BCClass> _cache = new HashMap<>();
+    private final ConcurrentMap<String,BCClass> _cache =
+        new ConcurrentHashMap<>();
+    private final ConcurrentMap<String,FutureTask<BCClass>> _loading =
+        new ConcurrentHashMap<>();
     private final NameCache _names = new NameCache();
+    private boolean _lazyCode = false;
+    private boolean _removeUnused = false;
+    private boolean _computeFrames = true;
+    private ClassHierarchy _hierarchy = null;
 
     /**
      * Default constructor.
@@ -69,6 +97,141 @@ public class Project implements VisitAcceptor {
         return _names;
     }
 
+    /**
+     * Whether method code is parsed lazily. Defaults to false.
+     *
+     * @return true if code is parsed lazily
+     * @see #setLazyCode
+     */
+    public boolean isLazyCode() {
+        return _lazyCode;
+    }
+
+    /**
+     * Whether to parse method code lazily. When set, classes read from
+     * bytecode hold on to the raw bytes of each method's code block, and only
+     * build its instructions, exception handlers and code attributes on first
+     * access. Code that is never accessed is written back unchanged. This
+     * greatly reduces the cost of loading classes whose method bodies are
+     * never examined, such as when scanning for names or annotations.
+     *
+     * @param lazy true to parse code lazily
+     */
+    public void setLazyCode(boolean lazy) {
+        _lazyCode = lazy;
+    }
+
+    /**
+     * Whether unused constant pool entries are removed when classes are
+     * written. Defaults to false.
+     *
+     * @return true if unused entries are removed on write
+     * @see #setRemoveUnusedEntries
+     */
+    public boolean isRemoveUnusedEntries() {
+        return _removeUnused;
+    }
+
+    /**
+     * Whether to remove unused constant pool entries when classes are
+     * written, as by {@link BCClass#removeUnusedEntries}. This keeps
+     * transformed classes from carrying the entries of names and constants
+     * they no longer refer to, at the cost of a pass over each class on
+     * write. Classes written this way are never copied straight from
+     * their original bytes.
+     *
+     * @param remove true to remove unused entries on write
+     */
+    public void setRemoveUnusedEntries(boolean remove) {
+        _removeUnused = remove;
+    }
+
+    /**
+     * Whether the stack map frames of modified methods are recomputed when
+     * classes are written. Defaults to true.
+     *
+     * @return true if frames are computed on write
+     * @see #setComputeFrames
+     */
+    public boolean isComputeFrames() {
+        return _computeFrames;
+    }
+
+    /**
+     * Whether to recompute the stack map frames of modified methods when
+     * classes are written, as by {@link Code#calculateStackMap}. Frames are
+     * computed for the methods of Java 7 and later classes whose
+     * instructions or exception handlers have changed since the class was
+     * read, and for those of Java 6 classes that already have frames.
+     * Without up to date frames, edited Java 7 classes fail verification.
+     *
+     * @param compute true to compute frames on write
+     */
+    public void setComputeFrames(boolean compute) {
+        _computeFrames = compute;
+    }
+
+    /**
+     * Return the class hierarchy consulted when computing stack map frames.
+     * Unless set, a hierarchy that resolves the classes of this project
+     * and finds other classes with the context class loader is used.
+     *
+     * @return the class hierarchy
+     */
+    public synchronized ClassHierarchy getClassHierarchy() {
+        if (_hierarchy == null)
+            _hierarchy = new ClassHierarchy(this, null);
+        return _hierarchy;
+    }
+
+    /**
+     * Set the class hierarchy consulted when computing stack map frames.
+     *
+     * @param hierarchy the hierarchy, or null for the default
+     */
+    public synchronized void setClassHierarchy(ClassHierarchy hierarchy) {
+        _hierarchy = hierarchy;
+    }
+
+    /**
+     * Whether equal strings are shared between the classes of this
+     * project. Defaults to false.
+     *
+     * @return true if strings are shared
+     * @see #setInternStrings
+     */
+    public boolean isInternStrings() {
+        return _names.getStringTable() != null;
+    }
+
+    /**
+     * Whether to share equal strings between the classes of this project.
+     * When set, the constant pool strings of classes loaded afterwards and
+     * the names held by the {@link NameCache} are interned in a table
+     * private to the project, so that names such as
+     * <code>java/lang/Object</code> are held once rather than once per
+     * class. This reduces the memory used by projects holding many
+     * classes, at a small cost in loading time. Classes already loaded are
+     * not affected, so this should be set before loading any classes.
+     *
+     * @param intern true to share strings
+     */
+    public void setInternStrings(boolean intern) {
+        if (intern != isInternStrings())
+            _names.setStringTable(intern ? new StringTable() : null);
+    }
+
+    /**
+     * Return the table of strings shared between the classes of this
+     * project, whose counts report the strings saved by sharing.
+     *
+     * @return the string table, or null if strings are not shared
+     * @see #setInternStrings
+     */
+    public StringTable getStringTable() {
+        return _names.getStringTable();
+    }
+
     /**
      * Load a class with the given name.
      *
@@ -97,17 +260,24 @@ public class Project implements VisitAcceptor {
 	 */
     public BCClass loadClass(String name, ClassLoader loader) {
         // convert to proper Class.forName() form
-        name = _names.getExternalForm(name, false);
-
-        BCClass cached = checkCache(name);
-        if (cached != null)
-            return cached;
+        final String fname = _names.getExternalForm(name, false);
+        final ClassLoader floader = (loader == null) 
+            ? Thread.currentThread().getContextClassLoader() : loader;
+        return loadOnce(fname, () -> cache(fname, newClass(fname, floader)));
+    }
 
+    /**
+     * Create a class with the given name, parsing the bytecode of the
+     * existing type of that name if there is one.
+     *
+     * @param name the name of the class, in {@link Class#forName} form
+     * @param loader the class loader to search for an existing type
+     * @return the new, uncached class
+     */
+    private BCClass newClass(String name, ClassLoader loader) {
         // check for existing type
-        if (loader == null)
-            loader = Thread.currentThread().getContextClassLoader();
         try {
-            return loadClass(Strings.toClass(name, loader));
+            return newClass(Strings.toClass(name, loader));
         } catch (Exception e) {
         }
 
@@ -120,7 +290,6 @@ public class Project implements VisitAcceptor {
             ret.setName(name);
             ret.setSuperclass(Object.class);
         }
-        cache(name, ret);
         return ret;
     }
 
@@ -136,11 +305,18 @@ public class Project implements VisitAcceptor {
      * @param type the class to parse
      * @return the loaded class
      */
-    public BCClass loadClass(Class<?> type) {
-        BCClass cached = checkCache(type.getName());
-        if (cached != null)
-            return cached;
+    public BCClass loadClass(final Class<?> type) {
+        return loadOnce(type.getName(), 
+            () -> cache(type.getName(), newClass(type)));
+    }
 
+    /**
+     * Create a class from the bytecode of the given type.
+     *
+     * @param type the class to parse
+     * @return the new, uncached class
+     */
+    private BCClass newClass(Class<?> type) {
         BCClass ret = new BCClass(this);
         if (type.isPrimitive())
             ret.setState(new PrimitiveState(type, _names));
@@ -155,7 +331,6 @@ public class Project implements VisitAcceptor {
                 throw new RuntimeException(ioe.toString());
             }
         }
-        cache(type.getName(), ret);
         return ret;
     }
 
@@ -194,13 +369,7 @@ public class Project implements VisitAcceptor {
             throw new RuntimeException(ioe.toString());
         }
 
-        String name = ret.getName();
-        BCClass cached = checkCache(name);
-        if (cached != null)
-            return cached;
-
-        cache(name, ret);
-        return ret;
+        return cache(ret.getName(), ret);
     }
 
     /**
@@ -237,13 +406,44 @@ public class Project implements VisitAcceptor {
             throw new RuntimeException(ioe.toString());
         }
 
-        String name = ret.getName();
-        BCClass cached = checkCache(name);
-        if (cached != null)
-            return cached;
+        return cache(ret.getName(), ret);
+    }
 
-        cache(name, ret);
-        return ret;
+    /**
+     * Load the bytecode from the given class file bytes.
+     * If this project already contains the class in the given bytes,
+     * it will be returned. Otherwise a new {@link BCClass} will be created
+     * from the given bytecode.
+     *
+     * @throws RuntimeException on parse error
+     * @param bytes the class bytecode
+     * @return the loaded class
+     */
+    public BCClass loadClass(byte[] bytes) {
+        return loadClass(bytes, null);
+    }
+
+    /**
+     * Load the bytecode from the given class file bytes.
+     * If this project already contains the class in the given bytes,
+     * it will be returned. Otherwise a new {@link BCClass} will be created
+     * from the given bytecode. The bytes are parsed in place and retained
+     * by the new class, so the array must not be modified afterwards.
+     *
+     * @throws RuntimeException on parse error
+     * @param bytes the class bytecode
+     * @param loader the class loader
+     * @return the loaded class
+     */
+    public BCClass loadClass(byte[] bytes, ClassLoader loader) {
+        BCClass ret = new BCClass(this);
+        ret.setState(new ObjectState(_names));
+        try {
+            ret.read(bytes, loader);
+        } catch (IOException ioe) {
+            throw new RuntimeException(ioe.toString());
+        }
+        return cache(ret.getName(), ret);
     }
 
     /**
@@ -255,12 +455,17 @@ public class Project implements VisitAcceptor {
      * @param bc the class to load
      * @return the loaded class
      */
-    public BCClass loadClass(BCClass bc) {
-        String name = bc.getName();
-        BCClass cached = checkCache(name);
-        if (cached != null)
-            return cached;
+    public BCClass loadClass(final BCClass bc) {
+        return loadOnce(bc.getName(), () -> cache(bc.getName(), newClass(bc)));
+    }
 
+    /**
+     * Create a class from the information in the given class.
+     *
+     * @param bc the class to import
+     * @return the new, uncached class
+     */
+    private BCClass newClass(BCClass bc) {
         BCClass ret = new BCClass(this);
         if (bc.isPrimitive())
             ret.setState(new PrimitiveState(bc.getType(), _names));
@@ -270,8 +475,148 @@ public class Project implements VisitAcceptor {
             ret.setState(new ObjectState(_names));
             ret.read(bc);
         }
+        return ret;
+    }
+
+    /**
+     * Load all classes in the given jar file or directory structure, parsing
+     * them on the common fork-join pool.
+     *
+     * @see #loadAll(Path,Executor)
+     * @param path the jar or zip file, or the root directory
+     * @return the load statistics
+     */
+    public LoadStatistics loadAll(Path path) throws IOException {
+        return loadAll(path, null);
+    }
+
+    /**
+     * Load all classes in the given jar file or directory structure. Class
+     * files are read on the calling thread and parsed by the given executor;
+     * this method returns once all classes have been parsed and cached.
+     * Entries that fail to parse are recorded in the returned statistics
+     * rather than aborting the load. Module descriptors and versioned
+     * entries of multi-release jars are skipped.
+     *
+     * @throws IOException on error reading the jar or directory
+     * @param path the jar or zip file, or the root directory
+     * @param exec the executor to parse classes with; if null defaults to
+     *             the common fork-join pool
+     * @return the load statistics
+     */
+    public LoadStatistics loadAll(Path path, Executor exec) 
+        throws IOException {
+        if (exec == null)
+            exec = ForkJoinPool.commonPool();
+
+        LoadStatistics stats = new LoadStatistics();
+        List<CompletableFuture<Void>> tasks = new ArrayList<>();
+        if (Files.isDirectory(path)) {
+            try (Stream<Path> files = Files.walk(path)) {
+                Path file;
+                long start;
+                byte[] bytes;
+                for (Iterator<Path> itr = files.iterator(); itr.hasNext();) {
+                    file = itr.next();
+                    if (!isClassFile(file.toString())
+                        || !Files.isRegularFile(file))
+                        continue;
+
+                    stats.entryFound();
+                    start = System.nanoTime();
+                    bytes = Files.readAllBytes(file);
+                    stats.entryRead(bytes.length, System.nanoTime() - start);
+                    tasks.add(parse(path.relativize(file).toString(), bytes,
+                        stats, exec));
+                }
+            }
+        } else {
+            try (ZipFile zip = new ZipFile(path.toFile())) {
+                ZipEntry entry;
+                long start;
+                byte[] bytes;
+                for (Enumeration<? extends ZipEntry> e = zip.entries();
+                    e.hasMoreElements();) {
+                    entry = e.nextElement();
+                    if (entry.isDirectory() || !isClassFile(entry.getName())
+                        || entry.getName().startsWith("META-INF/versions/"))
+                        continue;
+
+                    stats.entryFound();
+                    start = System.nanoTime();
+                    try (InputStream in = zip.getInputStream(entry)) {
+                        bytes = readFully(in, entry.getSize());
+                    }
+                    stats.entryRead(bytes.length, System.nanoTime() - start);
+                    tasks.add(parse(entry.getName(), bytes, stats, exec));
+                }
+            }
+        }
+
+        CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>
+            [tasks.size()])).join();
+        stats.complete();
+        return stats;
+    }
 
-        cache(name, ret);
+    /**
+     * Return true if the given path names a class file other than a module
+     * descriptor.
+     *
+     * @param path the file or entry path
+     * @return true if the path is of a class file
+     */
+    private static boolean isClassFile(String path) {
+        return path.endsWith(".class") && !path.endsWith("module-info.class");
+    }
+
+    /**
+     * Parse and cache the given class file bytes asynchronously.
+     *
+     * @param entry the entry path, for error reporting
+     * @param bytes the class file bytes
+     * @param stats the statistics to update
+     * @param exec the executor to parse with
+     * @return the parse task
+     */
+    private CompletableFuture<Void> parse(final String entry, 
+        final byte[] bytes, final LoadStatistics stats, Executor exec) {
+        return CompletableFuture.runAsync(() -> {
+            long start = System.nanoTime();
+            try {
+                loadClass(bytes);
+                stats.classLoaded(System.nanoTime() - start);
+            } catch (RuntimeException re) {
+                stats.entryFailed(entry, re);
+            }
+        }, exec);
+    }
+
+    /**
+     * Read the full contents of the given stream.
+     *
+     * @param in the stream to read
+     * @param size the expected size, or -1 if unknown
+     * @return the bytes read
+     */
+    static byte[] readFully(InputStream in, long size) 
+        throws IOException {
+        byte[] buf = new byte[(size > 0) ? (int) size : 4096];
+        int len = 0;
+        for (int read; (read = in.read(buf, len, buf.length - len)) != -1;) {
+            len += read;
+            if (len == buf.length) {
+                if (len == size)
+                    break;
+                byte[] grow = new byte[len * 2];
+                System.arraycopy(buf, 0, grow, 0, len);
+                buf = grow;
+            }
+        }
+        if (len == buf.length)
+            return buf;
+        byte[] ret = new byte[len];
+        System.arraycopy(buf, 0, ret, 0, len);
         return ret;
     }
 
@@ -346,7 +691,7 @@ public class Project implements VisitAcceptor {
      * @return true if the project already contains the given class
      */
     public boolean containsClass(String type) {
-        return _cache.containsKey(type);
+        return checkCache(type) != null;
     }
 
     /**
@@ -369,6 +714,17 @@ public class Project implements VisitAcceptor {
         return (type == null) ? false : containsClass(type.getName());
     }
 
+    /**
+     * Return the cached class with the given name, or null if the project
+     * does not hold it.
+     *
+     * @param name the class name
+     * @return the cached class, or null
+     */
+    BCClass findClass(String name) {
+        return checkCache(name);
+    }
+
     public void acceptVisit(BCVisitor visit) {
         visit.enterProject(this);
         BCClass[] classes = getClasses();
@@ -391,13 +747,55 @@ public class Project implements VisitAcceptor {
         if (oldName.equals(newName))
             return;
 
-        BCClass cached = (BCClass) checkCache(newName);
-        if (cached != null)
+        if (_cache.putIfAbsent(newName, bc) != null)
             throw new IllegalStateException("A class with name " + newName +
                 " already exists in this project");
-
         removeFromCache(oldName, bc);
-        cache(newName, bc);
+    }
+
+    /**
+     * Return the cached class with the given name, loading it with the given
+     * loader if it is not cached. Concurrent calls for the same name wait
+     * for a single load rather than each parsing the class.
+     *
+     * @param name the key name
+     * @param loader loads and caches the class
+     * @return the cached class
+     */
+    private BCClass loadOnce(String name, Callable<BCClass> loader) {
+        BCClass cached = checkCache(name);
+        if (cached != null)
+            return cached;
+
+        FutureTask<BCClass> task = new FutureTask<>(loader);
+        FutureTask<BCClass> running = _loading.putIfAbsent(name, task);
+        if (running == null) {
+            // a load that finished after our cache check has already
+            // published its class
+            try {
+                cached = checkCache(name);
+                if (cached != null)
+                    return cached;
+                task.run();
+            } finally {
+                _loading.remove(name, task);
+            }
+            running = task;
+        }
+
+        try {
+            return running.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ie.toString());
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new RuntimeException(cause.toString());
+        }
     }
 
     /**
@@ -407,17 +805,19 @@ public class Project implements VisitAcceptor {
 	 * @return the cache class
      */
     private BCClass checkCache(String name) {
-        return (BCClass) _cache.get(name);
+        return (name == null) ? null : _cache.get(name);
     }
 
     /**
-     * Cache a class.
+     * Cache a class, unless a class with the same name is already cached.
      * 
 	 * @param name the key name
 	 * @param bc   the class to cache
+	 * @return the cached class
      */
-    private void cache(String name, BCClass bc) {
-        _cache.put(name, bc);
+    private BCClass cache(String name, BCClass bc) {
+        BCClass cached = _cache.putIfAbsent(name, bc);
+        return (cached == null) ? bc : cached;
     }
 
 	/**
@@ -428,10 +828,6 @@ public class Project implements VisitAcceptor {
 	 * @return true if removed
 	 */
     private boolean removeFromCache(String name, BCClass bc) {
-        BCClass rem = (BCClass) checkCache(name);
-        if (rem != bc)
-            return false;
-        _cache.remove(name);
-        return true;
+        return name != null && bc != null && _cache.remove(name, bc);
     }
 }
@@ -28,7 +28,7 @@ public class PutFieldInstruction extends FieldInstruction {
         int stack = -2;
         if (long.class.getName().equals(type) 
             || double.class.getName().equals(type))
-            stack++;
+            stack--;
         if (getOpcode() == Constants.PUTSTATIC)
             stack++;
         return stack;
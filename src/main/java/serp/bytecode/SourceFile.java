@@ -17,7 +17,7 @@ public class SourceFile extends Attribute {
         super(nameIndex, owner);
     }
 
-    int getLength() {
+    protected int getLength() {
         return 2;
     }
 
@@ -107,15 +107,15 @@ public class SourceFile extends Attribute {
         visit.exitSourceFile(this);
     }
 
-    void read(Attribute other) {
+    protected void read(Attribute other) {
         setFile(((SourceFile) other).getFileName());
     }
 
-    void read(DataInput in, int length) throws IOException {
+    protected void read(DataInput in, int length) throws IOException {
         setFileIndex(in.readUnsignedShort());
     }
 
-    void write(DataOutput out, int length) throws IOException {
+    protected void write(DataOutput out, int length) throws IOException {
         out.writeShort(getFileIndex());
     }
 }
@@ -0,0 +1,207 @@
+package serp.bytecode;
+
+import serp.bytecode.lowlevel.ConstantPool;
+import serp.bytecode.visitor.BCVisitor;
+import serp.bytecode.visitor.VisitAcceptor;
+
+/**
+ * The types of the local variables and operand stack on entry to an
+ * instruction, as recorded in a {@link StackMapTable}. Frames are held in
+ * expanded form regardless of how they are encoded in the class file: the
+ * locals hold every variable up to the last one that is not
+ * {@link VerificationType#TOP}, and <code>long</code> and
+ * <code>double</code> values are held as one type each.
+ */
+public class StackMapFrame implements Comparable<StackMapFrame>,
+    InstructionPtr, BCEntity, VisitAcceptor {
+    private static final VerificationType[] EMPTY = new VerificationType[0];
+
+    private StackMapTable _owner = null;
+    private final InstructionPtrStrategy _target =
+        new InstructionPtrStrategy(this);
+    private VerificationType[] _locals = EMPTY;
+    private VerificationType[] _stack = EMPTY;
+
+    StackMapFrame(StackMapTable owner) {
+        _owner = owner;
+    }
+
+    /**
+     * Frames are stored in a {@link StackMapTable}.
+     *
+     * @return the owning table
+     */
+    public StackMapTable getTable() {
+        return _owner;
+    }
+
+    void invalidate() {
+        _owner = null;
+    }
+
+    /**
+     * Return the instruction this frame describes the entry state of.
+     *
+     * @return the instruction
+     */
+    public Instruction getInstruction() {
+        return _target.getTargetInstruction();
+    }
+
+    /**
+     * Set the instruction this frame describes the entry state of. The
+     * instruction must already be a part of the method.
+     *
+     * @param ins the instruction
+     */
+    public void setInstruction(Instruction ins) {
+        _target.setTargetInstruction(ins);
+    }
+
+    /**
+     * Return the index into the code byte array of the instruction this
+     * frame applies to.
+     *
+     * @return the byte index of the frame's instruction
+     */
+    public int getPc() {
+        return _target.getByteIndex();
+    }
+
+    /**
+     * Set the index into the code byte array of the instruction this frame
+     * applies to.
+     *
+     * @param pc the byte index of the frame's instruction
+     */
+    public void setPc(int pc) {
+        _target.setByteIndex(pc);
+    }
+
+    /**
+     * Return the types of the local variables.
+     *
+     * @return the local variable types
+     */
+    public VerificationType[] getLocals() {
+        return _locals.clone();
+    }
+
+    /**
+     * Set the types of the local variables. Trailing
+     * {@link VerificationType#TOP} types are removed.
+     *
+     * @param locals the local variable types, or null for none
+     */
+    public void setLocals(VerificationType[] locals) {
+        if (locals == null)
+            locals = EMPTY;
+        int len = locals.length;
+        while (len > 0 && locals[len - 1].getTag()
+            == VerificationType.ITEM_TOP)
+            len--;
+        _locals = copy(locals, len);
+    }
+
+    /**
+     * Return the types of the operand stack, bottom first.
+     *
+     * @return the stack types
+     */
+    public VerificationType[] getStack() {
+        return _stack.clone();
+    }
+
+    /**
+     * Set the types of the operand stack, bottom first.
+     *
+     * @param stack the stack types, or null for an empty stack
+     */
+    public void setStack(VerificationType[] stack) {
+        if (stack == null)
+            stack = EMPTY;
+        _stack = copy(stack, stack.length);
+    }
+
+    private static VerificationType[] copy(VerificationType[] types,
+        int len) {
+        VerificationType[] copy = new VerificationType[len];
+        for (int i = 0; i < len; i++) {
+            if (types[i] == null)
+                throw new NullPointerException("types[" + i + "] = null");
+            copy[i] = types[i];
+        }
+        return copy;
+    }
+
+    /**
+     * Return the local types without copying.
+     */
+    VerificationType[] getLocalsHolder() {
+        return _locals;
+    }
+
+    /**
+     * Return the stack types without copying.
+     */
+    VerificationType[] getStackHolder() {
+        return _stack;
+    }
+
+    /**
+     * Replace the class indexes of object types after the constant pool
+     * has been compacted.
+     */
+    void remapIndexes(IndexRemapper remapper) {
+        for (int i = 0; i < _locals.length; i++)
+            _locals[i] = _locals[i].remapIndexes(remapper);
+        for (int i = 0; i < _stack.length; i++)
+            _stack[i] = _stack[i].remapIndexes(remapper);
+    }
+
+    public void updateTargets() {
+        _target.updateTargets();
+        Code code = getCode();
+        for (int i = 0; i < _locals.length; i++)
+            _locals[i] = _locals[i].updateTargets(code);
+        for (int i = 0; i < _stack.length; i++)
+            _stack[i] = _stack[i].updateTargets(code);
+    }
+
+    public void replaceTarget(Instruction oldTarget, Instruction newTarget) {
+        _target.replaceTarget(oldTarget, newTarget);
+        for (int i = 0; i < _locals.length; i++)
+            _locals[i] = _locals[i].replaceTarget(oldTarget, newTarget);
+        for (int i = 0; i < _stack.length; i++)
+            _stack[i] = _stack[i].replaceTarget(oldTarget, newTarget);
+    }
+
+    public Code getCode() {
+        return _owner.getCode();
+    }
+
+    public Project getProject() {
+        return _owner.getProject();
+    }
+
+    public ConstantPool getPool() {
+        return _owner.getPool();
+    }
+
+    public ClassLoader getClassLoader() {
+        return _owner.getClassLoader();
+    }
+
+    public boolean isValid() {
+        return _owner != null;
+    }
+
+    public void acceptVisit(BCVisitor visit) {
+        visit.enterStackMapFrame(this);
+        visit.exitStackMapFrame(this);
+    }
+
+    public int compareTo(StackMapFrame other) {
+        return Integer.compare(getPc(), other.getPc());
+    }
+}
@@ -0,0 +1,495 @@
+package serp.bytecode;
+
+import java.io.*;
+import java.util.*;
+
+import serp.bytecode.lowlevel.*;
+import serp.bytecode.visitor.*;
+
+/**
+ * Code blocks of classes compiled for Java 6 and later have stack map
+ * tables recording the types of the local variables and operand stack at
+ * the targets of jumps and exception handlers, which the verifier uses in
+ * place of inferring them itself. This table holds its frames in ascending
+ * order by their program counter position.
+ *
+ * <p>Frames read from bytecode are decoded on first access, so that
+ * classes whose frames are never examined are written back unchanged.</p>
+ *
+ * <p>Frames are stale once the code has been edited. By default, the
+ * frames of modified methods are recomputed when their class is written;
+ * see {@link Project#setComputeFrames}. They can also be recomputed at any
+ * time with {@link Code#calculateStackMap}.</p>
+ */
+public class StackMapTable extends Attribute implements InstructionPtr {
+    private static final VerificationType[] EMPTY = new VerificationType[0];
+
+    private static final int SAME_LOCALS_1_STACK_ITEM = 64;
+    private static final int SAME_LOCALS_1_STACK_ITEM_EXTENDED = 247;
+    private static final int SAME_FRAME_EXTENDED = 251;
+    private static final int FULL_FRAME = 255;
+
+    private List<StackMapFrame> _frames = new ArrayList<>();
+
+    // frames read from bytecode are only decoded on first access; decoding
+    // may add the classes of the method parameters to the constant pool
+    private byte[] _raw = null;
+
+    StackMapTable(int nameIndex, Attributes owner) {
+        super(nameIndex, owner);
+    }
+
+    /**
+     * Return the frames held in this table.
+     *
+     * @return the frame array
+     */
+    public StackMapFrame[] getFrames() {
+        parse();
+        Collections.sort(_frames);
+        return _frames.toArray(new StackMapFrame[_frames.size()]);
+    }
+
+    /**
+     * Return the frame for the given instruction, or null if none.
+     *
+     * @param ins the instruction for the search
+     * @return the frame for the given instruction, or null if none
+     */
+    public StackMapFrame getFrame(Instruction ins) {
+        if (ins == null)
+            return null;
+        parse();
+        for (int i = 0; i < _frames.size(); i++)
+            if (_frames.get(i).getInstruction() == ins)
+                return _frames.get(i);
+        return null;
+    }
+
+    /**
+     * Set the frames of the table. This method is useful when importing
+     * frames from another method.
+     *
+     * @param frames the frames to set
+     */
+    public void setFrames(StackMapFrame[] frames) {
+        clear();
+        if (frames != null)
+            for (int i = 0; i < frames.length; i++)
+                addFrame(frames[i]);
+    }
+
+    /**
+     * Import a frame from another method. Object types are added to the
+     * constant pool of this class if needed.
+     *
+     * @param frame the frame to add
+     * @return the newly added frame
+     */
+    public StackMapFrame addFrame(StackMapFrame frame) {
+        StackMapFrame copy = addFrame();
+        copy.setPc(frame.getPc());
+        copy.setLocals(importTypes(frame.getPool(), frame.getLocalsHolder()));
+        copy.setStack(importTypes(frame.getPool(), frame.getStackHolder()));
+        return copy;
+    }
+
+    private VerificationType[] importTypes(ConstantPool pool,
+        VerificationType[] types) {
+        VerificationType[] copy = new VerificationType[types.length];
+        String name;
+        for (int i = 0; i < types.length; i++) {
+            switch (types[i].getTag()) {
+            case VerificationType.ITEM_OBJECT:
+                name = ((ClassEntry) pool.getEntry(types[i].getClassIndex())).
+                    getNameEntry().getValue();
+                copy[i] = VerificationType.object(getPool().
+                    findClassEntry(name, true));
+                break;
+            case VerificationType.ITEM_UNINITIALIZED:
+                copy[i] = VerificationType.uninitialized(types[i].
+                    getNewPc());
+                break;
+            default:
+                copy[i] = types[i];
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Add a new frame to this table.
+     *
+     * @return the newly added frame
+     */
+    public StackMapFrame addFrame() {
+        parse();
+        StackMapFrame frame = new StackMapFrame(this);
+        _frames.add(frame);
+        return frame;
+    }
+
+    /**
+     * Add a new frame to this table.
+     *
+     * @param ins the instruction the frame applies to
+     * @param locals the local variable types
+     * @param stack the stack types
+     * @return the newly added frame
+     */
+    public StackMapFrame addFrame(Instruction ins, VerificationType[] locals,
+        VerificationType[] stack) {
+        StackMapFrame frame = addFrame();
+        frame.setInstruction(ins);
+        frame.setLocals(locals);
+        frame.setStack(stack);
+        return frame;
+    }
+
+    /**
+     * Clear the frames.
+     */
+    public void clear() {
+        _raw = null;
+        for (int i = 0; i < _frames.size(); i++)
+            _frames.get(i).invalidate();
+        _frames.clear();
+    }
+
+    /**
+     * Remove the given frame.
+     *
+     * @param frame the frame to remove
+     * @return true if the frame was removed, false otherwise
+     */
+    public boolean removeFrame(StackMapFrame frame) {
+        parse();
+        if (frame == null || !_frames.remove(frame))
+            return false;
+        frame.invalidate();
+        return true;
+    }
+
+    /**
+     * Remove the frame for the given instruction.
+     *
+     * @param ins the instruction
+     * @return true if the frame was removed, false otherwise
+     */
+    public boolean removeFrame(Instruction ins) {
+        return removeFrame(getFrame(ins));
+    }
+
+    /**
+     * Return the types of the local variables on entry to the method, as
+     * implied by its descriptor. Frames are encoded relative to these.
+     *
+     * @return the initial local variable types
+     */
+    public VerificationType[] getInitialLocals() {
+        return getInitialLocals(true);
+    }
+
+    /**
+     * Return the initial local variable types, or null if the class of
+     * one of them is not in the constant pool and <code>add</code> is
+     * false.
+     */
+    private VerificationType[] getInitialLocals(boolean add) {
+        BCMethod method = getCode().getMethod();
+        String desc = method.getDescriptor();
+        List<VerificationType> locals = new ArrayList<>();
+        if (!method.isStatic()) {
+            BCClass owner = method.getDeclarer();
+            if ("<init>".equals(method.getName())
+                && !"java.lang.Object".equals(owner.getName()))
+                locals.add(VerificationType.UNINITIALIZED_THIS);
+            else
+                locals.add(VerificationType.object(owner.getIndex()));
+        }
+
+        VerificationType type;
+        int end;
+        for (int i = 1; desc.charAt(i) != ')'; i = end) {
+            end = i;
+            while (desc.charAt(end) == '[')
+                end++;
+            if (desc.charAt(end) == 'L')
+                end = desc.indexOf(';', end);
+            end++;
+            type = toType(desc.substring(i, end), add);
+            if (type == null)
+                return null;
+            locals.add(type);
+        }
+        return locals.toArray(new VerificationType[locals.size()]);
+    }
+
+    /**
+     * Return the type of a value of the given field descriptor.
+     */
+    private VerificationType toType(String desc, boolean add) {
+        int index;
+        switch (desc.charAt(0)) {
+        case 'L':
+            desc = desc.substring(1, desc.length() - 1);
+            // fall through
+        case '[':
+            index = getPool().findClassEntry(desc, add);
+            return (index == 0) ? null : VerificationType.object(index);
+        case 'J':
+            return VerificationType.LONG;
+        case 'D':
+            return VerificationType.DOUBLE;
+        case 'F':
+            return VerificationType.FLOAT;
+        default:
+            return VerificationType.INTEGER;
+        }
+    }
+
+    public void updateTargets() {
+        if (_raw != null)
+            return;
+        for (int i = 0; i < _frames.size(); i++)
+            _frames.get(i).updateTargets();
+    }
+
+    public void replaceTarget(Instruction oldTarget, Instruction newTarget) {
+        if (_raw != null)
+            return;
+        for (int i = 0; i < _frames.size(); i++)
+            _frames.get(i).replaceTarget(oldTarget, newTarget);
+    }
+
+    public void acceptVisit(BCVisitor visit) {
+        visit.enterStackMapTable(this);
+        StackMapFrame[] frames = getFrames();
+        for (int i = 0; i < frames.length; i++)
+            frames[i].acceptVisit(visit);
+        visit.exitStackMapTable(this);
+    }
+
+    protected int getLength() {
+        if (_raw != null)
+            return _raw.length;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            write(new DataOutputStream(bytes), 0);
+        } catch (IOException ioe) {
+            throw new RuntimeException(ioe.toString());
+        }
+        return bytes.size();
+    }
+
+    protected void read(Attribute other) {
+        setFrames(((StackMapTable) other).getFrames());
+    }
+
+    protected void read(DataInput in, int length) throws IOException {
+        clear();
+        _raw = new byte[length];
+        in.readFully(_raw);
+    }
+
+    /**
+     * Decode the frames read from bytecode, if they have not been already.
+     */
+    void parse() {
+        if (_raw == null)
+            return;
+
+        byte[] raw = _raw;
+        _raw = null;
+        try {
+            readFrames(new ByteArrayDataInput(raw));
+        } catch (IOException ioe) {
+            throw new RuntimeException(ioe.toString());
+        }
+        updateTargets();
+    }
+
+    private void readFrames(DataInput in) throws IOException {
+        int count = in.readUnsignedShort();
+        VerificationType[] locals = null;
+        VerificationType[] stack;
+        int pc = -1;
+        int type;
+        int n;
+        StackMapFrame frame;
+        for (int i = 0; i < count; i++) {
+            type = in.readUnsignedByte();
+            stack = EMPTY;
+            // only resolve the implicit initial frame if it is needed, as
+            // it may add the parameter classes to the pool
+            if (locals == null && type != FULL_FRAME)
+                locals = getInitialLocals();
+            if (type < SAME_LOCALS_1_STACK_ITEM)
+                pc += type + 1;
+            else if (type < SAME_LOCALS_1_STACK_ITEM + 64) {
+                pc += type - SAME_LOCALS_1_STACK_ITEM + 1;
+                stack = new VerificationType[]{ readType(in) };
+            } else if (type == SAME_LOCALS_1_STACK_ITEM_EXTENDED) {
+                pc += in.readUnsignedShort() + 1;
+                stack = new VerificationType[]{ readType(in) };
+            } else if (type < SAME_FRAME_EXTENDED) {
+                // chop
+                pc += in.readUnsignedShort() + 1;
+                n = locals.length - (SAME_FRAME_EXTENDED - type);
+                locals = Arrays.copyOf(locals, Math.max(n, 0));
+            } else if (type == SAME_FRAME_EXTENDED)
+                pc += in.readUnsignedShort() + 1;
+            else if (type < FULL_FRAME) {
+                // append
+                pc += in.readUnsignedShort() + 1;
+                n = locals.length;
+                locals = Arrays.copyOf(locals, n + type - SAME_FRAME_EXTENDED);
+                for (int j = n; j < locals.length; j++)
+                    locals[j] = readType(in);
+            } else if (type == FULL_FRAME) {
+                pc += in.readUnsignedShort() + 1;
+                locals = readTypes(in);
+                stack = readTypes(in);
+            } else
+                throw new IOException("Unknown stack map frame type: " + type);
+
+            frame = addFrame();
+            frame.setPc(pc);
+            frame.setLocals(locals);
+            frame.setStack(stack);
+            locals = frame.getLocalsHolder();
+        }
+    }
+
+    private static VerificationType[] readTypes(DataInput in)
+        throws IOException {
+        VerificationType[] types = new VerificationType[in.
+            readUnsignedShort()];
+        for (int i = 0; i < types.length; i++)
+            types[i] = readType(in);
+        return types;
+    }
+
+    private static VerificationType readType(DataInput in) throws IOException {
+        int tag = in.readUnsignedByte();
+        switch (tag) {
+        case VerificationType.ITEM_OBJECT:
+            return VerificationType.object(in.readUnsignedShort());
+        case VerificationType.ITEM_UNINITIALIZED:
+            return VerificationType.uninitialized(in.readUnsignedShort());
+        default:
+            if (tag >= VerificationType.ITEM_OBJECT)
+                throw new IOException("Unknown verification type: " + tag);
+            return VerificationType.valueOf(tag);
+        }
+    }
+
+    /**
+     * Write each frame in the most compact form that expresses its
+     * difference from the previous one.
+     */
+    protected void write(DataOutput out, int length) throws IOException {
+        if (_raw != null) {
+            out.write(_raw);
+            return;
+        }
+
+        StackMapFrame[] frames = getFrames();
+        out.writeShort(frames.length);
+
+        // the pool has already been written, so entries can't be added; if
+        // the class of a parameter isn't in the pool, no frame refers to it
+        // and the first frame is written in full
+        VerificationType[] prev = null;
+        VerificationType[] initial = getInitialLocals(false);
+        if (initial != null) {
+            StackMapFrame trimmed = new StackMapFrame(this);
+            trimmed.setLocals(initial);
+            prev = trimmed.getLocalsHolder();
+        }
+
+        int prevPc = -1;
+        int pc;
+        int delta;
+        VerificationType[] locals;
+        VerificationType[] stack;
+        int diff;
+        for (int i = 0; i < frames.length; i++) {
+            pc = frames[i].getPc();
+            delta = pc - prevPc - 1;
+            locals = frames[i].getLocalsHolder();
+            stack = frames[i].getStackHolder();
+            diff = (prev == null) ? 0 : locals.length - prev.length;
+
+            if (prev == null) {
+                out.writeByte(FULL_FRAME);
+                out.writeShort(delta);
+                writeTypes(out, locals);
+                writeTypes(out, stack);
+            } else if (stack.length == 0 && Arrays.equals(locals, prev)) {
+                if (delta < 64)
+                    out.writeByte(delta);
+                else {
+                    out.writeByte(SAME_FRAME_EXTENDED);
+                    out.writeShort(delta);
+                }
+            } else if (stack.length == 1 && Arrays.equals(locals, prev)) {
+                if (delta < 64)
+                    out.writeByte(SAME_LOCALS_1_STACK_ITEM + delta);
+                else {
+                    out.writeByte(SAME_LOCALS_1_STACK_ITEM_EXTENDED);
+                    out.writeShort(delta);
+                }
+                writeType(out, stack[0]);
+            } else if (stack.length == 0 && diff < 0 && diff >= -3
+                && isPrefix(locals, prev)) {
+                out.writeByte(SAME_FRAME_EXTENDED + diff);
+                out.writeShort(delta);
+            } else if (stack.length == 0 && diff > 0 && diff <= 3
+                && isPrefix(prev, locals)) {
+                out.writeByte(SAME_FRAME_EXTENDED + diff);
+                out.writeShort(delta);
+                for (int j = prev.length; j < locals.length; j++)
+                    writeType(out, locals[j]);
+            } else {
+                out.writeByte(FULL_FRAME);
+                out.writeShort(delta);
+                writeTypes(out, locals);
+                writeTypes(out, stack);
+            }
+            prevPc = pc;
+            prev = locals;
+        }
+    }
+
+    /**
+     * Return true if the first array is a prefix of the second.
+     */
+    private static boolean isPrefix(VerificationType[] prefix,
+        VerificationType[] types) {
+        for (int i = 0; i < prefix.length; i++)
+            if (!prefix[i].equals(types[i]))
+                return false;
+        return true;
+    }
+
+    private static void writeTypes(DataOutput out, VerificationType[] types)
+        throws IOException {
+        out.writeShort(types.length);
+        for (int i = 0; i < types.length; i++)
+            writeType(out, types[i]);
+    }
+
+    private static void writeType(DataOutput out, VerificationType type)
+        throws IOException {
+        out.writeByte(type.getTag());
+        if (type.getTag() == VerificationType.ITEM_OBJECT)
+            out.writeShort(type.getClassIndex());
+        else if (type.getTag() == VerificationType.ITEM_UNINITIALIZED)
+            out.writeShort(type.getNewPc());
+    }
+
+    public Code getCode() {
+        return (Code) getOwner();
+    }
+}
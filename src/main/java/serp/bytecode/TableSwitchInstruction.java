@@ -152,6 +152,7 @@ public class TableSwitchInstruction extends JumpInstruction {
      */
     public TableSwitchInstruction setTargets(Instruction[] targets) {
         _cases.clear();
+        invalidateByteIndexes();
         if (targets != null)
             for (int i = 0; i < targets.length; i++)
                 addTarget(targets[i]);
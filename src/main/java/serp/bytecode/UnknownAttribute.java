@@ -17,7 +17,7 @@ public class UnknownAttribute extends Attribute {
         super(nameIndex, owner);
     }
 
-    int getLength() {
+    protected int getLength() {
         return _value.length;
     }
 
@@ -46,16 +46,16 @@ public class UnknownAttribute extends Attribute {
         visit.exitUnknownAttribute(this);
     }
 
-    void read(Attribute other) {
+    protected void read(Attribute other) {
         setValue(((UnknownAttribute) other).getValue());
     }
 
-    void read(DataInput in, int length) throws IOException {
+    protected void read(DataInput in, int length) throws IOException {
         _value = new byte[length];
         in.readFully(_value);
     }
 
-    void write(DataOutput out, int length) throws IOException {
+    protected void write(DataOutput out, int length) throws IOException {
         out.write(_value);
     }
 }
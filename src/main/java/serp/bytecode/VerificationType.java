@@ -0,0 +1,225 @@
+package serp.bytecode;
+
+/**
+ * The type of a local variable or stack slot in a {@link StackMapFrame}.
+ * Verification types are immutable. The primitive and special types are
+ * available as constants; object types refer to a
+ * {@link serp.bytecode.lowlevel.ClassEntry} in the constant pool of the
+ * owning class, and uninitialized types to the <code>new</code>
+ * instruction that created the uninitialized object.
+ *
+ * <p>As in the class file, <code>long</code> and <code>double</code>
+ * values are represented by a single type even though they occupy two
+ * local variable or stack slots.</p>
+ */
+public class VerificationType {
+    public static final int ITEM_TOP = 0;
+    public static final int ITEM_INTEGER = 1;
+    public static final int ITEM_FLOAT = 2;
+    public static final int ITEM_DOUBLE = 3;
+    public static final int ITEM_LONG = 4;
+    public static final int ITEM_NULL = 5;
+    public static final int ITEM_UNINITIALIZED_THIS = 6;
+    public static final int ITEM_OBJECT = 7;
+    public static final int ITEM_UNINITIALIZED = 8;
+
+    public static final VerificationType TOP = new VerificationType(ITEM_TOP,
+        0, null, -1);
+    public static final VerificationType INTEGER = new VerificationType
+        (ITEM_INTEGER, 0, null, -1);
+    public static final VerificationType FLOAT = new VerificationType
+        (ITEM_FLOAT, 0, null, -1);
+    public static final VerificationType DOUBLE = new VerificationType
+        (ITEM_DOUBLE, 0, null, -1);
+    public static final VerificationType LONG = new VerificationType
+        (ITEM_LONG, 0, null, -1);
+    public static final VerificationType NULL = new VerificationType
+        (ITEM_NULL, 0, null, -1);
+    public static final VerificationType UNINITIALIZED_THIS =
+        new VerificationType(ITEM_UNINITIALIZED_THIS, 0, null, -1);
+
+    private static final VerificationType[] SIMPLE = new VerificationType[]{
+        TOP, INTEGER, FLOAT, DOUBLE, LONG, NULL, UNINITIALIZED_THIS,
+    };
+
+    private final int _tag;
+    private final int _classIndex;
+    private final Instruction _new;
+    private final int _newPc;
+
+    private VerificationType(int tag, int classIndex, Instruction ins,
+        int pc) {
+        _tag = tag;
+        _classIndex = classIndex;
+        _new = ins;
+        _newPc = pc;
+    }
+
+    /**
+     * Return the type of an instance of the class whose
+     * {@link serp.bytecode.lowlevel.ClassEntry} is at the given constant
+     * pool index.
+     *
+     * @param classIndex the constant pool index of the class
+     * @return the object type
+     */
+    public static VerificationType object(int classIndex) {
+        if (classIndex <= 0)
+            throw new IllegalArgumentException(String.valueOf(classIndex));
+        return new VerificationType(ITEM_OBJECT, classIndex, null, -1);
+    }
+
+    /**
+     * Return the type of the uninitialized object created by the given
+     * <code>new</code> instruction.
+     *
+     * @param ins the instruction creating the object
+     * @return the uninitialized type
+     */
+    public static VerificationType uninitialized(Instruction ins) {
+        if (ins == null || ins.getOpcode() != Constants.NEW)
+            throw new IllegalArgumentException(String.valueOf(ins));
+        return new VerificationType(ITEM_UNINITIALIZED, 0, ins, -1);
+    }
+
+    /**
+     * Return the type of the uninitialized object created by the
+     * instruction at the given byte index, for types read before the
+     * instructions of the code block are resolved.
+     */
+    static VerificationType uninitialized(int pc) {
+        return new VerificationType(ITEM_UNINITIALIZED, 0, null, pc);
+    }
+
+    /**
+     * Return the type with the given tag, which must not be
+     * {@link #ITEM_OBJECT} or {@link #ITEM_UNINITIALIZED}.
+     */
+    static VerificationType valueOf(int tag) {
+        if (tag < 0 || tag >= SIMPLE.length)
+            throw new IllegalArgumentException(String.valueOf(tag));
+        return SIMPLE[tag];
+    }
+
+    /**
+     * Return the tag of this type; one of the <code>ITEM_</code> constants
+     * of this class.
+     *
+     * @return the tag
+     */
+    public int getTag() {
+        return _tag;
+    }
+
+    /**
+     * Return the constant pool index of the class of an object type, or 0
+     * for other types.
+     *
+     * @return the class index
+     */
+    public int getClassIndex() {
+        return _classIndex;
+    }
+
+    /**
+     * Return the <code>new</code> instruction of an uninitialized type, or
+     * null for other types.
+     *
+     * @return the instruction creating the uninitialized object
+     */
+    public Instruction getNewInstruction() {
+        return _new;
+    }
+
+    /**
+     * Return true if this type occupies two slots.
+     *
+     * @return true for <code>long</code> and <code>double</code>
+     */
+    public boolean isWide() {
+        return _tag == ITEM_LONG || _tag == ITEM_DOUBLE;
+    }
+
+    /**
+     * Return the byte index of the instruction creating an uninitialized
+     * object, resolving it from the instruction if possible.
+     */
+    int getNewPc() {
+        if (_new != null)
+            return _new.getByteIndex();
+        return _newPc;
+    }
+
+    /**
+     * Return this type with its class index remapped after the constant
+     * pool has been compacted.
+     */
+    VerificationType remapIndexes(IndexRemapper remapper) {
+        if (_tag != ITEM_OBJECT)
+            return this;
+        int index = remapper.remap(_classIndex);
+        return (index == _classIndex) ? this : object(index);
+    }
+
+    /**
+     * Return this type resolved against the instructions of the given code
+     * block, for uninitialized types read by byte index.
+     */
+    VerificationType updateTargets(Code code) {
+        if (_tag != ITEM_UNINITIALIZED || _newPc == -1)
+            return this;
+        return new VerificationType(ITEM_UNINITIALIZED, 0,
+            code.getInstruction(_newPc), -1);
+    }
+
+    /**
+     * Return this type with the given old instruction replaced.
+     */
+    VerificationType replaceTarget(Instruction oldTarget,
+        Instruction newTarget) {
+        if (_new != oldTarget || _new == null)
+            return this;
+        return new VerificationType(ITEM_UNINITIALIZED, 0, newTarget, -1);
+    }
+
+    public boolean equals(Object other) {
+        if (other == this)
+            return true;
+        if (!(other instanceof VerificationType))
+            return false;
+        VerificationType type = (VerificationType) other;
+        if (_tag != type._tag || _classIndex != type._classIndex)
+            return false;
+        if (_new != null || type._new != null)
+            return _new == type._new;
+        return _newPc == type._newPc;
+    }
+
+    public int hashCode() {
+        return _tag + 31 * _classIndex + 31 * 31 * _newPc
+            + ((_new == null) ? 0 : System.identityHashCode(_new));
+    }
+
+    public String toString() {
+        switch (_tag) {
+        case ITEM_TOP:
+            return "top";
+        case ITEM_INTEGER:
+            return "int";
+        case ITEM_FLOAT:
+            return "float";
+        case ITEM_DOUBLE:
+            return "double";
+        case ITEM_LONG:
+            return "long";
+        case ITEM_NULL:
+            return "null";
+        case ITEM_UNINITIALIZED_THIS:
+            return "uninitializedThis";
+        case ITEM_OBJECT:
+            return "object(" + _classIndex + ")";
+        default:
+            return "uninitialized(" + getNewPc() + ")";
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package serp.bytecode.lowlevel;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Reads the entries of a jar or zip archive through a memory mapping of the
+ * archive file. Entries are located through the archive's central
+ * directory. Stored entries are returned as slices of the mapping, so their
+ * contents are never copied; deflated entries are inflated into a buffer
+ * that is reused from one entry to the next. Combined with
+ * {@link ConstantPoolTable#ConstantPoolTable(ByteBuffer)}, this allows
+ * scanning the classes of large archives with very little allocation.
+ *
+ * <p>Instances are not thread-safe. The buffer returned for a deflated entry
+ * is only valid until the next call to {@link #getContents}.</p>
+ */
+public class ArchiveScanner implements Closeable {
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_HEADER = 0x06054b50;
+    private static final int ZIP64_END_HEADER = 0x06064b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    private final FileChannel _channel;
+    private final MappedByteBuffer _map;
+    private final String[] _names;
+    private final int[] _methods;
+    private final int[] _offsets;
+    private final int[] _compressed;
+    private final int[] _sizes;
+    private Inflater _inflater = null;
+    private byte[] _in = null;
+    private byte[] _out = null;
+
+    /**
+     * Map the given archive and read its central directory.
+     *
+     * @param path the jar or zip file
+     * @throws IOException if the file cannot be mapped or is not a valid
+     *                     archive
+     */
+    public ArchiveScanner(Path path) throws IOException {
+        _channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long size = _channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new ZipException("Archive too large to map: " + path);
+            _map = _channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            _map.order(ByteOrder.LITTLE_ENDIAN);
+
+            int end = findEnd();
+            long count = _map.getShort(end + 10) & 0xFFFF;
+            long dir = _map.getInt(end + 16) & 0xFFFFFFFFL;
+            if (count == 0xFFFF || dir == 0xFFFFFFFFL) {
+                // zip64 end of central directory record
+                int locator = end - 20;
+                if (locator >= 0 && _map.getInt(locator) == ZIP64_LOCATOR) {
+                    int end64 = toInt(_map.getLong(locator + 8));
+                    if (_map.getInt(end64) != ZIP64_END_HEADER)
+                        throw new ZipException("Invalid zip64 archive");
+                    count = _map.getLong(end64 + 32);
+                    dir = _map.getLong(end64 + 48);
+                }
+            }
+
+            int n = toInt(count);
+            _names = new String[n];
+            _methods = new int[n];
+            _offsets = new int[n];
+            _compressed = new int[n];
+            _sizes = new int[n];
+            readDirectory(toInt(dir));
+        } catch (IOException | RuntimeException e) {
+            _channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Locate the end of central directory record, which is followed only
+     * by the archive comment.
+     */
+    private int findEnd() throws ZipException {
+        int last = _map.limit() - 22;
+        int first = Math.max(0, last - 0xFFFF);
+        for (int i = last; i >= first; i--)
+            if (_map.getInt(i) == END_HEADER)
+                return i;
+        throw new ZipException("Not a zip archive");
+    }
+
+    /**
+     * Read the central directory entries starting at the given offset.
+     */
+    private void readDirectory(int pos) throws ZipException {
+        int nameLen, extraLen, commentLen;
+        long compressed, size, offset;
+        byte[] name;
+        for (int i = 0; i < _names.length; i++) {
+            if (_map.getInt(pos) != CENTRAL_HEADER)
+                throw new ZipException("Invalid central directory");
+            _methods[i] = _map.getShort(pos + 10) & 0xFFFF;
+            compressed = _map.getInt(pos + 20) & 0xFFFFFFFFL;
+            size = _map.getInt(pos + 24) & 0xFFFFFFFFL;
+            nameLen = _map.getShort(pos + 28) & 0xFFFF;
+            extraLen = _map.getShort(pos + 30) & 0xFFFF;
+            commentLen = _map.getShort(pos + 32) & 0xFFFF;
+            offset = _map.getInt(pos + 42) & 0xFFFFFFFFL;
+
+            name = new byte[nameLen];
+            ByteBuffer dup = _map.duplicate();
+            dup.position(pos + 46);
+            dup.get(name);
+            _names[i] = new String(name, StandardCharsets.UTF_8);
+
+            // zip64 extended information holds the values that overflowed
+            int extra = pos + 46 + nameLen;
+            int extraEnd = extra + extraLen;
+            while (extra + 4 <= extraEnd) {
+                int id = _map.getShort(extra) & 0xFFFF;
+                int len = _map.getShort(extra + 2) & 0xFFFF;
+                if (id == 0x0001) {
+                    int field = extra + 4;
+                    if (size == 0xFFFFFFFFL) {
+                        size = _map.getLong(field);
+                        field += 8;
+                    }
+                    if (compressed == 0xFFFFFFFFL) {
+                        compressed = _map.getLong(field);
+                        field += 8;
+                    }
+                    if (offset == 0xFFFFFFFFL)
+                        offset = _map.getLong(field);
+                }
+                extra += 4 + len;
+            }
+
+            _compressed[i] = toInt(compressed);
+            _sizes[i] = toInt(size);
+            _offsets[i] = toInt(offset);
+            pos = extraEnd + commentLen;
+        }
+    }
+
+    private static int toInt(long value) throws ZipException {
+        if (value < 0 || value > Integer.MAX_VALUE)
+            throw new ZipException("Archive value out of range: " + value);
+        return (int) value;
+    }
+
+    /**
+     * Return the number of entries in the archive.
+     *
+     * @return the number of entries
+     */
+    public int size() {
+        return _names.length;
+    }
+
+    /**
+     * Return the name of the given entry.
+     *
+     * @param entry the entry number
+     * @return the entry name
+     */
+    public String getName(int entry) {
+        return _names[entry];
+    }
+
+    /**
+     * Return the uncompressed size of the given entry.
+     *
+     * @param entry the entry number
+     * @return the entry size
+     */
+    public int getSize(int entry) {
+        return _sizes[entry];
+    }
+
+    /**
+     * Return true if the given entry is stored without compression, so that
+     * its contents can be read directly from the mapping.
+     *
+     * @param entry the entry number
+     * @return true if the entry is stored
+     */
+    public boolean isStored(int entry) {
+        return _methods[entry] == STORED;
+    }
+
+    /**
+     * Return the contents of the given entry, positioned at zero with the
+     * limit at the entry size. Stored entries are returned as read-only
+     * slices of the mapped archive. Deflated entries are inflated into a
+     * buffer that is reused on the next call.
+     *
+     * @param entry the entry number
+     * @return the entry contents
+     * @throws IOException if the entry is corrupt or uses an unsupported
+     *                     compression method
+     */
+    public ByteBuffer getContents(int entry) throws IOException {
+        int pos = _offsets[entry];
+        if (_map.getInt(pos) != LOCAL_HEADER)
+            throw new ZipException("Invalid local header: " + _names[entry]);
+        int data = pos + 30 + (_map.getShort(pos + 26) & 0xFFFF)
+            + (_map.getShort(pos + 28) & 0xFFFF);
+
+        ByteBuffer dup = _map.duplicate();
+        dup.position(data);
+        dup.limit(data + _compressed[entry]);
+        if (_methods[entry] == STORED)
+            return dup.slice().asReadOnlyBuffer();
+        if (_methods[entry] != DEFLATED)
+            throw new ZipException("Unsupported compression method "
+                + _methods[entry] + ": " + _names[entry]);
+        return inflate(dup, _sizes[entry], _names[entry]);
+    }
+
+    /**
+     * Inflate the given deflated data into the reused output buffer.
+     */
+    private ByteBuffer inflate(ByteBuffer data, int size, String name)
+        throws IOException {
+        if (_inflater == null)
+            _inflater = new Inflater(true);
+        else
+            _inflater.reset();
+
+        // the inflater only reads from arrays
+        int len = data.remaining();
+        if (_in == null || _in.length < len + 1)
+            _in = new byte[Math.max(len + 1, 8192)];
+        data.get(_in, 0, len);
+        _in[len] = 0; // dummy byte required by nowrap inflation
+        _inflater.setInput(_in, 0, len + 1);
+
+        if (_out == null || _out.length < size)
+            _out = new byte[Math.max(size, 8192)];
+        try {
+            int read = 0;
+            while (read < size && !_inflater.finished()) {
+                int n = _inflater.inflate(_out, read, size - read);
+                if (n == 0 && (_inflater.needsInput()
+                    || _inflater.needsDictionary()))
+                    break;
+                read += n;
+            }
+            if (read != size)
+                throw new ZipException("Truncated entry: " + name);
+        } catch (DataFormatException dfe) {
+            throw new ZipException(dfe.getMessage() + ": " + name);
+        }
+        return ByteBuffer.wrap(_out, 0, size).slice();
+    }
+
+    /**
+     * Close the archive. Buffers previously returned for stored entries
+     * remain readable until they are garbage collected, as mappings cannot
+     * be released explicitly.
+     */
+    public void close() throws IOException {
+        if (_inflater != null)
+            _inflater.end();
+        _channel.close();
+    }
+}
@@ -50,9 +50,9 @@ public class ClassEntry extends Entry implements ConstantEntry {
      * @param nameIndex the constant pool index
      */
     public void setNameIndex(int nameIndex) {
-        Object key = beforeModify();
+        beforeModify();
         _nameIndex = nameIndex;
-        afterModify(key);
+        afterModify();
     }
 
     /**
@@ -82,6 +82,10 @@ public class ClassEntry extends Entry implements ConstantEntry {
         visit.exitClassEntry(this);
     }
 
+    void remapIndexes(int[] map) {
+        _nameIndex = remap(map, _nameIndex);
+    }
+
     void readData(DataInput in) throws IOException {
         _nameIndex = in.readUnsignedShort();
     }
@@ -0,0 +1,244 @@
+package serp.bytecode.lowlevel;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the header, member declarations and annotation types of a class
+ * directly from its bytecode, without instantiating a full
+ * {@link serp.bytecode.BCClass}. The header may be read through the
+ * accessor methods of this class; the rest of the class is streamed to a
+ * {@link SkimVisitor}. Method code and other attributes are skipped
+ * without being parsed, and each UTF-8 pool entry is decoded at most once.
+ */
+public class ClassSkimmer {
+    private static final String VISIBLE = "RuntimeVisibleAnnotations";
+    private static final String INVISIBLE = "RuntimeInvisibleAnnotations";
+
+    private final ConstantPoolTable _table;
+    private String[] _strings = null;
+
+    /**
+     * Constructor; supply class bytecode.
+     *
+     * @param b class bytecode
+     */
+    public ClassSkimmer(byte[] b) {
+        this(new ConstantPoolTable(b));
+    }
+
+    /**
+     * Constructor; supply class bytecode. The buffer contents are not
+     * copied.
+     *
+     * @param b class bytecode
+     */
+    public ClassSkimmer(ByteBuffer b) {
+        this(new ConstantPoolTable(b));
+    }
+
+    /**
+     * Constructor; supply the parsed constant pool of the class.
+     *
+     * @param table the constant pool table
+     */
+    public ClassSkimmer(ConstantPoolTable table) {
+        _table = table;
+    }
+
+    /**
+     * Return the constant pool table of the class.
+     *
+     * @return the constant pool table
+     */
+    public ConstantPoolTable getConstantPoolTable() {
+        return _table;
+    }
+
+    /**
+     * Return the access flags of the class.
+     *
+     * @return the access flags
+     */
+    public int getAccessFlags() {
+        return _table.readUnsignedShort(_table.getEndIndex());
+    }
+
+    /**
+     * Return the internal name of the class.
+     *
+     * @return the class name
+     */
+    public String getClassName() {
+        return getClassName(_table.readUnsignedShort
+            (_table.getEndIndex() + 2));
+    }
+
+    /**
+     * Return the internal name of the superclass.
+     *
+     * @return the superclass name, or null if the class has none
+     */
+    public String getSuperclassName() {
+        return getClassName(_table.readUnsignedShort
+            (_table.getEndIndex() + 4));
+    }
+
+    /**
+     * Return the internal names of the declared interfaces.
+     *
+     * @return the interface names
+     */
+    public String[] getInterfaceNames() {
+        int idx = _table.getEndIndex() + 6;
+        String[] names = new String[_table.readUnsignedShort(idx)];
+        for (int i = 0; i < names.length; i++)
+            names[i] = getClassName(_table.readUnsignedShort(idx + 2 + i * 2));
+        return names;
+    }
+
+    /**
+     * Return the string value of the UTF-8 entry at the given constant pool
+     * index. Each entry is decoded once and then cached.
+     *
+     * @param index the constant pool index
+     * @return the string value
+     */
+    public String getUTF8(int index) {
+        if (_strings == null)
+            _strings = new String[_table.getEntryCount()];
+        String str = _strings[index];
+        if (str == null) {
+            str = _table.readString(_table.get(index));
+            _strings[index] = str;
+        }
+        return str;
+    }
+
+    /**
+     * Return the name of the class entry at the given constant pool index.
+     *
+     * @param index the constant pool index
+     * @return the class name, or null if the index is 0
+     */
+    public String getClassName(int index) {
+        if (index == 0)
+            return null;
+        return getUTF8(_table.readUnsignedShort(_table.get(index)));
+    }
+
+    /**
+     * Stream the class to the given visitor.
+     *
+     * @param visitor the visitor to notify
+     */
+    public void skim(SkimVisitor visitor) {
+        int idx = _table.getEndIndex();
+        visitor.visitClass(_table.readUnsignedShort(idx),
+            getClassName(_table.readUnsignedShort(idx + 2)),
+            getClassName(_table.readUnsignedShort(idx + 4)));
+        idx += 6;
+        int count = _table.readUnsignedShort(idx);
+        idx += 2;
+        for (int i = 0; i < count; i++, idx += 2)
+            visitor.visitInterface(getClassName(_table.readUnsignedShort(idx)));
+
+        idx = skimMembers(visitor, idx, true);
+        idx = skimMembers(visitor, idx, false);
+        skimAttributes(visitor, idx);
+        visitor.visitEnd();
+    }
+
+    /**
+     * Visit the fields or methods starting at the given offset.
+     *
+     * @return the offset after the members
+     */
+    private int skimMembers(SkimVisitor visitor, int idx, boolean fields) {
+        int count = _table.readUnsignedShort(idx);
+        idx += 2;
+        int access;
+        String name, desc;
+        for (int i = 0; i < count; i++) {
+            access = _table.readUnsignedShort(idx);
+            name = getUTF8(_table.readUnsignedShort(idx + 2));
+            desc = getUTF8(_table.readUnsignedShort(idx + 4));
+            if (fields)
+                visitor.visitField(access, name, desc);
+            else
+                visitor.visitMethod(access, name, desc);
+            idx = skimAttributes(visitor, idx + 6);
+        }
+        return idx;
+    }
+
+    /**
+     * Visit the annotations in the attributes starting at the given offset.
+     *
+     * @return the offset after the attributes
+     */
+    private int skimAttributes(SkimVisitor visitor, int idx) {
+        int count = _table.readUnsignedShort(idx);
+        idx += 2;
+        String name;
+        int len;
+        for (int i = 0; i < count; i++) {
+            name = getUTF8(_table.readUnsignedShort(idx));
+            len = _table.readInt(idx + 2);
+            if (VISIBLE.equals(name))
+                skimAnnotations(visitor, idx + 6, true);
+            else if (INVISIBLE.equals(name))
+                skimAnnotations(visitor, idx + 6, false);
+            idx += 6 + len;
+        }
+        return idx;
+    }
+
+    /**
+     * Visit the types of the annotations in an annotations attribute.
+     */
+    private void skimAnnotations(SkimVisitor visitor, int idx,
+        boolean runtime) {
+        int count = _table.readUnsignedShort(idx);
+        idx += 2;
+        for (int i = 0; i < count; i++) {
+            visitor.visitAnnotation(getUTF8(_table.readUnsignedShort(idx)),
+                runtime);
+            idx = skipAnnotation(idx);
+        }
+    }
+
+    /**
+     * Skip the annotation at the given offset.
+     *
+     * @return the offset after the annotation
+     */
+    private int skipAnnotation(int idx) {
+        int pairs = _table.readUnsignedShort(idx + 2);
+        idx += 4;
+        for (int i = 0; i < pairs; i++)
+            idx = skipElementValue(idx + 2);
+        return idx;
+    }
+
+    /**
+     * Skip the annotation element value at the given offset.
+     *
+     * @return the offset after the value
+     */
+    private int skipElementValue(int idx) {
+        switch (_table.readByte(idx)) {
+        case 'e': // enum
+            return idx + 5;
+        case '@':
+            return skipAnnotation(idx + 1);
+        case '[':
+            int count = _table.readUnsignedShort(idx + 1);
+            idx += 3;
+            for (int i = 0; i < count; i++)
+                idx = skipElementValue(idx);
+            return idx;
+        default: // constants, strings and classes
+            return idx + 3;
+        }
+    }
+}
@@ -51,9 +51,9 @@ public abstract class ComplexEntry extends Entry {
      * @param classIndex the constant pool index to set
      */
     public void setClassIndex(int classIndex) {
-        Object key = beforeModify();
+        beforeModify();
         _classIndex = classIndex;
-        afterModify(key);
+        afterModify();
     }
 
     /**
@@ -84,9 +84,9 @@ public abstract class ComplexEntry extends Entry {
      * @param nameAndTypeIndex the index to set
      */
     public void setNameAndTypeIndex(int nameAndTypeIndex) {
-        Object key = beforeModify();
+        beforeModify();
         _nameAndTypeIndex = nameAndTypeIndex;
-        afterModify(key);
+        afterModify();
     }
 
     /**
@@ -99,6 +99,11 @@ public abstract class ComplexEntry extends Entry {
         return (NameAndTypeEntry) getPool().getEntry(_nameAndTypeIndex);
     }
 
+    void remapIndexes(int[] map) {
+        _classIndex = remap(map, _classIndex);
+        _nameAndTypeIndex = remap(map, _nameAndTypeIndex);
+    }
+
     void readData(DataInput in) throws IOException {
         _classIndex = in.readUnsignedShort();
         _nameAndTypeIndex = in.readUnsignedShort();
@@ -4,14 +4,13 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.BitSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 
 import serp.bytecode.visitor.BCVisitor;
 import serp.bytecode.visitor.VisitAcceptor;
-import serp.util.Numbers;
+import serp.util.StringTable;
 
 /**
  * A bytecode constant pool, containing entries for all strings,
@@ -20,11 +19,24 @@ import serp.util.Numbers;
  * indexes are 1-based and {@link LongEntry}s and {@link DoubleEntry}s each
  * occupy two indexes in the pool.
  *
+ * <p>Removing an entry leaves a tombstone in its place, so that the indexes
+ * of the remaining entries do not change. Tombstones are removed and the
+ * remaining entries renumbered by {@link #compact}, which is called
+ * automatically before the pool is written.</p>
+ *
+ * <p>Existing entries are found through a {@link PoolIndex} keyed on their
+ * contents, so the <code>find</code> methods do not allocate unless they
+ * add a new entry.</p>
+ *
  * @author Abe White
  */
 public class ConstantPool implements VisitAcceptor {
     private List<Entry> _entries = new ArrayList<>(50);
-    private Map<Object,Entry> _lookup = new HashMap<>(50);
+    private PoolIndex _index = new PoolIndex();
+    private StringTable _strings = null;
+    private int _modCount = 0;
+    private int _reindexCount = 0;
+    private int _removed = 0; // places left by removed entries
 
     /**
      * Default constructor.
@@ -32,6 +44,28 @@ public class ConstantPool implements VisitAcceptor {
     public ConstantPool() {
     }
 
+    /**
+     * Return the table used to share the values of UTF-8 entries with
+     * other pools, or null if values are not shared.
+     *
+     * @return the string table, or null
+     */
+    public StringTable getStringTable() {
+        return _strings;
+    }
+
+    /**
+     * Set the table used to share the values of UTF-8 entries with other
+     * pools. Values read from bytecode or added through
+     * {@link #findUTF8Entry} are replaced by the table's instance of the
+     * same string. Entries already in the pool are not affected.
+     *
+     * @param strings the string table, or null to stop sharing values
+     */
+    public void setStringTable(StringTable strings) {
+        _strings = strings;
+    }
+
     /**
      * Return all the entries in the pool.
      * 
@@ -85,22 +119,22 @@ public class ConstantPool implements VisitAcceptor {
      */
     public int addEntry(Entry entry) {
         if (entry.getPool() != this)
-            addEntry(getKey(entry), entry);
+            add(entry);
         return entry.getIndex();
     }
 
 	/**
-	 * Add an entry to the pool using the given key.
+	 * Add an entry that is not yet in any pool.
 	 * 
-	 * @param key   the entry key
 	 * @param entry the entry to add
 	 * @return the newly added entry index
 	 */
-    private int addEntry(Object key, Entry entry) {
+    private int add(Entry entry) {
         entry.setPool(this);
+        _modCount++;
         _entries.add(entry);
         entry.setIndex(_entries.size());
-        _lookup.put(key, entry);
+        index(entry);
         if (entry.isWide())
             _entries.add(null);
         
@@ -108,7 +142,9 @@ public class ConstantPool implements VisitAcceptor {
     }
 
     /**
-     * Remove the given entry from the pool.
+     * Remove the given entry from the pool. The entry's place is left
+     * empty until the pool is {@link #compact}ed, so the indexes of other
+     * entries are unaffected.
      *
      * @param entry the entry to remove
      * @return false if the entry is not in the pool, true otherwise
@@ -118,25 +154,153 @@ public class ConstantPool implements VisitAcceptor {
             return false;
 
         int index = entry.getIndex() - 1;
+        _modCount++;
+        _entries.set(index, null);
+        _removed++;
+        if (entry.isWide())
+            _removed++;
+        unindex(entry);
         entry.setPool(null);
         entry.setIndex(0);
-        _entries.remove(index);
-        if (entry.isWide())
-            _entries.remove(index);
-        _lookup.remove(getKey(entry));
+        return true;
+    }
+
+    /**
+     * Return true if no entries have been removed since the pool was last
+     * compacted.
+     *
+     * @return true if the pool is compact
+     */
+    public boolean isCompact() {
+        return _removed == 0;
+    }
 
-        // rehash all the entries after the removed one with their new index
-        Object key;
-        for (int i = index; i < _entries.size(); i++) {
-            entry = (Entry) _entries.get(i);
+    /**
+     * Remove the places left by removed entries, renumbering the remaining
+     * entries and the pool indexes they refer to. Any other holders of pool
+     * indexes must be updated with the returned table;
+     * {@link serp.bytecode.BCClass#compact} does this for a whole class.
+     * References between entries to removed entries become 0, as does
+     * their place in the returned table.
+     *
+     * @return the new index of each old index, with 0 for removed entries,
+     *         or null if there was nothing to compact
+     */
+    public int[] compact() {
+        if (_removed == 0)
+            return null;
+
+        int[] map = new int[_entries.size() + 1];
+        List<Entry> entries = new ArrayList<>(_entries.size() - _removed);
+        Entry entry;
+        for (int i = 0; i < _entries.size(); i++) {
+            entry = _entries.get(i);
+            if (entry == null)
+                continue;
+            entries.add(entry);
+            map[i + 1] = entries.size();
+            if (entry.isWide()) {
+                entries.add(null);
+                i++;
+            }
+        }
+
+        _entries = entries;
+        _index.clear();
+        for (int i = 0; i < _entries.size(); i++) {
+            entry = _entries.get(i);
             if (entry != null) {
-                key = getKey(entry);
-                _lookup.remove(key);
                 entry.setIndex(i + 1);
-                _lookup.put(key, entry);
+                entry.remapIndexes(map);
+                index(entry);
             }
         }
-        return true;
+        _removed = 0;
+        _modCount++;
+        _reindexCount++;
+        return map;
+    }
+
+    /**
+     * Remove all entries that are neither in the given set of used indexes
+     * nor referred to, directly or indirectly, by a used entry. The
+     * entries are removed as by {@link #removeEntry}, so the pool must be
+     * compacted afterwards.
+     *
+     * @param used the indexes of the entries referred to from outside the
+     *             pool; on return, also the indexes of the entries they
+     *             refer to
+     * @return the number of entries removed
+     */
+    public int removeUnusedEntries(BitSet used) {
+        for (int i = used.nextSetBit(1); i > 0 && i <= _entries.size();
+            i = used.nextSetBit(i + 1))
+            markReferences(_entries.get(i - 1), used);
+
+        int removed = 0;
+        Entry entry;
+        for (int i = 0; i < _entries.size(); i++) {
+            entry = _entries.get(i);
+            if (entry != null && !used.get(i + 1)) {
+                removeEntry(entry);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Mark the entries the given entry refers to as used, recursively.
+     */
+    private void markReferences(Entry entry, BitSet used) {
+        if (entry == null)
+            return;
+        switch (entry.getType()) {
+        case Entry.CLASS:
+            mark(((ClassEntry) entry).getNameIndex(), used);
+            break;
+        case Entry.STRING:
+            mark(((StringEntry) entry).getStringIndex(), used);
+            break;
+        case Entry.NAMEANDTYPE:
+            NameAndTypeEntry nte = (NameAndTypeEntry) entry;
+            mark(nte.getNameIndex(), used);
+            mark(nte.getDescriptorIndex(), used);
+            break;
+        case Entry.FIELD:
+        case Entry.METHOD:
+        case Entry.INTERFACEMETHOD:
+            ComplexEntry ce = (ComplexEntry) entry;
+            mark(ce.getClassIndex(), used);
+            mark(ce.getNameAndTypeIndex(), used);
+            break;
+        case Entry.METHODHANDLE:
+            mark(((MethodHandleEntry) entry).getReferenceIndex(), used);
+            break;
+        case Entry.METHODTYPE:
+            mark(((MethodTypeEntry) entry).getDescriptorIndex(), used);
+            break;
+        case Entry.INVOKEDYNAMIC:
+            mark(((InvokeDynamicEntry) entry).getNameAndTypeIndex(), used);
+            break;
+        case Entry.MODULE:
+            mark(((ModuleEntry) entry).getNameIndex(), used);
+            break;
+        case Entry.PACKAGE:
+            mark(((PackageEntry) entry).getNameIndex(), used);
+            break;
+        }
+    }
+
+    /**
+     * Mark the entry at the given index and the entries it refers to as
+     * used.
+     */
+    private void mark(int index, BitSet used) {
+        if (index <= 0 || index > _entries.size() || used.get(index))
+            return;
+        used.set(index);
+        markReferences(_entries.get(index - 1), used);
     }
 
     /**
@@ -152,17 +316,44 @@ public class ConstantPool implements VisitAcceptor {
             }
         }
         _entries.clear();
-        _lookup.clear();
+        _index.clear();
+        _removed = 0;
+        _modCount++;
+        _reindexCount++;
+    }
+
+    /**
+     * Return the number of changes made to this pool. The count increases
+     * whenever an entry is added, removed, or modified, so comparing counts
+     * reveals whether the pool has changed since some earlier point.
+     *
+     * @return the modification count
+     */
+    public int getModCount() {
+        return _modCount;
+    }
+
+    /**
+     * Return the number of changes made to this pool that may have moved
+     * existing entries to new indexes; that is, compactions and clears.
+     * Bytecode that refers to pool indexes remains valid as long as this
+     * count is unchanged.
+     *
+     * @return the reindex count
+     */
+    public int getReindexCount() {
+        return _reindexCount;
     }
 
     /**
      * Return the number of places occupied in the pool, including the fact
-     * that long and double entries occupy two places.
+     * that long and double entries occupy two places. The places of removed
+     * entries awaiting compaction are not counted.
      * 
      * @return the number of places occupied in the pool
      */
     public int size() {
-        return _entries.size();
+        return _entries.size() - _removed;
     }
 
 	/**
@@ -182,10 +373,12 @@ public class ConstantPool implements VisitAcceptor {
             return 0;
         }
 
-        int index = find(value);
+        int index = _index.find(value);
         if (!add || index > 0)
             return index;
-        return addEntry(value, new UTF8Entry(value));
+        if (_strings != null)
+            value = _strings.intern(value);
+        return add(new UTF8Entry(value));
     }
 
 	/**
@@ -199,11 +392,10 @@ public class ConstantPool implements VisitAcceptor {
 	 *         value, or 0 if it does not exist
 	 */
     public int findDoubleEntry(double value, boolean add) {
-        Double key = Double.valueOf(value);
-        int index = find(key);
-        if (!add || (index > 0))
+        int index = _index.find(Entry.DOUBLE, Double.doubleToLongBits(value));
+        if (!add || index > 0)
             return index;
-        return addEntry(key, new DoubleEntry(value));
+        return add(new DoubleEntry(value));
     }
 
 	/**
@@ -217,11 +409,10 @@ public class ConstantPool implements VisitAcceptor {
 	 *         value, or 0 if it does not exist
 	 */
     public int findFloatEntry(float value, boolean add) {
-        Float key = Float.valueOf(value);
-        int index = find(key);
+        int index = _index.find(Entry.FLOAT, Float.floatToIntBits(value));
         if (!add || index > 0)
             return index;
-        return addEntry(key, new FloatEntry(value));
+        return add(new FloatEntry(value));
     }
 
 	/**
@@ -235,11 +426,10 @@ public class ConstantPool implements VisitAcceptor {
 	 *         or 0 if it does not exist
 	 */
     public int findIntEntry(int value, boolean add) {
-        Integer key = Numbers.valueOf(value);
-        int index = find(key);
+        int index = _index.find(Entry.INT, value);
         if (!add || index > 0)
             return index;
-        return addEntry(key, new IntEntry(value));
+        return add(new IntEntry(value));
     }
 
 	/**
@@ -253,11 +443,10 @@ public class ConstantPool implements VisitAcceptor {
 	 *         or 0 if it does not exist
 	 */
     public int findLongEntry(long value, boolean add) {
-        Long key = Numbers.valueOf(value);
-        int index = find(key);
+        int index = _index.find(Entry.LONG, value);
         if (!add || index > 0)
             return index;
-        return addEntry(key, new LongEntry(value));
+        return add(new LongEntry(value));
     }
 
 	/**
@@ -275,11 +464,10 @@ public class ConstantPool implements VisitAcceptor {
         if (valueIndex == 0)
             return 0;
 
-        StringKey key = new StringKey(valueIndex);
-        int index = find(key);
+        int index = _index.find(Entry.STRING, valueIndex);
         if (!add || index > 0)
             return index;
-        return addEntry(key, new StringEntry(valueIndex));
+        return add(new StringEntry(valueIndex));
     }
 
 	/**
@@ -297,11 +485,10 @@ public class ConstantPool implements VisitAcceptor {
         if (nameIndex == 0)
             return 0;
 
-        ClassKey key = new ClassKey(nameIndex);
-        int index = find(key);
+        int index = _index.find(Entry.CLASS, nameIndex);
         if (!add || index > 0)
             return index;
-        return addEntry(key, new ClassEntry(nameIndex));
+        return add(new ClassEntry(nameIndex));
     }
 
 	/**
@@ -323,11 +510,11 @@ public class ConstantPool implements VisitAcceptor {
         if (descIndex == 0)
             return 0;
 
-        NameAndTypeKey key = new NameAndTypeKey(nameIndex, descIndex);
-        int index = find(key);
+        int index = _index.find(Entry.NAMEANDTYPE,
+            PoolIndex.pack(nameIndex, descIndex));
         if (!add || index > 0)
             return index;
-        return addEntry(key, new NameAndTypeEntry(nameIndex, descIndex));
+        return add(new NameAndTypeEntry(nameIndex, descIndex));
     }
 
 	/**
@@ -386,13 +573,11 @@ public class ConstantPool implements VisitAcceptor {
         if (descIndex == 0)
             return 0;
         
-        Object key = new InvokeDynamicKey(bootstrapMethodIndex, descIndex);
-        int index = find(key);
+        int index = _index.find(Entry.INVOKEDYNAMIC,
+            PoolIndex.pack(bootstrapMethodIndex, descIndex));
         if (!add || index > 0)
             return index;
-        
-        Entry entry = new InvokeDynamicEntry(bootstrapMethodIndex, descIndex);
-        return addEntry(key, entry);
+        return add(new InvokeDynamicEntry(bootstrapMethodIndex, descIndex));
     }
     
 	/**
@@ -417,19 +602,7 @@ public class ConstantPool implements VisitAcceptor {
         if (descIndex == 0)
             return 0;
 
-        Object key = null;
-        switch (type) {
-        case Entry.FIELD:
-            key = new FieldKey(classIndex, descIndex);
-            break;
-        case Entry.METHOD:
-            key = new MethodKey(classIndex, descIndex);
-            break;
-        case Entry.INTERFACEMETHOD:
-            key = new InterfaceMethodKey(classIndex, descIndex);
-            break;
-        }
-        int index = find(key);
+        int index = _index.find(type, PoolIndex.pack(classIndex, descIndex));
         if (!add || index > 0)
             return index;
 
@@ -445,7 +618,7 @@ public class ConstantPool implements VisitAcceptor {
             entry = new InterfaceMethodEntry(classIndex, descIndex);
             break;
         }
-        return addEntry(key, entry);
+        return add(entry);
     }
 
     public void acceptVisit(BCVisitor visit) {
@@ -476,6 +649,8 @@ public class ConstantPool implements VisitAcceptor {
         Entry entry;
         for (int i = 1; i < entryCount; i++) {
             entry = Entry.read(in);
+            if (_strings != null && entry.getType() == Entry.UTF8)
+                ((UTF8Entry) entry).intern(_strings);
             addEntry(entry);
             if (entry.isWide())
                 i++;
@@ -483,12 +658,14 @@ public class ConstantPool implements VisitAcceptor {
     }
 
     /**
-     * Write the constant pool to the given bytecode stream.
+     * Write the constant pool to the given bytecode stream. The pool is
+     * {@link #compact}ed first.
      * 
      * @param out the output stream
      * @throws IOException stream handling exception
      */
     public void write(DataOutput out) throws IOException {
+        compact();
         out.writeShort(_entries.size() + 1);
 
         Entry entry;
@@ -500,224 +677,91 @@ public class ConstantPool implements VisitAcceptor {
     }
 
     /**
-     * Called by constant pool entries when they are mutated.
+     * Called by constant pool entries before they are mutated.
      * 
-     * @param origKey old key
-     * @param entry   the entry
+     * @param entry the entry
      */
-    void modifyEntry(Object origKey, Entry entry) {
-        _lookup.remove(origKey);
-        _lookup.put(getKey(entry), entry);
+    void beforeModify(Entry entry) {
+        unindex(entry);
     }
 
     /**
-     * Returns the constant pool index of the entry with the given key.
+     * Called by constant pool entries after they are mutated.
      * 
-     * @param key the entry key
-     * @return the constant pool index of the entry with the given key
+     * @param entry the entry
      */
-    private int find(Object key) {
-        Entry entry = (Entry) _lookup.get(key);
-        if (entry == null)
-            return 0;
-        return entry.getIndex();
+    void afterModify(Entry entry) {
+        _modCount++;
+        index(entry);
+    }
+
+    /**
+     * Add the given entry to the index under its current contents.
+     */
+    private void index(Entry entry) {
+        if (entry.getType() != Entry.UTF8)
+            _index.put(entry.getType(), getKey(entry), entry.getIndex());
+        else if (((UTF8Entry) entry).getValue() != null)
+            _index.put(((UTF8Entry) entry).getValue(), entry.getIndex());
     }
 
     /**
-     * Return the hash key used for the specified entry.
+     * Remove the given entry from the index under its current contents.
+     */
+    private void unindex(Entry entry) {
+        if (entry.getType() != Entry.UTF8)
+            _index.remove(entry.getType(), getKey(entry), entry.getIndex());
+        else if (((UTF8Entry) entry).getValue() != null)
+            _index.remove(((UTF8Entry) entry).getValue(), entry.getIndex());
+    }
+
+    /**
+     * Return the packed index key of the specified entry, which must not be
+     * a {@link UTF8Entry}.
      * 
      * @param entry the entry
-     * @return the hash key used for the specified entry
+     * @return the index key of the specified entry
      */
-    static Object getKey(Entry entry) {
+    private static long getKey(Entry entry) {
         switch (entry.getType()) {
         case Entry.CLASS:
-            return new ClassKey(((ClassEntry) entry).getNameIndex());
+            return ((ClassEntry) entry).getNameIndex();
         case Entry.FIELD:
-            FieldEntry fe = (FieldEntry) entry;
-            return new FieldKey(fe.getClassIndex(), fe.getNameAndTypeIndex());
         case Entry.METHOD:
-            MethodEntry me = (MethodEntry) entry;
-            return new MethodKey(me.getClassIndex(), me.getNameAndTypeIndex());
         case Entry.INTERFACEMETHOD:
-            InterfaceMethodEntry ime = (InterfaceMethodEntry) entry;
-            return new InterfaceMethodKey(ime.getClassIndex(),
-                ime.getNameAndTypeIndex());
+            ComplexEntry ce = (ComplexEntry) entry;
+            return PoolIndex.pack(ce.getClassIndex(),
+                ce.getNameAndTypeIndex());
         case Entry.INVOKEDYNAMIC:
             InvokeDynamicEntry ide = (InvokeDynamicEntry) entry;
-            return new InvokeDynamicKey(ide.getBootstrapMethodAttrIndex(), ide.getNameAndTypeIndex());
+            return PoolIndex.pack(ide.getBootstrapMethodAttrIndex(),
+                ide.getNameAndTypeIndex());
         case Entry.STRING:
-            return new StringKey(((StringEntry) entry).getStringIndex());
+            return ((StringEntry) entry).getStringIndex();
         case Entry.INT:
+            return ((IntEntry) entry).getValue();
         case Entry.FLOAT:
+            return Float.floatToIntBits(((FloatEntry) entry).getValue());
         case Entry.LONG:
+            return ((LongEntry) entry).getValue();
         case Entry.DOUBLE:
-        case Entry.UTF8:
-            return ((ConstantEntry) entry).getConstant();
+            return Double.doubleToLongBits(((DoubleEntry) entry).getValue());
         case Entry.NAMEANDTYPE:
             NameAndTypeEntry nte = (NameAndTypeEntry) entry;
-            return new NameAndTypeKey(nte.getNameIndex(),
+            return PoolIndex.pack(nte.getNameIndex(),
                 nte.getDescriptorIndex());
         case Entry.METHODHANDLE:
-            return new MethodHandleKey(((MethodHandleEntry)entry).getReferenceIndex());
+            MethodHandleEntry mhe = (MethodHandleEntry) entry;
+            return PoolIndex.pack(mhe.getReferenceKind(),
+                mhe.getReferenceIndex());
         case Entry.METHODTYPE:
-          return new MethodTypeKey(((MethodTypeEntry)entry).getDescriptorIndex());
+            return ((MethodTypeEntry) entry).getDescriptorIndex();
         case Entry.MODULE:
-          return new ModuleKey(((ModuleEntry) entry).getNameIndex());
+            return ((ModuleEntry) entry).getNameIndex();
         case Entry.PACKAGE:
-          return new PackageKey(((PackageEntry) entry).getNameIndex());
+            return ((PackageEntry) entry).getNameIndex();
         default:
-            return null;
-        }
-    }
-
-    /**
-     * Base class key for entries with one ptr to another entry.
-     */
-    private static abstract class PtrKey {
-        private final int _index;
-
-        public PtrKey(int index) {
-            _index = index;
-        }
-
-        @Override
-        public int hashCode() {
-            return _index;
-        }
-
-        public boolean equals(Object other) {
-            if (other == this)
-                return true;
-            if (other.getClass() != getClass())
-                return false;
-            return ((PtrKey) other)._index == _index;
-        }
-    }
-
-    /**
-     * Key for string entries.
-     */
-    private static class StringKey extends PtrKey {
-        public StringKey(int index) {
-            super(index);
-        }
-    }
-
-    /**
-     * Key for class entries.
-     */
-    private static class ClassKey extends PtrKey {
-        public ClassKey(int index) {
-            super(index);
-        }
-    }
-
-    /**
-     * Key for module entries.
-     */
-    private static class ModuleKey extends PtrKey {
-        public ModuleKey(int index) {
-            super(index);
-        }
-    }
-
-    /**
-     * Key for package entries.
-     */
-    private static class PackageKey extends PtrKey {
-        public PackageKey(int index) {
-            super(index);
-        }
-    }
-
-    /**
-     * Key for method handle entries.
-     */
-    private static class MethodHandleKey extends PtrKey {
-        public MethodHandleKey(int index) {
-            super(index);
-        }
-    }
-
-    /**
-     * Key for method type entries.
-     */
-    private static class MethodTypeKey extends PtrKey {
-        public MethodTypeKey(int index) {
-            super(index);
-        }
-    }
-
-    /**
-     * Base class key for entries with two ptr to other entries.
-     */
-    private static abstract class DoublePtrKey {
-        private final int _index1;
-        private final int _index2;
-
-        public DoublePtrKey(int index1, int index2) {
-            _index1 = index1;
-            _index2 = index2;
-        }
-
-        @Override
-        public int hashCode() {
-            return _index1 ^ _index2;
-        }
-
-        public boolean equals(Object other) {
-            if (other == this)
-                return true;
-            if (other.getClass() != getClass())
-                return false;
-            DoublePtrKey key = (DoublePtrKey) other;
-            return key._index1 == _index1 && key._index2 == _index2;
-        }
-    }
-
-    /**
-     * Key for name and type entries.
-     */
-    private static class NameAndTypeKey extends DoublePtrKey {
-        public NameAndTypeKey(int index1, int index2) {
-            super(index1, index2);
-        }
-    }
-
-    /**
-     * Key for field entries.
-     */
-    private static class FieldKey extends DoublePtrKey {
-        public FieldKey(int index1, int index2) {
-            super(index1, index2);
-        }
-    }
-
-    /**
-     * Key for method entries.
-     */
-    private static class MethodKey extends DoublePtrKey {
-        public MethodKey(int index1, int index2) {
-            super(index1, index2);
-        }
-    }
-
-    /**
-     * Key for interface method entries.
-     */
-    private static class InterfaceMethodKey extends DoublePtrKey {
-        public InterfaceMethodKey(int index1, int index2) {
-            super(index1, index2);
-        }
-    }
-    
-    /**
-     * Key for method entries.
-     */
-    private static class InvokeDynamicKey extends DoublePtrKey {
-        public InvokeDynamicKey(int index1, int index2) {
-            super(index1, index2);
+            return 0;
         }
     }
 }
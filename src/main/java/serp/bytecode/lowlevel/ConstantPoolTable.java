@@ -1,16 +1,20 @@
 package serp.bytecode.lowlevel;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Efficient representation of the constant pool as a table. This class
  * can be used to parse out bits of information from bytecode without
- * instantiating a full {@link serp.bytecode.BCClass}.
+ * instantiating a full {@link serp.bytecode.BCClass}. The bytecode may be
+ * supplied as a byte array or as a {@link ByteBuffer}, such as a slice of
+ * a memory-mapped archive, which is read in place.
  *
  * @author Abe White
  */
 public class ConstantPoolTable {
-    private byte[] _bytecode = null;
+    private ByteBuffer _bytecode = null;
     private int[] _table = null;
     private int _idx = 0;
 
@@ -20,9 +24,20 @@ public class ConstantPoolTable {
      * @param b class bytecode
      */
     public ConstantPoolTable(byte[] b) {
-        _bytecode = b;
-        _table = new int[readUnsignedShort(b, 8)];
-        _idx = parse(b, _table);
+        this(ByteBuffer.wrap(b));
+    }
+
+    /**
+     * Constructor; supply class bytecode. The bytecode runs from the
+     * buffer's current position to its limit, and all indexes are relative
+     * to that position. The buffer contents are not copied.
+     * 
+     * @param b class bytecode
+     */
+    public ConstantPoolTable(ByteBuffer b) {
+        _bytecode = b.slice();
+        _table = new int[readUnsignedShort(_bytecode, 8)];
+        _idx = parse(_bytecode, _table);
     }
 
     /**
@@ -43,7 +58,7 @@ public class ConstantPoolTable {
      * @return end index of the pool
      */
     public static int getEndIndex(byte[] b) {
-        return parse(b, null);
+        return parse(ByteBuffer.wrap(b), null);
     }
 
 	/**
@@ -53,7 +68,7 @@ public class ConstantPoolTable {
 	 * @param table each entry index values
 	 * @return end index of pool
 	 */
-    private static int parse(byte[] b, int[] table) {
+    private static int parse(ByteBuffer b, int[] table) {
         // each entry is the index in the byte array of the data for a const
         // pool entry
         int entries = (table == null) ? readUnsignedShort(b, 8) : table.length;
@@ -62,7 +77,7 @@ public class ConstantPoolTable {
             if (table != null)
                 table[i] = idx + 1; // skip entry type
 
-            switch (b[idx]) {
+            switch (b.get(idx)) {
             case 1: // utf8
                 idx += (3 + readUnsignedShort(b, idx + 1));
                 break;
@@ -139,11 +154,14 @@ public class ConstantPoolTable {
 	 * @return the long value
 	 */
     public static long readLong(byte[] b, int idx) {
-        return (readInt(b, idx) << 32) | readInt(b, idx + 4);
+        return ((long) readInt(b, idx) << 32) 
+            | (readInt(b, idx + 4) & 0xFFFFFFFFL);
     }
 
     /**
      * Read a UTF-8 string value at the given offset into the given bytecode.
+     * The value is decoded from the modified UTF-8 form used in class files,
+     * which begins with the unsigned short length of the encoded bytes.
      * 
      * @param b   the input byte array
      * @param idx the offset
@@ -151,11 +169,62 @@ public class ConstantPoolTable {
      */
     public static String readString(byte[] b, int idx) {
         int len = readUnsignedShort(b, idx);
-        try {
-            return new String(b, idx + 2, len, "UTF-8");
-        } catch (UnsupportedEncodingException uee) {
-            throw new ClassFormatError(uee.toString());
+        int start = idx + 2;
+        int end = start + len;
+
+        // most class file strings are plain ascii, which needs no decoding
+        int i = start;
+        while (i < end && b[i] > 0)
+            i++;
+        if (i == end)
+            return new String(b, start, len, StandardCharsets.ISO_8859_1);
+
+        char[] chars = new char[len];
+        int count = 0;
+        for (int j = start; j < i; j++)
+            chars[count++] = (char) b[j];
+        int c;
+        while (i < end) {
+            c = b[i] & 0xFF;
+            if (c < 0x80) {
+                chars[count++] = (char) c;
+                i++;
+            } else if ((c & 0xE0) == 0xC0 && i + 1 < end 
+                && (b[i + 1] & 0xC0) == 0x80) {
+                chars[count++] = (char) (((c & 0x1F) << 6) 
+                    | (b[i + 1] & 0x3F));
+                i += 2;
+            } else if ((c & 0xF0) == 0xE0 && i + 2 < end
+                && (b[i + 1] & 0xC0) == 0x80 && (b[i + 2] & 0xC0) == 0x80) {
+                chars[count++] = (char) (((c & 0x0F) << 12) 
+                    | ((b[i + 1] & 0x3F) << 6) | (b[i + 2] & 0x3F));
+                i += 3;
+            } else
+                throw new ClassFormatError("Malformed UTF-8 at byte " + i);
         }
+        return new String(chars, 0, count);
+    }
+
+    /**
+     * Read an unsigned short value at the given offset into the given buffer.
+     */
+    private static int readUnsignedShort(ByteBuffer b, int idx) {
+        return b.getShort(idx) & 0xFFFF;
+    }
+
+    /**
+     * Read a UTF-8 string value at the given offset into the given buffer.
+     */
+    private static String readString(ByteBuffer b, int idx) {
+        if (b.hasArray())
+            return readString(b.array(), b.arrayOffset() + idx);
+
+        // copy out of direct buffers; the string needs its own copy anyway
+        byte[] bytes = new byte[readUnsignedShort(b, idx) + 2];
+        ByteBuffer dup = b.duplicate();
+        dup.position(idx);
+        dup.get(bytes);
+        return readString(bytes, 0);
     }
 
     /**
@@ -180,6 +249,16 @@ public class ConstantPoolTable {
         return _idx;
     }
 
+    /**
+     * Return the number of table entries, which is one greater than the
+     * highest constant pool index.
+     * 
+     * @return the number of table entries
+     */
+    public int getEntryCount() {
+        return _table.length;
+    }
+
     /**
      * Return the given table entry.
      * 
@@ -197,7 +276,7 @@ public class ConstantPoolTable {
      * @return the byte value
      */
     public int readByte(int idx) {
-        return readByte(_bytecode, idx);
+        return _bytecode.get(idx) & 0xFF;
     }
 
     /**
@@ -217,7 +296,7 @@ public class ConstantPoolTable {
      * @return the int value
      */
     public int readInt(int idx) {
-        return readInt(_bytecode, idx);
+        return _bytecode.getInt(idx);
     }
 
     /**
@@ -227,7 +306,7 @@ public class ConstantPoolTable {
      * @return the long value
      */
     public long readLong(int idx) {
-        return readLong(_bytecode, idx);
+        return _bytecode.getLong(idx);
     }
 
     /**
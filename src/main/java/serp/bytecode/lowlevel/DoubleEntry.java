@@ -50,9 +50,9 @@ public class DoubleEntry extends Entry implements ConstantEntry {
      * @param value the value of the constant
      */
     public void setValue(double value) {
-        Object key = beforeModify();
+        beforeModify();
         _value = value;
-        afterModify(key);
+        afterModify();
     }
 
     public Object getConstant() {
@@ -158,24 +158,18 @@ public abstract class Entry implements VisitAcceptor {
 
     /**
      * Subclasses must call this method before their state is mutated.
-     * 
-     * @return the key used for this entry
      */
-    Object beforeModify() {
-        if (_pool == null)
-            return null;
-        
-        return ConstantPool.getKey(this);
+    void beforeModify() {
+        if (_pool != null)
+            _pool.beforeModify(this);
     }
 
     /**
      * Subclasses must call this method when their state is mutated.
-     * 
-     * @param key the key to set
      */
-    void afterModify(Object key) {
+    void afterModify() {
         if (_pool != null)
-            _pool.modifyEntry(key, this);
+            _pool.afterModify(this);
     }
 
     /**
@@ -196,4 +190,26 @@ public abstract class Entry implements VisitAcceptor {
     void setIndex(int index) {
         _index = index;
     }
+
+    /**
+     * Replace the pool indexes this entry refers to with their new values
+     * after the pool has been compacted. The pool is not notified.
+     *
+     * @param map the new index of each old index
+     */
+    void remapIndexes(int[] map) {
+    }
+
+    /**
+     * Return the new value of the given pool index after compaction.
+     *
+     * @param map   the new index of each old index
+     * @param index the old index
+     * @return the new index
+     */
+    static int remap(int[] map, int index) {
+        if (index <= 0 || index >= map.length)
+            return index;
+        return map[index];
+    }
 }
@@ -46,9 +46,9 @@ public class FloatEntry extends Entry implements ConstantEntry {
      * @param value the value of this constant
      */
     public void setValue(float value) {
-        Object key = beforeModify();
+        beforeModify();
         _value = value;
-        afterModify(key);
+        afterModify();
     }
 
     public Object getConstant() {
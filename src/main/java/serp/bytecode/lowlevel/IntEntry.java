@@ -47,9 +47,9 @@ public class IntEntry extends Entry implements ConstantEntry {
      * @param value the value of this constant
      */
     public void setValue(int value) {
-        Object key = beforeModify();
+        beforeModify();
         _value = value;
-        afterModify(key);
+        afterModify();
     }
 
     public Object getConstant() {
@@ -35,6 +35,10 @@ public class InvokeDynamicEntry extends Entry {
 		return Entry.INVOKEDYNAMIC;
 	}
 
+    void remapIndexes(int[] map) {
+        _name_and_type_index = remap(map, _name_and_type_index);
+    }
+
     void readData(DataInput in) throws IOException {
         _bootstrap_method_attr_index = in.readUnsignedShort();
         _name_and_type_index = in.readUnsignedShort();
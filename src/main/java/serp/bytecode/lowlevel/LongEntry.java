@@ -51,9 +51,9 @@ public class LongEntry extends Entry implements ConstantEntry {
      * @param value the value to set
      */
     public void setValue(long value) {
-        Object key = beforeModify();
+        beforeModify();
         _value = value;
-        afterModify(key);
+        afterModify();
     }
 
     public Object getConstant() {
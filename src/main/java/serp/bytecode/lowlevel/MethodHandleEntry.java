@@ -35,6 +35,10 @@ public class MethodHandleEntry extends Entry {
         return Entry.METHODHANDLE;
     }
 
+    void remapIndexes(int[] map) {
+        _reference_index = remap(map, _reference_index);
+    }
+
     void readData(DataInput in) throws IOException {
         _reference_kind = in.readUnsignedByte();
         _reference_index = in.readUnsignedShort();
@@ -58,7 +62,9 @@ public class MethodHandleEntry extends Entry {
             throw new IllegalArgumentException("MethodHandle referencekind cannot accept a value of " + referenceKind);
         }
         
+        beforeModify();
         _reference_kind = referenceKind;
+        afterModify();
     }
     
     /**
@@ -78,7 +84,9 @@ public class MethodHandleEntry extends Entry {
     }
     
     public void setReference(int referenceIndex) {
+        beforeModify();
         _reference_index = referenceIndex;
+        afterModify();
     }
 
 }
@@ -36,6 +36,10 @@ public class MethodTypeEntry extends Entry {
         return _descriptor_index;
     }
     
+    void remapIndexes(int[] map) {
+        _descriptor_index = remap(map, _descriptor_index);
+    }
+
     void readData(DataInput in) throws IOException {
         _descriptor_index = in.readUnsignedShort();
     }
@@ -56,9 +56,9 @@ public class NameAndTypeEntry extends Entry {
 	 *                  the name of this entity
 	 */
     public void setNameIndex(int nameIndex) {
-        Object key = beforeModify();
+        beforeModify();
         _nameIndex = nameIndex;
-        afterModify(key);
+        afterModify();
     }
 
     /**
@@ -90,9 +90,9 @@ public class NameAndTypeEntry extends Entry {
 	 *                        containing the descriptor for this entity
 	 */
     public void setDescriptorIndex(int descriptorIndex) {
-        Object key = beforeModify();
+        beforeModify();
         _descriptorIndex = descriptorIndex;
-        afterModify(key);
+        afterModify();
     }
 
     /**
@@ -110,6 +110,11 @@ public class NameAndTypeEntry extends Entry {
         visit.exitNameAndTypeEntry(this);
     }
 
+    void remapIndexes(int[] map) {
+        _nameIndex = remap(map, _nameIndex);
+        _descriptorIndex = remap(map, _descriptorIndex);
+    }
+
     void readData(DataInput in) throws IOException {
         _nameIndex = in.readUnsignedShort();
         _descriptorIndex = in.readUnsignedShort();
@@ -0,0 +1,246 @@
+package serp.bytecode.lowlevel;
+
+import java.util.Arrays;
+
+/**
+ * Hash index from the contents of constant pool entries to their pool
+ * indexes, used by {@link ConstantPool} to find existing entries. UTF-8
+ * entries are keyed on their string values; all other entries are keyed
+ * on their tag plus a long packing their numeric value or the pool
+ * indexes they refer to. Both tables use open addressing with linear
+ * probing over primitive arrays, so lookups allocate nothing.
+ *
+ * <p>As with a map, adding a key that is already present replaces its
+ * index.</p>
+ */
+final class PoolIndex {
+    private static final int MIN_CAPACITY = 64;
+
+    // entries other than UTF-8; a tag of 0 marks an empty slot
+    private byte[] _tags;
+    private long[] _keys;
+    private int[] _indexes;
+    private int _size = 0;
+
+    // UTF-8 entries; a null string marks an empty slot
+    private String[] _strings;
+    private int[] _stringIndexes;
+    private int _stringSize = 0;
+
+    /**
+     * Default constructor.
+     */
+    public PoolIndex() {
+        _tags = new byte[MIN_CAPACITY];
+        _keys = new long[MIN_CAPACITY];
+        _indexes = new int[MIN_CAPACITY];
+        _strings = new String[MIN_CAPACITY];
+        _stringIndexes = new int[MIN_CAPACITY];
+    }
+
+    /**
+     * Pack two pool indexes or other 32-bit values into a key.
+     */
+    static long pack(int value1, int value2) {
+        return ((long) value1 << 32) | (value2 & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Return the index stored for the given key, or 0 if none.
+     *
+     * @param tag the entry type
+     * @param key the packed entry contents
+     */
+    public int find(int tag, long key) {
+        int mask = _tags.length - 1;
+        for (int i = hash(tag, key) & mask; _tags[i] != 0; i = (i + 1) & mask)
+            if (_tags[i] == tag && _keys[i] == key)
+                return _indexes[i];
+        return 0;
+    }
+
+    /**
+     * Return the index stored for the given string, or 0 if none.
+     *
+     * @param value the UTF-8 entry value
+     */
+    public int find(String value) {
+        int mask = _strings.length - 1;
+        String str;
+        for (int i = hash(value) & mask; (str = _strings[i]) != null;
+            i = (i + 1) & mask)
+            if (str == value || str.equals(value))
+                return _stringIndexes[i];
+        return 0;
+    }
+
+    /**
+     * Store the given index for the given key.
+     *
+     * @param tag the entry type
+     * @param key the packed entry contents
+     * @param index the pool index of the entry
+     */
+    public void put(int tag, long key, int index) {
+        if ((_size + 1) * 2 > _tags.length)
+            rehash(_tags.length * 2);
+
+        int mask = _tags.length - 1;
+        int i = hash(tag, key) & mask;
+        for (; _tags[i] != 0; i = (i + 1) & mask) {
+            if (_tags[i] == tag && _keys[i] == key) {
+                _indexes[i] = index;
+                return;
+            }
+        }
+        _tags[i] = (byte) tag;
+        _keys[i] = key;
+        _indexes[i] = index;
+        _size++;
+    }
+
+    /**
+     * Store the given index for the given string.
+     *
+     * @param value the UTF-8 entry value
+     * @param index the pool index of the entry
+     */
+    public void put(String value, int index) {
+        if ((_stringSize + 1) * 2 > _strings.length)
+            rehashStrings(_strings.length * 2);
+
+        int mask = _strings.length - 1;
+        int i = hash(value) & mask;
+        for (; _strings[i] != null; i = (i + 1) & mask) {
+            if (_strings[i].equals(value)) {
+                _stringIndexes[i] = index;
+                return;
+            }
+        }
+        _strings[i] = value;
+        _stringIndexes[i] = index;
+        _stringSize++;
+    }
+
+    /**
+     * Remove the given key if it is stored with the given index.
+     *
+     * @param tag the entry type
+     * @param key the packed entry contents
+     * @param index the pool index of the entry
+     */
+    public void remove(int tag, long key, int index) {
+        int mask = _tags.length - 1;
+        int i = hash(tag, key) & mask;
+        for (; _tags[i] != 0; i = (i + 1) & mask) {
+            if (_tags[i] == tag && _keys[i] == key) {
+                if (_indexes[i] == index) {
+                    _size--;
+                    shift(i);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Remove the given string if it is stored with the given index.
+     *
+     * @param value the UTF-8 entry value
+     * @param index the pool index of the entry
+     */
+    public void remove(String value, int index) {
+        int mask = _strings.length - 1;
+        int i = hash(value) & mask;
+        for (; _strings[i] != null; i = (i + 1) & mask) {
+            if (_strings[i].equals(value)) {
+                if (_stringIndexes[i] == index) {
+                    _stringSize--;
+                    shiftStrings(i);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Remove all keys, keeping the current capacity.
+     */
+    public void clear() {
+        Arrays.fill(_tags, (byte) 0);
+        Arrays.fill(_strings, null);
+        _size = 0;
+        _stringSize = 0;
+    }
+
+    /**
+     * Empty the given slot, moving later keys of the same probe sequence
+     * back so that they remain reachable.
+     */
+    private void shift(int free) {
+        int mask = _tags.length - 1;
+        int home;
+        for (int i = (free + 1) & mask; _tags[i] != 0; i = (i + 1) & mask) {
+            home = hash(_tags[i], _keys[i]) & mask;
+            if (((i - home) & mask) >= ((i - free) & mask)) {
+                _tags[free] = _tags[i];
+                _keys[free] = _keys[i];
+                _indexes[free] = _indexes[i];
+                free = i;
+            }
+        }
+        _tags[free] = 0;
+    }
+
+    /**
+     * Empty the given string slot, as in {@link #shift}.
+     */
+    private void shiftStrings(int free) {
+        int mask = _strings.length - 1;
+        int home;
+        for (int i = (free + 1) & mask; _strings[i] != null;
+            i = (i + 1) & mask) {
+            home = hash(_strings[i]) & mask;
+            if (((i - home) & mask) >= ((i - free) & mask)) {
+                _strings[free] = _strings[i];
+                _stringIndexes[free] = _stringIndexes[i];
+                free = i;
+            }
+        }
+        _strings[free] = null;
+    }
+
+    private void rehash(int capacity) {
+        byte[] tags = _tags;
+        long[] keys = _keys;
+        int[] indexes = _indexes;
+        _tags = new byte[capacity];
+        _keys = new long[capacity];
+        _indexes = new int[capacity];
+        _size = 0;
+        for (int i = 0; i < tags.length; i++)
+            if (tags[i] != 0)
+                put(tags[i], keys[i], indexes[i]);
+    }
+
+    private void rehashStrings(int capacity) {
+        String[] strings = _strings;
+        int[] indexes = _stringIndexes;
+        _strings = new String[capacity];
+        _stringIndexes = new int[capacity];
+        _stringSize = 0;
+        for (int i = 0; i < strings.length; i++)
+            if (strings[i] != null)
+                put(strings[i], indexes[i]);
+    }
+
+    private static int hash(int tag, long key) {
+        long h = (key + tag) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static int hash(String value) {
+        int h = value.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,71 @@
+package serp.bytecode.lowlevel;
+
+/**
+ * Receives the parts of a class visited by a {@link ClassSkimmer}.
+ * Subclasses should override only the methods for the parts they are
+ * interested in. Class names are given in internal form, as in
+ * <code>java/lang/Object</code>; member and annotation types are given as
+ * descriptors.
+ *
+ * <p>The methods are called in class file order: {@link #visitClass},
+ * {@link #visitInterface} for each interface, {@link #visitField} and
+ * {@link #visitMethod} for each member, {@link #visitAnnotation} for the
+ * class annotations, and finally {@link #visitEnd}. Each field and method
+ * is immediately followed by the visits of its own annotations.</p>
+ */
+public class SkimVisitor {
+    /**
+     * Visit the class header.
+     *
+     * @param access the class access flags
+     * @param name the class name
+     * @param superName the superclass name, or null for
+     *                  <code>java/lang/Object</code> and modules
+     */
+    public void visitClass(int access, String name, String superName) {
+    }
+
+    /**
+     * Visit a declared interface.
+     *
+     * @param name the interface name
+     */
+    public void visitInterface(String name) {
+    }
+
+    /**
+     * Visit a declared field.
+     *
+     * @param access the field access flags
+     * @param name the field name
+     * @param descriptor the field type descriptor
+     */
+    public void visitField(int access, String name, String descriptor) {
+    }
+
+    /**
+     * Visit a declared method.
+     *
+     * @param access the method access flags
+     * @param name the method name
+     * @param descriptor the method descriptor
+     */
+    public void visitMethod(int access, String name, String descriptor) {
+    }
+
+    /**
+     * Visit an annotation of the class or of the last visited member.
+     * Annotations nested within annotation values are not visited.
+     *
+     * @param type the annotation type descriptor
+     * @param runtime true if the annotation is visible at runtime
+     */
+    public void visitAnnotation(String type, boolean runtime) {
+    }
+
+    /**
+     * Called after all the parts of the class have been visited.
+     */
+    public void visitEnd() {
+    }
+}
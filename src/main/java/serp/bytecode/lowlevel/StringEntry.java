@@ -51,9 +51,9 @@ public class StringEntry extends Entry implements ConstantEntry {
      * @param stringIndex the constant pool index
      */
     public void setStringIndex(int stringIndex) {
-        Object key = beforeModify();
+        beforeModify();
         _stringIndex = stringIndex;
-        afterModify(key);
+        afterModify();
     }
 
     /**
@@ -79,6 +79,10 @@ public class StringEntry extends Entry implements ConstantEntry {
         visit.exitStringEntry(this);
     }
 
+    void remapIndexes(int[] map) {
+        _stringIndex = remap(map, _stringIndex);
+    }
+
     void readData(DataInput in) throws IOException {
         _stringIndex = in.readUnsignedShort();
     }
@@ -3,6 +3,7 @@ package serp.bytecode.lowlevel;
 import java.io.*;
 
 import serp.bytecode.visitor.*;
+import serp.util.StringTable;
 
 /**
  * A unicode string value in the constant pool.
@@ -48,9 +49,9 @@ public class UTF8Entry extends Entry implements ConstantEntry {
     public void setValue(String value) {
         if (value == null)
             throw new NullPointerException("value = null");
-        Object key = beforeModify();
+        beforeModify();
         _value = value;
-        afterModify(key);
+        afterModify();
     }
 
     @Override
@@ -69,6 +70,14 @@ public class UTF8Entry extends Entry implements ConstantEntry {
         visit.exitUTF8Entry(this);
     }
 
+    /**
+     * Replace the value just read from bytecode with the equal instance
+     * held by the given table. Called before the entry joins its pool.
+     */
+    void intern(StringTable strings) {
+        _value = strings.intern(_value);
+    }
+
     void readData(DataInput in) throws IOException {
         _value = in.readUTF();
     }
@@ -97,6 +97,12 @@ public class BCVisitor {
     public void exitLineNumberTable(LineNumberTable obj) {
     }
 
+    public void enterStackMapTable(StackMapTable obj) {
+    }
+
+    public void exitStackMapTable(StackMapTable obj) {
+    }
+
     public void enterLocalVariableTable(LocalVariableTable obj) {
     }
 
@@ -181,6 +187,12 @@ public class BCVisitor {
     public void exitLocalVariableType(LocalVariableType obj) {
     }
 
+    public void enterStackMapFrame(StackMapFrame obj) {
+    }
+
+    public void exitStackMapFrame(StackMapFrame obj) {
+    }
+
     public void enterInstruction(Instruction obj) {
     }
 
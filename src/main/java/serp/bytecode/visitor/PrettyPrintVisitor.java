@@ -1,6 +1,7 @@
 package serp.bytecode.visitor;
 
 import java.io.*;
+import java.util.Arrays;
 
 import serp.bytecode.*;
 import serp.bytecode.lowlevel.*;
@@ -192,6 +193,17 @@ public class PrettyPrintVisitor extends BCVisitor {
         closeBlock();
     }
 
+    public void enterStackMapFrame(StackMapFrame obj) {
+        openBlock("StackMapFrame");
+        println("pc=" + obj.getPc());
+        println("locals=" + Arrays.asList(obj.getLocals()));
+        println("stack=" + Arrays.asList(obj.getStack()));
+    }
+
+    public void exitStackMapFrame(StackMapFrame obj) {
+        closeBlock();
+    }
+
     public void enterLocalVariable(LocalVariable obj) {
         openBlock("LocalVariable");
         println("startPc=" + obj.getStartPc());
@@ -0,0 +1,100 @@
+package serp.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Table of canonical string instances, so that equal strings read from
+ * many classes can share a single copy. Unlike {@link String#intern}, the
+ * table is private to its owner and is released with it. The table also
+ * counts how many strings it has replaced, as a measure of the memory it
+ * saves. It is safe for use by multiple threads.
+ */
+public class StringTable {
+    private final ConcurrentMap<String,String> _strings =
+        new ConcurrentHashMap<>();
+    private final LongAdder _requests = new LongAdder();
+    private final LongAdder _shared = new LongAdder();
+    private final LongAdder _sharedLength = new LongAdder();
+
+    /**
+     * Return the canonical instance of the given string, adding the string
+     * to the table if it is not already present.
+     *
+     * @param str the string to intern
+     * @return the equal string held by the table, or null if the given
+     *         string is null
+     */
+    public String intern(String str) {
+        if (str == null)
+            return null;
+
+        _requests.increment();
+        String canon = _strings.get(str);
+        if (canon == null) {
+            canon = _strings.putIfAbsent(str, str);
+            if (canon == null)
+                return str;
+        }
+        if (canon != str) {
+            _shared.increment();
+            _sharedLength.add(str.length());
+        }
+        return canon;
+    }
+
+    /**
+     * Return the number of distinct strings in the table.
+     *
+     * @return the number of distinct strings
+     */
+    public int size() {
+        return _strings.size();
+    }
+
+    /**
+     * Return the number of strings passed to {@link #intern}.
+     *
+     * @return the number of intern requests
+     */
+    public long getRequestCount() {
+        return _requests.sum();
+    }
+
+    /**
+     * Return the number of strings that were replaced by an equal instance
+     * already in the table, and so can be discarded.
+     *
+     * @return the number of replaced strings
+     */
+    public long getSharedCount() {
+        return _shared.sum();
+    }
+
+    /**
+     * Return the total length of the strings that were replaced by an equal
+     * instance already in the table.
+     *
+     * @return the total length of the replaced strings
+     */
+    public long getSharedLength() {
+        return _sharedLength.sum();
+    }
+
+    /**
+     * Remove all strings from the table and reset its counts.
+     */
+    public void clear() {
+        _strings.clear();
+        _requests.reset();
+        _shared.reset();
+        _sharedLength.reset();
+    }
+
+    public String toString() {
+        return "StringTable: " + size() + " strings, " + getRequestCount()
+            + " requests, " + getSharedCount() + " shared ("
+            + getSharedLength() + " chars)";
+    }
+}
@@ -4,8 +4,15 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 import org.junit.jupiter.api.Test;
 
+import serp.bytecode.visitor.BCVisitor;
+
 
 /**
  * Tests the {@link Attributes} type.
@@ -135,4 +142,51 @@ public class TestAttributes  {
         assertTrue(!attr2.isValid());
     }
 
+    /**
+     * Test registering a custom attribute type.
+     */
+    @Test
+    public void testRegister() throws Exception {
+        assertTrue(_attrs2.addAttribute("Custom")
+            instanceof UnknownAttribute);
+        Attribute.register("Custom", CustomAttribute::new);
+        try {
+            CustomAttribute attr = (CustomAttribute) _attrs.addAttribute
+                ("Custom");
+            attr.value = 7;
+
+            // read back through the registered factory
+            BCClass bc = new Project().loadClass(new ByteArrayInputStream
+                (((BCClass) _attrs).toByteArray()));
+            assertEquals(7, ((CustomAttribute) bc.getAttribute("Custom")).
+                value);
+        } finally {
+            Attribute.register("Custom", null);
+        }
+        assertTrue(_attrs2.addAttribute("Custom")
+            instanceof UnknownAttribute);
+    }
+
+    private static class CustomAttribute extends Attribute {
+        int value;
+
+        CustomAttribute(int nameIndex, Attributes owner) {
+            super(nameIndex, owner);
+        }
+
+        protected int getLength() {
+            return 4;
+        }
+
+        protected void read(DataInput in, int length) throws IOException {
+            value = in.readInt();
+        }
+
+        protected void write(DataOutput out, int length) throws IOException {
+            out.writeInt(value);
+        }
+
+        public void acceptVisit(BCVisitor visit) {
+        }
+    }
 }
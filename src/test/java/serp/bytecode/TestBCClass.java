@@ -3,14 +3,18 @@ package serp.bytecode;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
+import java.util.Arrays;
 
 import org.junit.jupiter.api.Test;
+import serp.bytecode.lowlevel.UTF8Entry;
 
 /**
  * Tests the {@link BCClass} type.
@@ -250,4 +254,159 @@ public class TestBCClass {
         assertEquals(0, interfaces.length);
     }
 
+
+    /**
+     * Test that unmodified classes and members are written back unchanged
+     * and that changes are still picked up.
+     */
+    @Test
+    public void testWriteUnmodified() throws IOException {
+        byte[] orig;
+        try (InputStream in = Integer.class.getResourceAsStream
+            ("Integer.class")) {
+            orig = Project.readFully(in, -1);
+        }
+        assertTrue(Arrays.equals(orig, _bc.toByteArray()));
+
+        // member header changes without touching attributes
+        BCMethod method = _bc.getDeclaredMethods("toString")[0];
+        int access = method.getAccessFlags();
+        method.setFinal(!method.isFinal());
+        BCClass copy = new Project().loadClass(new ByteArrayInputStream
+            (_bc.toByteArray()));
+        assertTrue(access != copy.getDeclaredMethods("toString")[0].
+            getAccessFlags());
+        method.setAccessFlags(access);
+        assertTrue(Arrays.equals(orig, _bc.toByteArray()));
+
+        // code changes in a single method
+        Code code = method.getCode(false);
+        code.beforeFirst();
+        code.nop();
+        byte[] bytes = _bc.toByteArray();
+        assertEquals(orig.length + 1, bytes.length);
+        copy = new Project().loadClass(new ByteArrayInputStream(bytes));
+        assertEquals(Constants.NOP, copy.getDeclaredMethods("toString")[0].
+            getCode(false).getInstructions()[0].getOpcode());
+
+        // pool changes
+        _bc.getPool().findUTF8Entry("serp-test", true);
+        copy = new Project().loadClass(new ByteArrayInputStream
+            (_bc.toByteArray()));
+        assertTrue(copy.getPool().findUTF8Entry("serp-test", false) > 0);
+    }
+
+    /**
+     * Test that removing a pool entry renumbers the class's references to
+     * the entries after it.
+     */
+    @Test
+    public void testCompact() throws Exception {
+        Project project = new Project();
+        BCClass bc = project.loadClass("serp.bytecode.CompactTest");
+        bc.setSuperclass(Object.class);
+        bc.declareInterface(Runnable.class);
+        UTF8Entry dummy = new UTF8Entry("dummy");
+        bc.getPool().addEntry(dummy);
+        bc.addDefaultConstructor();
+
+        BCField field = bc.declareField("_value", String.class);
+        BCMethod run = bc.declareMethod("run", void.class, null);
+        Code code = run.getCode(true);
+        code.aload().setThis();
+        code.constant().setValue("compacted");
+        code.putfield().setField(field);
+        code.vreturn();
+        code.calculateMaxStack();
+        code.calculateMaxLocals();
+
+        BCMethod get = bc.declareMethod("toString", String.class, null);
+        get.getExceptions(true).setExceptions(new Class[] {
+            IllegalStateException.class });
+        code = get.getCode(true);
+        code.aload().setThis();
+        code.getfield().setField(field);
+        code.areturn();
+        code.calculateMaxStack();
+        code.calculateMaxLocals();
+
+        int runName = run.getNameIndex();
+        assertTrue(bc.getPool().removeEntry(dummy));
+        bc.compact();
+        assertEquals(runName - 1, run.getNameIndex());
+        assertEquals("run", run.getName());
+        assertEquals("java.lang.IllegalStateException",
+            get.getExceptions(false).getExceptionNames()[0]);
+
+        BCClass copy = new Project().loadClass(new ByteArrayInputStream
+            (bc.toByteArray()));
+        assertEquals(0, copy.getPool().findUTF8Entry("dummy", false));
+        Class<?> cls = new BCClassLoader(copy.getProject(), 
+            getClass().getClassLoader()).loadClass(copy.getName());
+        Runnable r = (Runnable) cls.getDeclaredConstructor().newInstance();
+        r.run();
+        assertEquals("compacted", r.toString());
+    }
+
+    /**
+     * Test that the pool isn't compacted under attributes whose indexes
+     * can't be updated.
+     */
+    @Test
+    public void testCompactUnknownAttribute() {
+        BCClass bc = new Project().loadClass("serp.bytecode.CompactTest");
+        UnknownAttribute attr = (UnknownAttribute) bc.addAttribute("Vendor");
+        attr.setValue(new byte[]{ 0, 1 });
+        UTF8Entry dummy = new UTF8Entry("dummy");
+        bc.getPool().addEntry(dummy);
+        int after = bc.getPool().findUTF8Entry("after", true);
+        assertTrue(bc.getPool().removeEntry(dummy));
+
+        assertThrows(IllegalStateException.class, () -> bc.compact());
+        assertThrows(IllegalStateException.class, () -> bc.toByteArray());
+        assertTrue(!bc.getPool().isCompact());
+        assertEquals(after, bc.getPool().findUTF8Entry("after", false));
+
+        assertTrue(bc.removeAttribute(attr));
+        bc.compact();
+        assertTrue(bc.getPool().isCompact());
+        assertEquals(after - 1, bc.getPool().findUTF8Entry("after", false));
+    }
+
+    /**
+     * Test removing unreferenced pool entries.
+     */
+    @Test
+    public void testRemoveUnusedEntries() {
+        int size = _bc.getPool().size();
+        _bc.getPool().findMethodEntry("serp.Unused", "unused", "()V", true);
+        int toStrings = _bc.getDeclaredMethods("toString").length;
+        BCMethod method = _bc.getDeclaredMethods("toString")[0];
+        method.setName("toStringRenamed");
+        assertTrue(_bc.getPool().findUTF8Entry("toStringRenamed", false) > 0);
+
+        assertTrue(_bc.removeUnusedEntries() >= 6);
+        assertTrue(_bc.getPool().size() <= size);
+        assertEquals(0, _bc.getPool().findUTF8Entry("serp.Unused", false));
+        assertEquals(0, _bc.getPool().findUTF8Entry("unused", false));
+        assertEquals("toStringRenamed", method.getName());
+        assertEquals(0, _bc.removeUnusedEntries());
+
+        BCClass copy = new Project().loadClass(new ByteArrayInputStream
+            (_bc.toByteArray()));
+        assertEquals(_bc.getDeclaredMethods().length,
+            copy.getDeclaredMethods().length);
+        assertEquals(1, copy.getDeclaredMethods("toStringRenamed").length);
+        assertEquals(toStrings - 1, copy.getDeclaredMethods("toString").
+            length);
+
+        // automatic removal on write
+        Project project = new Project();
+        project.setRemoveUnusedEntries(true);
+        BCClass bc = project.loadClass(Integer.class);
+        bc.getPool().findUTF8Entry("serp-unused", true);
+        copy = new Project().loadClass(new ByteArrayInputStream
+            (bc.toByteArray()));
+        assertEquals(0, copy.getPool().findUTF8Entry("serp-unused", false));
+    }
 }
@@ -0,0 +1,42 @@
+package serp.bytecode;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the {@link ByteArrayDataInput} type.
+ */
+public class TestByteArrayDataInput {
+    /**
+     * Tests that lines are read as by a {@link DataInputStream}.
+     */
+    @Test
+    public void testReadLine() throws IOException {
+        byte[] b = "a\nbc\r\rd\r\n\n\u00e9f".getBytes("ISO-8859-1");
+        ByteArrayDataInput in = new ByteArrayDataInput(b);
+        DataInputStream din = new DataInputStream
+            (new ByteArrayInputStream(b));
+        String line;
+        do {
+            line = din.readLine();
+            assertEquals(line, in.readLine());
+        } while (line != null);
+        assertNull(in.readLine());
+
+        // lines end at the end of the given range
+        in = new ByteArrayDataInput(b, 2, 3);
+        assertEquals("bc", in.readLine());
+        assertEquals(5, in.getOffset());
+        assertNull(in.readLine());
+
+        in = new ByteArrayDataInput(b, 2, 2);
+        assertEquals("bc", in.readLine());
+        assertNull(in.readLine());
+    }
+}
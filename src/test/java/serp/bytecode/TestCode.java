@@ -1,8 +1,15 @@
 package serp.bytecode;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Random;
+
 import org.junit.jupiter.api.Test;
 
 /**
@@ -115,4 +122,333 @@ public class TestCode {
         assertEquals(2, code.previousIndex());
     }
 
+    /**
+     * Test that byte indexes and byte index lookups stay correct as
+     * instructions are added and removed.
+     */
+    @Test
+    public void testByteIndexes() {
+        Code code = new Code();
+        Instruction first = code.nop();
+        JumpInstruction go2 = code.go2();
+        Instruction third = code.nop();
+        go2.setTarget(third);
+        assertEquals(0, first.getByteIndex());
+        assertEquals(1, go2.getByteIndex());
+        assertEquals(4, third.getByteIndex());
+        assertEquals(go2, code.getInstruction(1));
+        assertEquals(third, code.getInstruction(4));
+        assertNull(code.getInstruction(5));
+        assertThrows(IllegalArgumentException.class,
+            () -> code.getInstruction(2));
+
+        // insert a wide instruction before the jump
+        code.before(go2);
+        ConstantInstruction push = code.constant().setValue(1000);
+        assertEquals(1, push.getByteIndex());
+        assertEquals(4, go2.getByteIndex());
+        assertEquals(7, third.getByteIndex());
+        assertEquals(go2, code.getInstruction(4));
+        assertEquals(third, code.getInstruction(7));
+        assertEquals(3, go2.getOffset());
+
+        // remove it again
+        code.before(push);
+        code.next();
+        code.remove();
+        assertEquals(1, go2.getByteIndex());
+        assertEquals(third, code.getInstruction(4));
+    }
+
+    /**
+     * Test that cached byte indexes match the instruction lengths through
+     * a random series of edits, including switches whose padding depends on
+     * their own position.
+     */
+    @Test
+    public void testByteIndexesAfterEdits() {
+        Code code = new Code();
+        Instruction template = new Code().constant().setValue(1000);
+        Random rand = new Random(7);
+        for (int i = 0; i < 2000; i++) {
+            int size = code.size();
+            int op = rand.nextInt(10);
+            if (size > 0 && op < 3) {
+                code.before(rand.nextInt(size));
+                code.next();
+                code.remove();
+            } else if (size > 0 && op < 4) {
+                code.before(rand.nextInt(size));
+                code.next();
+                code.set(template);
+            } else {
+                if (size == 0)
+                    code.beforeFirst();
+                else
+                    code.before(rand.nextInt(size));
+                switch (rand.nextInt(4)) {
+                case 0:
+                    code.nop();
+                    break;
+                case 1:
+                    code.constant().setValue(rand.nextInt(100000));
+                    break;
+                case 2:
+                    code.iload().setLocal(rand.nextInt(8));
+                    break;
+                default:
+                    code.lookupswitch().setDefaultTarget(code.nop());
+                }
+            }
+
+            Instruction[] inss = code.getInstructions();
+            if (inss.length == 0)
+                continue;
+            int idx = rand.nextInt(inss.length);
+            int byteIndex = 0;
+            for (int j = 0; j < idx; j++)
+                byteIndex += inss[j].getLength();
+            assertEquals(byteIndex, inss[idx].getByteIndex());
+            assertEquals(inss[idx], code.getInstruction(byteIndex));
+        }
+    }
+
+    /**
+     * Test that byte indexes stay correct when instructions are inserted
+     * and queried in turn.
+     */
+    @Test
+    public void testInsertThenQuery() {
+        Code code = new Code();
+        for (int i = 0; i < 50000; i++)
+            code.constant().setValue(1000);
+
+        Instruction[] inss = code.getInstructions();
+        for (int i = 0; i < inss.length; i++) {
+            code.before(inss[i]);
+            Instruction probe = code.nop();
+            assertEquals(i * 4, probe.getByteIndex());
+            assertEquals(i * 4 + 1, inss[i].getByteIndex());
+        }
+        assertEquals(200000, code.getLastInstruction().getByteIndex() + 3);
+    }
+
+    /**
+     * Test that lazily parsed code blocks round-trip unchanged when untouched
+     * and parse to the same instructions as eagerly read blocks when used.
+     */
+    @Test
+    public void testLazyCode() {
+        BCClass eager = new Project().loadClass(Code.class);
+        Project project = new Project();
+        project.setLazyCode(true);
+        BCClass lazy = project.loadClass(Code.class);
+        assertTrue(Arrays.equals(eager.toByteArray(), lazy.toByteArray()));
+
+        BCMethod[] eagerMethods = eager.getDeclaredMethods();
+        BCMethod[] lazyMethods = lazy.getDeclaredMethods();
+        assertEquals(eagerMethods.length, lazyMethods.length);
+        for (int i = 0; i < eagerMethods.length; i++) {
+            Code eagerCode = eagerMethods[i].getCode(false);
+            Code lazyCode = lazyMethods[i].getCode(false);
+            if (eagerCode == null) {
+                assertNull(lazyCode);
+                continue;
+            }
+            Instruction[] eagerIns = eagerCode.getInstructions();
+            Instruction[] lazyIns = lazyCode.getInstructions();
+            assertEquals(eagerIns.length, lazyIns.length);
+            for (int j = 0; j < eagerIns.length; j++)
+                assertEquals(eagerIns[j].getByteIndex(), 
+                    lazyIns[j].getByteIndex());
+            assertEquals(eagerCode.getExceptionHandlers().length,
+                lazyCode.getExceptionHandlers().length);
+        }
+        assertTrue(Arrays.equals(eager.toByteArray(), lazy.toByteArray()));
+
+        // edits to a lazily read block take effect
+        Code code = lazy.getDeclaredMethod("getMaxStack").getCode(false);
+        int size = code.size();
+        code.beforeFirst();
+        code.nop();
+        assertEquals(size + 1, code.size());
+        lazy = new Project().loadClass(new ByteArrayInputStream
+            (lazy.toByteArray()));
+        assertEquals(size + 1, lazy.getDeclaredMethod("getMaxStack").
+            getCode(false).size());
+    }
+
+    /**
+     * Test that the max stack follows the control flow of the code.
+     */
+    @Test
+    public void testCalculateMaxStack() {
+        // branches that merge with the same depth
+        Code code = new Code();
+        code.iload().setLocal(0);
+        JumpInstruction ifeq = code.ifeq();
+        code.constant().setValue(1L);
+        JumpInstruction go2 = code.go2();
+        ifeq.setTarget(code.constant().setValue(2L));
+        go2.setTarget(code.lreturn());
+        code.calculateMaxStack();
+        assertEquals(2, code.getMaxStack());
+
+        // handlers are entered with the exception on the stack, and
+        // unreachable code is ignored
+        code = new Code();
+        Instruction start = code.nop();
+        code.vreturn();
+        code.constant().setValue(1);
+        code.constant().setValue(2);
+        code.iadd();
+        code.pop();
+        Instruction handler = code.astore().setLocal(0);
+        code.vreturn();
+        code.addExceptionHandler(start, start, handler, (String) null);
+        code.calculateMaxStack();
+        assertEquals(1, code.getMaxStack());
+    }
+
+    /**
+     * Test that unreachable code is removed along with the ranges that
+     * only covered it.
+     */
+    @Test
+    public void testRemoveUnreachableCode() {
+        BCMethod method = new Project().loadClass("serp.DeadCodeTest").
+            declareMethod("test", void.class, new Class[]{ int.class });
+        method.setStatic(true);
+        Code code = method.getCode(true);
+        Instruction start = code.iload().setParam(0);
+        JumpInstruction ifeq = code.ifeq();
+        Instruction ret = code.vreturn();
+        Instruction dead = code.constant().setValue(1);
+        Instruction pop = code.pop();
+        code.go2().setTarget(dead);
+        Instruction live = code.nop();
+        code.vreturn();
+        Instruction handler = code.astore().setLocal(0);
+        code.vreturn();
+        Instruction tail = code.nop();
+        ifeq.setTarget(live);
+
+        ExceptionHandler inDead = code.addExceptionHandler(dead, pop,
+            handler, (String) null);
+        ExceptionHandler trimmed = code.addExceptionHandler(start, pop,
+            handler, (String) null);
+        ExceptionHandler inTail = code.addExceptionHandler(tail, tail,
+            handler, (String) null);
+        LineNumberTable lines = code.getLineNumberTable(true);
+        lines.addLineNumber(start, 10);
+        lines.addLineNumber(dead, 11);
+        lines.addLineNumber(pop, 12);
+        lines.addLineNumber(tail, 13);
+        LocalVariableTable locals = code.getLocalVariableTable(true);
+        LocalVariable x = locals.addLocalVariable("x", int.class);
+        x.setStart(dead);
+        x.setEnd(live);
+        LocalVariable y = locals.addLocalVariable("y", int.class);
+        y.setStart(tail);
+        y.setEnd(tail);
+
+        assertEquals(4, code.removeUnreachableCode());
+        assertEquals(7, code.size());
+        assertTrue(dead.getCode() == null);
+        assertEquals(live, ifeq.getTarget());
+        assertEquals(1, code.getExceptionHandlers().length);
+        assertTrue(inDead.getCode() == null);
+        assertTrue(inTail.getCode() == null);
+        assertEquals(start, trimmed.getTryStart());
+        assertEquals(ret, trimmed.getTryEnd());
+        assertEquals(handler, trimmed.getHandlerStart());
+
+        // the last line before the live code moves to it
+        LineNumber[] numbers = lines.getLineNumbers();
+        assertEquals(2, numbers.length);
+        assertEquals(10, numbers[0].getLine());
+        assertEquals(12, numbers[1].getLine());
+        assertEquals(live, numbers[1].getStart());
+        assertEquals(1, locals.getLocals().length);
+        assertEquals(live, x.getStart());
+        assertEquals(live, x.getEnd());
+        assertEquals(0, code.removeUnreachableCode());
+    }
+
+    /**
+     * Test that jumps whose offsets overflow a signed short are written in
+     * their wide forms, and narrowed again when the code shrinks.
+     */
+    @Test
+    public void testRelaxBranches() throws Exception {
+        // a Java 8 class, so that the jumps are verified against frames
+        BCClass bc = new Project().loadClass("serp.RelaxTest");
+        bc.setMajorVersion(52);
+        BCMethod method = bc.declareMethod("test", int.class,
+            new Class[]{ int.class });
+        method.setStatic(true);
+        Code code = method.getCode(true);
+        Instruction start = code.iload().setParam(0);
+        JumpInstruction ifeq = code.ifeq();
+        code.iload().setParam(0);
+        TableSwitchInstruction pad = code.tableswitch();
+        Instruction after = code.iload().setParam(0);
+        code.ireturn();
+        ifeq.setTarget(code.constant().setValue(2));
+        code.istore().setParam(0);
+        JumpInstruction loop = code.go2().setTarget(start);
+        setCases(pad, 9000, after);
+        code.calculateMaxStack();
+        code.calculateMaxLocals();
+
+        // the conditional becomes the inverted branch over a goto_w
+        BCClass copy = new Project().loadClass(new ByteArrayInputStream
+            (bc.toByteArray()));
+        Code wide = copy.getDeclaredMethod("test").getCode(false);
+        Instruction[] ins = wide.getInstructions();
+        assertEquals(Constants.IFNE, ins[1].getOpcode());
+        assertEquals(Constants.GOTOW, ins[2].getOpcode());
+        assertEquals(ins[3], ((JumpInstruction) ins[1]).getTarget());
+        assertEquals(Constants.ICONST2, ((JumpInstruction) ins[2]).
+            getTarget().getOpcode());
+        assertEquals(Constants.GOTOW, ins[ins.length - 1].getOpcode());
+        assertTrue(ifeq.isWide());
+        assertTrue(loop.isWide());
+        assertEquals(Constants.IFEQ, ifeq.getOpcode());
+        assertEquals(Constants.GOTO, loop.getOpcode());
+        assertEquals(2, invoke(bc, 0));
+        assertEquals(5, invoke(bc, 5));
+
+        // narrow the jumps again once the switch is shrunk
+        setCases((TableSwitchInstruction) ins[4], 1, ins[5]);
+        copy = new Project().loadClass(new ByteArrayInputStream
+            (copy.toByteArray()));
+        ins = copy.getDeclaredMethod("test").getCode(false).getInstructions();
+        assertEquals(Constants.GOTO, ins[2].getOpcode());
+        assertEquals(Constants.GOTO, ins[9].getOpcode());
+        assertEquals(2, invoke(copy, 0));
+
+        setCases(pad, 1, after);
+        assertEquals(2, invoke(bc, 0));
+        assertTrue(!ifeq.isWide());
+        assertTrue(!loop.isWide());
+    }
+
+    /**
+     * Give the switch the given number of cases, all jumping to the target.
+     */
+    private static void setCases(TableSwitchInstruction ins, int cases,
+        Instruction target) {
+        Instruction[] targets = new Instruction[cases];
+        Arrays.fill(targets, target);
+        ins.setLow(0).setHigh(cases - 1).setTargets(targets).
+            setDefaultTarget(target);
+    }
+
+    private static int invoke(BCClass bc, int arg) throws Exception {
+        Class<?> cls = new BCClassLoader(bc.getProject(),
+            TestCode.class.getClassLoader()).loadClass(bc.getName());
+        Method method = cls.getDeclaredMethod("test", int.class);
+        return ((Integer) method.invoke(null, arg)).intValue();
+    }
 }
@@ -0,0 +1,149 @@
+package serp.bytecode;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the {@link ControlFlowGraph} of a {@link Code} block.
+ */
+public class TestControlFlowGraph {
+    /**
+     * Test the blocks and normal edges of branching code.
+     */
+    @Test
+    public void testBlocks() {
+        Code code = new Code();
+        code.iload().setLocal(0);
+        JumpInstruction ifeq = code.ifeq();
+        code.constant().setValue(1);
+        JumpInstruction go2 = code.go2();
+        Instruction other = code.constant().setValue(2);
+        Instruction ret = code.ireturn();
+        ifeq.setTarget(other);
+        go2.setTarget(ret);
+
+        ControlFlowGraph cfg = code.getControlFlowGraph();
+        BasicBlock[] blocks = cfg.getBlocks();
+        assertEquals(4, blocks.length);
+        assertEquals(0, blocks[0].getStart());
+        assertEquals(2, blocks[0].getEnd());
+        assertEquals(ifeq, blocks[0].getLastInstruction());
+        assertEquals(other, blocks[2].getFirstInstruction());
+        assertEquals(1, blocks[3].size());
+
+        assertArrayEquals(new BasicBlock[]{ blocks[1], blocks[2] },
+            blocks[0].getSuccessors());
+        assertArrayEquals(new BasicBlock[]{ blocks[3] },
+            blocks[1].getSuccessors());
+        assertArrayEquals(new BasicBlock[]{ blocks[3] },
+            blocks[2].getSuccessors());
+        assertEquals(0, blocks[3].getSuccessors().length);
+        assertArrayEquals(new BasicBlock[]{ blocks[1], blocks[2] },
+            blocks[3].getPredecessors());
+        assertEquals(0, blocks[0].getPredecessors().length);
+
+        assertTrue(blocks[0].isFallThrough());
+        assertTrue(!blocks[1].isFallThrough());
+        assertTrue(blocks[2].isJumpTarget());
+        assertTrue(!blocks[1].isJumpTarget());
+        assertEquals(blocks[2], cfg.getBlock(other));
+        assertNull(cfg.getBlock(new Code().nop()));
+    }
+
+    /**
+     * Test the edges of switches.
+     */
+    @Test
+    public void testSwitch() {
+        Code code = new Code();
+        code.iload().setLocal(0);
+        TableSwitchInstruction sw = code.tableswitch();
+        Instruction one = code.constant().setValue(1);
+        Instruction two = code.constant().setValue(2);
+        Instruction ret = code.ireturn();
+        sw.setLow(0);
+        sw.setHigh(2);
+        sw.setDefaultTarget(ret);
+        sw.setTargets(new Instruction[]{ one, two, one });
+
+        BasicBlock[] blocks = code.getControlFlowGraph().getBlocks();
+        assertEquals(4, blocks.length);
+        assertArrayEquals(new BasicBlock[]{ blocks[3], blocks[1], blocks[2] },
+            blocks[0].getSuccessors());
+        assertArrayEquals(new BasicBlock[]{ blocks[0], blocks[2] },
+            blocks[3].getPredecessors());
+        assertArrayEquals(new BasicBlock[]{ blocks[0] },
+            blocks[1].getPredecessors());
+    }
+
+    /**
+     * Test that try ranges split blocks and add exceptional edges.
+     */
+    @Test
+    public void testExceptionHandlers() {
+        Code code = new Code();
+        Instruction before = code.nop();
+        Instruction start = code.nop();
+        Instruction end = code.nop();
+        Instruction after = code.vreturn();
+        Instruction handle = code.athrow();
+        ExceptionHandler handler = code.addExceptionHandler(start, end,
+            handle, (String) null);
+
+        ControlFlowGraph cfg = code.getControlFlowGraph();
+        BasicBlock[] blocks = cfg.getBlocks();
+        assertEquals(4, blocks.length);
+        assertEquals(before, blocks[0].getLastInstruction());
+        assertEquals(start, blocks[1].getFirstInstruction());
+        assertEquals(end, blocks[1].getLastInstruction());
+        assertEquals(after, blocks[2].getFirstInstruction());
+        assertTrue(blocks[3].isExceptionHandler());
+
+        assertEquals(0, blocks[0].getExceptionSuccessors().length);
+        assertArrayEquals(new ExceptionHandler[]{ handler },
+            blocks[1].getExceptionHandlers());
+        assertArrayEquals(new BasicBlock[]{ blocks[3] },
+            blocks[1].getExceptionSuccessors());
+        assertArrayEquals(new BasicBlock[]{ blocks[1] },
+            blocks[3].getExceptionPredecessors());
+        assertEquals(0, blocks[3].getPredecessors().length);
+    }
+
+    /**
+     * Test that the graph is cached until the code changes.
+     */
+    @Test
+    public void testCaching() {
+        Code code = new Code();
+        JumpInstruction ifeq = code.ifeq();
+        Instruction first = code.nop();
+        Instruction second = code.vreturn();
+        ifeq.setTarget(second);
+
+        ControlFlowGraph cfg = code.getControlFlowGraph();
+        assertTrue(cfg == code.getControlFlowGraph());
+
+        ifeq.setTarget(first);
+        assertTrue(cfg != code.getControlFlowGraph());
+        cfg = code.getControlFlowGraph();
+        assertEquals(2, cfg.getBlockCount());
+
+        code.afterLast();
+        code.previous();
+        code.go2().setTarget(first);
+        assertTrue(cfg != code.getControlFlowGraph());
+        cfg = code.getControlFlowGraph();
+        assertEquals(3, cfg.getBlockCount());
+
+        code.addExceptionHandler(first, first, second, (String) null);
+        assertTrue(cfg != code.getControlFlowGraph());
+        cfg = code.getControlFlowGraph();
+
+        code.removeExceptionHandler(code.getExceptionHandlers()[0]);
+        assertTrue(cfg != code.getControlFlowGraph());
+    }
+}
@@ -0,0 +1,273 @@
+package serp.bytecode;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static serp.bytecode.TestPeepholeOptimizer.assertOpcodes;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the {@link Inliner}.
+ */
+public class TestInliner implements Constants {
+    /**
+     * Test inlining a static method, storing its arguments to new locals.
+     */
+    @Test
+    public void testStatic() throws Exception {
+        BCClass bc = newClass();
+        BCMethod add = bc.declareMethod("add", int.class,
+            new Class[]{ int.class, int.class });
+        add.setStatic(true);
+        Code body = add.getCode(true);
+        body.iload().setParam(0);
+        body.iload().setParam(1);
+        body.iadd();
+        body.ireturn();
+        body.calculateMaxStack();
+        body.calculateMaxLocals();
+
+        Code code = newCaller(bc, true);
+        code.iload().setParam(0);
+        code.constant().setValue(1);
+        code.invokestatic().setMethod(add);
+        code.ireturn();
+
+        assertEquals(1, new Inliner().inline(code));
+        assertOpcodes(code, new int[]{ ILOAD0, ICONST1, ISTORE2, ISTORE1,
+            ILOAD1, ILOAD2, IADD, IRETURN });
+        assertEquals(3, code.getMaxLocals());
+        assertEquals(2, code.getMaxStack());
+        assertEquals(6, invoke(bc, "caller", 5));
+    }
+
+    /**
+     * Test that returns jump past the inlined code and that exception
+     * handlers and line numbers are merged.
+     */
+    @Test
+    public void testReturnsAndTables() throws Exception {
+        BCClass bc = newClass();
+        BCMethod abs = bc.declareMethod("abs", int.class,
+            new Class[]{ int.class });
+        abs.makePrivate();
+        Code body = abs.getCode(true);
+        Instruction load = body.iload().setParam(0);
+        JumpInstruction ifge = body.ifge();
+        body.iload().setParam(0);
+        body.ineg();
+        body.ireturn();
+        Instruction positive = body.iload().setParam(0);
+        Instruction ret = body.ireturn();
+        Instruction handler = body.pop();
+        body.constant().setValue(0);
+        body.ireturn();
+        ifge.setTarget(positive);
+        body.addExceptionHandler(load, ret, handler, (String) null);
+        body.getLineNumberTable(true).addLineNumber(load, 20);
+        body.calculateMaxStack();
+        body.calculateMaxLocals();
+
+        Code code = newCaller(bc, false);
+        Instruction start = code.aload().setThis();
+        code.iload().setParam(0);
+        code.invokespecial().setMethod(abs);
+        Instruction after = code.ireturn();
+        Instruction catcher = code.pop();
+        code.constant().setValue(-1);
+        code.ireturn();
+        ExceptionHandler outer = code.addExceptionHandler(start, after,
+            catcher, (String) null);
+        code.getLineNumberTable(true).addLineNumber(start, 10);
+
+        assertEquals(1, new Inliner().inline(code));
+        Instruction[] ins = code.getInstructions();
+        assertOpcodes(code, new int[]{ ALOAD0, ILOAD1, ISTORE3, ASTORE2,
+            ALOAD2, INVOKEVIRTUAL, POP, ILOAD3, IFGE, ILOAD3, INEG, GOTO,
+            ILOAD3, GOTO, POP, ICONST0, IRETURN, POP, ICONSTM1, IRETURN });
+        assertEquals(after, ((JumpInstruction) ins[11]).getTarget());
+        assertEquals(after, ((JumpInstruction) ins[13]).getTarget());
+        assertEquals(ins[12], ((JumpInstruction) ins[8]).getTarget());
+
+        // the callee's handler comes first
+        ExceptionHandler[] handlers = code.getExceptionHandlers();
+        assertEquals(2, handlers.length);
+        assertEquals(ins[7], handlers[0].getTryStart());
+        assertEquals(ins[13], handlers[0].getTryEnd());
+        assertEquals(ins[14], handlers[0].getHandlerStart());
+        assertEquals(outer, handlers[1]);
+        assertEquals(start, outer.getTryStart());
+        assertEquals(after, outer.getTryEnd());
+
+        LineNumber[] lines = code.getLineNumberTable(false).getLineNumbers();
+        assertEquals(3, lines.length);
+        assertEquals(ins[7], lines[1].getStart());
+        assertEquals(20, lines[1].getLine());
+        assertEquals(after, lines[2].getStart());
+        assertEquals(10, lines[2].getLine());
+
+        assertEquals(3, invoke(bc, "caller", -3));
+        assertEquals(4, invoke(bc, "caller", 4));
+    }
+
+    /**
+     * Test that the inlined code behaves as the call did: the callee's
+     * handlers catch its exceptions before the caller's, and a null
+     * receiver still throws before the body runs.
+     */
+    @Test
+    public void testExecution() throws Exception {
+        BCClass bc = newClass();
+        BCMethod div = bc.declareMethod("div", int.class,
+            new Class[]{ int.class });
+        div.makePrivate();
+        Code body = div.getCode(true);
+        Instruction start = body.constant().setValue(10);
+        body.iload().setParam(0);
+        body.idiv();
+        Instruction end = body.ireturn();
+        Instruction handler = body.pop();
+        body.constant().setValue(-1);
+        body.ireturn();
+        body.addExceptionHandler(start, end, handler,
+            ArithmeticException.class);
+        body.calculateMaxStack();
+        body.calculateMaxLocals();
+
+        // calls on this and on null, both guarded by a catch-all
+        Code[] callers = new Code[2];
+        Instruction first, last, catcher;
+        for (int i = 0; i < callers.length; i++) {
+            callers[i] = bc.declareMethod((i == 0) ? "caller" : "nullCaller",
+                int.class, new Class[]{ int.class }).getCode(true);
+            if (i == 0)
+                first = callers[i].aload().setThis();
+            else
+                first = callers[i].constant().setNull();
+            callers[i].iload().setParam(0);
+            callers[i].invokespecial().setMethod(div);
+            last = callers[i].ireturn();
+            catcher = callers[i].pop();
+            callers[i].constant().setValue(-2);
+            callers[i].ireturn();
+            callers[i].addExceptionHandler(first, last, catcher,
+                (String) null);
+            callers[i].calculateMaxStack();
+            callers[i].calculateMaxLocals();
+        }
+        assertEquals(-2, invoke(bc, "nullCaller", 2));
+
+        assertEquals(1, new Inliner().inline(callers[0]));
+        assertEquals(1, new Inliner().inline(callers[1]));
+        assertEquals(5, invoke(bc, "caller", 2));
+        assertEquals(-1, invoke(bc, "caller", 0));
+        assertEquals(-2, invoke(bc, "nullCaller", 2));
+    }
+
+    /**
+     * Test that inlining an empty method at the start of the code removes
+     * the handlers that covered only the call.
+     */
+    @Test
+    public void testEmptyAtStart() {
+        BCClass bc = new Project().loadClass("serp.InlineTest");
+        BCMethod empty = declareVoid(bc, "empty", true);
+
+        Code code = newCaller(bc, true);
+        Instruction call = code.invokestatic().setMethod(empty);
+        Instruction one = code.constant().setValue(1);
+        code.ireturn();
+        Instruction catcher = code.pop();
+        code.constant().setValue(0);
+        code.ireturn();
+        ExceptionHandler handler = code.addExceptionHandler(call, call,
+            catcher, (String) null);
+
+        assertEquals(1, new Inliner().inline(code));
+        assertEquals(one, code.getInstructions()[0]);
+        assertEquals(0, code.getExceptionHandlers().length);
+        assertTrue(handler.getCode() == null);
+    }
+
+    /**
+     * Test the calls that are left alone.
+     */
+    @Test
+    public void testNotInlined() {
+        BCClass bc = new Project().loadClass("serp.InlineTest");
+        BCMethod virtual = declareVoid(bc, "virtual", false);
+        BCMethod sync = declareVoid(bc, "sync", true);
+        sync.setSynchronized(true);
+        BCMethod big = declareVoid(bc, "big", true);
+        big.getCode(false).beforeFirst();
+        for (int i = 0; i < 10; i++)
+            big.getCode(false).nop();
+        BCMethod small = declareVoid(bc, "small", true);
+
+        Code code = newCaller(bc, false);
+        code.aload().setThis();
+        code.invokevirtual().setMethod(virtual);
+        code.invokestatic().setMethod(sync);
+        code.invokestatic().setMethod(big);
+        code.invokestatic().setMethod(Math.class, "random", double.class,
+            null);
+        code.pop2();
+        code.invokestatic().setMethod(small);
+        code.constant().setValue(0);
+        code.ireturn();
+
+        Map<BCMethod, Integer> inlined = new Inliner(10).inline(bc);
+        assertEquals(1, inlined.size());
+        assertEquals(Integer.valueOf(1), inlined.get(code.getMethod()));
+        assertEquals(8, code.size());
+        assertEquals(ICONST0, code.getInstructions()[6].getOpcode());
+
+        // a larger budget takes the big method too
+        assertEquals(1, new Inliner(11).inline(code));
+    }
+
+    /**
+     * Return a new Java 8 class, so that its code is verified against its
+     * frames, with a default constructor.
+     */
+    private static BCClass newClass() {
+        BCClass bc = new Project().loadClass("serp.InlineTest");
+        bc.setMajorVersion(52);
+        bc.addDefaultConstructor();
+        return bc;
+    }
+
+    /**
+     * Load the class and invoke the given method, on a new instance if it
+     * isn't static.
+     */
+    private static int invoke(BCClass bc, String name, int arg)
+        throws Exception {
+        Class<?> cls = new BCClassLoader(bc.getProject(),
+            TestInliner.class.getClassLoader()).loadClass(bc.getName());
+        Method method = cls.getDeclaredMethod(name, int.class);
+        Object target = null;
+        if (!Modifier.isStatic(method.getModifiers()))
+            target = cls.getDeclaredConstructor().newInstance();
+        return ((Integer) method.invoke(target, arg)).intValue();
+    }
+
+    private static Code newCaller(BCClass bc, boolean isStatic) {
+        BCMethod method = bc.declareMethod("caller", int.class,
+            new Class[]{ int.class });
+        method.setStatic(isStatic);
+        return method.getCode(true);
+    }
+
+    private static BCMethod declareVoid(BCClass bc, String name,
+        boolean isStatic) {
+        BCMethod method = bc.declareMethod(name, void.class, null);
+        method.setStatic(isStatic);
+        method.getCode(true).vreturn();
+        return method;
+    }
+}
@@ -0,0 +1,229 @@
+package serp.bytecode;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the {@link PatternRewriter} and its {@link InstructionPattern}s.
+ */
+public class TestPatternRewriter implements Constants {
+    /**
+     * Test replacing a store followed by a load of the same local.
+     */
+    @Test
+    public void testSameOperand() {
+        Code code = new Code();
+        JumpInstruction go2 = code.go2();
+        Instruction store = code.istore().setLocal(1);
+        code.iload().setLocal(1);
+        code.istore().setLocal(2);
+        code.iload().setLocal(1);
+        code.vreturn();
+        go2.setTarget(store);
+
+        PatternRewriter rewriter = new PatternRewriter().addRule
+            (new InstructionPattern().opcode(ISTORE).capture("store").
+            opcode(ILOAD).sameOperand("store"), new PatternReplacement() {
+                public void replace(Code code, PatternMatch match) {
+                    code.dup();
+                    code.add(match.getInstruction("store"));
+                }
+            });
+        assertEquals(1, rewriter.findMatches(code).length);
+        assertEquals(1, rewriter.rewrite(code));
+
+        Instruction[] ins = code.getInstructions();
+        assertEquals(6, ins.length);
+        assertEquals(DUP, ins[1].getOpcode());
+        assertEquals(1, ((LocalVariableInstruction) ins[2]).getLocal());
+        assertEquals(ins[1], go2.getTarget());
+        assertTrue(ins[3] instanceof StoreInstruction);
+        assertEquals(0, rewriter.rewrite(code));
+    }
+
+    /**
+     * Test that all patterns are matched in one pass, preferring the
+     * leftmost and then the longest match.
+     */
+    @Test
+    public void testOverlap() {
+        Code code = new Code();
+        code.nop();
+        code.constant().setValue(1);
+        code.pop();
+        code.nop();
+        code.nop();
+        code.vreturn();
+
+        PatternReplacement delete = new PatternReplacement() {
+            public void replace(Code code, PatternMatch match) {
+            }
+        };
+        InstructionPattern pair = new InstructionPattern().opcode(NOP).
+            opcode(NOP);
+        PatternRewriter rewriter = new PatternRewriter().
+            addRule(new InstructionPattern().opcode(NOP), delete).
+            addRule(new InstructionPattern().opcode(ICONST0, ICONST1).
+            opcode(POP), delete).
+            addRule(pair, null);
+
+        PatternMatch[] matches = rewriter.findMatches(code);
+        assertEquals(3, matches.length);
+        assertEquals(0, matches[0].getIndex());
+        assertEquals(1, matches[1].getIndex());
+        assertEquals(2, matches[1].size());
+        assertEquals(pair, matches[2].getPattern());
+        assertEquals(matches[2].getInstruction(1).getOpcode(), NOP);
+        assertEquals(code.getInstructions()[5],
+            matches[2].getNextInstruction());
+
+        // the pair has no replacement and stays
+        assertEquals(2, rewriter.rewrite(code));
+        assertEquals(3, code.size());
+        assertEquals(NOP, code.getInstructions()[0].getOpcode());
+    }
+
+    /**
+     * Test that matches do not span jump targets and honor conditions.
+     */
+    @Test
+    public void testEntries() {
+        Code code = new Code();
+        Instruction push = code.constant().setValue(1);
+        Instruction pop = code.pop();
+        JumpInstruction ifeq = code.ifeq();
+        code.constant().setValue(2);
+        code.pop();
+        code.vreturn();
+        ifeq.setTarget(pop);
+
+        PatternRewriter rewriter = new PatternRewriter().addRule
+            (new InstructionPattern().opcode(ICONST1, ICONST2).opcode(POP),
+            null);
+        PatternMatch[] matches = rewriter.findMatches(code);
+        assertEquals(1, matches.length);
+        assertEquals(3, matches[0].getIndex());
+
+        rewriter = new PatternRewriter().addRule(new InstructionPattern().
+            any().where(new MatchCondition() {
+                public boolean matches(Instruction ins, PatternMatch match) {
+                    return ins.getStackChange() > 0;
+                }
+            }).capture("push").opcode(POP), null);
+        matches = rewriter.findMatches(code);
+        assertEquals(1, matches.length);
+        assertEquals(Integer.valueOf(2), ((ConstantInstruction) matches[0].
+            getInstruction("push")).getValue());
+        assertTrue(push.getCode() == code);
+    }
+
+    /**
+     * Test that exception handler, line number and local ranges follow the
+     * rewritten instructions.
+     */
+    @Test
+    public void testRanges() {
+        BCMethod method = new Project().loadClass("serp.PatternTest").
+            declareMethod("test", void.class, new Class[]{ int.class });
+        method.setStatic(true);
+        Code code = method.getCode(true);
+        Instruction first = code.nop();
+        Instruction start = code.constant().setValue(1);
+        Instruction pop = code.pop();
+        Instruction inner = code.iload().setLocal(0);
+        Instruction end = code.pop();
+        Instruction ret = code.vreturn();
+        Instruction handle = code.pop();
+        code.vreturn();
+        ExceptionHandler all = code.addExceptionHandler(start, end, handle,
+            (String) null);
+        ExceptionHandler empty = code.addExceptionHandler(start, pop,
+            handle, (String) null);
+        code.getLineNumberTable(true).addLineNumber(inner, 7);
+        LocalVariable local = code.getLocalVariableTable(true).
+            addLocalVariable("x", int.class);
+        local.setStart(start);
+        local.setEnd(end);
+
+        PatternRewriter rewriter = new PatternRewriter().addRule
+            (new InstructionPattern().opcode(ICONST1, ILOAD).opcode(POP),
+            new PatternReplacement() {
+                public void replace(Code code, PatternMatch match) {
+                    if (match.getInstruction(0) instanceof LoadInstruction)
+                        code.nop();
+                }
+            });
+        assertEquals(2, rewriter.rewrite(code));
+
+        Instruction nop = code.getInstructions()[1];
+        assertEquals(5, code.size());
+        assertEquals(1, code.getExceptionHandlers().length);
+        assertEquals(all, code.getExceptionHandlers()[0]);
+        assertEquals(nop, all.getTryStart());
+        assertEquals(nop, all.getTryEnd());
+        assertEquals(nop, code.getLineNumberTable(false).getLineNumbers()[0].
+            getStart());
+        assertEquals(nop, local.getStart());
+        assertEquals(nop, local.getEnd());
+        assertTrue(empty.getCode() == null);
+        assertEquals(first, code.getInstructions()[0]);
+        assertEquals(ret, code.getInstructions()[2]);
+    }
+
+    /**
+     * Test that handlers and locals whose whole range is deleted from the
+     * start of the code are removed rather than moved past it.
+     */
+    @Test
+    public void testRangesAtStart() {
+        BCMethod method = new Project().loadClass("serp.PatternTest").
+            declareMethod("test", int.class, null);
+        method.setStatic(true);
+        Code code = method.getCode(true);
+        Instruction nop = code.nop();
+        Instruction one = code.constant().setValue(1);
+        code.ireturn();
+        Instruction handle = code.pop();
+        code.constant().setValue(0);
+        code.ireturn();
+        ExceptionHandler handler = code.addExceptionHandler(nop, nop, handle,
+            (String) null);
+        LocalVariable local = code.getLocalVariableTable(true).
+            addLocalVariable("x", int.class);
+        local.setStart(nop);
+        local.setEnd(nop);
+
+        PatternRewriter rewriter = new PatternRewriter().addRule
+            (new InstructionPattern().opcode(NOP), new PatternReplacement() {
+                public void replace(Code code, PatternMatch match) {
+                }
+            });
+        assertEquals(1, rewriter.rewrite(code));
+        assertEquals(one, code.getInstructions()[0]);
+        assertEquals(0, code.getExceptionHandlers().length);
+        assertTrue(handler.getCode() == null);
+        assertEquals(0, code.getLocalVariableTable(false).
+            getLocalVariables().length);
+    }
+
+    /**
+     * Test pattern construction errors.
+     */
+    @Test
+    public void testInvalid() {
+        assertThrows(IllegalStateException.class,
+            () -> new InstructionPattern().capture("x"));
+        assertThrows(IllegalArgumentException.class,
+            () -> new InstructionPattern().opcode(256));
+        assertThrows(IllegalArgumentException.class,
+            () -> new PatternRewriter().addRule(new InstructionPattern(),
+            null));
+        PatternRewriter rewriter = new PatternRewriter().addRule
+            (new InstructionPattern().any().sameOperand("x"), null);
+        assertThrows(IllegalArgumentException.class,
+            () -> rewriter.findMatches(new Code()));
+    }
+}
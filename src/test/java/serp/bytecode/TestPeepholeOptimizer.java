@@ -0,0 +1,242 @@
+package serp.bytecode;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the {@link PeepholeOptimizer}.
+ */
+public class TestPeepholeOptimizer implements Constants {
+    /**
+     * Test removing and shortening stores followed by loads.
+     */
+    @Test
+    public void testStoreLoad() {
+        Code code = newCode(int.class, int.class);
+        code.iload().setParam(0);
+        code.istore().setLocal(5);
+        code.iload().setLocal(5);
+        code.ireturn();
+        assertEquals(4, new PeepholeOptimizer().optimize(code));
+        assertOpcodes(code, new int[]{ ILOAD0, IRETURN });
+
+        code = newCode(long.class, long.class);
+        code.lload().setParam(0);
+        code.lstore().setLocal(5);
+        code.lload().setLocal(5);
+        code.lload().setLocal(5);
+        code.ladd();
+        code.lreturn();
+        // the store and remaining load become dead after the first pass
+        assertEquals(5, new PeepholeOptimizer().optimize(code));
+        assertOpcodes(code, new int[]{ LLOAD0, DUP2, LADD, LRETURN });
+        assertEquals(4, code.getMaxStack());
+
+        // locals in the local variable table are kept
+        code = newCode(int.class, int.class);
+        code.iload().setParam(0);
+        Instruction store = code.istore().setLocal(1);
+        code.iload().setLocal(1);
+        Instruction ret = code.ireturn();
+        LocalVariable var = code.getLocalVariableTable(true).
+            addLocalVariable("x", int.class);
+        var.setLocal(1);
+        var.setStart(store);
+        var.setEnd(ret);
+        assertEquals(0, new PeepholeOptimizer().optimize(code));
+        assertEquals(4, code.size());
+    }
+
+    /**
+     * Test collapsing goto chains and removing gotos to the next
+     * instruction.
+     */
+    @Test
+    public void testGotos() {
+        Code code = newCode(void.class, int.class);
+        code.iload().setParam(0);
+        JumpInstruction ifeq = code.ifeq();
+        JumpInstruction go1 = code.go2();
+        JumpInstruction go2 = code.go2();
+        Instruction ret = code.vreturn();
+        Instruction other = code.vreturn();
+        ifeq.setTarget(go2);
+        go1.setTarget(go2);
+        go2.setTarget(ret);
+
+        // goto chains alone only retarget
+        assertEquals(0, new PeepholeOptimizer(PeepholeOptimizer.GOTO_CHAIN).
+            optimize(code));
+        assertEquals(ret, ifeq.getTarget());
+        assertEquals(ret, go1.getTarget());
+        assertEquals(6, code.size());
+
+        assertEquals(6, new PeepholeOptimizer().optimize(code));
+        assertOpcodes(code, new int[]{ ILOAD0, IFEQ, RETURN, RETURN });
+        assertEquals(ret, ifeq.getTarget());
+        assertTrue(other.getCode() == code);
+    }
+
+    /**
+     * Test removing pushes that are popped and redundant casts.
+     */
+    @Test
+    public void testPushPopAndCasts() {
+        Code code = newCode(Object.class, Object.class);
+        Instruction push = code.constant().setValue(1);
+        code.pop();
+        code.constant().setValue(2L);
+        code.pop2();
+        code.constant().setValue(String.class);
+        code.pop();
+        Instruction load = code.aload().setParam(0);
+        code.checkcast().setType(String.class);
+        code.checkcast().setType(String.class);
+        code.checkcast().setType(Object.class);
+        code.constant().setNull();
+        code.checkcast().setType(String.class);
+        code.pop();
+        code.areturn();
+        LineNumberTable lines = code.getLineNumberTable(true);
+        lines.addLineNumber(push, 10);
+        lines.addLineNumber(load, 11);
+
+        assertEquals(17, new PeepholeOptimizer().optimize(code));
+        assertOpcodes(code, new int[]{ LDCW, POP, ALOAD0, CHECKCAST,
+            ARETURN });
+        assertEquals(code.getInstructions()[0], lines.getLineNumbers()[0].
+            getStart());
+        assertEquals(load, lines.getLineNumbers()[1].getStart());
+    }
+
+    /**
+     * Test evaluating operations on constants.
+     */
+    @Test
+    public void testConstantFolding() {
+        PeepholeOptimizer optimizer = new PeepholeOptimizer
+            (PeepholeOptimizer.CONSTANT_FOLDING);
+        Code code = newCode(long.class, int.class);
+        code.constant().setValue(2);
+        code.constant().setValue(300);
+        code.imul();
+        code.constant().setValue(1);
+        code.iadd();
+        code.convert().setFromType(int.class).setType(long.class);
+        code.lreturn();
+        optimizer.optimize(code);
+        assertOpcodes(code, new int[]{ LDC2W, LRETURN });
+        assertEquals(Long.valueOf(601), ((ConstantInstruction) code.
+            getInstructions()[0]).getValue());
+        assertEquals(2, code.getMaxStack());
+
+        // results keep the sign of zero, and division by zero is left to
+        // throw
+        code = newCode(float.class, int.class);
+        code.constant().setValue(0F);
+        code.fneg();
+        code.freturn();
+        code.constant().setValue(1);
+        code.constant().setValue(0);
+        code.idiv();
+        code.ireturn();
+        optimizer.optimize(code);
+        Instruction[] ins = code.getInstructions();
+        assertEquals(LDC, ins[0].getOpcode());
+        assertEquals(Float.valueOf(-0F), ((ConstantInstruction) ins[0]).
+            getValue());
+        assertEquals(IDIV, ins[4].getOpcode());
+
+        // comparisons with NaN, and string concatenation
+        code = newCode(Object.class, int.class);
+        code.constant().setValue(Double.NaN);
+        code.constant().setValue(1D);
+        code.xcmp().setType(double.class);
+        code.pop();
+        code.constant().setValue("a");
+        code.constant().setValue("b");
+        code.invokevirtual().setMethod(String.class, "concat", String.class,
+            new Class[]{ String.class });
+        code.areturn();
+        optimizer.optimize(code);
+        ins = code.getInstructions();
+        assertEquals(ICONST1, ins[0].getOpcode());
+        assertEquals("ab", ((ConstantInstruction) ins[2]).getValue());
+        assertEquals(4, code.size());
+    }
+
+    /**
+     * Test replacing conditional jumps on constants.
+     */
+    @Test
+    public void testConstantBranches() {
+        Code code = newCode(int.class, int.class);
+        code.constant().setValue(3);
+        JumpInstruction iflt = code.iflt();
+        code.constant().setValue(3);
+        code.constant().setValue(4);
+        JumpInstruction ificmplt = code.ificmplt();
+        code.constant().setValue(5);
+        code.ireturn();
+        Instruction taken = code.constant().setValue(6);
+        code.ireturn();
+        iflt.setTarget(taken);
+        ificmplt.setTarget(taken);
+
+        new PeepholeOptimizer(PeepholeOptimizer.CONSTANT_FOLDING).
+            optimize(code);
+        Instruction[] ins = code.getInstructions();
+        assertEquals(GOTO, ins[0].getOpcode());
+        assertEquals(taken, ((JumpInstruction) ins[0]).getTarget());
+        assertEquals(2, code.removeUnreachableCode());
+        assertEquals(3, code.size());
+    }
+
+    /**
+     * Test optimizing a whole class with a subset of the rules.
+     */
+    @Test
+    public void testOptimizeClass() {
+        BCClass bc = new Project().loadClass("serp.PeepholeTest");
+        Code pushPop = bc.declareMethod("pushPop", void.class, null).
+            getCode(true);
+        pushPop.nop();
+        pushPop.dup();
+        pushPop.pop();
+        pushPop.vreturn();
+        Code gotoNext = bc.declareMethod("gotoNext", void.class, null).
+            getCode(true);
+        gotoNext.go2().setTarget(gotoNext.vreturn());
+        bc.declareMethod("none", void.class, null).getCode(true).vreturn();
+
+        PeepholeOptimizer optimizer = new PeepholeOptimizer
+            (PeepholeOptimizer.PUSH_POP).addRule(new InstructionPattern().
+            opcode(NOP), new PatternReplacement() {
+                public void replace(Code code, PatternMatch match) {
+                }
+            });
+        Map<BCMethod, Integer> saved = optimizer.optimize(bc);
+        assertEquals(1, saved.size());
+        assertEquals(Integer.valueOf(3), saved.get(bc.getDeclaredMethod
+            ("pushPop")));
+        assertEquals(2, gotoNext.size());
+    }
+
+    private static Code newCode(Class<?> returnType, Class<?> paramType) {
+        BCMethod method = new Project().loadClass("serp.PeepholeTest").
+            declareMethod("test", returnType, new Class[]{ paramType });
+        method.setStatic(true);
+        return method.getCode(true);
+    }
+
+    static void assertOpcodes(Code code, int[] opcodes) {
+        Instruction[] ins = code.getInstructions();
+        assertEquals(opcodes.length, ins.length);
+        for (int i = 0; i < ins.length; i++)
+            assertEquals(opcodes[i], ins[i].getOpcode());
+    }
+}
@@ -8,11 +8,27 @@ import static org.junit.jupiter.api.Assertions.fail;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Stream;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import serp.bytecode.lowlevel.ConstantPool;
+import serp.bytecode.lowlevel.UTF8Entry;
 
 /**
  * Tests the {@link Project} type.
@@ -193,6 +209,26 @@ public class TestProject {
   }
 
 
+  /**
+   * Test loading classes by byte array.
+   */
+  @Test
+  public void testLoadByBytes() throws Exception {
+    byte[] bytes;
+    try(InputStream in=getClass().getResourceAsStream("/TestProject.classz")) {
+      bytes=Project.readFully(in,-1);
+    }
+
+    BCClass bc=_project.loadClass(bytes);
+    BCClass bc2=_project.loadClass(bytes.clone());
+    assertTrue(bc == bc2);
+    assertEquals(getClass().getName(),bc.getName());
+    assertEquals("testName",bc.getDeclaredMethod("testName").getName());
+    assertTrue(bc == _project.loadClass(getClass().getResourceAsStream
+        ("/TestProject.classz")));
+  }
+
+
   /**
    * Test retrieving all loaded classes.
    */
@@ -314,4 +350,147 @@ public class TestProject {
     assertTrue(!bc1.isValid());
     assertEquals(0,_project.getClasses().length);
   }
+
+
+  /**
+   * Test that concurrent loads of the same classes parse each class once
+   * and share a single instance.
+   */
+  @Test
+  public void testConcurrentLoad() throws Exception {
+    final Class[] types=new Class[] { Object.class, String.class, List.class,
+        ArrayList.class, Integer.class, Thread.class, StringBuilder.class,
+        Math.class };
+    final int threads=8;
+    final CountDownLatch start=new CountDownLatch(1);
+    ExecutorService exec=Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<BCClass[]>> results=new ArrayList<>();
+      for(int t=0; t < threads; t++) {
+        final int offset=t;
+        results.add(exec.submit(new Callable<BCClass[]>() {
+          public BCClass[] call() throws Exception {
+            start.await();
+            BCClass[] bcs=new BCClass[types.length];
+            for(int i=0; i < types.length; i++) {
+              // mix the load paths and orders across threads
+              int idx=(i + offset) % types.length;
+              if(offset % 2 == 0)
+                bcs[idx]=_project.loadClass(types[idx]);
+              else
+                bcs[idx]=_project.loadClass(types[idx].getName());
+              bcs[idx].getDeclaredMethods();
+            }
+            return bcs;
+          }
+        }));
+      }
+      start.countDown();
+
+      BCClass[] first=results.get(0).get();
+      for(Future<BCClass[]> result : results) {
+        BCClass[] bcs=result.get();
+        for(int i=0; i < types.length; i++) {
+          assertTrue(first[i] == bcs[i],types[i].getName());
+          assertEquals(types[i].getName(),bcs[i].getName());
+        }
+      }
+      assertEquals(types.length,_project.getClasses().length);
+    }
+    finally {
+      exec.shutdown();
+    }
+  }
+
+  /**
+   * Test bulk loading a directory structure.
+   */
+  @Test
+  public void testLoadAllDirectory() throws Exception {
+    Path dir=Paths.get(Project.class.getProtectionDomain().getCodeSource()
+        .getLocation().toURI());
+    long count;
+    try(Stream<Path> files=Files.walk(dir)) {
+      count=files.filter(f -> f.toString().endsWith(".class")).count();
+    }
+
+    LoadStatistics stats=_project.loadAll(dir);
+    assertTrue(stats.isComplete());
+    assertEquals(count,stats.getEntryCount());
+    assertEquals(count,stats.getClassCount());
+    assertEquals(0,stats.getFailureCount());
+    assertEquals(count,_project.getClasses().length);
+    assertTrue(stats.getByteCount() > 0);
+
+    BCClass bc=_project.loadClass(Project.class);
+    assertEquals(Project.class.getName(),bc.getName());
+    assertEquals("loadAll",bc.getDeclaredMethods("loadAll")[0].getName());
+  }
+
+  /**
+   * Test bulk loading a jar.
+   */
+  @Test
+  public void testLoadAllJar(@TempDir Path tmp) throws Exception {
+    Path jar=tmp.resolve("test.jar");
+    Class[] types=new Class[] { Project.class, BCClass.class, Code.class };
+    try(JarOutputStream out=new JarOutputStream(Files.newOutputStream(jar))) {
+      for(int i=0; i < types.length; i++) {
+        String name=types[i].getName().replace('.','/') + ".class";
+        out.putNextEntry(new JarEntry(name));
+        copy(types[i].getResourceAsStream("/" + name),out);
+      }
+      out.putNextEntry(new JarEntry("serp/Bad.class"));
+      out.write(new byte[] { 1, 2, 3 });
+      out.putNextEntry(new JarEntry("META-INF/versions/9/serp/Foo.class"));
+      copy(Project.class.getResourceAsStream("Project.class"),out);
+    }
+
+    LoadStatistics stats=_project.loadAll(jar,Runnable::run);
+    assertEquals(4,stats.getEntryCount());
+    assertEquals(3,stats.getClassCount());
+    assertEquals(1,stats.getFailureCount());
+    assertTrue(stats.getFailures().containsKey("serp/Bad.class"));
+    for(int i=0; i < types.length; i++)
+      assertTrue(_project.containsClass(types[i]));
+  }
+
+  /**
+   * Test sharing strings between the classes of a project.
+   */
+  @Test
+  public void testInternStrings() {
+    assertTrue(!_project.isInternStrings());
+    assertNull(_project.getStringTable());
+    _project.setInternStrings(true);
+    assertTrue(_project.isInternStrings());
+
+    BCClass bc1=_project.loadClass(Project.class);
+    BCClass bc2=_project.loadClass(BCClass.class);
+    assertTrue(utf8(bc1,"<init>") == utf8(bc2,"<init>"));
+    assertTrue(utf8(bc1,"()V") == utf8(bc2,"()V"));
+    assertTrue(_project.getStringTable().getSharedCount() > 0);
+    assertTrue(_project.getNameCache().getExternalForm("java/lang/Object",
+        false) == _project.getStringTable().intern("java.lang.Object"));
+
+    _project.setInternStrings(false);
+    assertNull(_project.getStringTable());
+  }
+
+  private static String utf8(BCClass bc,String value) {
+    ConstantPool pool=bc.getPool();
+    return ((UTF8Entry)pool.getEntry(pool.findUTF8Entry(value,false)))
+        .getValue();
+  }
+
+  private static void copy(InputStream in,OutputStream out) throws Exception {
+    try {
+      byte[] buf=new byte[4096];
+      for(int read; (read=in.read(buf)) != -1;)
+        out.write(buf,0,read);
+    }
+    finally {
+      in.close();
+    }
+  }
 }
@@ -0,0 +1,222 @@
+package serp.bytecode;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the {@link StackMapTable} attribute and the calculation of its
+ * frames.
+ */
+public class TestStackMapTable {
+    /**
+     * Test that decoded frames are encoded back to the original bytes.
+     */
+    @Test
+    public void testReadWrite() throws IOException {
+        Project project = new Project();
+        project.setComputeFrames(false);
+        BCClass bc = project.loadClass(ArrayList.class);
+
+        BCMethod[] methods = bc.getDeclaredMethods();
+        StackMapTable table;
+        byte[] orig;
+        int tables = 0;
+        for (int i = 0; i < methods.length; i++) {
+            Code code = methods[i].getCode(false);
+            table = (code == null) ? null : code.getStackMapTable(false);
+            if (table == null)
+                continue;
+            orig = toByteArray(table);
+            assertTrue(table.getFrames().length > 0);
+            assertArrayEquals(orig, toByteArray(table));
+            tables++;
+        }
+        assertTrue(tables > 0);
+    }
+
+    /**
+     * Test calculating the frames of a method with a conditional branch.
+     */
+    @Test
+    public void testCalculate() {
+        BCClass bc = newClass();
+        BCMethod method = bc.declareMethod("pick", Number.class,
+            new Class[]{ Integer.class, Long.class, boolean.class });
+        method.setStatic(true);
+        Code code = method.getCode(true);
+        code.iload().setParam(2);
+        JumpInstruction ifeq = code.ifeq();
+        code.aload().setParam(0);
+        JumpInstruction go2 = code.go2();
+        ifeq.setTarget(code.aload().setParam(1));
+        go2.setTarget(code.areturn());
+        code.calculateMaxStack();
+        code.calculateMaxLocals();
+        code.calculateStackMap();
+
+        StackMapTable table = code.getStackMapTable(false);
+        assertNotNull(table);
+        StackMapFrame[] frames = table.getFrames();
+        assertEquals(2, frames.length);
+
+        VerificationType[] locals = new VerificationType[]{
+            object(bc, "java/lang/Integer"), object(bc, "java/lang/Long"),
+            VerificationType.INTEGER,
+        };
+        assertEquals(ifeq.getTarget(), frames[0].getInstruction());
+        assertArrayEquals(locals, frames[0].getLocals());
+        assertEquals(0, frames[0].getStack().length);
+        assertEquals(go2.getTarget(), frames[1].getInstruction());
+        assertArrayEquals(locals, frames[1].getLocals());
+        assertArrayEquals(new VerificationType[]{
+            object(bc, "java/lang/Number") }, frames[1].getStack());
+
+        // frames survive a round trip through bytecode
+        BCClass copy = new Project().loadClass(new ByteArrayInputStream
+            (bc.toByteArray()));
+        table = copy.getDeclaredMethod("pick").getCode(false).
+            getStackMapTable(false);
+        assertEquals(2, table.getFrames().length);
+        assertEquals(frames[1].getPc(), table.getFrames()[1].getPc());
+    }
+
+    /**
+     * Test that straight-line code needs no table.
+     */
+    @Test
+    public void testNoFrames() {
+        BCClass bc = newClass();
+        BCMethod method = bc.declareMethod("id", int.class,
+            new Class[]{ int.class });
+        method.setStatic(true);
+        Code code = method.getCode(true);
+        code.getStackMapTable(true);
+        code.iload().setParam(0);
+        code.ireturn();
+        code.calculateStackMap();
+        assertNull(code.getStackMapTable(false));
+    }
+
+    /**
+     * Test the common superclass resolution of the class hierarchy.
+     */
+    @Test
+    public void testClassHierarchy() {
+        ClassHierarchy hier = new ClassHierarchy(new Project(), null);
+        assertEquals("java/lang/Number", hier.getCommonSuperclass
+            ("java/lang/Integer", "java/lang/Long"));
+        assertEquals("java/lang/Object", hier.getCommonSuperclass
+            ("java/lang/Integer", "java/lang/Comparable"));
+        assertEquals("[Ljava/lang/Number;", hier.getCommonSuperclass
+            ("[Ljava/lang/Integer;", "[Ljava/lang/Long;"));
+        assertEquals("java/lang/Object", hier.getCommonSuperclass
+            ("[I", "[J"));
+        assertEquals("java/lang/Object", hier.getCommonSuperclass
+            ("serp/Missing", "java/lang/Object"));
+        assertThrows(IllegalStateException.class,
+            () -> hier.getCommonSuperclass("serp/Missing", "java/lang/Long"));
+    }
+
+    /**
+     * Test that frames aren't guessed at for classes the hierarchy can't
+     * find, and that code that is only read keeps its frames.
+     */
+    @Test
+    public void testUnresolvableType() {
+        BCClass bc = newClass();
+        bc.setMajorVersion(52);
+        BCMethod unused = bc.declareMethod("unused", void.class, null);
+        unused.setStatic(true);
+        unused.getCode(true).vreturn();
+        BCMethod method = bc.declareMethod("pick", Object.class,
+            new Class[]{ boolean.class });
+        method.setStatic(true);
+        Code code = method.getCode(true);
+        code.iload().setParam(0);
+        JumpInstruction ifeq = code.ifeq();
+        code.constant().setNull();
+        code.checkcast().setType("serp.Missing1");
+        JumpInstruction go2 = code.go2();
+        ifeq.setTarget(code.constant().setNull());
+        code.checkcast().setType("serp.Missing2");
+        go2.setTarget(code.areturn());
+        code.calculateMaxStack();
+        code.calculateMaxLocals();
+        assertThrows(IllegalStateException.class, () -> bc.toByteArray());
+
+        // write the class with a hierarchy that knows the missing classes
+        final Project project = bc.getProject();
+        project.setClassHierarchy(new ClassHierarchy(project, null) {
+            public String getSuperclassName(String name) {
+                if (name.startsWith("serp/Missing"))
+                    return "java/lang/Object";
+                return super.getSuperclassName(name);
+            }
+
+            public boolean isInterface(String name) {
+                return !name.startsWith("serp/Missing")
+                    && super.isInterface(name);
+            }
+        });
+        byte[] bytes = bc.toByteArray();
+
+        // reading the code back doesn't recompute its frames, but editing
+        // it does
+        BCClass copy = new Project().loadClass(new ByteArrayInputStream
+            (bytes));
+        Code read = copy.getDeclaredMethod("pick").getCode(false);
+        read.getInstructions();
+        assertArrayEquals(bytes, copy.toByteArray());
+
+        // nor does renumbering its pool indexes when entries are removed
+        Project compacting = new Project();
+        compacting.setRemoveUnusedEntries(true);
+        BCClass compacted = compacting.loadClass(new ByteArrayInputStream
+            (bytes));
+        Code pick = compacted.getDeclaredMethod("pick").getCode(false);
+        int index = ((ClassInstruction) pick.getInstructions()[3]).
+            getTypeIndex();
+        compacted.removeDeclaredMethod("unused");
+        byte[] compactedBytes = compacted.toByteArray();
+        assertTrue(((ClassInstruction) pick.getInstructions()[3]).
+            getTypeIndex() < index);
+        assertTrue(!pick.isModified());
+        assertArrayEquals(compactedBytes, compacted.toByteArray());
+
+        read.beforeFirst();
+        read.nop();
+        assertThrows(IllegalStateException.class, () -> copy.toByteArray());
+    }
+
+    private static byte[] toByteArray(Attribute attr) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int length = attr.getLength();
+        attr.write(new DataOutputStream(out), length);
+        assertEquals(length, out.size());
+        return out.toByteArray();
+    }
+
+    private static BCClass newClass() {
+        BCClass bc = new Project().loadClass("serp.StackMapTest");
+        bc.setMajorVersion(Constants.MAJOR_VERSION_JAVA6);
+        bc.setMinorVersion(Constants.MINOR_VERSION_JAVA6);
+        return bc;
+    }
+
+    private static VerificationType object(BCClass bc, String name) {
+        return VerificationType.object(bc.getPool().findClassEntry(name,
+            false));
+    }
+}
@@ -0,0 +1,107 @@
+package serp.bytecode.lowlevel;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests the {@link ArchiveScanner} type.
+ */
+public class TestArchiveScanner {
+    /**
+     * Test reading stored and deflated entries from an archive.
+     */
+    @Test
+    public void testScan(@TempDir Path tmp) throws IOException {
+        byte[][] classes = new byte[][] {
+            read(ConstantPoolTable.class), read(ArchiveScanner.class),
+            read(TestArchiveScanner.class) };
+        Path jar = tmp.resolve("test.jar");
+        try (ZipOutputStream out = new ZipOutputStream
+            (Files.newOutputStream(jar))) {
+            out.putNextEntry(new ZipEntry("dir/"));
+            for (int i = 0; i < classes.length; i++) {
+                ZipEntry entry = new ZipEntry("dir/C" + i + ".class");
+                if (i % 2 == 0) {
+                    CRC32 crc = new CRC32();
+                    crc.update(classes[i]);
+                    entry.setMethod(ZipEntry.STORED);
+                    entry.setSize(classes[i].length);
+                    entry.setCompressedSize(classes[i].length);
+                    entry.setCrc(crc.getValue());
+                }
+                out.putNextEntry(entry);
+                out.write(classes[i]);
+            }
+        }
+
+        try (ArchiveScanner scanner = new ArchiveScanner(jar)) {
+            assertEquals(classes.length + 1, scanner.size());
+            assertEquals("dir/", scanner.getName(0));
+            assertEquals(0, scanner.getContents(0).remaining());
+            for (int i = 0; i < classes.length; i++) {
+                assertEquals("dir/C" + i + ".class", scanner.getName(i + 1));
+                assertEquals(classes[i].length, scanner.getSize(i + 1));
+                assertEquals(i % 2 == 0, scanner.isStored(i + 1));
+
+                ByteBuffer buf = scanner.getContents(i + 1);
+                byte[] b = new byte[buf.remaining()];
+                buf.duplicate().get(b);
+                assertTrue(Arrays.equals(classes[i], b));
+
+                ConstantPoolTable table = new ConstantPoolTable(buf);
+                ConstantPoolTable expected = new ConstantPoolTable(classes[i]);
+                assertEquals(expected.getEndIndex(), table.getEndIndex());
+                assertEquals(className(expected), className(table));
+            }
+        }
+    }
+
+    /**
+     * Test that files that are not archives are rejected.
+     */
+    @Test
+    public void testNotArchive(@TempDir Path tmp) throws IOException {
+        Path file = tmp.resolve("test.jar");
+        Files.write(file, read(ArchiveScanner.class));
+        boolean failed = false;
+        try {
+            new ArchiveScanner(file).close();
+        } catch (IOException ioe) {
+            failed = true;
+        }
+        assertTrue(failed);
+    }
+
+    /**
+     * Return the name of the class described by the given table.
+     */
+    private static String className(ConstantPoolTable table) {
+        int cls = table.get(table.readUnsignedShort(table.getEndIndex() + 2));
+        return table.readString(table.get(table.readUnsignedShort(cls)));
+    }
+
+    private static byte[] read(Class<?> type) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (InputStream in = type.getResourceAsStream
+            (type.getSimpleName() + ".class")) {
+            byte[] buf = new byte[4096];
+            for (int r; (r = in.read(buf)) != -1;)
+                bytes.write(buf, 0, r);
+        }
+        return bytes.toByteArray();
+    }
+}
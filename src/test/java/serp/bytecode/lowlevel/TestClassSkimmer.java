@@ -0,0 +1,144 @@
+package serp.bytecode.lowlevel;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import serp.bytecode.BCClass;
+import serp.bytecode.BCField;
+import serp.bytecode.BCMethod;
+import serp.bytecode.Project;
+
+/**
+ * Tests the {@link ClassSkimmer} type.
+ */
+public class TestClassSkimmer {
+    /**
+     * Test reading the class header.
+     */
+    @Test
+    public void testHeader() throws IOException {
+        ClassSkimmer skimmer = new ClassSkimmer(read(Skimmed.class));
+        BCClass bc = new Project().loadClass(Skimmed.class);
+        assertEquals(bc.getAccessFlags(), skimmer.getAccessFlags());
+        assertEquals("serp/bytecode/lowlevel/TestClassSkimmer$Skimmed",
+            skimmer.getClassName());
+        assertEquals("java/lang/Object", skimmer.getSuperclassName());
+        assertEquals(Arrays.asList("java/lang/Runnable",
+            "java/io/Serializable"),
+            Arrays.asList(skimmer.getInterfaceNames()));
+
+        assertNull(new ClassSkimmer(read(Object.class)).getSuperclassName());
+    }
+
+    /**
+     * Test streaming members and annotations to a visitor.
+     */
+    @Test
+    public void testSkim() throws IOException {
+        final List<String> parts = new ArrayList<>();
+        new ClassSkimmer(read(Skimmed.class)).skim(new SkimVisitor() {
+            public void visitClass(int access, String name, String sup) {
+                parts.add("class " + name + " " + sup);
+            }
+
+            public void visitInterface(String name) {
+                parts.add("interface " + name);
+            }
+
+            public void visitField(int access, String name, String desc) {
+                parts.add("field " + name + " " + desc);
+            }
+
+            public void visitMethod(int access, String name, String desc) {
+                parts.add("method " + name + " " + desc);
+            }
+
+            public void visitAnnotation(String type, boolean runtime) {
+                parts.add("annotation " + type + " " + runtime);
+            }
+
+            public void visitEnd() {
+                parts.add("end");
+            }
+        });
+
+        List<String> expected = new ArrayList<>();
+        expected.add("class serp/bytecode/lowlevel/TestClassSkimmer$Skimmed "
+            + "java/lang/Object");
+        expected.add("interface java/lang/Runnable");
+        expected.add("interface java/io/Serializable");
+        BCClass bc = new Project().loadClass(Skimmed.class);
+        BCField[] fields = bc.getDeclaredFields();
+        for (int i = 0; i < fields.length; i++) {
+            expected.add("field " + fields[i].getName() + " "
+                + fields[i].getDescriptor());
+            if (fields[i].getName().equals("_value"))
+                expected.add("annotation Lserp/bytecode/lowlevel/"
+                    + "TestClassSkimmer$Invisible; false");
+        }
+        BCMethod[] methods = bc.getDeclaredMethods();
+        for (int i = 0; i < methods.length; i++) {
+            expected.add("method " + methods[i].getName() + " "
+                + methods[i].getDescriptor());
+            if (methods[i].getName().equals("run")) {
+                expected.add("annotation Ljava/lang/Deprecated; true");
+                expected.add("annotation Lserp/bytecode/lowlevel/"
+                    + "TestClassSkimmer$Invisible; false");
+            }
+        }
+        expected.add("annotation Lserp/bytecode/lowlevel/"
+            + "TestClassSkimmer$Visible; true");
+        expected.add("end");
+        assertEquals(expected, parts);
+    }
+
+    private static byte[] read(Class<?> type) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (InputStream in = type.getResourceAsStream
+            ("/" + type.getName().replace('.', '/') + ".class")) {
+            byte[] buf = new byte[4096];
+            for (int r; (r = in.read(buf)) != -1;)
+                bytes.write(buf, 0, r);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Retention(RetentionPolicy.RUNTIME)
+    public static @interface Visible {
+        String[] value();
+
+        Invisible nested();
+    }
+
+    @Retention(RetentionPolicy.CLASS)
+    public static @interface Invisible {
+        RetentionPolicy value() default RetentionPolicy.CLASS;
+    }
+
+    @Visible(value = { "a", "b" }, nested = @Invisible(RetentionPolicy.SOURCE))
+    public static class Skimmed implements Runnable, Serializable {
+        @Invisible
+        private int _value;
+        private String _name;
+
+        @Deprecated
+        @Invisible(RetentionPolicy.RUNTIME)
+        public void run() {
+        }
+
+        public int getValue(long factor) {
+            return _value;
+        }
+    }
+}
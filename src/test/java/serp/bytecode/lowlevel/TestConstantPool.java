@@ -4,6 +4,8 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
+import java.util.BitSet;
+
 import org.junit.jupiter.api.Test;
 
 /**
@@ -70,20 +72,39 @@ public class TestConstantPool {
         assertEquals(4, _pool.size());
         assertTrue(_pool.removeEntry(_longEntry));
         assertEquals(2, _pool.size());
+        assertTrue(!_pool.isCompact());
+        assertEquals(_intEntry, _pool.getEntry(1));
+        assertEquals(_utf8Entry, _pool.getEntry(4));
+        assertEquals(4, _pool.findUTF8Entry("4", false));
+        assertEquals(0, _pool.findLongEntry(2L, false));
+        try {
+            _pool.getEntry(2);
+            fail("Removed index");
+        } catch (IndexOutOfBoundsException ioobe) {
+        }
+
+        int[] map = _pool.compact();
+        assertTrue(_pool.isCompact());
+        assertEquals(1, map[1]);
+        assertEquals(0, map[2]);
+        assertEquals(2, map[4]);
         assertEquals(_intEntry, _pool.getEntry(1));
         assertEquals(_utf8Entry, _pool.getEntry(2));
         assertEquals(1, _pool.findIntEntry(1, false));
         assertEquals(2, _pool.findUTF8Entry("4", false));
         assertEquals(0, _pool.findLongEntry(2L, false));
         assertTrue(!_pool.removeEntry(_longEntry));
+        assertEquals(null, _pool.compact());
 
         assertTrue(_pool.removeEntry(_intEntry));
         assertEquals(1, _pool.size());
+        _pool.compact();
         assertEquals(_utf8Entry, _pool.getEntry(1));
         assertEquals(0, _pool.findIntEntry(1, false));
         assertEquals(1, _pool.findUTF8Entry("4", false));
         assertTrue(_pool.removeEntry(_utf8Entry));
         assertEquals(0, _pool.size());
+        _pool.compact();
         try {
             _pool.getEntry(1);
             fail("Invalid index");
@@ -92,6 +113,59 @@ public class TestConstantPool {
         assertEquals(0, _pool.findUTF8Entry("4", false));
     }
 
+    /**
+     * Tests that compaction renumbers the references between entries.
+     */
+    @Test
+    public void testCompact() {
+        int cls = _pool.findClassEntry("Foo", true);
+        _pool.addEntry(_longEntry);
+        int method = _pool.findMethodEntry("Foo", "bar", "()V", true);
+        UTF8Entry name = ((ClassEntry) _pool.getEntry(cls)).getNameEntry();
+        MethodEntry entry = (MethodEntry) _pool.getEntry(method);
+
+        assertTrue(_pool.removeEntry(_longEntry));
+        assertEquals(method, _pool.findMethodEntry("Foo", "bar", "()V",
+            false));
+        int[] map = _pool.compact();
+        assertEquals(map[method], entry.getIndex());
+        assertEquals(method - 2, entry.getIndex());
+        assertEquals(name, ((ClassEntry) _pool.getEntry(cls)).getNameEntry());
+        assertEquals("bar", entry.getNameAndTypeEntry().getNameEntry().
+            getValue());
+        assertEquals("()V", entry.getNameAndTypeEntry().getDescriptorEntry().
+            getValue());
+        assertEquals(entry.getIndex(), _pool.findMethodEntry("Foo", "bar",
+            "()V", false));
+
+        // references to removed entries become 0
+        ClassEntry clsEntry = (ClassEntry) _pool.getEntry(cls);
+        int nameIndex = name.getIndex();
+        assertTrue(_pool.removeEntry(name));
+        map = _pool.compact();
+        assertEquals(0, map[nameIndex]);
+        assertEquals(0, clsEntry.getNameIndex());
+    }
+
+    /**
+     * Tests removing the entries that are not reachable from used ones.
+     */
+    @Test
+    public void testRemoveUnused() {
+        int method = _pool.findMethodEntry("Foo", "bar", "()V", true);
+        _pool.addEntry(_longEntry);
+        _pool.addEntry(_utf8Entry);
+        BitSet used = new BitSet();
+        used.set(method);
+        assertEquals(2, _pool.removeUnusedEntries(used));
+        assertEquals(0, _pool.indexOf(_longEntry));
+        assertEquals(0, _pool.indexOf(_utf8Entry));
+        _pool.compact();
+        assertEquals(6, _pool.size());
+        assertEquals(method, _pool.findMethodEntry("Foo", "bar", "()V",
+            false));
+    }
+
     /**
      * Tests mutating entries.
      */
@@ -115,6 +189,42 @@ public class TestConstantPool {
         assertEquals(4, _pool.findUTF8Entry("foo", false));
     }
 
+    /**
+     * Tests that entries stay findable as the pool grows and as other
+     * entries are removed or mutated.
+     */
+    @Test
+    public void testFindLarge() {
+        int[] ints = new int[1000];
+        int[] classes = new int[1000];
+        for (int i = 0; i < ints.length; i++) {
+            ints[i] = _pool.findIntEntry(i * 7, true);
+            classes[i] = _pool.findClassEntry("C" + i, true);
+        }
+        for (int i = 0; i < ints.length; i += 2) {
+            _pool.removeEntry(_pool.getEntry(ints[i]));
+            _pool.removeEntry(_pool.getEntry(classes[i]));
+        }
+        for (int i = 0; i < ints.length; i++) {
+            assertEquals(i % 2 == 0 ? 0 : ints[i],
+                _pool.findIntEntry(i * 7, false));
+            assertEquals(i % 2 == 0 ? 0 : classes[i],
+                _pool.findClassEntry("C" + i, false));
+        }
+
+        ClassEntry entry = (ClassEntry) _pool.getEntry(classes[1]);
+        entry.setNameIndex(_pool.findUTF8Entry("C0", false));
+        assertEquals(0, _pool.findClassEntry("C1", false));
+        assertEquals(classes[1], _pool.findClassEntry("C0", false));
+
+        _pool.compact();
+        IntEntry ie;
+        for (int i = 1; i < ints.length; i += 2) {
+            ie = (IntEntry) _pool.getEntry(_pool.findIntEntry(i * 7, false));
+            assertEquals(i * 7, ie.getValue());
+        }
+    }
+
     /**
      * Tests finding the index of entries.
      */
@@ -131,6 +241,8 @@ public class TestConstantPool {
         _pool.removeEntry(_longEntry);
         assertEquals(1, _pool.indexOf(_intEntry));
         assertEquals(0, _pool.indexOf(_longEntry));
+        assertEquals(4, _pool.indexOf(_utf8Entry));
+        _pool.compact();
         assertEquals(2, _pool.indexOf(_utf8Entry));
     }
 
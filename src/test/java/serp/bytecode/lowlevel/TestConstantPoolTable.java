@@ -0,0 +1,50 @@
+package serp.bytecode.lowlevel;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests the {@link ConstantPoolTable} type.
+ */
+public class TestConstantPoolTable {
+    /**
+     * Test decoding of modified UTF-8 strings.
+     */
+    @Test
+    public void testReadString() throws IOException {
+        String[] values = new String[] { "", "java/lang/Object", "café",
+            "nul\u0000byte", "日本語", "smile 😀",
+            "mixed/é/ascii/ࠀ/" };
+        for (int i = 0; i < values.length; i++) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(0);
+            out.writeUTF(values[i]);
+            assertEquals(values[i], ConstantPoolTable.readString
+                (bytes.toByteArray(), 1));
+        }
+    }
+
+    /**
+     * Test reading numeric values.
+     */
+    @Test
+    public void testReadNumbers() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeShort(0xFFFE);
+        out.writeInt(-2);
+        out.writeLong(0x12345678FFFFFFFEL);
+        out.writeLong(-1L);
+        byte[] b = bytes.toByteArray();
+        assertEquals(0xFFFE, ConstantPoolTable.readUnsignedShort(b, 0));
+        assertEquals(-2, ConstantPoolTable.readInt(b, 2));
+        assertEquals(0x12345678FFFFFFFEL, ConstantPoolTable.readLong(b, 6));
+        assertEquals(-1L, ConstantPoolTable.readLong(b, 14));
+    }
+}